@@ -13,7 +13,11 @@ public interface ConnectFourProtocol {
      * Request sent from the server to the client after the client initially
      * opens a {@link java.net.Socket} connection to the server. This is the
      * first part of the handshake used to establish that the client
-     * understands the {@link ConnectFourProtocol protocol}.
+     * understands the {@link ConnectFourProtocol protocol}. The request
+     * includes the number of rows and columns in the board and the length of
+     * line needed to win.<P>
+     *
+     * For example (for the standard board): CONNECT 6 7 4\n
      */
     public static final String CONNECT = "CONNECT";
 
@@ -64,4 +68,148 @@ public interface ConnectFourProtocol {
      * client and the connection is terminated (as is the game).
      */
     public static final String ERROR = "ERROR";
+
+    /**
+     * Request sent from the client to the server, as the very first thing
+     * after opening a {@link java.net.Socket} connection, to play a single
+     * game over it, optionally with the name the player is to be known by,
+     * which must not contain spaces; otherwise the player is known by the
+     * address they connected from. The server answers with a
+     * {@link #CONNECT} request once the game has a seat for it. A client
+     * that says nothing is hung up on after a while.<P>
+     *
+     * For example: PLAY alice\n
+     */
+    public static final String PLAY = "PLAY";
+
+    /**
+     * Request sent from a shard router to the server, ahead of the first
+     * line of a client it passes on, with the address the client connected
+     * from, so that the server knows the players by it rather than by the
+     * router's address. Only a server that is a shard takes it.<P>
+     *
+     * For example: FROM 10.0.0.7\n
+     */
+    public static final String FROM = "FROM";
+
+    /**
+     * Request sent from the client to the server, as the very first thing
+     * after opening a {@link java.net.Socket} connection, to play many games
+     * over that one connection, optionally with a name for the players as
+     * for {@link #PLAY}. The server answers with MULTIPLEX instead of a
+     * {@link #CONNECT} request.<P>
+     *
+     * From then on every message in either direction starts with the id of
+     * the game it belongs to, and is otherwise the same as on a connection
+     * for a single game. The client picks the ids and starts a game by
+     * sending {@link #CONNECT} with a new id; the server answers with the
+     * usual {@link #CONNECT} request once the game has a seat for it. Once a
+     * game is over its id is forgotten.<P>
+     *
+     * For example (to move in the 3rd column of game 17): 17 MOVE 3\n
+     */
+    public static final String MULTIPLEX = "MULTIPLEX";
+
+    /**
+     * Request sent from the client to the server, as the very first thing
+     * after opening a {@link java.net.Socket} connection, to have positions
+     * evaluated instead of playing games. The server answers with BATCH
+     * followed by the number of rows and columns in its board and the length
+     * of line needed to win, e.g. BATCH 6 7 4\n. The client then sends
+     * {@link #EVALUATE} requests for as long as it likes.
+     */
+    public static final String BATCH = "BATCH";
+
+    /**
+     * Request sent from a {@link #BATCH} client to the server with the
+     * number of positions that follow, one per line, and optionally how many
+     * moves ahead to search. Each position is the columns of the moves made
+     * from an empty board, separated by spaces; an empty line is the empty
+     * board. The server answers with one {@link #EVALUATION} per position,
+     * in the same order, then {@link #BATCH_DONE}. A negative count or depth
+     * is an {@link #ERROR}, and the server searches no deeper than a
+     * maximum of its own, however deep it is asked to.<P>
+     *
+     * For example (two positions, searching 8 moves ahead):
+     * EVALUATE 2 8\n3 3 4\n0 1\n
+     */
+    public static final String EVALUATE = "EVALUATE";
+
+    /**
+     * Response sent from the server to a {@link #BATCH} client for each
+     * position of an {@link #EVALUATE} request. It includes the score for
+     * the player to move (positive if they can force a win, the bigger the
+     * sooner, and 0 if the game is drawn or undecided at the depth
+     * searched), the best column to play (-1 if the game is over) and how
+     * many positions were searched. A position that is not a legal game
+     * gets INVALID and the reason instead.<P>
+     *
+     * For example: EVALUATION 36 2 662\n or EVALUATION INVALID Column full!\n
+     */
+    public static final String EVALUATION = "EVALUATION";
+
+    /**
+     * Response sent from the server to a {@link #BATCH} client after the
+     * last {@link #EVALUATION} of an {@link #EVALUATE} request. It includes
+     * the number of positions, how long the batch took in microseconds from
+     * the request arriving to the last evaluation being sent, and how many
+     * positions were searched in all.<P>
+     *
+     * For example: BATCH_DONE 2 1830 675\n
+     */
+    public static final String BATCH_DONE = "BATCH_DONE";
+
+    /**
+     * Request sent from the server to the client when the server is being
+     * restarted in the middle of the game. The game has been saved; it
+     * includes a key that the client can {@link #RESUME} it with once the
+     * server is back. The connection is then closed.<P>
+     *
+     * For example: SUSPENDED 9f86d081884c7d65\n
+     */
+    public static final String SUSPENDED = "SUSPENDED";
+
+    /**
+     * Request sent from the client to the server, as the very first thing
+     * after opening a {@link java.net.Socket} connection, to carry on a game
+     * that was {@link #SUSPENDED}, or whose connection was lost, with the
+     * key the server gave in {@link #SUSPENDED} or {@link #GAME_KEY}. The
+     * server answers with the usual {@link #CONNECT} request, then a
+     * {@link #MOVE_MADE} for every move made so far, and once the opponent
+     * is back too the game goes on as before. A game whose connection was
+     * lost while the server stayed up is held for a couple of minutes, the
+     * opponent playing on meanwhile, and then abandoned, as is a game that
+     * was suspended whose players don't both come back in that time. A key
+     * that the server does not know gets an {@link #ERROR}. The key of a game on a shard starts with
+     * the shard's id and a dash. The key may be followed by the player's
+     * name, as for {@link #PLAY}.<P>
+     *
+     * For example: RESUME 9f86d081884c7d65\n or
+     * RESUME 9f86d081884c7d65 alice\n
+     */
+    public static final String RESUME = "RESUME";
+
+    /**
+     * Request sent from the server to the client as a game starts, if the
+     * server keeps snapshots of its games. It includes a key that the client
+     * can {@link #RESUME} the game with should the connection to the server
+     * be lost, e.g. because the network dropped it, or the server died and
+     * was restarted.<P>
+     *
+     * For example: GAME_KEY 9f86d081884c7d65\n
+     */
+    public static final String GAME_KEY = "GAME_KEY";
+
+    /**
+     * Request sent from a shard router to the server, as the very first
+     * thing after opening a {@link java.net.Socket} connection, to hear how
+     * busy the server is. The server answers with LOAD followed by the
+     * number of games it has in progress and whether a player is waiting
+     * for an opponent (1 or 0), then the id the server goes by as a shard,
+     * which the keys of its games start with, and again every so often
+     * until the router hangs up or the server starts shutting down.<P>
+     *
+     * For example (37 games and a player waiting, on shard 2): LOAD 37 1 2\n
+     */
+    public static final String LOAD = "LOAD";
 }
@@ -0,0 +1,213 @@
+package connectfour;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+
+/**
+ * Optional TLS for the connections between clients and the server. It is
+ * off unless the JVM is started with -Dconnectfour.tls=true, or a context
+ * is given to {@link #use(SSLContext)}; then the server listens with an
+ * SSLServerSocket and the clients connect with SSLSockets.<P>
+ *
+ * One {@link SSLContext} is shared by every connection in the process, so
+ * its session caches are too: a client that connects to the same server
+ * again resumes its last session, which skips the key exchange and
+ * certificate checks of a full handshake, and each short game no longer
+ * pays for one. By default it is the JVM's default context, which takes
+ * its keys and trusted certificates from the usual javax.net.ssl.keyStore
+ * and javax.net.ssl.trustStore properties. A self-signed key for trying it
+ * out locally can be made with:<P>
+ *
+ * keytool -genkeypair -keyalg EC -alias connectfour -dname CN=localhost
+ * -ext SAN=dns:localhost -validity 365 -storetype PKCS12 -keystore connectfour.p12
+ * -storepass changeit<P>
+ *
+ * and the server started with -Djavax.net.ssl.keyStore=connectfour.p12
+ * -Djavax.net.ssl.keyStorePassword=changeit, and the clients with the same
+ * file as their trustStore. Clients check that the certificate is for the
+ * host they connect to, so they must connect to localhost by that name.
+ */
+public class ConnectFourTls {
+    /** the system property that turns TLS on */
+    public static final String PROPERTY = "connectfour.tls";
+
+    /** how many sessions each side of the context remembers */
+    private static final int SESSION_CACHE_SIZE = 20_000;
+    /** how long a session can be resumed for, in seconds */
+    private static final int SESSION_SECONDS = 24 * 60 * 60;
+
+    /** whether connections use TLS */
+    private static boolean on = Boolean.getBoolean(PROPERTY);
+
+    /** the context every connection shares; made when first needed */
+    private static SSLContext context;
+
+    /**
+     * Not made; all static.
+     */
+    private ConnectFourTls() {
+    }
+
+    /**
+     * @return whether connections made from now on use TLS
+     */
+    public static synchronized boolean isEnabled() {
+        return on;
+    }
+
+    /**
+     * Have connections made from now on use TLS with the given context,
+     * instead of the default one, or not use TLS at all.
+     *
+     * @param context the context, or null for plain connections
+     */
+    public static synchronized void use(SSLContext context) {
+        on = context != null;
+        ConnectFourTls.context = context == null ? null : cached(context);
+    }
+
+    /**
+     * @return the context every connection shares
+     * @throws ConnectFourException if there is no default context, e.g.
+     * because the key store can't be read
+     */
+    public static synchronized SSLContext getContext()
+            throws ConnectFourException {
+        if (context == null) {
+            try {
+                context = cached(SSLContext.getDefault());
+            }
+            catch (GeneralSecurityException e) {
+                throw new ConnectFourException(e);
+            }
+        }
+        return context;
+    }
+
+    /**
+     * Size a context's session caches for many clients coming back often.
+     *
+     * @param context the context
+     * @return the context
+     */
+    private static SSLContext cached(SSLContext context) {
+        for (SSLSessionContext sessions : new SSLSessionContext[] {
+                context.getClientSessionContext(),
+                context.getServerSessionContext()}) {
+            sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+            sessions.setSessionTimeout(SESSION_SECONDS);
+        }
+        return context;
+    }
+
+    /**
+     * Make a context that uses the key in a PKCS12 key store, and trusts
+     * the certificates in it, such as one made with keytool as above.
+     *
+     * @param keyStore the key store
+     * @param password its password
+     * @return the context
+     * @throws ConnectFourException if the key store can't be read
+     */
+    public static SSLContext fromKeyStore(Path keyStore, char[] password)
+            throws ConnectFourException {
+        try (InputStream in = Files.newInputStream(keyStore)) {
+            KeyStore keys = KeyStore.getInstance("PKCS12");
+            keys.load(in, password);
+            KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(
+                    KeyManagerFactory.getDefaultAlgorithm());
+            keyManagers.init(keys, password);
+            TrustManagerFactory trustManagers = TrustManagerFactory
+                    .getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagers.init(keys);
+            SSLContext context = SSLContext.getInstance("TLS");
+            context.init(keyManagers.getKeyManagers(),
+                    trustManagers.getTrustManagers(), null);
+            return context;
+        }
+        catch (IOException | GeneralSecurityException e) {
+            throw new ConnectFourException(e);
+        }
+    }
+
+    /**
+     * Listen for clients, with TLS if it is on.
+     *
+     * @param port the port to listen on
+     * @return the server socket
+     * @throws IOException if it can't be opened
+     * @throws ConnectFourException if TLS is on but there is no context
+     */
+    public static ServerSocket listen(int port)
+            throws IOException, ConnectFourException {
+        return isEnabled() ?
+                getContext().getServerSocketFactory().createServerSocket(port) :
+                new ServerSocket(port);
+    }
+
+    /**
+     * Connect to a server, with TLS if it is on. A TLS connection has
+     * finished its handshake, resuming a session if it can, by the time
+     * this returns, and the server's certificate has been checked to be
+     * for the host, as a browser checks it. Nagle's algorithm is off from the start, as otherwise
+     * the handshake's small writes wait on delayed acknowledgements.<P>
+     *
+     * Under TLS 1.3 the server sends the ticket to resume the session with
+     * after the handshake, and it is taken in with the first read; a client
+     * that hangs up without reading anything can't resume.
+     *
+     * @param host the server's host
+     * @param port the server's port
+     * @return the socket
+     * @throws IOException if it can't connect, or the handshake fails
+     */
+    public static Socket connect(String host, int port) throws IOException {
+        if (!isEnabled()) {
+            return new Socket(host, port);
+        }
+        SSLContext context;
+        try {
+            context = getContext();
+        }
+        catch (ConnectFourException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        Socket plain = new Socket();
+        SSLSocket socket;
+        try {
+            plain.setTcpNoDelay(true);
+            plain.connect(new InetSocketAddress(host, port));
+            // layered with the host's name, for SNI and the name check
+            socket = (SSLSocket) context.getSocketFactory().createSocket(
+                    plain, host, port, true);
+        }
+        catch (IOException e) {
+            plain.close();
+            throw e;
+        }
+        try {
+            SSLParameters parameters = socket.getSSLParameters();
+            parameters.setEndpointIdentificationAlgorithm("HTTPS");
+            socket.setSSLParameters(parameters);
+            socket.startHandshake();
+        }
+        catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+}
@@ -0,0 +1,184 @@
+package connectfour.bot;
+
+import connectfour.ConnectFourException;
+import connectfour.client.ConnectFourBoard;
+import connectfour.client.ConnectFourMultiplexClient;
+import connectfour.client.ConnectFourNetworkClient;
+import connectfour.client.Observer;
+import connectfour.model.BitBoard;
+import connectfour.model.GridSnapshot;
+import connectfour.model.Heuristic;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A headless player for one game. It observes its {@link ConnectFourBoard}
+ * like the GUI and PTUI do, but instead of asking a person it picks a random
+ * valid column as soon as the server asks for a move, or, if told to
+ * {@link #useHeuristic(int) use a heuristic}, looks a few moves ahead. The
+ * time from sending a move to seeing the server's echo of it is recorded as
+ * the move latency.
+ */
+public class ConnectFourBot implements Observer<ConnectFourBoard> {
+    /** the model */
+    private final ConnectFourBoard board;
+    /** connection to the server */
+    private final ConnectFourNetworkClient client;
+    /** how long to "think" before each move, in milliseconds */
+    private final long thinkMillis;
+    /** where to record what happened */
+    private final LoadStatistics stats;
+    /** released once the game is over, however it ended */
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    /** when the pending move was sent, in nanoseconds; -1 if none */
+    private long sentAt = -1;
+    /** how many moves ahead to look; 0 to play at random */
+    private int searchDepth;
+    /** the heuristic for the board being played on, made when first needed */
+    private Heuristic heuristic;
+
+    /**
+     * Connect a new bot to the server. Like the other clients, this blocks
+     * until the server's CONNECT message arrives.
+     *
+     * @param host the name of the host running the server program
+     * @param port the port on which the server is listening
+     * @param thinkMillis how long to wait before each move
+     * @param stats where to record latencies and results
+     * @throws ConnectFourException if the connection can't be made
+     */
+    public ConnectFourBot(String host, int port, long thinkMillis,
+                          LoadStatistics stats) throws ConnectFourException {
+        this.board = new ConnectFourBoard();
+        this.board.addObserver(this);
+        this.thinkMillis = thinkMillis;
+        this.stats = stats;
+        this.client = new ConnectFourNetworkClient(host, port, this.board);
+    }
+
+    /**
+     * Start a new bot in a game carried by a connection shared with other
+     * games. This blocks until the server's CONNECT message for the game
+     * arrives.
+     *
+     * @param connection the shared connection
+     * @param thinkMillis how long to wait before each move
+     * @param stats where to record latencies and results
+     * @throws ConnectFourException if the connection has been lost
+     */
+    public ConnectFourBot(ConnectFourMultiplexClient connection,
+                          long thinkMillis, LoadStatistics stats)
+            throws ConnectFourException {
+        this.board = new ConnectFourBoard();
+        this.board.addObserver(this);
+        this.thinkMillis = thinkMillis;
+        this.stats = stats;
+        this.client = connection.newGame(this.board);
+    }
+
+    /**
+     * Pick moves with a {@link Heuristic} instead of at random. Must be
+     * called before {@link #start(ThreadFactory)}.
+     *
+     * @param depth how many moves ahead to look; 0 to play at random
+     */
+    public void useHeuristic(int depth) {
+        this.searchDepth = depth;
+    }
+
+    /**
+     * Start listening for server messages and so start playing.
+     *
+     * @param factory makes the listener thread
+     */
+    public void start(ThreadFactory factory) {
+        this.client.startListener(factory);
+    }
+
+    /**
+     * Wait for the game to end.
+     *
+     * @param timeout how long to wait
+     * @param unit the unit of the timeout
+     * @return true if the game ended, false if the wait timed out
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean awaitEnd(long timeout, TimeUnit unit)
+            throws InterruptedException {
+        return this.done.await(timeout, unit);
+    }
+
+    /**
+     * Drop the connection, e.g. because the run is over. The game is treated
+     * as over, so the lost connection is not recorded as an error.
+     */
+    public void close() {
+        this.done.countDown();
+        this.client.close();
+    }
+
+    /**
+     * Pick a column that is not full: the heuristic's choice if there is
+     * one and the board fits in a {@link BitBoard}, otherwise at random.
+     *
+     * @return the chosen column
+     */
+    private int chooseColumn() {
+        if (searchDepth > 0 && BitBoard.fits(board.getRows(), board.getCols())) {
+            if (heuristic == null) {
+                heuristic = new Heuristic(new BitBoard(board.getRows(),
+                        board.getCols(), board.getWinLength()));
+            }
+            BitBoard bits = heuristic.getBoard();
+            GridSnapshot position = board.getSnapshot();
+            return heuristic.choose(bits.current(position),
+                    bits.mask(position), searchDepth);
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int col;
+        do {
+            col = random.nextInt(board.getCols());
+        } while (!board.isValidMove(col));
+        return col;
+    }
+
+    /**
+     * Called on the network client's listener thread whenever the board
+     * changes.
+     *
+     * @param board the board
+     */
+    @Override
+    public void update(ConnectFourBoard board) {
+        if (sentAt >= 0 && !board.isMovePending()) {
+            stats.moveMade((System.nanoTime() - sentAt) / 1000);
+            sentAt = -1;
+        }
+
+        ConnectFourBoard.Status status = board.getStatus();
+        if (status != ConnectFourBoard.Status.NOT_OVER) {
+            if (done.getCount() > 0) {
+                stats.gameOver(status);
+                done.countDown();
+            }
+        }
+        else if (board.isMyTurn()) {
+            if (thinkMillis > 0) {
+                try {
+                    Thread.sleep(thinkMillis);
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            int col = chooseColumn();
+            sentAt = System.nanoTime();
+            client.sendMove(col);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package connectfour.bot;
+
+import connectfour.ConnectFourException;
+import connectfour.client.ConnectFourMultiplexClient;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A load generator for {@link connectfour.server.ConnectFourServer}. It runs
+ * many {@link ConnectFourBot bots} at once, each playing game after game
+ * against whichever other bot the server pairs it with, and reports move
+ * latency, game throughput and error rates at the end.<P>
+ *
+ * Every bot uses two threads: one that plays its games in turn and the
+ * network client's listener. They are daemon threads with small stacks so
+ * that a few thousand bots fit on one machine; all of them are made by
+ * {@link #THREADS}, which is the one place to change how they are built.<P>
+ *
+ * Bots may share connections, so that a few connections carry many games
+ * at once; the bots sharing one connection play on a
+ * {@link ConnectFourMultiplexClient}, which adds one more thread.
+ */
+public class ConnectFourLoadGenerator {
+    /** stack size for the bot threads; they never recurse deeply */
+    private static final long STACK_SIZE = 256 * 1024;
+
+    /** how long to let games in progress finish once the run is over */
+    private static final long GRACE_MILLIS = 10_000;
+
+    /** number of threads made so far, for naming them */
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    /** makes every thread the load generator uses */
+    private static final ThreadFactory THREADS = r -> {
+        Thread t = new Thread(null, r,
+                "bot-" + threadCount.incrementAndGet(), STACK_SIZE);
+        t.setDaemon(true);
+        return t;
+    };
+
+    /** the name of the host running the server program */
+    private final String host;
+    /** the port on which the server is listening */
+    private final int port;
+    /** how many bots to run */
+    private final int bots;
+    /** how long to keep starting new games, in milliseconds */
+    private final long durationMillis;
+    /** how long each bot waits before a move, in milliseconds */
+    private final long thinkMillis;
+    /** how long it takes to get all bots started, in milliseconds */
+    private final long rampMillis;
+    /** how many bots share each connection */
+    private final int gamesPerConnection;
+    /** how many moves ahead the bots look; 0 to play at random */
+    private int searchDepth;
+    /** counters shared by all bots */
+    private final LoadStatistics stats = new LoadStatistics();
+    /** the connections shared by bots, opened when first needed */
+    private ConnectFourMultiplexClient[] connections;
+
+    /**
+     * Set up a load run.
+     *
+     * @param host the name of the host running the server program
+     * @param port the port on which the server is listening
+     * @param bots how many bots to run at once
+     * @param durationMillis how long to keep starting new games
+     * @param thinkMillis how long each bot waits before a move
+     * @param rampMillis how long it takes to get all bots started
+     */
+    public ConnectFourLoadGenerator(String host, int port, int bots,
+                                    long durationMillis, long thinkMillis,
+                                    long rampMillis) {
+        this(host, port, bots, durationMillis, thinkMillis, rampMillis, 1);
+    }
+
+    /**
+     * Set up a load run in which bots share connections.
+     *
+     * @param host the name of the host running the server program
+     * @param port the port on which the server is listening
+     * @param bots how many bots to run at once
+     * @param durationMillis how long to keep starting new games
+     * @param thinkMillis how long each bot waits before a move
+     * @param rampMillis how long it takes to get all bots started
+     * @param gamesPerConnection how many bots share each connection; 1 for
+     *                           a connection per game
+     */
+    public ConnectFourLoadGenerator(String host, int port, int bots,
+                                    long durationMillis, long thinkMillis,
+                                    long rampMillis, int gamesPerConnection) {
+        this.host = host;
+        this.port = port;
+        this.bots = bots;
+        this.durationMillis = durationMillis;
+        this.thinkMillis = thinkMillis;
+        this.rampMillis = rampMillis;
+        this.gamesPerConnection = gamesPerConnection;
+    }
+
+    /**
+     * Have the bots pick their moves with a heuristic instead of at random.
+     * Must be called before {@link #run()}.
+     *
+     * @param depth how many moves ahead to look; 0 to play at random
+     */
+    public void setSearchDepth(int depth) {
+        this.searchDepth = depth;
+    }
+
+    /**
+     * Run all the bots until the duration is up, then print the results.
+     *
+     * @throws InterruptedException if interrupted while waiting for the bots
+     */
+    public void run() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        long deadline = start + rampMillis + durationMillis;
+
+        connections = new ConnectFourMultiplexClient[
+                (bots + gamesPerConnection - 1) / gamesPerConnection];
+        List<Thread> players = new ArrayList<>(bots);
+        for (int i = 0; i < bots; ++i) {
+            long startAt = start + (bots > 1 ? rampMillis * i / (bots - 1) : 0);
+            int group = i / gamesPerConnection;
+            Thread player = THREADS.newThread(() -> play(startAt, deadline, group));
+            player.start();
+            players.add(player);
+        }
+        for (Thread player : players) {
+            player.join();
+        }
+        synchronized (this) {
+            for (ConnectFourMultiplexClient connection : connections) {
+                if (connection != null) {
+                    connection.close();
+                }
+            }
+        }
+
+        double seconds = (System.currentTimeMillis() - start) / 1000.0;
+        System.out.println("bots: " + bots + ", think time: " + thinkMillis +
+                " ms, ramp: " + rampMillis + " ms");
+        stats.report(System.out, seconds);
+    }
+
+    /**
+     * What each bot's thread does: wait for its turn to connect, then play
+     * one game after another until the deadline.
+     *
+     * @param startAt when to make the first connection
+     * @param deadline when to stop starting games
+     * @param group which shared connection to use, if bots share them
+     */
+    private void play(long startAt, long deadline, int group) {
+        try {
+            sleepUntil(startAt);
+            while (System.currentTimeMillis() < deadline) {
+                ConnectFourBot bot;
+                ConnectFourMultiplexClient connection = null;
+                try {
+                    if (gamesPerConnection > 1) {
+                        connection = connection(group);
+                        bot = new ConnectFourBot(connection, thinkMillis, stats);
+                    }
+                    else {
+                        bot = new ConnectFourBot(host, port, thinkMillis, stats);
+                    }
+                }
+                catch (ConnectFourException e) {
+                    stats.connectFailed();
+                    if (connection != null) {
+                        dropConnection(group, connection);
+                    }
+                    Thread.sleep(100);
+                    continue;
+                }
+                bot.useHeuristic(searchDepth);
+                bot.start(THREADS);
+                long wait = deadline + GRACE_MILLIS - System.currentTimeMillis();
+                if (!bot.awaitEnd(wait, TimeUnit.MILLISECONDS)) {
+                    stats.unfinished();
+                    bot.close();
+                }
+            }
+        }
+        catch (InterruptedException ie) {
+            // run is being torn down
+        }
+    }
+
+    /**
+     * Get the connection shared by a group of bots, opening it if it is not
+     * open yet.
+     *
+     * @param group which connection
+     * @return the connection
+     * @throws ConnectFourException if the connection can't be opened
+     */
+    private synchronized ConnectFourMultiplexClient connection(int group)
+            throws ConnectFourException {
+        if (connections[group] == null) {
+            connections[group] = new ConnectFourMultiplexClient(host, port);
+        }
+        return connections[group];
+    }
+
+    /**
+     * Close a shared connection that a bot could not start a game on, so
+     * that the next bot in the group opens a new one.
+     *
+     * @param group which connection
+     * @param connection the broken connection
+     */
+    private synchronized void dropConnection(
+            int group, ConnectFourMultiplexClient connection) {
+        connection.close();
+        if (connections[group] == connection) {
+            connections[group] = null;
+        }
+    }
+
+    /**
+     * Sleep until the given time.
+     *
+     * @param time a time as given by {@link System#currentTimeMillis()}
+     * @throws InterruptedException if interrupted while sleeping
+     */
+    private static void sleepUntil(long time) throws InterruptedException {
+        long delay = time - System.currentTimeMillis();
+        if (delay > 0) {
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * Run a load test against a server.
+     *
+     * @param args host, port, number of bots, and optionally the duration in
+     *             seconds (default 30), the think time in milliseconds
+     *             (default 0), the ramp-up time in milliseconds
+     *             (default 0), how many bots share each connection
+     *             (default 1) and how many moves ahead the bots look
+     *             (default 0, for random moves)
+     * @throws InterruptedException if interrupted while waiting for the bots
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 3 || args.length > 8) {
+            System.out.println("Usage: java ConnectFourLoadGenerator host port" +
+                    " bots [seconds] [thinkMillis] [rampMillis]" +
+                    " [gamesPerConnection] [searchDepth]");
+            System.exit(1);
+        }
+
+        String host = args[0];
+        int port = Integer.parseInt(args[1]);
+        int bots = Integer.parseInt(args[2]);
+        long seconds = args.length > 3 ? Long.parseLong(args[3]) : 30;
+        long think = args.length > 4 ? Long.parseLong(args[4]) : 0;
+        long ramp = args.length > 5 ? Long.parseLong(args[5]) : 0;
+        int perConnection = args.length > 6 ? Integer.parseInt(args[6]) : 1;
+        int depth = args.length > 7 ? Integer.parseInt(args[7]) : 0;
+
+        ConnectFourLoadGenerator generator = new ConnectFourLoadGenerator(host,
+                port, bots, seconds * 1000, think, ramp, perConnection);
+        generator.setSearchDepth(depth);
+        generator.run();
+    }
+}
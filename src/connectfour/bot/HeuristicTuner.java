@@ -0,0 +1,358 @@
+package connectfour.bot;
+
+import connectfour.model.BitBoard;
+import connectfour.model.Heuristic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fits the weights of a {@link Heuristic} to the results of games it plays
+ * against itself. Each round plays a number of games on all the cores, with
+ * a few random moves at the start of each for variety, and keeps the
+ * features of every position and how the game went for the player to move
+ * there. It then fits weights that best predict those results, by logistic
+ * regression, and plays the new weights against the old to check that they
+ * are better before keeping them.
+ */
+public class HeuristicTuner {
+    /** how many random moves start each game */
+    private static final int OPENING = 4;
+    /** steps of gradient descent in each fit */
+    private static final int FIT_STEPS = 2000;
+    /** how far each step of gradient descent goes */
+    private static final double LEARNING_RATE = 0.05;
+    /** the largest weight after fitting; the rest are scaled to match */
+    private static final int WEIGHT_SCALE = 100;
+
+    /** the masks for the size of board */
+    private final BitBoard board;
+    /** how many games to play each round */
+    private final int games;
+    /** how many moves ahead the players look */
+    private final int depth;
+    /** the threads the games are played on */
+    private final ExecutorService pool;
+
+    /**
+     * A position seen in self-play.
+     */
+    private static class Sample {
+        /** the position's features, for the player to move */
+        private final int[] features;
+        /** 1 if the player to move went on to win, 0.5 for a draw, else 0 */
+        private final double result;
+
+        Sample(int[] features, double result) {
+            this.features = features;
+            this.result = result;
+        }
+    }
+
+    /**
+     * The positions of one game and how it ended.
+     */
+    private static class Game {
+        /** the features of each position */
+        private final List<int[]> positions = new ArrayList<>();
+        /** 1 if the first player won, 0.5 for a draw, 0 if the second did */
+        private double firstResult = 0.5;
+    }
+
+    /**
+     * Set up a tuner.
+     *
+     * @param board the masks for the size of board
+     * @param games how many games to play each round
+     * @param depth how many moves ahead the players look
+     */
+    public HeuristicTuner(BitBoard board, int games, int depth) {
+        this.board = board;
+        this.games = games;
+        this.depth = depth;
+        this.pool = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(), r -> {
+                    Thread t = new Thread(r, "tuner");
+                    t.setDaemon(true);
+                    return t;
+                });
+    }
+
+    /**
+     * Play one game.
+     *
+     * @param first the first player
+     * @param second the second player
+     * @param seed picks the opening moves
+     * @param record whether to keep the features of the positions
+     * @return the game
+     */
+    private Game play(Heuristic first, Heuristic second, long seed,
+                      boolean record) {
+        SplittableRandom random = new SplittableRandom(seed);
+        Game game = new Game();
+        long current = 0;
+        long mask = 0;
+        for (int moves = 0; moves < board.getCells(); ++moves) {
+            int col;
+            if (moves < OPENING) {
+                do {
+                    col = random.nextInt(board.getCols());
+                } while (!board.canPlay(mask, col));
+            }
+            else {
+                Heuristic player = moves % 2 == 0 ? first : second;
+                if (record) {
+                    int[] features = new int[Heuristic.FEATURES];
+                    player.features(current, mask, features);
+                    game.positions.add(features);
+                }
+                col = player.choose(current, mask, depth);
+            }
+            if (board.isWinningMove(current, mask, col)) {
+                game.firstResult = moves % 2 == 0 ? 1 : 0;
+                return game;
+            }
+            long next = board.play(mask, col);
+            current ^= mask;
+            mask = next;
+        }
+        return game;
+    }
+
+    /**
+     * Play a round of games of a heuristic against itself and collect the
+     * positions.
+     *
+     * @param heuristic the heuristic
+     * @param round the round, so that each round has different openings
+     * @return the positions seen
+     */
+    private List<Sample> selfPlay(Heuristic heuristic, int round)
+            throws InterruptedException {
+        List<Future<Game>> played = new ArrayList<>(games);
+        for (int i = 0; i < games; ++i) {
+            long seed = (long) round * games + i;
+            played.add(pool.submit(() -> play(heuristic, heuristic, seed, true)));
+        }
+        List<Sample> samples = new ArrayList<>();
+        for (Future<Game> future : played) {
+            Game game = result(future);
+            for (int ply = 0; ply < game.positions.size(); ++ply) {
+                // the first recorded position has OPENING pieces down
+                boolean firstToMove = (OPENING + ply) % 2 == 0;
+                samples.add(new Sample(game.positions.get(ply), firstToMove ?
+                        game.firstResult : 1 - game.firstResult));
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * Play two heuristics against each other, each going first in half the
+     * games.
+     *
+     * @param a one heuristic
+     * @param b the other
+     * @param round the round, so that each round has different openings
+     * @return a's share of the points, counting a draw as half
+     */
+    private double match(Heuristic a, Heuristic b, int round)
+            throws InterruptedException {
+        List<Future<Game>> played = new ArrayList<>(games);
+        for (int i = 0; i < games; ++i) {
+            long seed = -((long) round * games + i / 2) - 1;
+            boolean aFirst = i % 2 == 0;
+            played.add(pool.submit(() -> aFirst ? play(a, b, seed, false) :
+                    play(b, a, seed, false)));
+        }
+        double points = 0;
+        for (int i = 0; i < games; ++i) {
+            Game game = result(played.get(i));
+            points += i % 2 == 0 ? game.firstResult : 1 - game.firstResult;
+        }
+        return points / games;
+    }
+
+    /**
+     * Wait for a game to finish.
+     */
+    private static Game result(Future<Game> game)
+            throws InterruptedException {
+        try {
+            return game.get();
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * Fit weights that predict the results of positions from their
+     * features, as the chance of winning {@code 1 / (1 + e^-score)}.
+     *
+     * @param samples the positions
+     * @param start the weights to start from
+     * @return the weights, scaled so the largest is {@link #WEIGHT_SCALE}
+     */
+    private int[] fit(List<Sample> samples, int[] start) {
+        int n = Heuristic.FEATURES;
+        double[] w = new double[n];
+        double largest = Arrays.stream(start).map(Math::abs).max().orElse(1);
+        for (int i = 0; i < n; ++i) {
+            // start with the typical score of a position near 1
+            w[i] = start[i] / Math.max(1, largest);
+        }
+        for (int step = 0; step < FIT_STEPS; ++step) {
+            double[] weights = w;
+            double[] gradient = samples.parallelStream().map(s -> {
+                double score = 0;
+                for (int i = 0; i < n; ++i) {
+                    score += weights[i] * s.features[i];
+                }
+                double error = 1 / (1 + Math.exp(-score)) - s.result;
+                double[] g = new double[n];
+                for (int i = 0; i < n; ++i) {
+                    g[i] = error * s.features[i];
+                }
+                return g;
+            }).reduce(new double[n], (x, y) -> {
+                double[] sum = new double[n];
+                for (int i = 0; i < n; ++i) {
+                    sum[i] = x[i] + y[i];
+                }
+                return sum;
+            });
+            for (int i = 0; i < n; ++i) {
+                w[i] -= LEARNING_RATE * gradient[i] / samples.size();
+            }
+        }
+        System.out.printf("  fitted: %s, log loss %.4f%n", Arrays.toString(w),
+                logLoss(samples, w));
+
+        double max = Arrays.stream(w).map(Math::abs).max().orElse(1);
+        int[] fitted = new int[n];
+        for (int i = 0; i < n; ++i) {
+            fitted[i] = (int) Math.round(w[i] * WEIGHT_SCALE / max);
+        }
+        return fitted;
+    }
+
+    /**
+     * @return how badly weights predict the results, lower being better
+     */
+    private static double logLoss(List<Sample> samples, double[] w) {
+        return samples.parallelStream().mapToDouble(s -> {
+            double score = 0;
+            for (int i = 0; i < w.length; ++i) {
+                score += w[i] * s.features[i];
+            }
+            double p = 1 / (1 + Math.exp(-score));
+            p = Math.min(Math.max(p, 1e-9), 1 - 1e-9);
+            return -(s.result * Math.log(p) + (1 - s.result) * Math.log(1 - p));
+        }).average().orElse(0);
+    }
+
+    /**
+     * Time how long a heuristic takes to pick a move, on average, over the
+     * positions of a few games.
+     *
+     * @return the time in microseconds
+     */
+    private double timeChoice(Heuristic heuristic) {
+        long total = 0;
+        int count = 0;
+        for (int g = 0; g < 20; ++g) {
+            SplittableRandom random = new SplittableRandom(g);
+            long current = 0;
+            long mask = 0;
+            for (int moves = 0; moves < board.getCells(); ++moves) {
+                long start = System.nanoTime();
+                int col = heuristic.choose(current, mask, depth);
+                total += System.nanoTime() - start;
+                ++count;
+                if (random.nextInt(4) == 0) {
+                    // stray from the best line now and then
+                    do {
+                        col = random.nextInt(board.getCols());
+                    } while (!board.canPlay(mask, col));
+                }
+                if (board.isWinningMove(current, mask, col)) {
+                    break;
+                }
+                long next = board.play(mask, col);
+                current ^= mask;
+                mask = next;
+            }
+        }
+        return total / 1000.0 / count;
+    }
+
+    /**
+     * Tune the weights.
+     *
+     * @param rounds how many rounds of self-play and fitting to do
+     * @param start the weights to start from
+     * @return the best weights found
+     * @throws InterruptedException if interrupted while games are played
+     */
+    public int[] tune(int rounds, int[] start) throws InterruptedException {
+        Heuristic best = new Heuristic(board, start);
+        for (int round = 0; round < rounds; ++round) {
+            long begin = System.nanoTime();
+            List<Sample> samples = selfPlay(best, round);
+            System.out.printf("round %d: %d games, %d positions in %d ms%n",
+                    round, games, samples.size(),
+                    (System.nanoTime() - begin) / 1_000_000);
+            Heuristic candidate = new Heuristic(board,
+                    fit(samples, best.getWeights()));
+            double score = match(candidate, best, round);
+            System.out.printf("  %s scores %.1f%% against %s%n",
+                    Arrays.toString(candidate.getWeights()), 100 * score,
+                    Arrays.toString(best.getWeights()));
+            if (score > 0.5) {
+                best = candidate;
+            }
+        }
+        System.out.printf("a move at depth %d takes %.1f us on average%n",
+                depth, timeChoice(best));
+        return best.getWeights();
+    }
+
+    /**
+     * Tune the weights for a size of board and print them.
+     *
+     * @param args games per round, search depth, rounds, and optionally the
+     *             rows, columns and win length (default 6, 7 and 4)
+     * @throws InterruptedException if interrupted
+     */
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length != 3 && args.length != 6) {
+            System.out.println("Usage: java HeuristicTuner games depth rounds" +
+                    " [rows cols win-length]");
+            System.exit(1);
+        }
+        int games = Integer.parseInt(args[0]);
+        int depth = Integer.parseInt(args[1]);
+        int rounds = Integer.parseInt(args[2]);
+        BitBoard board = args.length > 3 ?
+                new BitBoard(Integer.parseInt(args[3]),
+                        Integer.parseInt(args[4]), Integer.parseInt(args[5])) :
+                new BitBoard(6, 7, 4);
+
+        HeuristicTuner tuner = new HeuristicTuner(board, games, depth);
+        int[] weights = tuner.tune(rounds,
+                new Heuristic(board).getWeights());
+        System.out.println("weights:");
+        for (int i = 0; i < weights.length; ++i) {
+            System.out.printf("  %-16s %d%n", Heuristic.FEATURE_NAMES[i],
+                    weights[i]);
+        }
+    }
+}
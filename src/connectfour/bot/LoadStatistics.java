@@ -0,0 +1,112 @@
+package connectfour.bot;
+
+import connectfour.client.ConnectFourBoard;
+import connectfour.client.LatencyHistogram;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters shared by all of the bots in a load run.
+ */
+public class LoadStatistics {
+    /** latency from sending a move to the server echoing it */
+    private final LatencyHistogram moveLatency = new LatencyHistogram();
+    /** games that ended with a winner, counted once per side */
+    private final LongAdder decided = new LongAdder();
+    /** games that ended in a tie, counted once per side */
+    private final LongAdder tied = new LongAdder();
+    /** games that ended in an error */
+    private final LongAdder errors = new LongAdder();
+    /** connections that could not be made */
+    private final LongAdder connectFailures = new LongAdder();
+    /** games still running when the run ended */
+    private final LongAdder unfinished = new LongAdder();
+
+    /**
+     * Record that the server echoed one of our moves.
+     *
+     * @param micros how long the echo took
+     */
+    public void moveMade(long micros) {
+        moveLatency.record(micros);
+    }
+
+    /**
+     * Record how a bot's game ended.
+     *
+     * @param status the final status of the bot's board
+     */
+    public void gameOver(ConnectFourBoard.Status status) {
+        switch (status) {
+            case I_WON:
+            case I_LOST:
+                decided.increment();
+                break;
+            case TIE:
+                tied.increment();
+                break;
+            default:
+                errors.increment();
+                break;
+        }
+    }
+
+    /**
+     * Record that a bot could not connect to the server.
+     */
+    public void connectFailed() {
+        connectFailures.increment();
+    }
+
+    /**
+     * Record that a bot's game was still going when the run ended.
+     */
+    public void unfinished() {
+        unfinished.increment();
+    }
+
+    /**
+     * @return the number of completed games; each game has two bots in it
+     */
+    public double getGames() {
+        return (decided.sum() + tied.sum()) / 2.0;
+    }
+
+    /**
+     * Print a summary of the run.
+     *
+     * @param out where to print
+     * @param seconds how long the run took
+     */
+    public void report(PrintStream out, double seconds) {
+        long attempts = decided.sum() + tied.sum() + errors.sum() +
+                connectFailures.sum() + unfinished.sum();
+        double games = getGames();
+        out.printf("games completed:  %.0f (%.1f games/s)%n",
+                games, games / seconds);
+        out.printf("ties:             %d%n", tied.sum() / 2);
+        out.printf("moves:            %d (%.1f moves/s)%n",
+                moveLatency.getCount(), moveLatency.getCount() / seconds);
+        out.printf("move latency us:  mean %.0f  p50 %d  p90 %d  p99 %d  " +
+                        "p99.9 %d  max %d%n",
+                moveLatency.getMean(),
+                moveLatency.getPercentile(0.50),
+                moveLatency.getPercentile(0.90),
+                moveLatency.getPercentile(0.99),
+                moveLatency.getPercentile(0.999),
+                moveLatency.getMax());
+        out.printf("game errors:      %d (%.2f%%)%n",
+                errors.sum(), percent(errors.sum(), attempts));
+        out.printf("connect failures: %d (%.2f%%)%n",
+                connectFailures.sum(), percent(connectFailures.sum(), attempts));
+        out.printf("unfinished:       %d%n", unfinished.sum());
+    }
+
+    /**
+     * @return part as a percentage of whole, or 0 if whole is 0
+     */
+    private static double percent(long part, long whole) {
+        return whole == 0 ? 0 : 100.0 * part / whole;
+    }
+}
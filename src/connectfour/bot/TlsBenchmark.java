@@ -0,0 +1,253 @@
+package connectfour.bot;
+
+import connectfour.ConnectFourException;
+import connectfour.ConnectFourTls;
+import connectfour.client.LatencyHistogram;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static connectfour.ConnectFourProtocol.MULTIPLEX;
+
+/**
+ * Compares plain connections to the server with {@link ConnectFourTls TLS}
+ * ones: how long connecting takes, with a full handshake each time and with
+ * the session resumed, and then move latency under load. It makes a
+ * self-signed key with keytool in a directory of its own and runs the
+ * server in a process of its own there, once plain and once with TLS and
+ * that key, as it would be run for real.
+ */
+public class TlsBenchmark {
+    /** the password of the key store made for the run */
+    private static final String PASSWORD = "connectfour";
+    /** how many connections are timed of each kind, after as many more */
+    private static final int CONNECTS = 300;
+    /** how long to wait for a server to start or stop, in milliseconds */
+    private static final long SERVER_MILLIS = 20_000;
+
+    /** the directory the key store and the servers' files go in */
+    private final Path dir;
+    /** the key store */
+    private final Path keyStore;
+
+    /**
+     * Set up a benchmark, making a key store to run it with.
+     *
+     * @throws IOException if the directory can't be made or keytool fails
+     * @throws InterruptedException if interrupted while keytool runs
+     */
+    public TlsBenchmark() throws IOException, InterruptedException {
+        dir = Files.createTempDirectory("connectfour-tls");
+        keyStore = dir.resolve("connectfour.p12");
+        Process keytool = new ProcessBuilder(tool("keytool"), "-genkeypair",
+                "-keyalg", "EC", "-groupname", "secp256r1", "-alias", "connectfour",
+                "-dname", "CN=localhost", "-ext",
+                "SAN=dns:localhost,ip:127.0.0.1", "-validity", "1",
+                "-storetype", "PKCS12", "-keystore", keyStore.toString(),
+                "-storepass", PASSWORD)
+                .inheritIO().start();
+        if (keytool.waitFor() != 0) {
+            throw new IOException("keytool failed");
+        }
+    }
+
+    /**
+     * @param name a tool that comes with the JDK
+     * @return the path to it
+     */
+    private static String tool(String name) {
+        return Paths.get(System.getProperty("java.home"), "bin", name)
+                .toString();
+    }
+
+    /**
+     * @return a context that uses the key store made for the run
+     * @throws ConnectFourException if it can't be read
+     */
+    public SSLContext context() throws ConnectFourException {
+        return ConnectFourTls.fromKeyStore(keyStore, PASSWORD.toCharArray());
+    }
+
+    /**
+     * Start a server, in the run's directory with its output thrown away,
+     * and wait until it takes connections.
+     *
+     * @param port the port for it to listen on
+     * @param tls whether it uses TLS, with the run's key
+     * @return the server's process
+     * @throws IOException if it doesn't start
+     * @throws InterruptedException if interrupted while waiting for it
+     */
+    public Process startServer(int port, boolean tls)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>(List.of(tool("java"), "-cp",
+                System.getProperty("java.class.path")));
+        if (tls) {
+            command.add("-D" + ConnectFourTls.PROPERTY + "=true");
+            command.add("-Djavax.net.ssl.keyStore=" + keyStore);
+            command.add("-Djavax.net.ssl.keyStorePassword=" + PASSWORD);
+            command.add("-Djavax.net.ssl.keyStoreType=PKCS12");
+        }
+        command.add("connectfour.server.ConnectFourServer");
+        command.add(Integer.toString(port));
+        Process server = new ProcessBuilder(command).directory(dir.toFile())
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+        long deadline = System.currentTimeMillis() + SERVER_MILLIS;
+        while (true) {
+            try {
+                new Socket("localhost", port).close();
+                return server;
+            }
+            catch (IOException e) {
+                if (!server.isAlive() ||
+                        System.currentTimeMillis() > deadline) {
+                    server.destroyForcibly();
+                    throw new IOException("Server did not start", e);
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    /**
+     * Stop a server as an operator would, letting it drain.
+     *
+     * @param server the server's process
+     * @throws InterruptedException if interrupted while waiting for it
+     */
+    public static void stopServer(Process server) throws InterruptedException {
+        server.destroy();
+        if (!server.waitFor(SERVER_MILLIS, TimeUnit.MILLISECONDS)) {
+            server.destroyForcibly();
+        }
+    }
+
+    /**
+     * Time connecting to a server the same way clients connect, and print
+     * the times. Each connection then asks to {@link
+     * connectfour.ConnectFourProtocol#MULTIPLEX}, as the quickest way to
+     * get an answer from the server, which also takes in the ticket to
+     * resume a TLS 1.3 session with, and hangs up.
+     *
+     * @param label what kind of connection it is
+     * @param port the server's port
+     * @param fresh whether to forget each TLS session, so that every
+     *              connection has a full handshake
+     * @throws IOException if a connection fails
+     */
+    public static void connects(String label, int port, boolean fresh)
+            throws IOException {
+        LatencyHistogram times = new LatencyHistogram();
+        int resumed = 0;
+        for (int i = 0; i < 2 * CONNECTS; ++i) {
+            long startMillis = System.currentTimeMillis();
+            long start = System.nanoTime();
+            Socket socket = ConnectFourTls.connect("localhost", port);
+            long micros = (System.nanoTime() - start) / 1000;
+            socket.getOutputStream().write(
+                    (MULTIPLEX + "\n").getBytes(StandardCharsets.UTF_8));
+            if (socket.getInputStream().read() < 0) {
+                throw new IOException("Server hung up");
+            }
+            if (socket instanceof SSLSocket) {
+                SSLSession session = ((SSLSocket) socket).getSession();
+                if (i >= CONNECTS && session.getCreationTime() < startMillis) {
+                    ++resumed;
+                }
+                if (fresh) {
+                    session.invalidate();
+                }
+            }
+            socket.close();
+            if (i >= CONNECTS) {
+                times.record(micros);
+            }
+        }
+        System.out.printf("%-20s connect us: mean %.0f  p50 %d  p99 %d  " +
+                        "max %d  (%d of %d sessions resumed)%n", label,
+                times.getMean(), times.getPercentile(0.5),
+                times.getPercentile(0.99), times.getMax(), resumed, CONNECTS);
+    }
+
+    /**
+     * Delete the run's directory.
+     *
+     * @throws IOException if it can't be
+     */
+    public void clean() throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files
+                    .sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Run the benchmark: connection times and then a load run, first
+     * against a plain server and then against one using TLS.
+     *
+     * @param args the port to run the servers on, and the next one up;
+     *             optionally followed by how many seconds each load run
+     *             lasts (default 10) and how many bots it has (default 100)
+     * @throws ConnectFourException if the key store can't be read
+     * @throws IOException if a server can't be run or connected to
+     * @throws InterruptedException if interrupted while waiting for one
+     */
+    public static void main(String[] args)
+            throws ConnectFourException, IOException, InterruptedException {
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("Usage: java TlsBenchmark port [seconds]" +
+                    " [bots]");
+            System.exit(1);
+        }
+        int port = Integer.parseInt(args[0]);
+        long seconds = args.length > 1 ? Long.parseLong(args[1]) : 10;
+        int bots = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+        TlsBenchmark benchmark = new TlsBenchmark();
+        try {
+            ConnectFourTls.use(null);
+            Process server = benchmark.startServer(port, false);
+            try {
+                connects("plain", port, false);
+                System.out.println("plain load run:");
+                new ConnectFourLoadGenerator("localhost", port, bots,
+                        seconds * 1000, 0, 0).run();
+            }
+            finally {
+                stopServer(server);
+            }
+
+            ConnectFourTls.use(benchmark.context());
+            server = benchmark.startServer(port + 1, true);
+            try {
+                connects("TLS full handshake", port + 1, true);
+                connects("TLS resumed", port + 1, false);
+                System.out.println("TLS load run, resuming sessions:");
+                new ConnectFourLoadGenerator("localhost", port + 1, bots,
+                        seconds * 1000, 0, 0).run();
+            }
+            finally {
+                stopServer(server);
+            }
+        }
+        finally {
+            benchmark.clean();
+        }
+    }
+}
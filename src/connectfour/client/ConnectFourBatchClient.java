@@ -0,0 +1,215 @@
+package connectfour.client;
+
+import connectfour.ConnectFourException;
+import connectfour.ConnectFourProtocol;
+import connectfour.ConnectFourTls;
+import connectfour.model.Evaluation;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+
+import static connectfour.ConnectFourProtocol.*;
+
+/**
+ * A connection to a ConnectFour game server for having positions evaluated
+ * in batches, as described for {@link ConnectFourProtocol#BATCH}. The
+ * positions of a batch are sent on a thread of their own while the results
+ * are read, so a batch costs one round trip however many positions it has,
+ * and neither side waits for the other to make room in the connection.
+ */
+public class ConnectFourBatchClient {
+    /** client socket to communicate with server */
+    private final Socket clientSocket;
+    /** used to read results from the server */
+    private final Scanner networkIn;
+    /** used to write requests to the server */
+    private final PrintStream networkOut;
+    /** the number of rows in the server's board */
+    private final int rows;
+    /** the number of columns in the server's board */
+    private final int cols;
+    /** how big a line one needs to win on the server's board */
+    private final int winLength;
+    /** how long the server took over the last batch, in microseconds */
+    private long lastBatchMicros;
+    /** how many positions the server searched for the last batch */
+    private long lastBatchNodes;
+
+    /**
+     * Connect to a ConnectFour game server to have positions evaluated.
+     *
+     * @param host the name of the host running the server program
+     * @param port the port of the server socket on which the server is listening
+     * @throws ConnectFourException if the connection can't be opened, or the
+     * server won't evaluate positions
+     */
+    public ConnectFourBatchClient(String host, int port)
+            throws ConnectFourException {
+        try {
+            this.clientSocket = ConnectFourTls.connect(host, port);
+            this.networkIn = new Scanner(clientSocket.getInputStream());
+            this.networkOut = new PrintStream(new BufferedOutputStream(
+                    clientSocket.getOutputStream()), false);
+            this.networkOut.println(BATCH);
+            this.networkOut.flush();
+
+            String[] reply = this.networkIn.nextLine().trim().split(" ");
+            if (!reply[0].equals(BATCH) || reply.length != 4) {
+                this.clientSocket.close();
+                throw new ConnectFourException("Server won't evaluate: " +
+                        String.join(" ", reply));
+            }
+            this.rows = Integer.parseInt(reply[1]);
+            this.cols = Integer.parseInt(reply[2]);
+            this.winLength = Integer.parseInt(reply[3]);
+        }
+        catch (IOException | NoSuchElementException | NumberFormatException e) {
+            throw new ConnectFourException(e);
+        }
+    }
+
+    /**
+     * @return the number of rows in the server's board
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the number of columns in the server's board
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * @return how big a line one needs to win on the server's board
+     */
+    public int getWinLength() {
+        return winLength;
+    }
+
+    /**
+     * Have a batch of positions evaluated.
+     *
+     * @param positions each position as the columns of its moves from an
+     *                  empty board, separated by spaces
+     * @param depth how many moves ahead the server should search
+     * @return the evaluation of each position, in the same order; null for
+     * a position that is not a legal game
+     * @throws ConnectFourException if the connection fails
+     */
+    public List<Evaluation> evaluate(List<String> positions, int depth)
+            throws ConnectFourException {
+        Thread sender = new Thread(() -> {
+            networkOut.println(EVALUATE + " " + positions.size() + " " + depth);
+            for (String position : positions) {
+                networkOut.println(position.trim());
+            }
+            networkOut.flush();
+        }, "batch-sender");
+        sender.setDaemon(true);
+        sender.start();
+
+        List<Evaluation> results = new ArrayList<>(positions.size());
+        try {
+            for (int i = 0; i < positions.size(); ++i) {
+                String[] fields = networkIn.nextLine().trim().split(" ");
+                if (!fields[0].equals(EVALUATION)) {
+                    throw new ConnectFourException("Expected " + EVALUATION +
+                            ": " + String.join(" ", fields));
+                }
+                if (fields[1].equals("INVALID")) {
+                    results.add(null);
+                }
+                else {
+                    results.add(new Evaluation(Integer.parseInt(fields[1]),
+                            Integer.parseInt(fields[2]),
+                            Long.parseLong(fields[3])));
+                }
+            }
+            String[] done = networkIn.nextLine().trim().split(" ");
+            if (!done[0].equals(BATCH_DONE)) {
+                throw new ConnectFourException("Expected " + BATCH_DONE +
+                        ": " + String.join(" ", done));
+            }
+            lastBatchMicros = Long.parseLong(done[2]);
+            lastBatchNodes = Long.parseLong(done[3]);
+        }
+        catch (NoSuchElementException | IndexOutOfBoundsException |
+                NumberFormatException e) {
+            throw new ConnectFourException("Bad reply from server", e);
+        }
+        return results;
+    }
+
+    /**
+     * @return how long the server took over the last batch, in microseconds
+     */
+    public long getLastBatchMicros() {
+        return lastBatchMicros;
+    }
+
+    /**
+     * @return how many positions the server searched for the last batch
+     */
+    public long getLastBatchNodes() {
+        return lastBatchNodes;
+    }
+
+    /**
+     * Close the connection.
+     */
+    public void close() {
+        try {
+            clientSocket.close();
+        }
+        catch (IOException ioe) {
+            // squash
+        }
+    }
+
+    /**
+     * Evaluate the positions in a file, one per line, and print each
+     * evaluation followed by the batch's throughput.
+     *
+     * @param args host, port, depth and the file of positions
+     * @throws ConnectFourException if the connection fails
+     * @throws IOException if the file can't be read
+     */
+    public static void main(String[] args)
+            throws ConnectFourException, IOException {
+        if (args.length != 4) {
+            System.out.println("Usage: java ConnectFourBatchClient host port" +
+                    " depth positions-file");
+            System.exit(1);
+        }
+        List<String> positions = Files.readAllLines(Paths.get(args[3]));
+        ConnectFourBatchClient client = new ConnectFourBatchClient(args[0],
+                Integer.parseInt(args[1]));
+        long start = System.nanoTime();
+        List<Evaluation> results =
+                client.evaluate(positions, Integer.parseInt(args[2]));
+        long micros = (System.nanoTime() - start) / 1000;
+        client.close();
+
+        for (int i = 0; i < results.size(); ++i) {
+            Evaluation result = results.get(i);
+            System.out.println(positions.get(i) + ": " +
+                    (result == null ? "invalid" : result.toString()));
+        }
+        System.out.printf("positions: %d, server %.1f ms, round trip %.1f ms," +
+                        " %.0f positions/s, %d nodes searched%n",
+                results.size(), client.getLastBatchMicros() / 1000.0,
+                micros / 1000.0, results.size() * 1e6 / Math.max(1, micros),
+                client.getLastBatchNodes());
+    }
+}
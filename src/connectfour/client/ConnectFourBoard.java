@@ -1,8 +1,11 @@
 package connectfour.client;
 
-import java.util.EnumMap;
-import java.util.LinkedList;
+import connectfour.model.ConnectFourGrid;
+import connectfour.model.GridSnapshot;
+import connectfour.model.Move;
+
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * The model for the connect four game.
@@ -11,26 +14,12 @@ import java.util.List;
  * @author Sean Strout @ RIT CS
  */
 public class ConnectFourBoard {
-    /** the number of rows */
+    /** the default number of rows */
     public final static int ROWS = 6;
-    /** the number of columns */
+    /** the default number of columns */
     public final static int COLS = 7;
-
-    /**
-     * Used to indicate a move that has been made on the board,
-     * and to keep track of whose turn it is
-     */
-    public enum Move {
-        PLAYER_ONE, PLAYER_TWO, NONE;
-
-        public Move opponent() {
-            return this == PLAYER_ONE ?
-                    PLAYER_TWO :
-                    this == PLAYER_TWO ?
-                            PLAYER_ONE :
-                            this;
-        }
-    }
+    /** the default length of line needed to win */
+    public final static int WIN_LEN = 4;
 
     /** Possible statuses of game */
     public enum Status {
@@ -49,8 +38,14 @@ public class ConnectFourBoard {
         }
     }
 
-    /** How many moves are left to make before end of game */
-    private int movesLeft;
+    /** the board, which also knows whose piece goes in next */
+    private ConnectFourGrid grid;
+
+    /**
+     * a snapshot of the board, replaced whenever the board changes; all
+     * queries read it so that observers on other threads see a consistent board
+     */
+    private volatile GridSnapshot snapshot;
 
     /**
      * If this "copy" of the server's board is the one that can be updated,
@@ -59,22 +54,26 @@ public class ConnectFourBoard {
      * this variable true. The act of the player choosing a move sets the
      * variable false again.
      */
-    private boolean myTurn;
-
-    /** this value flips back and forth as discs are added to the board */
-    private Move currentPiece;
+    private volatile boolean myTurn;
 
     /** current game status */
-    private Status status;
+    private volatile Status status;
 
-    /** the board */
-    private Move[][] board;
+    /**
+     * the column of this player's move that is shown on the board but that
+     * the server has not yet echoed back; -1 if there is none
+     */
+    private volatile int pendingColumn;
 
     /** the observers of this model */
     private List<Observer<ConnectFourBoard>> observers;
 
     /** 
      * The view calls this method to add themselves as an observer of the model.
+     * The observer is called on whichever thread changes the model, usually
+     * the network client's listener, which waits until the observer returns;
+     * so a view should only queue a refresh on its own thread, merging any
+     * that arrive while one is queued, as the GUI and PTUI do.
      * 
      * @param observer the observer
      */
@@ -89,24 +88,61 @@ public class ConnectFourBoard {
         }
     }
 
+    /**
+     * Create a board of the standard size. The size may be changed by
+     * {@link #allocate(int, int, int)} when the server says which size it
+     * is using.
+     */
     public ConnectFourBoard() {
-        this.observers = new LinkedList<>();
+        this(ROWS, COLS, WIN_LEN);
+    }
 
-        this.board = new Move[COLS][ROWS];
-        for(int col=0; col<COLS; col++) {
-            for(int row=0; row < ROWS; row++) {
-                board[col][row] = Move.NONE;
-            }
-        }
+    /**
+     * Create a board of the given size.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param winLength how big a line one needs to win
+     */
+    public ConnectFourBoard(int rows, int cols, int winLength) {
+        this.observers = new CopyOnWriteArrayList<>();
+        allocate(rows, cols, winLength);
+    }
+
+    /**
+     * Set the size of the board to the one the server is using, and empty it.
+     * This is called when the server's
+     * {@link connectfour.ConnectFourProtocol#CONNECT} message arrives, before
+     * any moves have been made.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param winLength how big a line one needs to win
+     */
+    public void allocate(int rows, int cols, int winLength) {
+        this.grid = new ConnectFourGrid(rows, cols, winLength);
+        this.snapshot = this.grid.snapshot();
+        this.pendingColumn = -1;
 
-        this.movesLeft = COLS*ROWS;
         this.status = Status.NOT_OVER;
         // it's never my turn unless the server tells me to make a move.
         this.myTurn = false;
-        // whether it's me or the other player, Player #1 always goes first.
-        this.currentPiece = Move.PLAYER_ONE;    }
+    }
 
+    /**
+     * Called when the server reports an error. A move of ours that it never
+     * echoed was not made, so it is taken off the board, and the game is
+     * over, so it is no longer our turn.
+     *
+     * @param arguments the server's message
+     */
     public void error(String arguments) {
+        synchronized (this) {
+            if (this.pendingColumn >= 0) {
+                rollBack();
+            }
+            this.myTurn = false;
+        }
         this.status = Status.ERROR;
         this.status.setMessage(arguments);
         alertObservers();
@@ -117,7 +153,28 @@ public class ConnectFourBoard {
      * @return the number of additional moves until the board is full.
      */
     public int getMovesLeft() {
-        return this.movesLeft;
+        return this.snapshot.getMovesLeft();
+    }
+
+    /**
+     * @return the number of rows in the board
+     */
+    public int getRows() {
+        return this.snapshot.getRows();
+    }
+
+    /**
+     * @return the number of columns in the board
+     */
+    public int getCols() {
+        return this.snapshot.getCols();
+    }
+
+    /**
+     * @return how big a line one needs to win
+     */
+    public int getWinLength() {
+        return this.snapshot.getWinLength();
     }
 
     /**
@@ -150,7 +207,19 @@ public class ConnectFourBoard {
      * @return the player (or {@link Move#NONE}) at the given location
      */
     public Move getContents(int row, int col) {
-        return this.board[col][row];
+        return this.snapshot.getContents(row, col);
+    }
+
+    /**
+     * An immutable copy of the board as it is now. Unlike this object, it can
+     * be fetched, kept and read from any thread, e.g. by a view that draws
+     * later or a player thinking about its move, without seeing later
+     * changes.
+     *
+     * @return the snapshot
+     */
+    public GridSnapshot getSnapshot() {
+        return this.snapshot;
     }
 
     /**
@@ -162,8 +231,7 @@ public class ConnectFourBoard {
      * @return true iff the column is not full
      */
     public boolean isValidMove(int col) {
-        return (col >= 0 && col < COLS) &&
-                (this.board[col][0] == Move.NONE);
+        return this.snapshot.canDrop(col);
     }
 
     /**
@@ -175,23 +243,88 @@ public class ConnectFourBoard {
     }
 
     /**
-     * The UI calls this to announce the player's choice of a move.
+     * The player has sent a move to the server. It is shown on the board
+     * straight away rather than a round trip later, when the server echoes
+     * it. Until then it is pending: if the server makes a different move or
+     * reports an error instead, it is taken back.
+     *
+     * @param col the column
+     */
+    public void moveSent(int col) {
+        synchronized (this) {
+            this.myTurn = false;
+            if (this.pendingColumn >= 0 || !this.grid.canDrop(col)) {
+                // the server will reject it, so don't show it
+                return;
+            }
+            this.grid.drop(col);
+            this.snapshot = this.grid.snapshot();
+            this.pendingColumn = col;
+        }
+        alertObservers();
+    }
+
+    /**
+     * Is a move of ours on the board that the server has not echoed yet?
+     *
+     * @return true if a move is pending
+     */
+    public boolean isMovePending() {
+        return this.pendingColumn >= 0;
+    }
+
+    /**
+     * Called when the server says a move was made, by either player. If it
+     * is the echo of our pending move, that move is already on the board.
+     *
      * @param col the column
      */
     public void moveMade(int col) {
-        // gets called as a result of the message from the server.
-        // place piece on board
-        this.movesLeft -= 1;
-
-        // find first open row from bottom up
-        for (int row=ROWS-1; row >= 0; --row) {
-            if (board[col][row] == Move.NONE) {
-                this.board[col][row] = this.currentPiece;
-                break;
+        synchronized (this) {
+            int pending = this.pendingColumn;
+            if (pending >= 0 && pending != col) {
+                rollBack();
+            }
+            if (pending == col) {
+                this.pendingColumn = -1;
+            }
+            else {
+                this.grid.drop(col);
+                this.snapshot = this.grid.snapshot();
             }
+            this.myTurn = false;
         }
+        alertObservers();
+    }
 
-        this.currentPiece = this.currentPiece.opponent();
+    /**
+     * Take the pending move off the board. The grid is only ever added to,
+     * so that snapshots of it can share its arrays, so it is rebuilt from
+     * its moves instead. This only happens when the server disagrees with
+     * us, so the cost does not matter.
+     */
+    private void rollBack() {
+        ConnectFourGrid old = this.grid;
+        ConnectFourGrid grid = new ConnectFourGrid(old.getRows(),
+                old.getCols(), old.getWinLength());
+        for (int ply = 0; ply < old.getFilled() - 1; ++ply) {
+            grid.drop(old.getMove(ply));
+        }
+        this.grid = grid;
+        this.snapshot = grid.snapshot();
+        this.pendingColumn = -1;
+    }
+
+    /**
+     * Show a position that did not come from the server, e.g. while
+     * replaying a recorded game. Observers see the board as if it held that
+     * position. A board used this way should not also be connected to a
+     * server.
+     *
+     * @param position the position to show
+     */
+    public void showPosition(GridSnapshot position) {
+        this.snapshot = position;
         this.myTurn = false;
         alertObservers();
     }
@@ -227,15 +360,6 @@ public class ConnectFourBoard {
         alertObservers();
     }
 
-    private static EnumMap<Move, Character> cmap = new EnumMap<>(Move.class);
-
-    static {
-        cmap = new EnumMap<>( Move.class );
-        cmap.put( Move.PLAYER_ONE, 'O' );
-        cmap.put( Move.PLAYER_TWO, 'X' );
-        cmap.put( Move.NONE,       '.' );
-    }
-
     /**
      * Returns a string representation of the board, suitable for printing out.
      * The starting board would be:<br>
@@ -255,19 +379,26 @@ public class ConnectFourBoard {
     public String toString() {
         StringBuilder builder = new StringBuilder();
 
+        // row numbers are padded to the width of the largest one
+        GridSnapshot board = this.snapshot;
+        int rows = board.getRows();
+        int cols = board.getCols();
+        int labelWidth = String.valueOf(rows - 1).length();
+        String rowFormat = "%" + labelWidth + "d";
+
         // build the top row with column numbers
-        builder.append(' ');
-        for (int c = 0; c < COLS; ++c) {
-            builder.append(" " + c + ' ');
+        builder.append(" ".repeat(labelWidth));
+        for (int c = 0; c < cols; ++c) {
+            builder.append(String.format("%2d ", c));
         }
         builder.append('\n');
 
         // build remaining rows with row numbers and column values
-        for ( int r = 0; r < ROWS; ++r) {
-            builder.append( r );
-            for ( int c = 0; c < COLS; ++c) {
+        for ( int r = 0; r < rows; ++r) {
+            builder.append(String.format(rowFormat, r));
+            for ( int c = 0; c < cols; ++c) {
                 builder.append('[');
-                builder.append( cmap.get(this.board[c][r]));
+                builder.append( board.getContents(r, c).getSymbol() );
                 builder.append(']');
             }
             builder.append('\n');
@@ -0,0 +1,231 @@
+package connectfour.client;
+
+import connectfour.ConnectFourException;
+import connectfour.ConnectFourProtocol;
+import connectfour.ConnectFourTls;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static connectfour.ConnectFourProtocol.*;
+
+/**
+ * One connection to a ConnectFour game server that carries many games at
+ * once, as described for {@link ConnectFourProtocol#MULTIPLEX}. Each game
+ * gets its own {@link ConnectFourBoard} and its own
+ * {@link ConnectFourNetworkClient}, which is used exactly like one with a
+ * connection of its own. A thread of this class's reads every message from
+ * the server and passes it on to the game it is tagged with.
+ */
+public class ConnectFourMultiplexClient {
+    /** client socket to communicate with server */
+    private final Socket clientSocket;
+    /** used to read messages from the server */
+    private final Scanner networkIn;
+    /** used to write messages to the server */
+    private final PrintStream networkOut;
+    /** the games in progress, by id */
+    private final Map<Integer, Game> games = new ConcurrentHashMap<>();
+    /** the id of the next game */
+    private final AtomicInteger nextId = new AtomicInteger();
+    /** set once the connection is lost or closed */
+    private volatile boolean closed;
+
+    /**
+     * Connect to a ConnectFour game server and ask it to carry many games
+     * over the connection. Games are then started with
+     * {@link #newGame(ConnectFourBoard)}.
+     *
+     * @param host the name of the host running the server program
+     * @param port the port of the server socket on which the server is listening
+     * @throws ConnectFourException if the connection can't be opened, or the
+     * server can't carry many games on one connection
+     */
+    public ConnectFourMultiplexClient(String host, int port)
+            throws ConnectFourException {
+        try {
+            this.clientSocket = ConnectFourTls.connect(host, port);
+            this.clientSocket.setTcpNoDelay(true);
+            this.networkIn = new Scanner(clientSocket.getInputStream());
+            this.networkOut = new PrintStream(new BufferedOutputStream(
+                    clientSocket.getOutputStream()), false);
+            this.networkOut.println(MULTIPLEX);
+            this.networkOut.flush();
+
+            String reply = this.networkIn.nextLine().trim();
+            if (!reply.equals(MULTIPLEX)) {
+                this.clientSocket.close();
+                throw new ConnectFourException(
+                        "Server does not multiplex: " + reply);
+            }
+        }
+        catch (IOException | NoSuchElementException e) {
+            throw new ConnectFourException(e);
+        }
+        Thread reader = new Thread(this::run, "multiplex-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Start a new game on this connection. Like the
+     * {@link ConnectFourNetworkClient#ConnectFourNetworkClient(String, int,
+     * ConnectFourBoard) constructor} of a client with its own connection,
+     * this blocks until the server's {@link ConnectFourProtocol#CONNECT}
+     * message for the game arrives; the caller then starts the client's
+     * listener as usual.
+     *
+     * @param board the board for the game, sized as the server says
+     * @return the client for the game
+     * @throws ConnectFourException if the connection is lost before the
+     * game starts
+     */
+    public ConnectFourNetworkClient newGame(ConnectFourBoard board)
+            throws ConnectFourException {
+        Game game = new Game(nextId.getAndIncrement(), board);
+        games.put(game.id, game);
+        if (closed) {
+            // the reader may have missed this game when it hung up
+            game.hangUp();
+        }
+        send(game.id, CONNECT);
+        game.awaitConnect();
+        return game;
+    }
+
+    /**
+     * @return how many games are in progress on this connection
+     */
+    public int getGameCount() {
+        return games.size();
+    }
+
+    /**
+     * Close the connection, and so every game on it.
+     */
+    public void close() {
+        closed = true;
+        try {
+            clientSocket.close();
+        }
+        catch (IOException ioe) {
+            // squash
+        }
+    }
+
+    /**
+     * Send a message for one game to the server.
+     *
+     * @param id the game's id
+     * @param message the message
+     */
+    private void send(int id, String message) {
+        synchronized (networkOut) {
+            networkOut.println(id + " " + message);
+            networkOut.flush();
+        }
+    }
+
+    /**
+     * Read messages from the server and queue each one for the game it is
+     * tagged with, until the connection is lost. Then every game still in
+     * progress is told so.
+     */
+    private void run() {
+        try {
+            while (true) {
+                String line = networkIn.nextLine();
+                int space = line.indexOf(' ');
+                Game game = null;
+                if (space > 0) {
+                    try {
+                        game = games.get(Integer.parseInt(line.substring(0, space)));
+                    }
+                    catch (NumberFormatException e) {
+                        // an untagged message, e.g. an error about the connection
+                    }
+                }
+                if (game != null) {
+                    game.inbox.add(line.substring(space + 1));
+                }
+                else {
+                    System.err.println("Message for no game: " + line);
+                }
+            }
+        }
+        catch (NoSuchElementException | IllegalStateException e) {
+            // the connection is closed
+        }
+        close();
+        for (Game game : games.values()) {
+            game.hangUp();
+        }
+    }
+
+    /**
+     * The client for one game on the connection.
+     */
+    private class Game extends ConnectFourNetworkClient {
+        /**
+         * What {@link #receive()} finds once the connection is lost.
+         * Compared by identity, so the server can't send it.
+         */
+        private final String hungUp = new String("");
+        /** the game's id */
+        private final int id;
+        /** messages from the server for this game, not yet received */
+        private final BlockingQueue<String> inbox = new LinkedBlockingQueue<>();
+
+        /**
+         * Set up the client for a game.
+         *
+         * @param id the game's id
+         * @param board the game's board
+         */
+        Game(int id, ConnectFourBoard board) {
+            super(board);
+            this.id = id;
+        }
+
+        @Override
+        protected void send(String message) {
+            ConnectFourMultiplexClient.this.send(id, message);
+        }
+
+        @Override
+        protected String receive() {
+            String message;
+            try {
+                message = inbox.take();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NoSuchElementException("Interrupted");
+            }
+            if (message == hungUp) {
+                inbox.add(hungUp);
+                throw new NoSuchElementException("Lost connection");
+            }
+            return message;
+        }
+
+        /**
+         * Stop taking messages for this game, which is over. The connection
+         * stays open for the other games.
+         */
+        @Override
+        protected void hangUp() {
+            games.remove(id);
+            inbox.add(hungUp);
+        }
+    }
+}
@@ -2,12 +2,15 @@ package connectfour.client;
 
 import connectfour.ConnectFourException;
 import connectfour.ConnectFourProtocol;
+import connectfour.ConnectFourTls;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.net.Socket;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
+import java.util.concurrent.ThreadFactory;
 
 import static connectfour.ConnectFourProtocol.*;
 
@@ -36,6 +39,19 @@ public class ConnectFourNetworkClient {
         }
     }
 
+    /** how long to keep trying to get back to the server, in ms */
+    private static final long RESUME_MILLIS = 60_000;
+    /** how long to wait between tries to get back to it, in ms */
+    private static final long RETRY_MILLIS = 500;
+
+    /** the server's host, for resuming games; null if not our own socket */
+    private String host;
+    /** the server's port, for resuming games */
+    private int port;
+    /** the name to play under; null to be known by our address */
+    private String name;
+    /** the key to resume the game with if the connection is lost; or null */
+    private volatile String key;
     /** client socket to communicate with server */
     private Socket clientSocket;
     /** used to read requests from the server */
@@ -46,6 +62,12 @@ public class ConnectFourNetworkClient {
     private ConnectFourBoard board;
     /** sentinel loop used to control the main loop */
     private boolean go;
+    /** how long the server took to echo each of our moves */
+    private final LatencyHistogram roundTrips = new LatencyHistogram();
+    /** when our unechoed move was sent, in nanoseconds; 0 if none */
+    private volatile long sentAt;
+    /** the latest round trip, in microseconds; -1 before the first */
+    private volatile long lastRoundTrip = -1;
 
     /**
      * Accessor that takes multithreaded access into account
@@ -78,10 +100,11 @@ public class ConnectFourNetworkClient {
 
     /**
      * Hook up with a ConnectFour game server already running and waiting for
-     * two players to connect. Because of the nature of the server
-     * protocol, this constructor actually blocks waiting for the first
-     * message (connect) from the server.  Afterwards a thread that listens for
-     * server messages and forwards them to the game object is started.
+     * two players to connect, and ask to {@link ConnectFourProtocol#PLAY}.
+     * Because of the nature of the server protocol, this constructor then
+     * actually blocks waiting for the first message (connect) from the
+     * server.  Afterwards a thread that listens for server messages and
+     * forwards them to the game object is started.
      *
      * @param host  the name of the host running the server program
      * @param port  the port of the server socket on which the server is listening
@@ -91,19 +114,35 @@ public class ConnectFourNetworkClient {
      */
     public ConnectFourNetworkClient(String host, int port, ConnectFourBoard board)
             throws ConnectFourException {
+        this(host, port, null, board);
+    }
+
+    /**
+     * Hook up with a ConnectFour game server as above, under a name of our
+     * own rather than the address we connect from, which players behind
+     * the same NAT share.
+     *
+     * @param host  the name of the host running the server program
+     * @param port  the port of the server socket on which the server is listening
+     * @param name  the name to play under, without spaces; null for none
+     * @param board the local object holding the state of the game that
+     *              must be updated upon receiving server messages
+     * @throws ConnectFourException If there is a problem opening the connection
+     */
+    public ConnectFourNetworkClient(String host, int port, String name,
+                                    ConnectFourBoard board)
+            throws ConnectFourException {
         try {
-            this.clientSocket = new Socket(host, port);
-            this.networkIn = new Scanner(clientSocket.getInputStream());
-            this.networkOut = new PrintStream(clientSocket.getOutputStream());
+            this.host = host;
+            this.port = port;
+            this.name = name;
+            open();
             this.board = board;
             this.go = true;
+            this.send( withName( PLAY ) );
 
             // Block waiting for the CONNECT message from the server.
-            String request = this.networkIn.next();
-            String arguments = this.networkIn.nextLine();
-            if (!request.equals(ConnectFourProtocol.CONNECT )) {
-                throw new ConnectFourException("Expected CONNECT from server");
-            }
+            awaitConnect();
             ConnectFourNetworkClient.dPrint("Connected to server " + this.clientSocket);
         }
         catch(IOException e) {
@@ -111,6 +150,140 @@ public class ConnectFourNetworkClient {
         }
     }
 
+    /**
+     * Open a connection to the server.
+     *
+     * @throws IOException if it can't be opened
+     */
+    private void open() throws IOException {
+        this.clientSocket = ConnectFourTls.connect(this.host, this.port);
+        this.clientSocket.setTcpNoDelay(true);
+        this.networkIn = new Scanner(clientSocket.getInputStream());
+        // flushed by hand once each message is complete
+        this.networkOut = new PrintStream(new BufferedOutputStream(
+                clientSocket.getOutputStream()), false);
+    }
+
+    /**
+     * @param request a request to the server
+     * @return the request, followed by our name if we have one
+     */
+    private String withName( String request ) {
+        return this.name == null ? request : request + " " + this.name;
+    }
+
+    /**
+     * Set up a client whose messages do not travel over a socket of its own.
+     * A subclass that uses this overrides {@link #send(String)},
+     * {@link #receive()} and {@link #hangUp()}, and calls
+     * {@link #awaitConnect()} once it can receive messages.
+     *
+     * @param board the local object holding the state of the game that
+     *              must be updated upon receiving server messages
+     */
+    protected ConnectFourNetworkClient(ConnectFourBoard board) {
+        this.board = board;
+        this.go = true;
+    }
+
+    /**
+     * Block waiting for the server's {@link ConnectFourProtocol#CONNECT}
+     * message, and size the board as it says.
+     *
+     * @throws ConnectFourException if the server sends something else or
+     * hangs up
+     */
+    protected void awaitConnect() throws ConnectFourException {
+        String message;
+        try {
+            message = receive();
+        }
+        catch( NoSuchElementException e ) {
+            throw new ConnectFourException("Lost connection to server");
+        }
+        connected( message );
+    }
+
+    /**
+     * Handle what should be the server's {@link ConnectFourProtocol#CONNECT}
+     * message, and size the board as it says.
+     *
+     * @param message the message
+     * @throws ConnectFourException if it is something else
+     */
+    private void connected( String message ) throws ConnectFourException {
+        int space = message.indexOf( ' ' );
+        String request = space < 0 ? message : message.substring( 0, space );
+        String arguments = space < 0 ? "" : message.substring( space + 1 );
+        if ( request.equals( ERROR ) ) {
+            throw new ConnectFourException( arguments );
+        }
+        if (!request.equals(ConnectFourProtocol.CONNECT )) {
+            throw new ConnectFourException("Expected CONNECT from server");
+        }
+        connect(arguments);
+    }
+
+    /**
+     * Send one message to the server, straight away.
+     *
+     * @param message the message, without its line terminator
+     */
+    protected void send( String message ) {
+        this.networkOut.println( message );
+        this.networkOut.flush();
+    }
+
+    /**
+     * Wait for the next message from the server.
+     *
+     * @return the message, without its line terminator
+     * @throws NoSuchElementException if the connection is lost
+     */
+    protected String receive() {
+        return this.networkIn.nextLine();
+    }
+
+    /**
+     * Close the connection to the server.
+     */
+    protected void hangUp() {
+        try {
+            this.clientSocket.close();
+        }
+        catch( IOException ioe ) {
+            // squash
+        }
+    }
+
+    /**
+     * Size the board as the server's {@link ConnectFourProtocol#CONNECT}
+     * message says. A server that does not send a size uses the standard
+     * board.
+     *
+     * @param arguments the rest of the CONNECT message: rows, columns and
+     *                  win length, or nothing
+     * @throws ConnectFourException if the size can't be understood
+     */
+    private void connect( String arguments ) throws ConnectFourException {
+        String[] fields = arguments.trim().split( " " );
+        if ( fields.length == 3 ) {
+            try {
+                this.board.allocate( Integer.parseInt( fields[0] ),
+                        Integer.parseInt( fields[1] ),
+                        Integer.parseInt( fields[2] ) );
+            }
+            catch( NumberFormatException e ) {
+                throw new ConnectFourException(
+                        "Bad board size from server: " + arguments );
+            }
+        }
+        else if ( !arguments.isBlank() ) {
+            throw new ConnectFourException(
+                    "Bad board size from server: " + arguments );
+        }
+    }
+
     /**
      * Called from the GUI when it is ready to start receiving messages
      * from the server.
@@ -119,6 +292,17 @@ public class ConnectFourNetworkClient {
         new Thread(() -> this.run()).start();
     }
 
+    /**
+     * Called when it is ready to start receiving messages from the server,
+     * using a listener thread made by the given factory. Headless clients
+     * that run by the thousand use this to control how that thread is built.
+     *
+     * @param factory makes the thread that listens for server messages
+     */
+    public void startListener( ThreadFactory factory ) {
+        factory.newThread(() -> this.run()).start();
+    }
+
     /**
      * Tell the local user to choose a move. How this is communicated to
      * the user is up to the View (UI).
@@ -140,6 +324,16 @@ public class ConnectFourNetworkClient {
         String[] fields = arguments.trim().split( " " );
         int column = Integer.parseInt(fields[0]);
 
+        // The server handles moves in order, so the first move after ours
+        // was sent is its echo.
+        long sent = this.sentAt;
+        if ( sent != 0 ) {
+            long micros = ( System.nanoTime() - sent ) / 1000;
+            this.roundTrips.record( micros );
+            this.lastRoundTrip = micros;
+            this.sentAt = 0;
+        }
+
         // Update the board model.
         this.board.moveMade(column);
     }
@@ -178,27 +372,112 @@ public class ConnectFourNetworkClient {
         this.stop();
     }
 
+    /**
+     * Called when the server sends a message saying that it is restarting
+     * and has saved the game. Keeps trying to reconnect until the new
+     * server is up, then resumes the game there; the server replays the
+     * moves so far onto the board. A client whose connection is not its
+     * own can't do this, so for it the game just ends.
+     *
+     * @param key the key to resume the game with
+     */
+    public void suspended( String key ) {
+        ConnectFourNetworkClient.dPrint( '!' + SUSPENDED + ',' + key );
+        this.hangUp();
+        if ( this.host == null ) {
+            this.error( "Server restarted" );
+            return;
+        }
+        resume( key );
+    }
+
+    /**
+     * Called when the server sends the key to resume the game with should
+     * the connection be lost.
+     *
+     * @param key the key
+     */
+    public void gameKey( String key ) {
+        ConnectFourNetworkClient.dPrint( '!' + GAME_KEY + ',' + key );
+        this.key = key;
+    }
+
+    /**
+     * Keep trying to reconnect to the server until it is up, then resume
+     * the game there.
+     *
+     * @param key the key to resume the game with
+     */
+    private void resume( String key ) {
+        long deadline = System.currentTimeMillis() + RESUME_MILLIS;
+        while ( true ) {
+            try {
+                open();
+                this.send( withName( RESUME + " " + key ) );
+                connected( this.receive() );
+                return;
+            }
+            catch( IOException | NoSuchElementException e ) {
+                // the new server is not up yet, or the old one went down
+                // as we connected
+                if ( System.currentTimeMillis() > deadline ) {
+                    this.error( "Could not get back to the server" );
+                    return;
+                }
+            }
+            catch( ConnectFourException e ) {
+                this.hangUp();
+                this.error( "Could not resume the game: " + e.getMessage() );
+                return;
+            }
+            try {
+                Thread.sleep( RETRY_MILLIS );
+            }
+            catch( InterruptedException e ) {
+                this.error( "Interrupted while resuming the game" );
+                return;
+            }
+        }
+    }
+
     /**
      * This method should be called at the end of the game to
      * close the client connection.
      */
     public void close() {
-        try {
-            this.clientSocket.close();
-        }
-        catch( IOException ioe ) {
-            // squash
-        }
+        this.hangUp();
         this.board.close();
     }
 
     /**
-     * UI wants to send a new move to the server.
+     * UI wants to send a new move to the server. The move is shown on the
+     * board at once, without waiting for the server to echo it, and taken
+     * back if the server rejects it.
      *
      * @param col the column
      */
     public void sendMove(int col) {
-        this.networkOut.println( MOVE + " " + col );
+        this.board.moveSent( col );
+        this.sentAt = System.nanoTime();
+        this.send( MOVE + " " + col );
+    }
+
+    /**
+     * How long the server has taken to echo each of our moves, from sending
+     * the move to its {@link ConnectFourProtocol#MOVE_MADE} arriving.
+     *
+     * @return the round trip times, in microseconds
+     */
+    public LatencyHistogram getRoundTrips() {
+        return this.roundTrips;
+    }
+
+    /**
+     * @return the round trip time of our latest echoed move, in
+     * microseconds, or -1 if none has been echoed yet
+     */
+    public long getLastRoundTrip() {
+        return this.lastRoundTrip;
     }
 
 
@@ -210,8 +489,10 @@ public class ConnectFourNetworkClient {
     private void run() {
         while (this.goodToGo()) {
             try {
-                String request = this.networkIn.next();
-                String arguments = this.networkIn.nextLine().trim();
+                String message = this.receive().trim();
+                int space = message.indexOf( ' ' );
+                String request = space < 0 ? message : message.substring( 0, space );
+                String arguments = space < 0 ? "" : message.substring( space + 1 ).trim();
                 ConnectFourNetworkClient.dPrint( "Net message in = \"" + request + '"' );
 
                 switch ( request ) {
@@ -233,6 +514,12 @@ public class ConnectFourNetworkClient {
                     case ERROR:
                         error( arguments );
                         break;
+                    case SUSPENDED:
+                        suspended( arguments );
+                        break;
+                    case GAME_KEY:
+                        gameKey( arguments );
+                        break;
                     default:
                         System.err.println("Unrecognized request: " + request);
                         this.stop();
@@ -241,8 +528,14 @@ public class ConnectFourNetworkClient {
             }
             catch( NoSuchElementException nse ) {
                 // Looks like the connection shut down.
-                this.error( "Lost connection to server." );
-                this.stop();
+                if ( this.key != null && this.host != null ) {
+                    this.hangUp();
+                    resume( this.key );
+                }
+                else {
+                    this.error( "Lost connection to server." );
+                    this.stop();
+                }
             }
             catch( Exception e ) {
                 this.error( e.getMessage() + '?' );
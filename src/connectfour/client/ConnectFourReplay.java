@@ -0,0 +1,163 @@
+package connectfour.client;
+
+import connectfour.ConnectFourException;
+import connectfour.model.GameRecord;
+import connectfour.model.GameReplay;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays back a recorded game on a {@link ConnectFourBoard}, taking the place
+ * of {@link ConnectFourNetworkClient} as the board's controller. Views
+ * observe the board just as they do during a live game. Playback can jump
+ * to any move, step back and forth, or run by itself at any speed.<P>
+ *
+ * Running playback advances on a fixed tick. At speeds above the tick rate
+ * several moves are made per tick and observers are told about the result
+ * once, which is what lets a game play back at thousands of moves a second.
+ */
+public class ConnectFourReplay {
+    /** how often running playback moves on, in milliseconds */
+    private static final long TICK_MILLIS = 16;
+
+    /** the board being shown */
+    private final ConnectFourBoard board;
+    /** every position of the game */
+    private final GameReplay replay;
+    /** runs playback */
+    private final ScheduledExecutorService timer;
+
+    /** how many moves are being shown */
+    private int ply;
+    /** moves a second during playback */
+    private double speed = 1;
+    /** moves due but not yet made, because they were a fraction of a move */
+    private double owed;
+    /** the running playback, or null if paused */
+    private ScheduledFuture<?> playing;
+
+    /**
+     * Load a recorded game and show its starting position.
+     *
+     * @param record the game
+     * @param board the board to show it on
+     * @throws ConnectFourException if the record is not a legal game
+     */
+    public ConnectFourReplay(GameRecord record, ConnectFourBoard board)
+            throws ConnectFourException {
+        this.board = board;
+        this.replay = new GameReplay(record);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "replay");
+            t.setDaemon(true);
+            return t;
+        });
+        board.allocate(record.getRows(), record.getCols(),
+                record.getWinLength());
+        seek(0);
+    }
+
+    /**
+     * @return how many moves the game has
+     */
+    public int length() {
+        return replay.length();
+    }
+
+    /**
+     * @return how many moves are being shown
+     */
+    public synchronized int getPly() {
+        return ply;
+    }
+
+    /**
+     * Show the position after the given number of moves.
+     *
+     * @param ply how many moves; clamped to the length of the game
+     */
+    public synchronized void seek(int ply) {
+        this.ply = Math.max(0, Math.min(ply, length()));
+        board.showPosition(replay.snapshotAt(this.ply));
+    }
+
+    /**
+     * Move forwards or backwards.
+     *
+     * @param moves how many moves to go forward; negative to go back
+     */
+    public synchronized void step(int moves) {
+        seek(ply + moves);
+    }
+
+    /**
+     * @return moves a second during playback
+     */
+    public synchronized double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Change the speed of playback, which may be running or not.
+     *
+     * @param movesPerSecond moves a second; must be positive
+     */
+    public synchronized void setSpeed(double movesPerSecond) {
+        this.speed = movesPerSecond;
+    }
+
+    /**
+     * @return true if playback is running
+     */
+    public synchronized boolean isPlaying() {
+        return playing != null;
+    }
+
+    /**
+     * Start playing from the current move. Playback stops by itself at the
+     * end of the game.
+     */
+    public synchronized void play() {
+        if (playing == null) {
+            owed = 0;
+            playing = timer.scheduleAtFixedRate(this::tick,
+                    TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stop playing, staying at the current move.
+     */
+    public synchronized void pause() {
+        if (playing != null) {
+            playing.cancel(false);
+            playing = null;
+        }
+    }
+
+    /**
+     * Stop playing for good.
+     */
+    public void close() {
+        pause();
+        timer.shutdownNow();
+    }
+
+    /**
+     * One tick of running playback.
+     */
+    private synchronized void tick() {
+        owed += speed * TICK_MILLIS / 1000.0;
+        int moves = (int) owed;
+        if (moves > 0) {
+            owed -= moves;
+            step(moves);
+        }
+        if (ply == length()) {
+            pause();
+        }
+    }
+}
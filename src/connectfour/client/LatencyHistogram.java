@@ -0,0 +1,120 @@
+package connectfour.client;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size, thread-safe histogram of latencies in microseconds. Values
+ * are grouped into power-of-two ranges that are each split into
+ * {@link #SUB_BUCKETS} linear buckets, so the memory used does not grow
+ * with the length of a run and every recorded value is reported to within
+ * about 6% of its true value.
+ */
+public class LatencyHistogram {
+    /** how many linear buckets each power-of-two range is split into */
+    private static final int SUB_BUCKETS = 16;
+    /** log2 of {@link #SUB_BUCKETS} */
+    private static final int SUB_BITS = 4;
+    /** enough ranges to hold any non-negative long */
+    private static final int RANGES = 64 - SUB_BITS + 1;
+
+    /** the bucket counts */
+    private final AtomicLongArray counts =
+            new AtomicLongArray(RANGES * SUB_BUCKETS);
+    /** total number of recorded values */
+    private final LongAdder total = new LongAdder();
+    /** sum of recorded values, for the mean */
+    private final LongAdder sum = new LongAdder();
+    /** largest recorded value */
+    private volatile long max;
+
+    /**
+     * Record one latency.
+     *
+     * @param micros the latency in microseconds; negative values count as 0
+     */
+    public void record(long micros) {
+        long value = Math.max(0, micros);
+        counts.incrementAndGet(bucketOf(value));
+        total.increment();
+        sum.add(value);
+        if (value > max) {
+            synchronized (this) {
+                if (value > max) {
+                    max = value;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return how many values have been recorded
+     */
+    public long getCount() {
+        return total.sum();
+    }
+
+    /**
+     * @return the mean of the recorded values, or 0 if there are none
+     */
+    public double getMean() {
+        long n = total.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * @return the largest recorded value
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * The value below which the given fraction of the recorded values fall.
+     *
+     * @param fraction a number between 0 and 1, e.g. 0.99 for the 99th
+     *                 percentile
+     * @return the upper edge of the bucket holding that percentile, or 0 if
+     * nothing has been recorded
+     */
+    public long getPercentile(double fraction) {
+        long n = total.sum();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); ++i) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperEdgeOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Which bucket a value goes in. Values below {@link #SUB_BUCKETS} get
+     * a bucket each; larger ones are grouped by their highest set bit.
+     */
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return (shift + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * The largest value that {@link #bucketOf(long)} maps to the bucket.
+     */
+    private static long upperEdgeOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+}
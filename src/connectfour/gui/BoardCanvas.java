@@ -0,0 +1,183 @@
+package connectfour.gui;
+
+import connectfour.model.GridSnapshot;
+import connectfour.model.Move;
+import javafx.animation.AnimationTimer;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A view of the board drawn on a single {@link Canvas}, for boards too big
+ * for a button per cell and for replaying games faster than the screen
+ * refreshes.<P>
+ *
+ * Any thread may hand the canvas the position to show with
+ * {@link #show(GridSnapshot)}. Once per JavaFX pulse the canvas draws only
+ * the cells that differ from what it drew last, however many positions it
+ * was given in between. Pieces never move within a game, so those are just
+ * the cells between the old and new height of each column.
+ */
+public class BoardCanvas extends Canvas {
+    /** the number of rows */
+    private final int rows;
+    /** the number of columns */
+    private final int cols;
+    /** the width and height of a cell, in pixels */
+    private final double cellSize;
+    /** the images for the cells, already scaled to the cell size */
+    private final Image empty, p1, p2;
+    /** how many pieces were in each column when the board was last drawn */
+    private final int[] shownHeights;
+    /** the position to draw on the next pulse */
+    private volatile GridSnapshot target;
+    /** the position drawn on the last pulse */
+    private GridSnapshot drawn;
+    /** true if every cell must be drawn on the next pulse */
+    private boolean fullRedraw = true;
+    /** calls {@link #draw()} on every pulse */
+    private final AnimationTimer timer;
+
+    /** how many frames actually drew something */
+    private long frameCount;
+    /** total time spent drawing those frames */
+    private long frameNanos;
+    /** longest time spent drawing one frame */
+    private long maxFrameNanos;
+
+    /**
+     * Create an empty board and start drawing it.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param cellSize the width and height of a cell, in pixels
+     * @param empty the image of an empty cell, scaled to the cell size
+     * @param p1 the image of player one's piece, scaled to the cell size
+     * @param p2 the image of player two's piece, scaled to the cell size
+     */
+    public BoardCanvas(int rows, int cols, double cellSize,
+                       Image empty, Image p1, Image p2) {
+        super(cols * cellSize, rows * cellSize);
+        this.rows = rows;
+        this.cols = cols;
+        this.cellSize = cellSize;
+        this.empty = empty;
+        this.p1 = p1;
+        this.p2 = p2;
+        this.shownHeights = new int[cols];
+        this.timer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                draw();
+            }
+        };
+        this.timer.start();
+    }
+
+    /**
+     * Say what to do when the user clicks on the board.
+     *
+     * @param handler called with the column that was clicked
+     */
+    public void setOnColumnClicked(IntConsumer handler) {
+        setOnMouseClicked(event -> {
+            int col = (int) (event.getX() / cellSize);
+            if (col >= 0 && col < cols) {
+                handler.accept(col);
+            }
+        });
+    }
+
+    /**
+     * Show a position on the next pulse. May be called from any thread, as
+     * often as you like. Positions must come from one game; call
+     * {@link #redrawAll()} before showing a position from another.
+     *
+     * @param snapshot the position to show
+     */
+    public void show(GridSnapshot snapshot) {
+        this.target = snapshot;
+    }
+
+    /**
+     * Draw every cell on the next pulse. Must be called on the JavaFX thread.
+     */
+    public void redrawAll() {
+        this.fullRedraw = true;
+    }
+
+    /**
+     * Stop drawing, e.g. because the window is closing.
+     */
+    public void stop() {
+        this.timer.stop();
+    }
+
+    /**
+     * @return how many frames have drawn something
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * @return the mean time spent drawing a frame, in microseconds
+     */
+    public double getMeanFrameMicros() {
+        return frameCount == 0 ? 0 : frameNanos / 1000.0 / frameCount;
+    }
+
+    /**
+     * @return the longest time spent drawing a frame, in microseconds
+     */
+    public double getMaxFrameMicros() {
+        return maxFrameNanos / 1000.0;
+    }
+
+    /**
+     * Bring the canvas up to date with the latest position it was given.
+     */
+    private void draw() {
+        GridSnapshot snapshot = this.target;
+        if (snapshot == null || (snapshot == drawn && !fullRedraw)) {
+            return;
+        }
+        long start = System.nanoTime();
+        GraphicsContext gc = getGraphicsContext2D();
+        for (int col = 0; col < cols; col++) {
+            int height = snapshot.getHeight(col);
+            int from = fullRedraw ? 0 : Math.min(height, shownHeights[col]);
+            int to = fullRedraw ? rows : Math.max(height, shownHeights[col]);
+            for (int h = from; h < to; h++) {
+                gc.drawImage(imageAt(snapshot, col, h),
+                        col * cellSize, (rows - 1 - h) * cellSize);
+            }
+            shownHeights[col] = height;
+        }
+        drawn = snapshot;
+        fullRedraw = false;
+
+        long took = System.nanoTime() - start;
+        frameCount++;
+        frameNanos += took;
+        maxFrameNanos = Math.max(maxFrameNanos, took);
+    }
+
+    /**
+     * Which image belongs in a cell?
+     *
+     * @param snapshot the position being drawn
+     * @param col the column
+     * @param height how far up the column; 0 is the bottom
+     * @return the image
+     */
+    private Image imageAt(GridSnapshot snapshot, int col, int height) {
+        if (height >= snapshot.getHeight(col)) {
+            return empty;
+        }
+        return snapshot.getContents(rows - 1 - height, col) == Move.PLAYER_ONE ?
+                p1 : p2;
+    }
+}
@@ -4,10 +4,13 @@ import connectfour.ConnectFourException;
 import connectfour.client.ConnectFourBoard;
 import connectfour.client.ConnectFourNetworkClient;
 import connectfour.client.Observer;
+import connectfour.model.GridSnapshot;
+import connectfour.model.Move;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
+import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.Label;
@@ -16,7 +19,9 @@ import javafx.scene.image.ImageView;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.GridPane;
 import javafx.stage.Stage;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * A JavaFX GUI for the networked Connect Four game.
@@ -29,11 +34,37 @@ public class ConnectFourGUI extends Application implements Observer<ConnectFourB
 
     private ConnectFourBoard board;
     private ConnectFourNetworkClient client;
-    private static final int COL = 6;
-    private static final int ROW = 5;
+    /** largest width or height of the board, in pixels, before pieces shrink */
+    private static final int MAX_BOARD_PIXELS = 640;
+    /** size of the piece images as drawn */
+    private static final int PIECE_PIXELS = 64;
+    /** boards with more cells than this are drawn on a canvas by default */
+    private static final int CANVAS_CELLS = 400;
+    private int cols;
+    private int rows;
+    private double cellSize;
+    private boolean useCanvas;
     private Button[][] buttons;
+    /** the piece shown on each button, reused from one update to the next */
+    private ImageView[][] pieces;
+    /** how many pieces were in each column when the board was last drawn */
+    private int[] shownHeights;
+    private GridPane gridPane;
+    /** the board drawn on a canvas instead of buttons; null if not used */
+    private BoardCanvas canvas;
+    /** whichever of the grid of buttons or the canvas shows the board */
+    private Node boardView;
+    /** true while a refresh is queued on the JavaFX thread but not yet run */
+    private final AtomicBoolean refreshQueued = new AtomicBoolean();
+    /** whether to print how long refreshes took when the GUI closes */
+    private static final boolean PRINT_FRAME_TIMES =
+            Boolean.getBoolean("connectfour.gui.frameTimes");
+    private long refreshCount;
+    private long refreshNanos;
+    private long maxRefreshNanos;
     private Label turnLabel;
     private Label movesLeft;
+    private Image empty;
     private Image p1;
     private Image p2;
 
@@ -46,24 +77,46 @@ public class ConnectFourGUI extends Application implements Observer<ConnectFourB
     public void init() throws ConnectFourException {
         try {
             // get the command line args
-            List<String> args = getParameters().getRaw();
+            List<String> args = getParameters().getUnnamed();
+            String renderer = getParameters().getNamed().get("renderer");
+            String name = getParameters().getNamed().get("name");
 
             // get host info and port from command line
             String host = args.get(0);
             int port = Integer.parseInt(args.get(1));
             this.board = new ConnectFourBoard();
             this.board.addObserver(this);
-            this.client = new ConnectFourNetworkClient(host, port, board);
+            this.client = new ConnectFourNetworkClient(host, port, name,
+                    board);
+            // the server has told the board its size by now
+            this.cols = board.getCols();
+            this.rows = board.getRows();
+            this.cellSize = Math.min(PIECE_PIXELS,
+                    MAX_BOARD_PIXELS / Math.max(cols, rows));
+            if (renderer == null) {
+                renderer = rows * cols > CANVAS_CELLS ? "canvas" : "buttons";
+            }
+            this.useCanvas = renderer.equals("canvas");
             this.turnLabel = new Label("");
             this.movesLeft = new Label("");
-            this.p1 = new Image(getClass().getResourceAsStream("p1black.png"));
-            this.p2 = new Image(getClass().getResourceAsStream("p2red.png"));
+            this.p1 = loadImage("p1black.png");
+            this.p2 = loadImage("p2red.png");
         } catch(NumberFormatException e) {
             System.err.println(e);
             throw new RuntimeException(e);
         }
     }
 
+    /**
+     * Load one of the piece images, scaled to the cell size.
+     * @param name the image file name
+     * @return the image
+     */
+    private Image loadImage(String name) {
+        return new Image(getClass().getResourceAsStream(name),
+                cellSize, cellSize, true, true);
+    }
+
     /**
      * Construct the layout for the game.
      *
@@ -71,24 +124,20 @@ public class ConnectFourGUI extends Application implements Observer<ConnectFourB
      * @throws Exception if there is a problem
      */
     public void start( Stage stage ) throws Exception {
-        Image image = new Image(getClass().getResourceAsStream("empty.png"));
-        GridPane gridPane = new GridPane();
-
-        buttons = new Button[COL+1][ROW+1];
-
-        for (int row = 0; row <= ROW; row++) {
-            for (int col = 0; col <= COL; col++) {
-                buttons[col][row] = new Button();
-                buttons[col][row].setGraphic(new ImageView(image));
-                buttons[col][row].setOnAction(clickedButton(col));
-                gridPane.add(buttons[col][row], col, row);
-            }
+        Image image = loadImage("empty.png");
+        this.empty = image;
+        if (useCanvas) {
+            canvas = new BoardCanvas(rows, cols, cellSize, image, p1, p2);
+            canvas.setOnColumnClicked(this::columnClicked);
+            canvas.show(board.getSnapshot());
+            boardView = canvas;
+        } else {
+            boardView = makeButtons(image);
         }
         disableButtons();
 
         BorderPane borderPane = new BorderPane();
-        borderPane.setPrefSize(456, 456);
-        borderPane.setCenter(gridPane);
+        borderPane.setCenter(boardView);
 
         turnLabel.setText("NOT YOUR TURN");
         movesLeft.setText("MOVES LEFT: " + board.getMovesLeft());
@@ -104,6 +153,31 @@ public class ConnectFourGUI extends Application implements Observer<ConnectFourB
         client.startListener();
     }
 
+    /**
+     * Make a button for every cell of the board.
+     *
+     * @param image the image of an empty cell
+     * @return the grid holding the buttons
+     */
+    private GridPane makeButtons(Image image) {
+        gridPane = new GridPane();
+
+        buttons = new Button[cols][rows];
+        pieces = new ImageView[cols][rows];
+        shownHeights = new int[cols];
+
+        for (int row = 0; row < rows; row++) {
+            for (int col = 0; col < cols; col++) {
+                buttons[col][row] = new Button();
+                pieces[col][row] = new ImageView(image);
+                buttons[col][row].setGraphic(pieces[col][row]);
+                buttons[col][row].setOnAction(clickedButton(col));
+                gridPane.add(buttons[col][row], col, row);
+            }
+        }
+        return gridPane;
+    }
+
     /**
      * Event handler for when a button is pressed
      * @param col - clicked column to send to server
@@ -111,25 +185,29 @@ public class ConnectFourGUI extends Application implements Observer<ConnectFourB
      * and if it is a valid move
      */
     private EventHandler<ActionEvent> clickedButton(int col) {
-        return event -> {
-            if (board.isMyTurn()) {
-                if (board.isValidMove(col)) {
-                    client.sendMove(col);
-                }
+        return event -> columnClicked(col);
+    }
+
+    /**
+     * The user clicked somewhere in a column, either on a button or on the
+     * canvas.
+     * @param col - clicked column to send to server
+     */
+    private void columnClicked(int col) {
+        if (board.isMyTurn()) {
+            if (board.isValidMove(col)) {
+                client.sendMove(col);
             }
-        };
+        }
     }
 
     /**
      * Helper method to disable all buttons when
-     * it is not the players turn
+     * it is not the players turn. Disabling the grid disables every
+     * button in it at once.
      */
     private void disableButtons() {
-        for (int row = 0; row <= ROW; row++) {
-            for (int col = 0; col <= COL; col++) {
-                buttons[col][row].setDisable(true);
-            }
-        }
+        boardView.setDisable(true);
     }
 
     /**
@@ -137,26 +215,37 @@ public class ConnectFourGUI extends Application implements Observer<ConnectFourB
      * is the players turn
      */
     private void enableButtons() {
-        for (int row = 0; row <= ROW; row++) {
-            for (int col = 0; col <= COL; col++) {
-                buttons[col][row].setDisable(false);
-            }
-        }
+        boardView.setDisable(false);
     }
 
     /**
      * This method checks the contents of the board and
-     * updates the image based on what players piece is there
+     * updates the image based on what players piece is there.
+     * Pieces never move once dropped, but one played ahead of the server
+     * is taken back if the server turns it down, so only the cells between
+     * the heights last drawn and the current heights can have changed, and
+     * those above the current height are emptied.
      */
     private void checkBoard() {
-        for (int row = 0; row <= ROW; row++) {
-            for (int col = 0; col <= COL; col++) {
-                if (board.getContents(row, col) == ConnectFourBoard.Move.PLAYER_ONE) {
-                    buttons[col][row].setGraphic(new ImageView(p1));
-                } else if (board.getContents(row, col) == ConnectFourBoard.Move.PLAYER_TWO) {
-                    buttons[col][row].setGraphic(new ImageView(p2));
+        GridSnapshot snapshot = board.getSnapshot();
+        if (canvas != null) {
+            canvas.show(snapshot);
+            return;
+        }
+        for (int col = 0; col < cols; col++) {
+            int height = snapshot.getHeight(col);
+            int from = Math.min(height, shownHeights[col]);
+            int to = Math.max(height, shownHeights[col]);
+            for (int h = from; h < to; h++) {
+                int row = rows - 1 - h;
+                if (h >= height) {
+                    pieces[col][row].setImage(empty);
+                } else {
+                    Move piece = snapshot.getContents(row, col);
+                    pieces[col][row].setImage(piece == Move.PLAYER_ONE ? p1 : p2);
                 }
             }
+            shownHeights[col] = height;
         }
     }
 
@@ -166,12 +255,26 @@ public class ConnectFourGUI extends Application implements Observer<ConnectFourB
     @Override
     public void stop() {
         client.close();
+        if (PRINT_FRAME_TIMES && refreshCount > 0) {
+            System.out.printf("refreshes: %d, mean %.1f us, max %.1f us%n",
+                    refreshCount, refreshNanos / 1000.0 / refreshCount,
+                    maxRefreshNanos / 1000.0);
+        }
+        if (canvas != null) {
+            canvas.stop();
+            if (PRINT_FRAME_TIMES) {
+                System.out.printf("frames: %d, mean %.1f us, max %.1f us%n",
+                        canvas.getFrameCount(), canvas.getMeanFrameMicros(),
+                        canvas.getMaxFrameMicros());
+            }
+        }
     }
 
     /**
      * Do your GUI updates here.
      */
     private void refresh() {
+        long start = System.nanoTime();
         if (!board.isMyTurn()) {
             disableButtons();
             turnLabel.setText("NOT YOUR TURN");
@@ -199,11 +302,17 @@ public class ConnectFourGUI extends Application implements Observer<ConnectFourB
             movesLeft.setText("MOVES LEFT: " + board.getMovesLeft());
             checkBoard();
         }
+        long took = System.nanoTime() - start;
+        refreshCount++;
+        refreshNanos += took;
+        maxRefreshNanos = Math.max(maxRefreshNanos, took);
     }
 
     /**
      * Called by the model, client.ConnectFourBoard, whenever there is a state change
-     * that needs to be updated by the GUI.
+     * that needs to be updated by the GUI. Changes that arrive while a
+     * refresh is already queued are picked up by that refresh, so there is
+     * at most one refresh per JavaFX pulse however fast the board changes.
      *
      * @param connectFourBoard board
      */
@@ -212,19 +321,27 @@ public class ConnectFourGUI extends Application implements Observer<ConnectFourB
         if ( Platform.isFxApplicationThread() ) {
             this.refresh();
         }
-        else {
-            Platform.runLater( () -> this.refresh() );
+        else if ( refreshQueued.compareAndSet( false, true ) ) {
+            Platform.runLater( () -> {
+                refreshQueued.set( false );
+                this.refresh();
+            } );
         }
     }
 
     /**
-     * The main method expects the host and port.
+     * The main method expects the host and port, optionally preceded by
+     * --renderer=canvas or --renderer=buttons to choose how the board is
+     * drawn, and --name=name to play under a name rather than the address
+     * we connect from. Large boards are drawn on a canvas by default.
      *
      * @param args command line arguments
      */
     public static void main(String[] args) {
-        if (args.length != 2) {
-            System.out.println("Usage: java ConnectFourGUI host port");
+        long unnamed = Arrays.stream(args).filter(a -> !a.startsWith("--")).count();
+        if (unnamed != 2) {
+            System.out.println("Usage: java ConnectFourGUI " +
+                    "[--renderer=canvas|buttons] [--name=name] host port");
             System.exit(-1);
         } else {
             Application.launch(args);
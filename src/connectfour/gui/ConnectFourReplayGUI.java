@@ -0,0 +1,189 @@
+package connectfour.gui;
+
+import connectfour.ConnectFourException;
+import connectfour.client.ConnectFourBoard;
+import connectfour.client.ConnectFourReplay;
+import connectfour.client.Observer;
+import connectfour.model.GameRecord;
+import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.scene.Scene;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.Slider;
+import javafx.scene.image.Image;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.stage.Stage;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A JavaFX GUI for replaying a recorded game. It watches a
+ * {@link ConnectFourBoard} that is driven by a {@link ConnectFourReplay}
+ * instead of by the network, and draws it on a {@link BoardCanvas} so that
+ * large boards and fast playback stay smooth.<P>
+ *
+ * The slider along the top picks the move to show. The buttons below step
+ * through the game or play it, at the speed set on the second slider.
+ */
+public class ConnectFourReplayGUI extends Application
+        implements Observer<ConnectFourBoard> {
+
+    /** largest width or height of the board, in pixels, before pieces shrink */
+    private static final int MAX_BOARD_PIXELS = 640;
+    /** size of the piece images as drawn */
+    private static final int PIECE_PIXELS = 64;
+    /** fastest playback the speed slider allows, as a power of ten */
+    private static final double MAX_SPEED_EXPONENT = 4;
+
+    private ConnectFourBoard board;
+    private ConnectFourReplay replay;
+    private BoardCanvas canvas;
+    private Slider position;
+    private Label moveLabel;
+    /** true while a refresh is queued on the JavaFX thread but not yet run */
+    private final AtomicBoolean refreshQueued = new AtomicBoolean();
+    /** true while the position slider is being moved by the replay */
+    private boolean following;
+
+    /**
+     * Load the game named on the command line.
+     *
+     * @throws ConnectFourException if the game can't be loaded
+     */
+    @Override
+    public void init() throws ConnectFourException {
+        List<String> args = getParameters().getUnnamed();
+        GameRecord record = GameRecord.read(Paths.get(args.get(0)));
+        this.board = new ConnectFourBoard();
+        this.replay = new ConnectFourReplay(record, board);
+        this.board.addObserver(this);
+    }
+
+    /**
+     * Load one of the piece images, scaled to the cell size.
+     * @param name the image file name
+     * @param cellSize the size to scale to
+     * @return the image
+     */
+    private Image loadImage(String name, double cellSize) {
+        return new Image(getClass().getResourceAsStream(name),
+                cellSize, cellSize, true, true);
+    }
+
+    /**
+     * Construct the layout for the replay.
+     *
+     * @param stage container (window) in which to render the GUI
+     */
+    @Override
+    public void start(Stage stage) {
+        int rows = board.getRows();
+        int cols = board.getCols();
+        double cellSize = Math.min(PIECE_PIXELS,
+                MAX_BOARD_PIXELS / Math.max(cols, rows));
+        canvas = new BoardCanvas(rows, cols, cellSize,
+                loadImage("empty.png", cellSize),
+                loadImage("p1black.png", cellSize),
+                loadImage("p2red.png", cellSize));
+        canvas.show(board.getSnapshot());
+
+        position = new Slider(0, replay.length(), 0);
+        position.valueProperty().addListener((obs, old, now) -> {
+            if (!following) {
+                replay.seek((int) Math.round(now.doubleValue()));
+            }
+        });
+
+        Slider speed = new Slider(0, MAX_SPEED_EXPONENT, 0);
+        speed.valueProperty().addListener((obs, old, now) ->
+                replay.setSpeed(Math.pow(10, now.doubleValue())));
+
+        Button first = new Button("|<");
+        first.setOnAction(e -> replay.seek(0));
+        Button back = new Button("<");
+        back.setOnAction(e -> replay.step(-1));
+        Button play = new Button("Play/Pause");
+        play.setOnAction(e -> {
+            if (replay.isPlaying()) {
+                replay.pause();
+            } else {
+                replay.play();
+            }
+        });
+        Button forward = new Button(">");
+        forward.setOnAction(e -> replay.step(1));
+        Button last = new Button(">|");
+        last.setOnAction(e -> replay.seek(replay.length()));
+
+        moveLabel = new Label("");
+        HBox controls = new HBox(4, first, back, play, forward, last,
+                new Label("SPEED"), speed, moveLabel);
+
+        BorderPane borderPane = new BorderPane();
+        borderPane.setTop(position);
+        borderPane.setCenter(canvas);
+        borderPane.setBottom(controls);
+        refresh();
+
+        stage.setScene(new Scene(borderPane));
+        stage.setTitle("Connect Four Replay");
+        stage.show();
+    }
+
+    /**
+     * Bring the labels and slider up to date with the replay.
+     */
+    private void refresh() {
+        int ply = replay.getPly();
+        moveLabel.setText("MOVE " + ply + " OF " + replay.length());
+        following = true;
+        position.setValue(ply);
+        following = false;
+    }
+
+    /**
+     * Called by the board whenever the replay shows another position. The
+     * canvas takes the new position straight away; the labels are updated
+     * at most once per JavaFX pulse.
+     *
+     * @param connectFourBoard board
+     */
+    @Override
+    public void update(ConnectFourBoard connectFourBoard) {
+        canvas.show(connectFourBoard.getSnapshot());
+        if (refreshQueued.compareAndSet(false, true)) {
+            Platform.runLater(() -> {
+                refreshQueued.set(false);
+                refresh();
+            });
+        }
+    }
+
+    /**
+     * The window is closing, so stop the playback.
+     */
+    @Override
+    public void stop() {
+        replay.close();
+        canvas.stop();
+    }
+
+    /**
+     * The main method expects the name of a file holding a
+     * {@link GameRecord game record}.
+     *
+     * @param args command line arguments
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: java ConnectFourReplayGUI game-file");
+            System.exit(-1);
+        } else {
+            Application.launch(args);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package connectfour.history;
+
+import connectfour.ConnectFourException;
+import connectfour.model.GameRecord;
+
+/**
+ * One finished game as the server archives it: how it ended, who played it
+ * and its moves. As text it is one line of the result, the two players and
+ * the columns played, separated by spaces. For example:<pre>
+ * TWO 10.0.0.7 10.0.0.9 3 3 4 2 5 2 2
+ * </pre>
+ * A player is named by the name they gave, or else by the address they
+ * connected from, and one who never took their seat by {@value #NOBODY}.
+ */
+public class ArchivedGame {
+    /** the name of a player who never took their seat */
+    public static final String NOBODY = "-";
+
+    /** how the game ended */
+    private final GameResult result;
+    /** the first player */
+    private final String playerOne;
+    /** the second player */
+    private final String playerTwo;
+    /** the column of every move, in order */
+    private final int[] moves;
+
+    /**
+     * Describe a game.
+     *
+     * @param result how it ended
+     * @param playerOne the first player; a name without spaces
+     * @param playerTwo the second player; a name without spaces
+     * @param moves the column of every move, in order; copied
+     */
+    public ArchivedGame(GameResult result, String playerOne,
+                        String playerTwo, int[] moves) {
+        this.result = result;
+        this.playerOne = playerOne;
+        this.playerTwo = playerTwo;
+        this.moves = moves.clone();
+    }
+
+    /**
+     * Read a game in the text form described above.
+     *
+     * @param line the game
+     * @return the game
+     * @throws ConnectFourException if the line is not a game
+     */
+    public static ArchivedGame parse(String line) throws ConnectFourException {
+        String[] fields = line.strip().split(" ");
+        if (fields.length < 3) {
+            throw new ConnectFourException("Bad archived game: " + line);
+        }
+        try {
+            int[] moves = new int[fields.length - 3];
+            for (int ply = 0; ply < moves.length; ++ply) {
+                moves[ply] = Integer.parseInt(fields[ply + 3]);
+            }
+            return new ArchivedGame(GameResult.valueOf(fields[0]), fields[1],
+                    fields[2], moves);
+        }
+        catch (IllegalArgumentException e) {
+            throw new ConnectFourException("Bad archived game: " + line, e);
+        }
+    }
+
+    /**
+     * @return how the game ended
+     */
+    public GameResult getResult() {
+        return result;
+    }
+
+    /**
+     * @return the first player
+     */
+    public String getPlayerOne() {
+        return playerOne;
+    }
+
+    /**
+     * @return the second player
+     */
+    public String getPlayerTwo() {
+        return playerTwo;
+    }
+
+    /**
+     * @return how many moves were made
+     */
+    public int length() {
+        return moves.length;
+    }
+
+    /**
+     * @param ply which move, counting from 0
+     * @return the column that move was made in
+     */
+    public int getMove(int ply) {
+        return moves[ply];
+    }
+
+    /**
+     * @param rows the number of rows of the board it was played on
+     * @param cols the number of columns
+     * @param winLength how big a line one needed to win
+     * @return the moves as a record, to be replayed
+     */
+    public GameRecord toRecord(int rows, int cols, int winLength) {
+        return new GameRecord(rows, cols, winLength, moves);
+    }
+
+    /**
+     * Returns the game in the text form described above.
+     *
+     * @return the game as text, without a line terminator
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(result).append(' ').append(playerOne).append(' ')
+                .append(playerTwo);
+        for (int move : moves) {
+            builder.append(' ').append(move);
+        }
+        return builder.toString();
+    }
+}
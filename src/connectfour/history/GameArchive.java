@@ -0,0 +1,191 @@
+package connectfour.history;
+
+import connectfour.ConnectFourException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The file a server adds every finished game to, for a {@link GameIndexer}
+ * to index. Its first line is the size of the board, as the rows, columns
+ * and win length, and every line after that an {@link ArchivedGame}. A
+ * server started again in the same directory adds to the same file.<P>
+ *
+ * Games are written through a buffer, which goes to the file when
+ * {@link #flush()} is called, so adding one costs the game that finished no
+ * more than formatting a line. A server that dies loses the games since its
+ * last flush, and may leave a line cut short, which is cut off before any
+ * more are added.
+ */
+public class GameArchive implements Closeable {
+    /** how much of the end of a file is read at a time to find a line end */
+    private static final int CHUNK_BYTES = 4096;
+
+    /** the file */
+    private final Path file;
+    /** the file, open for adding to; null once closed, or failed */
+    private Writer out;
+
+    /**
+     * Open an archive to add games to, making it if there isn't one.
+     *
+     * @param file the file
+     * @param rows the number of rows of the board the games are played on
+     * @param cols the number of columns
+     * @param winLength how big a line one needs to win
+     * @throws ConnectFourException if the file can't be written, or is an
+     * archive of games on another board
+     */
+    public GameArchive(Path file, int rows, int cols, int winLength)
+            throws ConnectFourException {
+        this.file = file;
+        String board = header(rows, cols, winLength);
+        try {
+            boolean started = Files.exists(file) && Files.size(file) > 0;
+            if (started) {
+                String first;
+                try (BufferedReader in = Files.newBufferedReader(file,
+                        StandardCharsets.UTF_8)) {
+                    first = in.readLine();
+                }
+                if (!board.equals(first == null ? null : first.strip())) {
+                    throw new ConnectFourException("Archive is for another" +
+                            " board: " + first);
+                }
+            }
+            if (started) {
+                started = cutShort(file) > 0;
+            }
+            out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            if (!started) {
+                out.write(board + '\n');
+            }
+        }
+        catch (IOException e) {
+            throw new ConnectFourException(e);
+        }
+    }
+
+    /**
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param winLength how big a line one needs to win
+     * @return the first line of an archive of games on that board
+     */
+    static String header(int rows, int cols, int winLength) {
+        return rows + " " + cols + " " + winLength;
+    }
+
+    /**
+     * Cut off the last line of a file if it doesn't end.
+     *
+     * @return how long the file is now
+     */
+    private static long cutShort(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_BYTES);
+            long end = channel.size();
+            while (end > 0) {
+                long start = Math.max(0, end - CHUNK_BYTES);
+                chunk.clear().limit((int) (end - start));
+                while (chunk.hasRemaining()) {
+                    channel.read(chunk, start + chunk.position());
+                }
+                for (int i = chunk.limit() - 1; i >= 0; --i) {
+                    if (chunk.get(i) == '\n') {
+                        long length = start + i + 1;
+                        if (length < channel.size()) {
+                            channel.truncate(length);
+                        }
+                        return length;
+                    }
+                }
+                end = start;
+            }
+            channel.truncate(0);
+            return 0;
+        }
+    }
+
+    /**
+     * @return the file
+     */
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Add a finished game. If the file can't be written to, that is said
+     * once, and no more games are added.
+     *
+     * @param game the game
+     */
+    public synchronized void add(ArchivedGame game) {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.write(game.toString());
+            out.write('\n');
+        }
+        catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Write the games added so far to the file.
+     */
+    public synchronized void flush() {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.flush();
+        }
+        catch (IOException e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Stop adding games, having said why.
+     */
+    private void failed(IOException e) {
+        System.err.println("Can't archive games: " + e.getMessage());
+        try {
+            out.close();
+        }
+        catch (IOException again) {
+            // squash
+        }
+        out = null;
+    }
+
+    /**
+     * Write the games added so far and close the file.
+     */
+    @Override
+    public synchronized void close() {
+        flush();
+        if (out != null) {
+            try {
+                out.close();
+            }
+            catch (IOException e) {
+                System.err.println("Can't archive games: " + e.getMessage());
+            }
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package connectfour.history;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sets of games kept as compressed bitmaps, all in one file of longs, for
+ * a {@link GameIndex}. A set's games are split into chunks of
+ * {@value #CHUNK_GAMES} by number, and only the chunks it has games in are
+ * kept, each either as a bitmap of {@value #CHUNK_WORDS} words or, if it has
+ * no more than {@value #ARRAY_MAX} games, as their sorted numbers within
+ * the chunk, 16 bits each and four to a long, whichever is smaller. So a set
+ * of many games takes a bit a game, a set of few about two bytes a game,
+ * and neither takes anything for the chunks it has no games in.<P>
+ *
+ * A set is a long of how many chunks it has, then two longs for each of
+ * them, in order: the chunk's number shifted left 32 bits over how many
+ * games it has, and where in the file its games are. Then come the chunks'
+ * games. A set is known by where in the file it starts.
+ */
+class GameBitmaps {
+    /** the bits of a game's number within its chunk */
+    static final int CHUNK_BITS = 16;
+    /** how many games each chunk has */
+    static final int CHUNK_GAMES = 1 << CHUNK_BITS;
+    /** how many words a chunk's bitmap has */
+    static final int CHUNK_WORDS = CHUNK_GAMES / 64;
+    /** the most games a chunk is kept as a list of, rather than a bitmap */
+    static final int ARRAY_MAX = CHUNK_WORDS * 4;
+
+    /** the file */
+    private final MappedLongs longs;
+
+    /**
+     * @param longs the file
+     */
+    GameBitmaps(MappedLongs longs) {
+        this.longs = longs;
+    }
+
+    /**
+     * @param at where a chunk's games are
+     * @param games how many it has
+     * @param game a game's number within the chunk
+     * @return whether the game is in the chunk
+     */
+    private boolean has(long at, int games, int game) {
+        if (games > ARRAY_MAX) {
+            return (longs.get(at + (game >>> 6)) >>> game & 1) != 0;
+        }
+        int lo = 0;
+        int hi = games - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int value = value(at, mid);
+            if (value < game) {
+                lo = mid + 1;
+            }
+            else if (value > game) {
+                hi = mid - 1;
+            }
+            else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param at where a chunk's list of games is
+     * @param i which of them
+     * @return the game's number within the chunk
+     */
+    private int value(long at, int i) {
+        return (int) (longs.get(at + (i >>> 2)) >>> 16 * (i & 3)) & 0xffff;
+    }
+
+    /**
+     * @param set where a set starts
+     * @return something to read the set's chunks with, in order
+     */
+    Cursor cursor(long set) {
+        return new Cursor(set);
+    }
+
+    /**
+     * Reads a set a chunk at a time, going forward only.
+     */
+    class Cursor {
+        /** where the set starts */
+        private final long set;
+        /** how many chunks it has */
+        private final long chunks;
+        /** which of its chunks it is up to */
+        private long i;
+
+        /**
+         * @param set where the set starts
+         */
+        Cursor(long set) {
+            this.set = set;
+            this.chunks = longs.get(set);
+        }
+
+        /**
+         * @return the number of the chunk it is up to
+         */
+        private long chunk() {
+            return longs.get(set + 1 + 2 * i) >>> 32;
+        }
+
+        /**
+         * Move on to a chunk, or the first after it that the set has games
+         * in.
+         *
+         * @param chunk the chunk, no earlier than the last one asked for
+         * @return the number of the chunk moved to, or Long.MAX_VALUE if
+         * the set has no games from the chunk on
+         */
+        long seek(long chunk) {
+            while (i < chunks && chunk() < chunk) {
+                ++i;
+            }
+            return i < chunks ? chunk() : Long.MAX_VALUE;
+        }
+
+        /**
+         * @param game a game, no earlier than the last one asked about or
+         *             in the chunk last asked for
+         * @return whether the set has the game
+         */
+        boolean contains(long game) {
+            long chunk = game >>> CHUNK_BITS;
+            if (seek(chunk) != chunk) {
+                return false;
+            }
+            return has(longs.get(set + 2 + 2 * i),
+                    (int) longs.get(set + 1 + 2 * i),
+                    (int) (game & CHUNK_GAMES - 1));
+        }
+
+        /**
+         * Set the bits of the games the set has in a chunk in a bitmap of
+         * it; the others are left as they are.
+         *
+         * @param chunk the chunk, which it must have been moved on to
+         * @param bits the chunk's bitmap
+         */
+        void or(long chunk, long[] bits) {
+            if (seek(chunk) != chunk) {
+                return;
+            }
+            long entry = longs.get(set + 1 + 2 * i);
+            long at = longs.get(set + 2 + 2 * i);
+            int games = (int) entry;
+            if (games > ARRAY_MAX) {
+                for (int word = 0; word < CHUNK_WORDS; ++word) {
+                    bits[word] |= longs.get(at + word);
+                }
+                return;
+            }
+            for (int g = 0; g < games; g += 4) {
+                long four = longs.get(at + g / 4);
+                for (int k = 0; k < 4 && g + k < games; ++k) {
+                    int game = (int) (four >>> 16 * k) & 0xffff;
+                    bits[game >>> 6] |= 1L << game;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes sets, one after another, the games of each in order.
+     */
+    static class Writer {
+        /** where the sets go */
+        private final DataOutputStream out;
+        /** how many longs have been written */
+        private long written;
+        /** the games of the chunk being added to, within it */
+        private final int[] chunkGames = new int[CHUNK_GAMES];
+        /** how many games the chunk being added to has */
+        private int inChunk;
+        /** the number of the chunk being added to, or -1 if none */
+        private long chunk = -1;
+        /** the chunks of the set so far, as they are written */
+        private long[] entries = new long[64];
+        /** how many longs of the set's chunks' games there are */
+        private int entryCount;
+        /** the games of the set's chunks so far */
+        private long[] data = new long[CHUNK_WORDS];
+        /** how many longs of games there are */
+        private int dataCount;
+
+        /**
+         * @param out where the sets go
+         */
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        /**
+         * Add a game to the set being written.
+         *
+         * @param game the game, after any added to the set before
+         */
+        void add(long game) {
+            long at = game >>> CHUNK_BITS;
+            if (at != chunk) {
+                endChunk();
+                chunk = at;
+            }
+            chunkGames[inChunk++] = (int) (game & CHUNK_GAMES - 1);
+        }
+
+        /**
+         * Keep the chunk being added to, if it has any games.
+         */
+        private void endChunk() {
+            if (inChunk == 0) {
+                return;
+            }
+            int size = inChunk > ARRAY_MAX ? CHUNK_WORDS : (inChunk + 3) / 4;
+            if (dataCount + size > data.length) {
+                data = Arrays.copyOf(data,
+                        Math.max(2 * data.length, dataCount + size));
+            }
+            if (entryCount + 2 > entries.length) {
+                entries = Arrays.copyOf(entries, 2 * entries.length);
+            }
+            entries[entryCount++] = chunk << 32 | inChunk;
+            entries[entryCount++] = dataCount;
+            Arrays.fill(data, dataCount, dataCount + size, 0);
+            for (int g = 0; g < inChunk; ++g) {
+                int game = chunkGames[g];
+                if (inChunk > ARRAY_MAX) {
+                    data[dataCount + (game >>> 6)] |= 1L << game;
+                }
+                else {
+                    data[dataCount + (g >>> 2)] |= (long) game << 16 * (g & 3);
+                }
+            }
+            dataCount += size;
+            inChunk = 0;
+        }
+
+        /**
+         * Write the set being added to, and start another.
+         *
+         * @return where the set starts
+         * @throws IOException if it can't be written
+         */
+        long endSet() throws IOException {
+            endChunk();
+            long set = written;
+            long first = set + 1 + entryCount;
+            out.writeLong(entryCount / 2);
+            for (int i = 0; i < entryCount; i += 2) {
+                out.writeLong(entries[i]);
+                out.writeLong(first + entries[i + 1]);
+            }
+            for (int i = 0; i < dataCount; ++i) {
+                out.writeLong(data[i]);
+            }
+            written = first + dataCount;
+            entryCount = 0;
+            dataCount = 0;
+            chunk = -1;
+            return set;
+        }
+    }
+}
@@ -0,0 +1,803 @@
+package connectfour.history;
+
+import connectfour.ConnectFourException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * An index of the games in a {@link GameArchive}, made by a
+ * {@link GameIndexer}, that finds the games that opened with some moves,
+ * ended some way, or were played by someone, or any mix of those. The
+ * games are numbered in the order they were archived. The index is a
+ * directory of files that are mapped into memory rather than read, like a
+ * {@link connectfour.solver.SolutionTable}, so opening it is quick and only
+ * the parts a query looks at are paged in.<P>
+ *
+ * The openings are a sorted prefix index: for every game a long of its
+ * first {@value #OPENING_PLIES} moves, {@value #MOVE_BITS} bits each with
+ * the first move highest and a 0 after the last move of a shorter game,
+ * shifted left {@value #GAME_BITS} bits over the game's number, all sorted.
+ * The games that opened with a given few moves then have their entries
+ * together, found with two binary searches, and the entry count is how many
+ * there are. An opening longer than is indexed narrows the games down by
+ * its first moves, and the rest are checked against the archive.<P>
+ *
+ * The rest are bitmap indexes. There are a few results, so each one's
+ * bitmap is kept whole, a bit a game. Each opening of up to
+ * {@value #SET_PLIES} moves, and each player in each seat, only has some of
+ * the games, so each of those is a {@link GameBitmaps} set, which only
+ * keeps the chunks of games it has any of. A query that mixes them goes a
+ * chunk at a time, skipping straight to the next chunk that every set has
+ * games in, and takes the games that all of its bitmaps have there. A
+ * longer opening's games are looked up in the bitmaps one by one, or if
+ * there are many of them made into a bitmap of their own.<P>
+ *
+ * The players' names are read into memory when the index is opened.
+ * Queries don't change the index, so it may be shared by any number of
+ * threads.
+ */
+public class GameIndex implements Closeable {
+    /** how many moves of each game's opening are indexed */
+    public static final int OPENING_PLIES = 8;
+    /** how many moves of each game's opening have sets of their games */
+    public static final int SET_PLIES = 3;
+    /** the bits each move of an opening takes */
+    static final int MOVE_BITS = 4;
+    /** the bits the number of a game takes, under its opening or set */
+    static final int GAME_BITS = 31;
+    /**
+     * The most columns a board may have for its games to be indexed, so
+     * that a move in the last column, plus one, and the end of the range of
+     * openings that start with it both fit in {@link #MOVE_BITS}.
+     */
+    public static final int MAX_COLS = (1 << MOVE_BITS) - 2;
+    /** the most games an index may have */
+    public static final long MAX_GAMES = 1L << GAME_BITS;
+
+    /** the version of the index layout */
+    static final String VERSION = "1";
+    /** the file the size of the index, and what it is of, is kept in */
+    static final String PROPERTIES = "index.properties";
+    /** where each game starts in the archive, in bytes */
+    static final String OFFSETS = "offsets.bin";
+    /** the sorted openings */
+    static final String OPENINGS = "openings.bin";
+    /** a bitmap of the games with each result, in order */
+    static final String RESULTS = "results.bin";
+    /** the sets of games of the short openings and of the players' seats */
+    static final String SETS = "sets.bin";
+    /** where each short opening's set is, or -1 if no game opened so */
+    static final String OPENING_SETS = "opening-sets.bin";
+    /** each player's name, and where their sets are */
+    static final String PLAYERS = "players.txt";
+
+    /**
+     * How many more games an opening must have than there are words in a
+     * whole bitmap before a search for a player's games among them makes a
+     * bitmap of them, rather than looking each up in the player's sets.
+     */
+    private static final int RANGE_TO_BITMAP = 8;
+
+    /** the longest line the archive is read a piece of at a time in */
+    private static final int LINE_BYTES = 128;
+
+    /** the number of rows of the board the games were played on */
+    private final int rows;
+    /** the number of columns */
+    private final int cols;
+    /** how big a line one needed to win */
+    private final int winLength;
+    /** how many games there are */
+    private final long games;
+    /** how many words each result's bitmap has */
+    private final long words;
+    /** how many chunks of games there are */
+    private final long chunks;
+    /** the archive, for reading games from */
+    private final FileChannel archive;
+    /** where each game starts in the archive */
+    private final MappedLongs offsets;
+    /** the sorted openings */
+    private final MappedLongs openings;
+    /** the results' bitmaps */
+    private final MappedLongs results;
+    /** the sets */
+    private final MappedLongs setLongs;
+    /** the sets, read as bitmaps */
+    private final GameBitmaps sets;
+    /** where each short opening's set is */
+    private final MappedLongs openingSets;
+    /**
+     * Where each player's sets are: the games they played first, then
+     * second, or -1 if they never did.
+     */
+    private final Map<String, long[]> players = new HashMap<>();
+
+    /**
+     * Open an index.
+     *
+     * @param dir the directory a {@link GameIndexer} made it in
+     * @throws IOException if it can't be read, is not a whole index, or the
+     * archive has changed since it was made
+     */
+    public GameIndex(Path dir) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(dir.resolve(PROPERTIES))) {
+            properties.load(in);
+        }
+        if (!VERSION.equals(properties.getProperty("version"))) {
+            throw new IOException("Not a game index: " + dir);
+        }
+        try {
+            String[] board = properties.getProperty("board").split(" ");
+            this.rows = Integer.parseInt(board[0]);
+            this.cols = Integer.parseInt(board[1]);
+            this.winLength = Integer.parseInt(board[2]);
+            this.games = Long.parseLong(properties.getProperty("games"));
+        }
+        catch (RuntimeException e) {
+            throw new IOException("Bad game index: " + dir, e);
+        }
+        this.words = (games + 63) / 64;
+        this.chunks = (games + GameBitmaps.CHUNK_GAMES - 1) /
+                GameBitmaps.CHUNK_GAMES;
+
+        Path file = Paths.get(properties.getProperty("archive"));
+        this.archive = FileChannel.open(file);
+        MappedLongs[] mapped = new MappedLongs[5];
+        try {
+            if (archive.size() < Long.parseLong(
+                    properties.getProperty("archive-bytes"))) {
+                throw new IOException("Archive has shrunk since it was" +
+                        " indexed: " + file);
+            }
+            mapped[0] = new MappedLongs(dir.resolve(OFFSETS));
+            mapped[1] = new MappedLongs(dir.resolve(OPENINGS));
+            mapped[2] = new MappedLongs(dir.resolve(RESULTS));
+            mapped[3] = new MappedLongs(dir.resolve(SETS));
+            mapped[4] = new MappedLongs(dir.resolve(OPENING_SETS));
+            if (mapped[0].size() != games || mapped[1].size() != games ||
+                    mapped[2].size() != GameResult.values().length * words ||
+                    mapped[4].size() != prefixes(cols)) {
+                throw new IOException("Game index incomplete: " + dir);
+            }
+            try (BufferedReader in = Files.newBufferedReader(
+                    dir.resolve(PLAYERS), StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] fields = line.split(" ");
+                    players.put(fields[0], new long[] {
+                            Long.parseLong(fields[1]),
+                            Long.parseLong(fields[2])});
+                }
+            }
+        }
+        catch (IOException | RuntimeException e) {
+            archive.close();
+            for (MappedLongs longs : mapped) {
+                if (longs != null) {
+                    longs.close();
+                }
+            }
+            throw e instanceof IOException ? (IOException) e :
+                    new IOException("Bad game index: " + dir, e);
+        }
+        this.offsets = mapped[0];
+        this.openings = mapped[1];
+        this.results = mapped[2];
+        this.setLongs = mapped[3];
+        this.sets = new GameBitmaps(setLongs);
+        this.openingSets = mapped[4];
+    }
+
+    /**
+     * The key of the opening a game's first moves make, or of the openings
+     * that start with fewer moves, before the game's number is put under it.
+     *
+     * @param moves the columns of the moves
+     * @param length how many of the moves there are; only the first
+     *               {@link #OPENING_PLIES} count
+     * @return the key
+     */
+    static long openingKey(int[] moves, int length) {
+        long key = 0;
+        for (int ply = 0; ply < OPENING_PLIES; ++ply) {
+            key = key << MOVE_BITS | (ply < length ? moves[ply] + 1 : 0);
+        }
+        return key;
+    }
+
+    /**
+     * The number of the set of the games that opened with some moves, of
+     * those kept for openings of up to {@link #SET_PLIES} moves: the
+     * one-move openings first, then the two-move ones, and so on, each in
+     * order of their moves.
+     *
+     * @param moves the columns of the moves
+     * @param plies how many of the moves there are
+     * @param cols the number of columns of the board
+     * @return the number
+     */
+    static int prefix(int[] moves, int plies, int cols) {
+        int number = 0;
+        for (int ply = 0; ply < plies; ++ply) {
+            number = number * cols + moves[ply];
+        }
+        return prefixes(cols, plies - 1) + number;
+    }
+
+    /**
+     * @param cols the number of columns of the board
+     * @return how many sets are kept of openings
+     */
+    static int prefixes(int cols) {
+        return prefixes(cols, SET_PLIES);
+    }
+
+    /**
+     * @return how many openings there are of up to some number of moves
+     */
+    private static int prefixes(int cols, int plies) {
+        int openings = 0;
+        int ofLength = 1;
+        for (int ply = 0; ply < plies; ++ply) {
+            ofLength *= cols;
+            openings += ofLength;
+        }
+        return openings;
+    }
+
+    /**
+     * @return the number of rows of the board the games were played on
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the number of columns of the board the games were played on
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * @return how big a line one needed to win
+     */
+    public int getWinLength() {
+        return winLength;
+    }
+
+    /**
+     * @return how many games there are
+     */
+    public long getGames() {
+        return games;
+    }
+
+    /**
+     * @return how many players there are
+     */
+    public int getPlayers() {
+        return players.size();
+    }
+
+    /**
+     * Count the games that match a query.
+     *
+     * @param opening the first moves the games made, or null for any
+     * @param result how the games ended, or null for any way
+     * @param player someone who played in the games, in either seat, or
+     *               null for anyone
+     * @return how many there are
+     * @throws IOException if the archive can't be read, which it only is
+     * for openings longer than {@link #OPENING_PLIES}
+     */
+    public long count(int[] opening, GameResult result, String player)
+            throws IOException {
+        return search(opening, result, player, null);
+    }
+
+    /**
+     * Find the games that match a query: the first found, in the order of
+     * their openings or of their numbers, whichever the search went by.
+     *
+     * @param opening the first moves the games made, or null for any
+     * @param result how the games ended, or null for any way
+     * @param player someone who played in the games, in either seat, or
+     *               null for anyone
+     * @param limit the most games to find
+     * @return the numbers of the first games found
+     * @throws IOException if the archive can't be read, which it only is
+     * for openings longer than {@link #OPENING_PLIES}
+     */
+    public long[] find(int[] opening, GameResult result, String player,
+                       int limit) throws IOException {
+        if (limit <= 0) {
+            return new long[0];
+        }
+        long[] found = new long[limit];
+        int n = (int) search(opening, result, player, found);
+        return Arrays.copyOf(found, n);
+    }
+
+    /**
+     * Search for games, counting them all or finding the first few.
+     *
+     * @param found where to put the numbers of the games found, or null to
+     *              count them all; the search stops once it is full
+     * @return how many games were found
+     */
+    private long search(int[] opening, GameResult result, String player,
+                        long[] found) throws IOException {
+        List<Filter> filters = new ArrayList<>();
+        if (player != null) {
+            long[] seats = players.get(player);
+            if (seats == null) {
+                return 0;
+            }
+            filters.add(new SetFilter(seats));
+        }
+        if (result != null) {
+            filters.add(new DenseFilter(results,
+                    result.ordinal() * words));
+        }
+        if (opening == null || opening.length == 0) {
+            if (filters.isEmpty()) {
+                long n = found == null ? games :
+                        Math.min(games, found.length);
+                for (int game = 0; found != null && game < n; ++game) {
+                    found[game] = game;
+                }
+                return n;
+            }
+            return searchChunks(filters, found);
+        }
+        for (int column : opening) {
+            if (column < 0 || column >= cols) {
+                return 0;
+            }
+        }
+        if (opening.length <= SET_PLIES && !filters.isEmpty()) {
+            long set = openingSets.get(prefix(opening, opening.length, cols));
+            if (set < 0) {
+                return 0;
+            }
+            filters.add(0, new SetFilter(set));
+            return searchChunks(filters, found);
+        }
+        return searchOpening(opening, filters, found);
+    }
+
+    /**
+     * Search the games that opened a given way, by their range of the
+     * sorted openings: in that order, if that is all that is asked, or
+     * else in order of their numbers.
+     *
+     * @param filters the bitmaps the games must also be in
+     */
+    private long searchOpening(int[] opening, List<Filter> filters,
+                               long[] found) throws IOException {
+        int indexed = Math.min(opening.length, OPENING_PLIES);
+        long key = openingKey(opening, indexed);
+        long span = 1L << MOVE_BITS * (OPENING_PLIES - indexed);
+        long from = openings.lowerBound(0, games, key << GAME_BITS);
+        long to = openings.lowerBound(from, games,
+                (key + span) << GAME_BITS);
+        if (found == null && filters.isEmpty() &&
+                opening.length <= OPENING_PLIES) {
+            return to - from;
+        }
+
+        long mask = (1L << GAME_BITS) - 1;
+        if (filters.isEmpty() && opening.length <= OPENING_PLIES) {
+            long n = Math.min(to - from, found.length);
+            for (int i = 0; i < n; ++i) {
+                found[i] = openings.get(from + i) & mask;
+            }
+            return n;
+        }
+        if (opening.length <= OPENING_PLIES &&
+                (to - from) * RANGE_TO_BITMAP > words) {
+            // too many games to look each up in the other bitmaps
+            long[] range = new long[(int) words];
+            for (long i = from; i < to; ++i) {
+                long game = openings.get(i) & mask;
+                range[(int) (game >>> 6)] |= 1L << game;
+            }
+            filters.add(new DenseFilter(range));
+            return searchChunks(filters, found);
+        }
+        // in order, so the sets are each read forward once
+        long[] range = new long[(int) (to - from)];
+        for (int i = 0; i < range.length; ++i) {
+            range[i] = openings.get(from + i) & mask;
+        }
+        Arrays.sort(range);
+        long n = 0;
+        for (long game : range) {
+            if (!contains(filters, game) || opening.length > OPENING_PLIES &&
+                    !opened(game, opening)) {
+                continue;
+            }
+            if (found != null) {
+                found[(int) n] = game;
+                if (n + 1 == found.length) {
+                    return n + 1;
+                }
+            }
+            ++n;
+        }
+        return n;
+    }
+
+    /**
+     * @param filters some bitmaps
+     * @param game a game
+     * @return whether the game is in all of them
+     */
+    private static boolean contains(List<Filter> filters, long game) {
+        for (Filter filter : filters) {
+            if (!filter.contains(game)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Search the games a chunk at a time, taking those in every bitmap.
+     *
+     * @param filters the bitmaps, at least one; the sets first, if there
+     *                are any, so that a chunk starts with the fewest games
+     */
+    private long searchChunks(List<Filter> filters, long[] found) {
+        long[] block = new long[GameBitmaps.CHUNK_WORDS];
+        long[] scratch = new long[GameBitmaps.CHUNK_WORDS];
+        long n = 0;
+        long chunk = 0;
+        while (true) {
+            // leapfrog to the next chunk every bitmap may have games in
+            boolean agreed = false;
+            while (!agreed && chunk < chunks) {
+                agreed = true;
+                for (Filter filter : filters) {
+                    long next = filter.seek(chunk);
+                    if (next != chunk) {
+                        chunk = next;
+                        agreed = false;
+                    }
+                }
+            }
+            if (chunk >= chunks) {
+                return n;
+            }
+            long first = chunk * GameBitmaps.CHUNK_WORDS;
+            int length = (int) Math.min(GameBitmaps.CHUNK_WORDS,
+                    words - first);
+            filters.get(0).load(chunk, block, length);
+            for (int i = 1; i < filters.size(); ++i) {
+                filters.get(i).and(chunk, block, length, scratch);
+            }
+            for (int word = 0; word < length; ++word) {
+                n = add(first + word, block[word], n, found);
+            }
+            if (found != null && n == found.length) {
+                return n;
+            }
+            ++chunk;
+        }
+    }
+
+    /**
+     * A bitmap of games that a search narrows them down by.
+     */
+    private interface Filter {
+        /**
+         * @param chunk a chunk of games, no earlier than the last asked for
+         * @return the first chunk from it that may have games in the bitmap,
+         * or Long.MAX_VALUE if none does
+         */
+        long seek(long chunk);
+
+        /**
+         * Set the bits of a chunk to those of the games in the bitmap.
+         *
+         * @param chunk the chunk, the last one sought
+         * @param block the chunk's bits
+         * @param length how many words of games the chunk has
+         */
+        void load(long chunk, long[] block, int length);
+
+        /**
+         * Clear the bits of the games of a chunk that aren't in the bitmap.
+         *
+         * @param chunk the chunk, the last one sought
+         * @param block the chunk's bits
+         * @param length how many words of games the chunk has
+         * @param scratch somewhere to work that is as long as the block
+         */
+        void and(long chunk, long[] block, int length, long[] scratch);
+
+        /**
+         * @param game a game, after any asked about or sought before
+         * @return whether it is in the bitmap
+         */
+        boolean contains(long game);
+    }
+
+    /**
+     * A whole bitmap, of a result's games or of an opening's.
+     */
+    private static class DenseFilter implements Filter {
+        /** the file the bitmap is in, or null if it is in memory */
+        private final MappedLongs longs;
+        /** where in the file it starts */
+        private final long base;
+        /** the bitmap, if it is in memory */
+        private final long[] bits;
+
+        DenseFilter(MappedLongs longs, long base) {
+            this.longs = longs;
+            this.base = base;
+            this.bits = null;
+        }
+
+        DenseFilter(long[] bits) {
+            this.longs = null;
+            this.base = 0;
+            this.bits = bits;
+        }
+
+        private long word(long word) {
+            return bits == null ? longs.get(base + word) : bits[(int) word];
+        }
+
+        @Override
+        public long seek(long chunk) {
+            return chunk;
+        }
+
+        @Override
+        public void load(long chunk, long[] block, int length) {
+            long first = chunk * GameBitmaps.CHUNK_WORDS;
+            for (int word = 0; word < length; ++word) {
+                block[word] = word(first + word);
+            }
+        }
+
+        @Override
+        public void and(long chunk, long[] block, int length,
+                        long[] scratch) {
+            long first = chunk * GameBitmaps.CHUNK_WORDS;
+            for (int word = 0; word < length; ++word) {
+                if (block[word] != 0) {
+                    block[word] &= word(first + word);
+                }
+            }
+        }
+
+        @Override
+        public boolean contains(long game) {
+            return (word(game >>> 6) >>> game & 1) != 0;
+        }
+    }
+
+    /**
+     * The games in any of a few sets: an opening's, or a player's in
+     * either seat.
+     */
+    private class SetFilter implements Filter {
+        /** something to read each set with, or null if it is empty */
+        private final GameBitmaps.Cursor[] cursors;
+
+        SetFilter(long... starts) {
+            this.cursors = new GameBitmaps.Cursor[starts.length];
+            for (int i = 0; i < starts.length; ++i) {
+                if (starts[i] >= 0) {
+                    cursors[i] = sets.cursor(starts[i]);
+                }
+            }
+        }
+
+        @Override
+        public long seek(long chunk) {
+            long next = Long.MAX_VALUE;
+            for (GameBitmaps.Cursor cursor : cursors) {
+                if (cursor != null) {
+                    next = Math.min(next, cursor.seek(chunk));
+                }
+            }
+            return next;
+        }
+
+        @Override
+        public void load(long chunk, long[] block, int length) {
+            Arrays.fill(block, 0);
+            for (GameBitmaps.Cursor cursor : cursors) {
+                if (cursor != null) {
+                    cursor.or(chunk, block);
+                }
+            }
+        }
+
+        @Override
+        public void and(long chunk, long[] block, int length,
+                        long[] scratch) {
+            load(chunk, scratch, length);
+            for (int word = 0; word < length; ++word) {
+                block[word] &= scratch[word];
+            }
+        }
+
+        @Override
+        public boolean contains(long game) {
+            for (GameBitmaps.Cursor cursor : cursors) {
+                if (cursor != null && cursor.contains(game)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Count the games of a word of a bitmap, or find them.
+     *
+     * @param word which word it is
+     * @param bits its bits
+     * @param n how many games have been found so far
+     * @param found where to put them, or null to just count them
+     * @return how many games have been found with these, up to as many as
+     * there is room for
+     */
+    private static long add(long word, long bits, long n, long[] found) {
+        if (found == null) {
+            return n + Long.bitCount(bits);
+        }
+        while (bits != 0 && n < found.length) {
+            found[(int) n++] = word * 64 + Long.numberOfTrailingZeros(bits);
+            bits &= bits - 1;
+        }
+        return n;
+    }
+
+    /**
+     * @param game a game
+     * @param opening some moves
+     * @return whether the game opened with those moves
+     */
+    private boolean opened(long game, int[] opening) throws IOException {
+        ArchivedGame archived = game(game);
+        if (archived.length() < opening.length) {
+            return false;
+        }
+        for (int ply = 0; ply < opening.length; ++ply) {
+            if (archived.getMove(ply) != opening[ply]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Read a game from the archive.
+     *
+     * @param game the game's number
+     * @return the game
+     * @throws IOException if the archive can't be read or has changed
+     */
+    public ArchivedGame game(long game) throws IOException {
+        long start = offsets.get(game);
+        ByteBuffer buffer = ByteBuffer.allocate(LINE_BYTES);
+        int scanned = 0;
+        while (true) {
+            if (archive.read(buffer, start + buffer.position()) < 0) {
+                throw new IOException("Archive cut short at game " + game);
+            }
+            for (; scanned < buffer.position(); ++scanned) {
+                if (buffer.get(scanned) == '\n') {
+                    String line = new String(buffer.array(), 0, scanned,
+                            StandardCharsets.UTF_8);
+                    try {
+                        return ArchivedGame.parse(line);
+                    }
+                    catch (ConnectFourException e) {
+                        throw new IOException("Archive has changed at game "
+                                + game, e);
+                    }
+                }
+            }
+            if (!buffer.hasRemaining()) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2)
+                        .put(buffer.flip());
+            }
+        }
+    }
+
+    /**
+     * Close the files. The mappings last until they are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        archive.close();
+        offsets.close();
+        openings.close();
+        results.close();
+        setLongs.close();
+        openingSets.close();
+    }
+
+    /**
+     * Query an index, and print how many games match, how long that took,
+     * and the first few of them.
+     *
+     * @param args the directory of the index, optionally followed by
+     *             --opening=<i>columns</i> separated by commas,
+     *             --result=one, two, tie or abandoned,
+     *             --player=<i>name</i> and --limit=<i>games</i> to print
+     *             (default 10)
+     * @throws IOException if the index can't be read
+     */
+    public static void main(String[] args) throws IOException {
+        String[] unnamed = Arrays.stream(args)
+                .filter(a -> !a.startsWith("--")).toArray(String[]::new);
+        if (unnamed.length != 1) {
+            System.out.println("Usage: java GameIndex dir " +
+                    "[--opening=3,3,4] [--result=one|two|tie|abandoned] " +
+                    "[--player=name] [--limit=games]");
+            System.exit(1);
+        }
+        int[] opening = null;
+        GameResult result = null;
+        String player = null;
+        int limit = 10;
+        for (String arg : args) {
+            if (arg.startsWith("--opening=")) {
+                opening = Arrays.stream(arg.substring("--opening=".length())
+                        .split(",")).mapToInt(Integer::parseInt).toArray();
+            }
+            else if (arg.startsWith("--result=")) {
+                result = GameResult.valueOf(arg.substring("--result=".length())
+                        .toUpperCase());
+            }
+            else if (arg.startsWith("--player=")) {
+                player = arg.substring("--player=".length());
+            }
+            else if (arg.startsWith("--limit=")) {
+                limit = Integer.parseInt(arg.substring("--limit=".length()));
+            }
+        }
+
+        try (GameIndex index = new GameIndex(Paths.get(unnamed[0]))) {
+            long start = System.nanoTime();
+            long count = index.count(opening, result, player);
+            long counted = System.nanoTime() - start;
+            start = System.nanoTime();
+            long[] found = index.find(opening, result, player, limit);
+            long listed = System.nanoTime() - start;
+            System.out.printf("%d of %d games match; counted in %.2f ms," +
+                            " first %d found in %.2f ms%n", count,
+                    index.getGames(), counted / 1e6, found.length,
+                    listed / 1e6);
+            for (long game : found) {
+                System.out.println(game + ": " + index.game(game));
+            }
+        }
+    }
+}
@@ -0,0 +1,273 @@
+package connectfour.history;
+
+import connectfour.ConnectFourException;
+import connectfour.model.GridSnapshot;
+import connectfour.server.ConnectFour;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.SplittableRandom;
+
+/**
+ * Measures how long queries of a {@link GameIndex} take. It archives games
+ * played with random moves by a {@link ConnectFour} model, as many as asked
+ * for, between players of whom a few play most of the games; indexes
+ * them; then times a mix of queries, and checks what each one counts
+ * against a scan of the whole archive.
+ */
+public class GameIndexBenchmark {
+    /** the share of games given up part way */
+    private static final double ABANDONED = 0.02;
+    /** how many games each query finds */
+    private static final int FIND = 100;
+    /** how many times each query is timed, after as many to warm up */
+    private static final int REPEATS = 5;
+    /** how many keys each sort of the indexer holds in memory */
+    private static final int BUFFER = 1 << 23;
+
+    /**
+     * A query, and what a scan of the archive counts for it.
+     */
+    private static class Query {
+        /** what it is for */
+        private final String label;
+        /** the first moves, or null */
+        private final int[] opening;
+        /** the result, or null */
+        private final GameResult result;
+        /** the player, or null */
+        private final String player;
+        /** what the scan counted */
+        private long scanned;
+
+        Query(String label, int[] opening, GameResult result,
+              String player) {
+            this.label = label;
+            this.opening = opening;
+            this.result = result;
+            this.player = player;
+        }
+
+        /**
+         * @param game a game
+         * @return whether the query matches it
+         */
+        boolean matches(ArchivedGame game) {
+            if (result != null && game.getResult() != result) {
+                return false;
+            }
+            if (player != null && !player.equals(game.getPlayerOne()) &&
+                    !player.equals(game.getPlayerTwo())) {
+                return false;
+            }
+            if (opening != null) {
+                if (game.length() < opening.length) {
+                    return false;
+                }
+                for (int ply = 0; ply < opening.length; ++ply) {
+                    if (game.getMove(ply) != opening[ply]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param number a player's number
+     * @return the player's name, an address
+     */
+    private static String player(int number) {
+        return "10.0." + (number >>> 8) + "." + (number & 0xff);
+    }
+
+    /**
+     * Archive games played with random moves.
+     *
+     * @param file the archive, which is replaced
+     * @param games how many games
+     * @param players how many players there are
+     * @throws ConnectFourException if the archive can't be written
+     * @throws IOException if an old archive can't be deleted
+     */
+    public static void archive(Path file, long games, int players)
+            throws ConnectFourException, IOException {
+        Files.deleteIfExists(file);
+        SplittableRandom random = new SplittableRandom(42);
+        try (GameArchive archive = new GameArchive(file, ConnectFour.ROWS,
+                ConnectFour.COLS, ConnectFour.WIN_LEN)) {
+            for (long n = 0; n < games; ++n) {
+                ConnectFour game = new ConnectFour();
+                GameResult result = null;
+                int abandonAt = random.nextDouble() < ABANDONED ?
+                        random.nextInt(ConnectFour.ROWS * ConnectFour.COLS) :
+                        -1;
+                for (int ply = 0; result == null; ++ply) {
+                    if (ply == abandonAt) {
+                        result = GameResult.ABANDONED;
+                        break;
+                    }
+                    while (game.tryMove(random.nextInt(ConnectFour.COLS)) !=
+                            ConnectFour.MOVED) {
+                        // full; pick another
+                    }
+                    if (game.hasWonGame()) {
+                        result = ply % 2 == 0 ? GameResult.ONE :
+                                GameResult.TWO;
+                    }
+                    else if (game.hasTiedGame()) {
+                        result = GameResult.TIE;
+                    }
+                }
+                GridSnapshot position = game.snapshot();
+                int[] moves = new int[position.getFilled()];
+                for (int ply = 0; ply < moves.length; ++ply) {
+                    moves[ply] = position.getMove(ply);
+                }
+                // a few players play most of the games
+                double one = random.nextDouble();
+                double two = random.nextDouble();
+                archive.add(new ArchivedGame(result,
+                        player((int) (one * one * one * players)),
+                        player((int) (two * two * two * players)), moves));
+            }
+        }
+    }
+
+    /**
+     * @param file the archive
+     * @return the first moves of the first game with at least 10 of them,
+     * more than the index has of each game
+     * @throws IOException if the archive can't be read
+     * @throws ConnectFourException if it holds something that isn't a game
+     */
+    private static int[] longOpening(Path file)
+            throws IOException, ConnectFourException {
+        try (BufferedReader in = Files.newBufferedReader(file,
+                StandardCharsets.UTF_8)) {
+            in.readLine();
+            String line;
+            while ((line = in.readLine()) != null) {
+                ArchivedGame game = ArchivedGame.parse(line);
+                if (game.length() >= 10) {
+                    int[] opening = new int[10];
+                    for (int ply = 0; ply < opening.length; ++ply) {
+                        opening[ply] = game.getMove(ply);
+                    }
+                    return opening;
+                }
+            }
+        }
+        return new int[10];
+    }
+
+    /**
+     * Count what each query matches by reading every game in the archive.
+     *
+     * @param file the archive
+     * @param queries the queries
+     * @throws IOException if the archive can't be read
+     * @throws ConnectFourException if it holds something that isn't a game
+     */
+    private static void scan(Path file, Query[] queries)
+            throws IOException, ConnectFourException {
+        try (BufferedReader in = Files.newBufferedReader(file,
+                StandardCharsets.UTF_8)) {
+            in.readLine();
+            String line;
+            while ((line = in.readLine()) != null) {
+                ArchivedGame game = ArchivedGame.parse(line);
+                for (Query query : queries) {
+                    if (query.matches(game)) {
+                        ++query.scanned;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args the directory to put the archive and index in, how many
+     *             games to archive, and optionally how many players there
+     *             are (default 10000)
+     * @throws ConnectFourException if the archive can't be written
+     * @throws IOException if a file can't be read or written
+     */
+    public static void main(String[] args)
+            throws ConnectFourException, IOException {
+        if (args.length != 2 && args.length != 3) {
+            System.out.println("Usage: java GameIndexBenchmark dir games" +
+                    " [players]");
+            System.exit(1);
+        }
+        Path dir = Paths.get(args[0]);
+        long games = Long.parseLong(args[1]);
+        int players = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        Files.createDirectories(dir);
+        Path file = dir.resolve("archive.txt");
+
+        long start = System.nanoTime();
+        archive(file, games, players);
+        System.out.printf("Archived %d games, %d MB, in %.1f s%n", games,
+                Files.size(file) >> 20, (System.nanoTime() - start) / 1e9);
+        start = System.nanoTime();
+        new GameIndexer(file, dir.resolve("index"), BUFFER).run();
+        System.out.printf("Indexed them in %.1f s%n",
+                (System.nanoTime() - start) / 1e9);
+
+        Query[] queries = {
+                new Query("opening 3", new int[] {3}, null, null),
+                new Query("opening 3,3,4, P2 won", new int[] {3, 3, 4},
+                        GameResult.TWO, null),
+                new Query("a game's first 10 moves", longOpening(file),
+                        null, null),
+                new Query("tied", null, GameResult.TIE, null),
+                new Query("busiest player", null, null, player(0)),
+                new Query("quiet player, P1 won", null, GameResult.ONE,
+                        player(players - 1)),
+                new Query("opening 3,3, busy player, P1 won", new int[] {3, 3},
+                        GameResult.ONE, player(1)),
+                new Query("opening 2, busy player", new int[] {2}, null,
+                        player(2)),
+        };
+        start = System.nanoTime();
+        scan(file, queries);
+        System.out.printf("Scanned the archive for every query in %.1f s%n",
+                (System.nanoTime() - start) / 1e9);
+
+        try (GameIndex index = new GameIndex(dir.resolve("index"))) {
+            for (Query query : queries) {
+                long count = 0;
+                long counting = Long.MAX_VALUE;
+                long finding = Long.MAX_VALUE;
+                for (int i = 0; i < 2 * REPEATS; ++i) {
+                    long begin = System.nanoTime();
+                    count = index.count(query.opening, query.result,
+                            query.player);
+                    long counted = System.nanoTime();
+                    index.find(query.opening, query.result, query.player,
+                            FIND);
+                    long found = System.nanoTime();
+                    if (i >= REPEATS) {
+                        counting = Math.min(counting, counted - begin);
+                        finding = Math.min(finding, found - counted);
+                    }
+                }
+                System.out.printf("%-34s %10d games (scan %10d)  count " +
+                                "%8.3f ms  first %d %8.3f ms%n", query.label,
+                        count, query.scanned, counting / 1e6, FIND,
+                        finding / 1e6);
+                if (count != query.scanned) {
+                    System.out.println("  MISMATCH");
+                }
+            }
+        }
+    }
+}
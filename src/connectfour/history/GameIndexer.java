@@ -0,0 +1,379 @@
+package connectfour.history;
+
+import connectfour.ConnectFourException;
+import connectfour.solver.KeySorter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Builds a {@link GameIndex} of a {@link GameArchive}, in one pass over the
+ * archive. Each game's offset in the archive and its bits in the results'
+ * bitmaps are written as it is read. Its opening is added to one
+ * {@link KeySorter}, and a key of set and game for each of the
+ * {@link GameBitmaps} sets it is in, those of its first few moves and of
+ * its players' seats, to another, so however many games there are only a
+ * fixed number of those are in memory at once; once they are sorted, the
+ * sets' keys are read back in order of set and game to write each set in
+ * turn. Only the results' bitmaps, a bit a game each, one set and the
+ * players' names are held whole.<P>
+ *
+ * Lines of the archive that aren't games, such as one cut short when a
+ * server died, are skipped. The index's properties are written last, so an
+ * index that was not finished can't be opened; building it again in the
+ * same directory starts it over.
+ */
+public class GameIndexer {
+    /** how many keys each sort holds in memory by default: 32 MiB of them */
+    private static final int DEFAULT_BUFFER = 1 << 22;
+    /** the size of the buffer of each file read or written */
+    private static final int IO_BUFFER = 1 << 16;
+    /** the first length of the buffer lines of the archive are read into */
+    private static final int LINE_BYTES = 256;
+    /** the first length of each result's bitmap, in words */
+    private static final int RESULT_WORDS = 1024;
+
+    /** the archive */
+    private final Path archive;
+    /** the directory the index goes in */
+    private final Path dir;
+    /** how many keys each sort holds in memory */
+    private final int bufferEntries;
+
+    /** the number of rows of the board the games were played on */
+    private int rows;
+    /** the number of columns */
+    private int cols;
+    /** how big a line one needed to win */
+    private int winLength;
+    /** how many games have been indexed */
+    private long games;
+    /** how many lines of the archive were not games */
+    private long skipped;
+    /** the bitmap of the games with each result, as far as it has got */
+    private long[][] results =
+            new long[GameResult.values().length][RESULT_WORDS];
+    /** each player's number, in the order they were first seen */
+    private final Map<String, Integer> numbers = new HashMap<>();
+    /** each player's name, by number */
+    private final List<String> names = new ArrayList<>();
+
+    /**
+     * Set up an indexer.
+     *
+     * @param archive the archive
+     * @param dir the directory the index goes in
+     * @param bufferEntries how many keys each sort holds in memory
+     */
+    public GameIndexer(Path archive, Path dir, int bufferEntries) {
+        this.archive = archive.toAbsolutePath().normalize();
+        this.dir = dir;
+        this.bufferEntries = bufferEntries;
+    }
+
+    /**
+     * Build the index.
+     *
+     * @return how many games it has
+     * @throws IOException if a file can't be read or written, the archive
+     * is not an archive, or its games can't be indexed
+     */
+    public long run() throws IOException {
+        Files.createDirectories(dir);
+        Files.deleteIfExists(dir.resolve(GameIndex.PROPERTIES));
+        long bytes;
+        try (KeySorter openings = new KeySorter(dir, "openings",
+                bufferEntries);
+             KeySorter sets = new KeySorter(dir, "sets", bufferEntries)) {
+            try (DataOutputStream offsets = writer(
+                    dir.resolve(GameIndex.OFFSETS))) {
+                bytes = scan(openings, sets, offsets);
+            }
+            openings.finish(dir.resolve(GameIndex.OPENINGS));
+            writeResults();
+            Path sorted = dir.resolve("sets.tmp");
+            sets.finish(sorted);
+            writeSets(sorted);
+            Files.delete(sorted);
+        }
+
+        Properties properties = new Properties();
+        properties.setProperty("version", GameIndex.VERSION);
+        properties.setProperty("board",
+                GameArchive.header(rows, cols, winLength));
+        properties.setProperty("games", Long.toString(games));
+        properties.setProperty("skipped", Long.toString(skipped));
+        properties.setProperty("archive", archive.toString());
+        properties.setProperty("archive-bytes", Long.toString(bytes));
+        Path partial = dir.resolve(GameIndex.PROPERTIES + ".tmp");
+        try (OutputStream out = Files.newOutputStream(partial)) {
+            properties.store(out, "Index of " + archive);
+        }
+        Files.move(partial, dir.resolve(GameIndex.PROPERTIES),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return games;
+    }
+
+    /**
+     * @return how many lines of the archive were not games
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Read the archive a line at a time, indexing each game.
+     *
+     * @return how many bytes of the archive were read, up to the end of its
+     * last whole line
+     */
+    private long scan(KeySorter openings, KeySorter sets,
+                      DataOutputStream offsets) throws IOException {
+        byte[] chunk = new byte[IO_BUFFER];
+        byte[] line = new byte[LINE_BYTES];
+        int length = 0;
+        long read = 0;
+        long start = 0;
+        boolean header = true;
+        int[] moves = new int[GameIndex.OPENING_PLIES];
+        try (InputStream in = Files.newInputStream(archive)) {
+            int n;
+            while ((n = in.read(chunk)) > 0) {
+                for (int i = 0; i < n; ++i) {
+                    if (chunk[i] != '\n') {
+                        if (length == line.length) {
+                            line = Arrays.copyOf(line, 2 * length);
+                        }
+                        line[length++] = chunk[i];
+                        continue;
+                    }
+                    String text = new String(line, 0, length,
+                            StandardCharsets.UTF_8);
+                    if (header) {
+                        board(text);
+                        header = false;
+                    }
+                    else {
+                        index(text, start, moves, openings, sets, offsets);
+                    }
+                    start = read + i + 1;
+                    length = 0;
+                }
+                read += n;
+            }
+        }
+        if (header) {
+            throw new IOException("Not a game archive: " + archive);
+        }
+        if (length > 0) {
+            ++skipped;
+        }
+        return start;
+    }
+
+    /**
+     * Take the size of the board from the first line of the archive.
+     */
+    private void board(String text) throws IOException {
+        String[] size = text.strip().split(" ");
+        try {
+            rows = Integer.parseInt(size[0]);
+            cols = Integer.parseInt(size[1]);
+            winLength = Integer.parseInt(size[2]);
+        }
+        catch (RuntimeException e) {
+            throw new IOException("Not a game archive: " + archive, e);
+        }
+        if (cols > GameIndex.MAX_COLS) {
+            throw new IOException("Can't index games with more than " +
+                    GameIndex.MAX_COLS + " columns: " + cols);
+        }
+    }
+
+    /**
+     * Index a game, or skip a line that isn't one.
+     *
+     * @param text the line
+     * @param start where it starts in the archive
+     * @param moves somewhere to put the game's opening
+     */
+    private void index(String text, long start, int[] moves,
+                       KeySorter openings, KeySorter sets,
+                       DataOutputStream offsets) throws IOException {
+        ArchivedGame game;
+        try {
+            game = ArchivedGame.parse(text);
+        }
+        catch (ConnectFourException e) {
+            ++skipped;
+            return;
+        }
+        for (int ply = 0; ply < game.length(); ++ply) {
+            if (game.getMove(ply) < 0 || game.getMove(ply) >= cols) {
+                ++skipped;
+                return;
+            }
+        }
+        if (games == GameIndex.MAX_GAMES) {
+            throw new IOException("Can't index more than " +
+                    GameIndex.MAX_GAMES + " games");
+        }
+        long number = games++;
+
+        offsets.writeLong(start);
+        int plies = Math.min(game.length(), GameIndex.OPENING_PLIES);
+        for (int ply = 0; ply < plies; ++ply) {
+            moves[ply] = game.getMove(ply);
+        }
+        openings.add(GameIndex.openingKey(moves, plies) << GameIndex.GAME_BITS
+                | number);
+        int word = (int) (number >>> 6);
+        if (word == results[0].length) {
+            for (int i = 0; i < results.length; ++i) {
+                results[i] = Arrays.copyOf(results[i], 2 * word);
+            }
+        }
+        results[game.getResult().ordinal()][word] |= 1L << number;
+        for (int ply = 1; ply <= Math.min(plies, GameIndex.SET_PLIES); ++ply) {
+            sets.add((long) GameIndex.prefix(moves, ply, cols) <<
+                    GameIndex.GAME_BITS | number);
+        }
+        int prefixes = GameIndex.prefixes(cols);
+        sets.add((long) (prefixes + 2 * number(game.getPlayerOne())) <<
+                GameIndex.GAME_BITS | number);
+        sets.add((long) (prefixes + 2 * number(game.getPlayerTwo()) + 1) <<
+                GameIndex.GAME_BITS | number);
+    }
+
+    /**
+     * @param player a player's name
+     * @return the player's number, given them if they have none yet
+     */
+    private int number(String player) {
+        Integer number = numbers.get(player);
+        if (number == null) {
+            number = names.size();
+            numbers.put(player, number);
+            names.add(player);
+        }
+        return number;
+    }
+
+    /**
+     * Write the bitmap of each result, one after the other.
+     */
+    private void writeResults() throws IOException {
+        long words = (games + 63) / 64;
+        try (DataOutputStream out = writer(dir.resolve(GameIndex.RESULTS))) {
+            for (long[] bitmap : results) {
+                for (int word = 0; word < words; ++word) {
+                    out.writeLong(bitmap[word]);
+                }
+            }
+        }
+        results = null;
+    }
+
+    /**
+     * Write the sets from their keys, in order of set and game; where each
+     * opening's set is; and each player's name and where their two sets
+     * are.
+     *
+     * @param sorted the keys
+     */
+    private void writeSets(Path sorted) throws IOException {
+        long gameMask = (1L << GameIndex.GAME_BITS) - 1;
+        int prefixes = GameIndex.prefixes(cols);
+        long[] starts = new long[prefixes + 2 * names.size()];
+        Arrays.fill(starts, -1);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(sorted), IO_BUFFER));
+             DataOutputStream out = writer(dir.resolve(GameIndex.SETS))) {
+            GameBitmaps.Writer writer = new GameBitmaps.Writer(out);
+            long set = -1;
+            while (true) {
+                long key;
+                try {
+                    key = in.readLong();
+                }
+                catch (EOFException e) {
+                    break;
+                }
+                if (key >>> GameIndex.GAME_BITS != set) {
+                    if (set >= 0) {
+                        starts[(int) set] = writer.endSet();
+                    }
+                    set = key >>> GameIndex.GAME_BITS;
+                }
+                writer.add(key & gameMask);
+            }
+            if (set >= 0) {
+                starts[(int) set] = writer.endSet();
+            }
+        }
+        try (DataOutputStream out = writer(
+                dir.resolve(GameIndex.OPENING_SETS))) {
+            for (int prefix = 0; prefix < prefixes; ++prefix) {
+                out.writeLong(starts[prefix]);
+            }
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(
+                dir.resolve(GameIndex.PLAYERS), StandardCharsets.UTF_8)) {
+            for (int player = 0; player < names.size(); ++player) {
+                out.write(names.get(player) + " " +
+                        starts[prefixes + 2 * player] + " " +
+                        starts[prefixes + 2 * player + 1] + "\n");
+            }
+        }
+    }
+
+    /**
+     * @return a buffered stream writing a new file
+     */
+    private static DataOutputStream writer(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file), IO_BUFFER));
+    }
+
+    /**
+     * Index an archive.
+     *
+     * @param args the archive and the directory to put the index in, and
+     *             optionally how many keys each sort holds in memory
+     * @throws IOException if a file can't be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3) {
+            System.out.println("Usage: java GameIndexer archive dir" +
+                    " [buffer-entries]");
+            System.exit(1);
+        }
+        int buffer = args.length > 2 ? Integer.parseInt(args[2]) :
+                DEFAULT_BUFFER;
+        GameIndexer indexer = new GameIndexer(Paths.get(args[0]),
+                Paths.get(args[1]), buffer);
+        long start = System.nanoTime();
+        long games = indexer.run();
+        System.out.printf("Indexed %d games, skipping %d lines, in %.1f s%n",
+                games, indexer.getSkipped(), (System.nanoTime() - start) / 1e9);
+    }
+}
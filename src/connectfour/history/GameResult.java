@@ -0,0 +1,15 @@
+package connectfour.history;
+
+/**
+ * How an archived game ended.
+ */
+public enum GameResult {
+    /** the first player won, with a line or because the second forfeited */
+    ONE,
+    /** the second player won, with a line or because the first forfeited */
+    TWO,
+    /** the board filled up with no line made */
+    TIE,
+    /** a player was lost, or broke the rules, and the game was given up */
+    ABANDONED
+}
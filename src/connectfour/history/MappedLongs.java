@@ -0,0 +1,102 @@
+package connectfour.history;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file of big-endian longs, such as a {@link connectfour.solver.KeySorter}
+ * writes, mapped into memory in segments so that it may be bigger than one
+ * buffer can map. Reads don't move any buffer's position, so any number of
+ * threads may share it.
+ */
+class MappedLongs implements Closeable {
+    /** the most longs mapped in one buffer: 1 GiB of them */
+    private static final int SEGMENT_ENTRIES = 1 << 27;
+
+    /** the channel the file is mapped from */
+    private final FileChannel channel;
+    /** how many longs there are */
+    private final long size;
+    /** the longs, mapped in segments of {@link #SEGMENT_ENTRIES} */
+    private final LongBuffer[] segments;
+
+    /**
+     * Map a file.
+     *
+     * @param file the file
+     * @throws IOException if it can't be read, or is not whole longs
+     */
+    MappedLongs(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (channel.size() % Long.BYTES != 0) {
+                throw new IOException("Not a file of longs: " + file);
+            }
+            this.size = channel.size() / Long.BYTES;
+            int n = (int) ((size + SEGMENT_ENTRIES - 1) / SEGMENT_ENTRIES);
+            this.segments = new LongBuffer[n];
+            for (int i = 0; i < n; ++i) {
+                long first = (long) i * SEGMENT_ENTRIES;
+                long entries = Math.min(SEGMENT_ENTRIES, size - first);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        first * Long.BYTES, entries * Long.BYTES)
+                        .asLongBuffer();
+            }
+        }
+        catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return how many longs there are
+     */
+    long size() {
+        return size;
+    }
+
+    /**
+     * @param i which long
+     * @return the long
+     */
+    long get(long i) {
+        return segments[(int) (i / SEGMENT_ENTRIES)]
+                .get((int) (i % SEGMENT_ENTRIES));
+    }
+
+    /**
+     * Find where a value goes in longs that are sorted.
+     *
+     * @param from the first long to look at
+     * @param to one past the last
+     * @param value the value
+     * @return the first of them not less than the value, or to if none is
+     */
+    long lowerBound(long from, long to, long value) {
+        long lo = from;
+        long hi = to;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (get(mid) < value) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Close the file. The mappings last until they are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
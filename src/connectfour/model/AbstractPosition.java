@@ -0,0 +1,185 @@
+package connectfour.model;
+
+/**
+ * The parts of a {@link ConnectFourPosition} that only need to read the
+ * board. Pieces are kept as one stack per column, bottom first, in arrays
+ * that are only ever appended to. A position therefore only needs its own
+ * column heights and move count to know which part of the shared arrays
+ * belongs to it, which is what makes {@link GridSnapshot snapshots} cheap.
+ */
+abstract class AbstractPosition implements ConnectFourPosition {
+    /** the moves, indexed by the ordinals stored in {@link #columns} */
+    private static final Move[] PIECES = Move.values();
+
+    /** the number of rows */
+    protected final int rows;
+    /** the number of columns */
+    protected final int cols;
+    /** how big a line one needs to win */
+    protected final int winLength;
+    /** the pieces in each column, bottom first: the ordinal of a Move */
+    protected final byte[][] columns;
+    /** the column of every move made, in order */
+    protected final int[] moves;
+
+    /**
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param winLength how big a line one needs to win
+     * @param columns the pieces in each column
+     * @param moves the column of every move made
+     */
+    AbstractPosition(int rows, int cols, int winLength,
+                     byte[][] columns, int[] moves) {
+        this.rows = rows;
+        this.cols = cols;
+        this.winLength = winLength;
+        this.columns = columns;
+        this.moves = moves;
+    }
+
+    @Override
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public int getCols() {
+        return cols;
+    }
+
+    @Override
+    public int getWinLength() {
+        return winLength;
+    }
+
+    @Override
+    public Move getContents(int row, int col) {
+        return pieceAt(col, rows - 1 - row);
+    }
+
+    /**
+     * What is in a column at a given height?
+     *
+     * @param col the column
+     * @param height how far up from the bottom; 0 is the bottom row
+     * @return the player (or {@link Move#NONE}) there
+     */
+    protected Move pieceAt(int col, int height) {
+        return height < getHeight(col) ?
+                PIECES[columns[col][height]] : Move.NONE;
+    }
+
+    /**
+     * Is this a column of the board?
+     *
+     * @param col the column
+     * @return true iff the column is in range
+     */
+    public boolean isValidColumn(int col) {
+        return col >= 0 && col < cols;
+    }
+
+    /**
+     * Is this column full? The column must be valid.
+     *
+     * @param col the column
+     * @return true iff there is no room for another piece in the column
+     */
+    public boolean isColumnFull(int col) {
+        return getHeight(col) == rows;
+    }
+
+    @Override
+    public boolean canDrop(int col) {
+        return isValidColumn(col) && !isColumnFull(col);
+    }
+
+    @Override
+    public int getMovesLeft() {
+        return rows * cols - getFilled();
+    }
+
+    @Override
+    public boolean isFull() {
+        return getFilled() == rows * cols;
+    }
+
+    @Override
+    public Move getTurn() {
+        return getFilled() % 2 == 0 ? Move.PLAYER_ONE : Move.PLAYER_TWO;
+    }
+
+    @Override
+    public int getMove(int ply) {
+        if (ply < 0 || ply >= getFilled()) {
+            throw new IndexOutOfBoundsException("No move " + ply);
+        }
+        return moves[ply];
+    }
+
+    /**
+     * Only the lines through the most recently placed piece are checked, so
+     * the cost depends on the win length and not on the size of the board.
+     */
+    @Override
+    public boolean hasWon() {
+        if (getFilled() == 0) {
+            return false;
+        }
+        int col = moves[getFilled() - 1];
+        int height = getHeight(col) - 1;
+        Move player = pieceAt(col, height);
+        return lineLength(player, col, height, 1, 0) >= winLength ||
+                lineLength(player, col, height, 0, 1) >= winLength ||
+                lineLength(player, col, height, 1, 1) >= winLength ||
+                lineLength(player, col, height, 1, -1) >= winLength;
+    }
+
+    /**
+     * Counts the pieces in an unbroken line through a square, looking both
+     * ways along the given direction.
+     *
+     * @param player the player whose pieces are counted
+     * @param col the column of the square
+     * @param height the height of the square
+     * @param dc the column step of the direction
+     * @param dh the height step of the direction
+     * @return the length of the line, including the square itself
+     */
+    private int lineLength(Move player, int col, int height, int dc, int dh) {
+        int count = 1;
+        for (int sign = -1; sign <= 1; sign += 2) {
+            int c = col + sign * dc;
+            int h = height + sign * dh;
+            while (c >= 0 && c < cols && h >= 0 && h < rows &&
+                    pieceAt(c, h) == player && count < winLength) {
+                ++count;
+                c += sign * dc;
+                h += sign * dh;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns a {@link String} representation of the board, suitable for
+     * printing.
+     *
+     * @return A {@link String} representation of the board.
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+
+        for(int r=0; r<rows; r++) {
+            for(int c=0; c<cols; c++) {
+                builder.append('[');
+                builder.append(getContents(r, c).getSymbol());
+                builder.append(']');
+            }
+            builder.append('\n');
+        }
+        return builder.toString();
+    }
+}
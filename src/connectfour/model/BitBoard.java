@@ -0,0 +1,303 @@
+package connectfour.model;
+
+/**
+ * Bit masks for searching a board that fits in a long. Each column takes
+ * {@code rows + 1} bits, bottom first, and the extra bit at the top of each
+ * column is always clear so that lines can't run from one column into the
+ * next. A position is then just two longs: the pieces of the player to move
+ * ({@code current}) and all the pieces on the board ({@code mask}). Both
+ * change by a few additions and exclusive ors per move, so a search can
+ * keep them on the stack instead of dropping pieces into and out of a
+ * {@link ConnectFourGrid}.<P>
+ *
+ * An instance only holds the masks for one size of board, so it is
+ * immutable and may be shared by any number of threads.
+ */
+public final class BitBoard {
+    /** the number of rows */
+    private final int rows;
+    /** the number of columns */
+    private final int cols;
+    /** how big a line one needs to win */
+    private final int winLength;
+    /** bits per column: the rows plus the one that is always clear */
+    private final int stride;
+    /** the bottom bit of every column */
+    private final long bottomRow;
+    /** the columns, centre first, in the order a search should try them */
+    private final int[] searchOrder;
+
+    /**
+     * Can a board of this size be kept in a long?
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @return true if a BitBoard can be made for it
+     */
+    public static boolean fits(int rows, int cols) {
+        return rows > 0 && cols > 0 && (rows + 1) * cols <= Long.SIZE;
+    }
+
+    /**
+     * Make the masks for a size of board.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param winLength how big a line one needs to win
+     * @throws IllegalArgumentException if the board does not
+     * {@link #fits(int, int) fit} in a long
+     */
+    public BitBoard(int rows, int cols, int winLength) {
+        if (!fits(rows, cols)) {
+            throw new IllegalArgumentException("Board too big: " + rows +
+                    "x" + cols);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.winLength = winLength;
+        this.stride = rows + 1;
+        long bottom = 0;
+        for (int col = 0; col < cols; ++col) {
+            bottom |= 1L << (col * stride);
+        }
+        this.bottomRow = bottom;
+        this.searchOrder = new int[cols];
+        for (int i = 0; i < cols; ++i) {
+            // centre, then alternately right and left of it
+            searchOrder[i] = cols / 2 + (i % 2 == 0 ? i / 2 : -(i + 1) / 2);
+        }
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the number of columns
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * @return how big a line one needs to win
+     */
+    public int getWinLength() {
+        return winLength;
+    }
+
+    /**
+     * @return the number of cells on the board
+     */
+    public int getCells() {
+        return rows * cols;
+    }
+
+    /**
+     * The columns in the order a search should try them: lines through the
+     * centre are the most numerous, so moves there tend to be best.
+     *
+     * @param i how many columns have been tried already
+     * @return the column to try next
+     */
+    public int searchOrder(int i) {
+        return searchOrder[i];
+    }
+
+    /**
+     * @param col a column
+     * @return the bit of the bottom cell of the column
+     */
+    public long bottom(int col) {
+        return 1L << (col * stride);
+    }
+
+    /**
+     * @param col a column
+     * @return the bits of every cell of the column
+     */
+    public long column(int col) {
+        return ((1L << rows) - 1) << (col * stride);
+    }
+
+    /**
+     * @param mask all the pieces on the board
+     * @param col a column
+     * @return true if the column is not full
+     */
+    public boolean canPlay(long mask, int col) {
+        return (mask & (1L << (col * stride + rows - 1))) == 0;
+    }
+
+    /**
+     * The pieces on the board once a piece has been dropped in a column. The
+     * pieces of the player to move next are then
+     * {@code current ^ mask}, using the mask from before the move.
+     *
+     * @param mask all the pieces on the board
+     * @param col a column that is not full
+     * @return all the pieces on the board after the move
+     */
+    public long play(long mask, int col) {
+        return mask | (mask + bottom(col));
+    }
+
+    /**
+     * Would dropping a piece in a column make a line for the player to
+     * move?
+     *
+     * @param current the pieces of the player to move
+     * @param mask all the pieces on the board
+     * @param col a column that is not full
+     * @return true if the move wins
+     */
+    public boolean isWinningMove(long current, long mask, int col) {
+        return hasLine(current | ((mask + bottom(col)) & column(col)));
+    }
+
+    /**
+     * Do these pieces make a line?
+     *
+     * @param pieces the pieces of one player
+     * @return true if there is a line of the win length among them
+     */
+    public boolean hasLine(long pieces) {
+        return hasLine(pieces, 1) ||            // vertical
+                hasLine(pieces, stride) ||      // horizontal
+                hasLine(pieces, stride - 1) ||  // diagonal, down to the right
+                hasLine(pieces, stride + 1);    // diagonal, up to the right
+    }
+
+    /**
+     * Do these pieces make a line in one direction?
+     *
+     * @param pieces the pieces of one player
+     * @param step how many bits apart neighbours in that direction are
+     * @return true if there is a line of the win length in that direction
+     */
+    private boolean hasLine(long pieces, int step) {
+        long m = pieces;
+        for (int i = 1; i < winLength && m != 0; ++i) {
+            int shift = step * i;
+            if (shift >= Long.SIZE) {
+                return false;
+            }
+            m &= pieces >>> shift;
+        }
+        return m != 0;
+    }
+
+    /**
+     * A number that identifies the position. It is different for every
+     * position on a board of this size and fits in the same number of bits
+     * as the board: in each column, the pieces of the player to move below
+     * a single bit just above the top piece. The position can therefore be
+     * got back from it with {@link #currentOf(long)} and
+     * {@link #maskOf(long)}.
+     *
+     * @param current the pieces of the player to move
+     * @param mask all the pieces on the board
+     * @return the key
+     */
+    public long key(long current, long mask) {
+        return current + mask + bottomRow;
+    }
+
+    /**
+     * @param key the {@link #key(long, long) key} of a position
+     * @return all the pieces on the board in that position
+     */
+    public long maskOf(long key) {
+        long mask = 0;
+        for (int col = 0; col < cols; ++col) {
+            long bits = (key >>> (col * stride)) & ((1L << stride) - 1);
+            int height = 63 - Long.numberOfLeadingZeros(bits);
+            mask |= ((1L << height) - 1) << (col * stride);
+        }
+        return mask;
+    }
+
+    /**
+     * @param key the {@link #key(long, long) key} of a position
+     * @return the pieces of the player to move in that position
+     */
+    public long currentOf(long key) {
+        return key - maskOf(key) - bottomRow;
+    }
+
+    /**
+     * The key of the position seen in a mirror, with the columns in the
+     * opposite order. A position and its mirror image are equally good for
+     * the player to move.
+     *
+     * @param key the {@link #key(long, long) key} of a position
+     * @return the key of its mirror image
+     */
+    public long mirror(long key) {
+        long mirrored = 0;
+        long column = (1L << stride) - 1;
+        for (int col = 0; col < cols; ++col) {
+            long bits = (key >>> (col * stride)) & column;
+            mirrored |= bits << ((cols - 1 - col) * stride);
+        }
+        return mirrored;
+    }
+
+    /**
+     * The smaller of a position's key and that of its mirror image, so that
+     * the two share one entry in a table.
+     *
+     * @param key the {@link #key(long, long) key} of a position
+     * @return the key to look the position up by
+     */
+    public long canonical(long key) {
+        return Math.min(key, mirror(key));
+    }
+
+    /**
+     * The pieces of the player to move in a position.
+     *
+     * @param position a position on a board of this size
+     * @return the pieces, as bits
+     */
+    public long current(ConnectFourPosition position) {
+        return pieces(position, position.getTurn());
+    }
+
+    /**
+     * All the pieces in a position.
+     *
+     * @param position a position on a board of this size
+     * @return the pieces, as bits
+     */
+    public long mask(ConnectFourPosition position) {
+        long mask = 0;
+        for (int col = 0; col < cols; ++col) {
+            mask |= ((1L << position.getHeight(col)) - 1) << (col * stride);
+        }
+        return mask;
+    }
+
+    /**
+     * One player's pieces in a position.
+     *
+     * @param position a position on a board of this size
+     * @param player whose pieces
+     * @return the pieces, as bits
+     */
+    private long pieces(ConnectFourPosition position, Move player) {
+        long pieces = 0;
+        for (int col = 0; col < cols; ++col) {
+            int height = position.getHeight(col);
+            for (int h = 0; h < height; ++h) {
+                if (position.getContents(rows - 1 - h, col) == player) {
+                    pieces |= 1L << (col * stride + h);
+                }
+            }
+        }
+        return pieces;
+    }
+}
@@ -0,0 +1,75 @@
+package connectfour.model;
+
+/**
+ * A Connect Four board that pieces can be dropped into. Both the server's
+ * game and the clients' copies of the board keep one of these, so that they
+ * agree on where a dropped piece lands, whose turn it is and when the board
+ * is full. Every query is answered without searching the board.<P>
+ *
+ * The grid is only ever added to, never taken back. That lets
+ * {@link #snapshot()} hand out immutable copies of the position that cost
+ * one array of column heights instead of a copy of the whole board. The grid
+ * itself is not thread-safe; other threads should read snapshots.
+ */
+public class ConnectFourGrid extends AbstractPosition {
+    /** how many pieces are in each column */
+    private final int[] heights;
+    /** how many pieces are on the board */
+    private int filled;
+    /** the latest snapshot, reused until the grid changes */
+    private GridSnapshot snapshot;
+
+    /**
+     * Create an empty grid.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param winLength how big a line one needs to win
+     */
+    public ConnectFourGrid(int rows, int cols, int winLength) {
+        super(rows, cols, winLength, new byte[cols][rows], new int[rows * cols]);
+        this.heights = new int[cols];
+        this.filled = 0;
+    }
+
+    @Override
+    public int getHeight(int col) {
+        return heights[col];
+    }
+
+    @Override
+    public int getFilled() {
+        return filled;
+    }
+
+    /**
+     * Drop the piece of the player whose turn it is into a column. The
+     * caller must have checked that it {@link #canDrop(int) can be dropped}.
+     *
+     * @param col the column
+     * @return the row the piece lands in
+     */
+    public int drop(int col) {
+        int height = heights[col];
+        columns[col][height] = (byte) getTurn().ordinal();
+        moves[filled] = col;
+        heights[col] = height + 1;
+        filled += 1;
+        snapshot = null;
+        return rows - 1 - height;
+    }
+
+    /**
+     * An immutable copy of the board as it is now, safe to hand to other
+     * threads. Asking again before the next {@link #drop(int)} returns the
+     * same snapshot.
+     *
+     * @return the snapshot
+     */
+    public GridSnapshot snapshot() {
+        if (snapshot == null) {
+            snapshot = new GridSnapshot(this, heights.clone(), filled);
+        }
+        return snapshot;
+    }
+}
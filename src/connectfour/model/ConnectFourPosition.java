@@ -0,0 +1,84 @@
+package connectfour.model;
+
+/**
+ * Read access to a Connect Four board. Implemented both by the mutable
+ * {@link ConnectFourGrid} and by its immutable {@link GridSnapshot snapshots},
+ * so views and players can be written once for either.<P>
+ *
+ * Row 0 is the top of the board. Moves are numbered by ply, starting at 0
+ * for player one's first move.
+ */
+public interface ConnectFourPosition {
+    /**
+     * @return the number of rows
+     */
+    int getRows();
+
+    /**
+     * @return the number of columns
+     */
+    int getCols();
+
+    /**
+     * @return how big a line one needs to win
+     */
+    int getWinLength();
+
+    /**
+     * What is at this square?
+     *
+     * @param row row number of square
+     * @param col column number of square
+     * @return the player (or {@link Move#NONE}) at the given location
+     */
+    Move getContents(int row, int col);
+
+    /**
+     * @param col the column, which must be valid
+     * @return how many pieces are in the column
+     */
+    int getHeight(int col);
+
+    /**
+     * Can a piece be dropped into this column?
+     *
+     * @param col the column
+     * @return true iff the column is in range and not full
+     */
+    boolean canDrop(int col);
+
+    /**
+     * @return how many pieces are on the board, which is also the number of
+     * moves made so far
+     */
+    int getFilled();
+
+    /**
+     * @return how many more pieces fit on the board
+     */
+    int getMovesLeft();
+
+    /**
+     * @return true iff no more pieces fit on the board
+     */
+    boolean isFull();
+
+    /**
+     * @return the player who moves next
+     */
+    Move getTurn();
+
+    /**
+     * @param ply which move, counting from 0; must be less than
+     *            {@link #getFilled()}
+     * @return the column that move was made in
+     */
+    int getMove(int ply);
+
+    /**
+     * Did the most recent move make a line long enough to win?
+     *
+     * @return true if the player who moved last has won
+     */
+    boolean hasWon();
+}
@@ -0,0 +1,58 @@
+package connectfour.model;
+
+/**
+ * What a {@link Solver} found out about a position, from the point of view
+ * of the player to move. A positive score means that player can force a
+ * win, a negative one that the other player can: the sooner the win, the
+ * bigger the score, so a win with the last piece on the board scores 1.
+ * A score of 0 means the game is drawn, or that the search did not look
+ * deep enough to tell.
+ */
+public final class Evaluation {
+    /** the score */
+    private final int score;
+    /** the best column to play, or -1 if the game is over */
+    private final int bestColumn;
+    /** how many positions were searched */
+    private final long nodes;
+
+    /**
+     * @param score the score
+     * @param bestColumn the best column to play, or -1 if the game is over
+     * @param nodes how many positions were searched
+     */
+    public Evaluation(int score, int bestColumn, long nodes) {
+        this.score = score;
+        this.bestColumn = bestColumn;
+        this.nodes = nodes;
+    }
+
+    /**
+     * @return the score, positive if the player to move can force a win
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * @return the best column to play, or -1 if the game is over
+     */
+    public int getBestColumn() {
+        return bestColumn;
+    }
+
+    /**
+     * @return how many positions were searched
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return the score, best column and node count, separated by spaces
+     */
+    @Override
+    public String toString() {
+        return score + " " + bestColumn + " " + nodes;
+    }
+}
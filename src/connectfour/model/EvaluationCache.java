@@ -0,0 +1,234 @@
+package connectfour.model;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A fixed-size cache of {@link Evaluation evaluations}, keyed by a 64-bit
+ * position key such as {@link BitBoard#key(long, long)}, that any number of
+ * threads may share.<P>
+ *
+ * Entries live in two arrays of longs, a key and a packed value each, so
+ * the cache costs 17 bytes an entry and nothing for the garbage collector
+ * to trace. The entries are grouped in sets of {@link #WAYS}; a key can
+ * only be in the set its hash picks, and when that set is full the entry
+ * to evict is chosen by the CLOCK algorithm: a hand sweeps the set, sparing
+ * (but clearing the mark of) each entry that has been read since the hand
+ * last passed it. The sets are shared out among {@link #STRIPES} locks, so
+ * threads only wait for each other when they want the same stripe.<P>
+ *
+ * An evaluation is kept with the depth it was searched to, and only
+ * answers requests for that depth or less. A win or loss that the search
+ * found answers requests for any depth, since searching deeper would find
+ * the same.
+ */
+public class EvaluationCache {
+    /** how many entries a key may be in */
+    private static final int WAYS = 8;
+    /** how many locks the sets are shared out among */
+    private static final int STRIPES = 64;
+    /** the depth stored for an evaluation that no deeper search can change */
+    private static final int DECIDED = 0xFFFF;
+    /** set in every value in use, so that an empty entry is 0 */
+    private static final long IN_USE = 1L << 63;
+
+    /** the key of each entry */
+    private final long[] keys;
+    /** the packed score, best column and depth of each entry; 0 if empty */
+    private final long[] values;
+    /** 1 for each entry read since the hand of its set last passed it */
+    private final byte[] referenced;
+    /** the position of the hand in each set */
+    private final byte[] hands;
+    /** the number of sets, less one, for picking a set from a hash */
+    private final int setMask;
+    /** the locks for the stripes */
+    private final Object[] locks = new Object[STRIPES];
+
+    /** lookups that found an evaluation deep enough */
+    private final LongAdder hits = new LongAdder();
+    /** lookups that did not */
+    private final LongAdder misses = new LongAdder();
+    /** entries thrown out to make room */
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Make an empty cache.
+     *
+     * @param capacity roughly how many evaluations to keep; rounded down to
+     *                 a power of two, and at least {@link #WAYS}
+     */
+    public EvaluationCache(int capacity) {
+        int sets = Integer.highestOneBit(Math.max(1, capacity / WAYS));
+        this.setMask = sets - 1;
+        this.keys = new long[sets * WAYS];
+        this.values = new long[sets * WAYS];
+        this.referenced = new byte[sets * WAYS];
+        this.hands = new byte[sets];
+        for (int i = 0; i < STRIPES; ++i) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Look up an evaluation.
+     *
+     * @param key the position's key
+     * @param depth the depth the evaluation must have been searched to
+     * @return the evaluation, with a node count of 0, or null if there is
+     * none searched deep enough
+     */
+    public Evaluation get(long key, int depth) {
+        int set = setOf(key);
+        int first = set * WAYS;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            for (int i = first; i < first + WAYS; ++i) {
+                long value = values[i];
+                if (value != 0 && keys[i] == key) {
+                    if (depthOf(value) < depth) {
+                        break;
+                    }
+                    referenced[i] = 1;
+                    hits.increment();
+                    return new Evaluation(scoreOf(value), bestOf(value), 0);
+                }
+            }
+        }
+        misses.increment();
+        return null;
+    }
+
+    /**
+     * Keep an evaluation, replacing any shallower one of the same position.
+     *
+     * @param key the position's key
+     * @param evaluation the evaluation
+     * @param depth the depth it was searched to
+     */
+    public void put(long key, Evaluation evaluation, int depth) {
+        int stored = evaluation.getScore() != 0 ? DECIDED :
+                Math.max(0, Math.min(depth, DECIDED - 1));
+        long value = IN_USE | ((long) stored << 32) |
+                ((long) ((evaluation.getBestColumn() + 1) & 0xFF) << 16) |
+                (evaluation.getScore() & 0xFFFF);
+        int set = setOf(key);
+        int first = set * WAYS;
+        synchronized (locks[set & (STRIPES - 1)]) {
+            int empty = -1;
+            for (int i = first; i < first + WAYS; ++i) {
+                if (values[i] == 0) {
+                    if (empty < 0) {
+                        empty = i;
+                    }
+                }
+                else if (keys[i] == key) {
+                    if (depthOf(values[i]) < stored) {
+                        values[i] = value;
+                    }
+                    return;
+                }
+            }
+            int slot = empty >= 0 ? empty : evict(set);
+            keys[slot] = key;
+            values[slot] = value;
+            referenced[slot] = 0;
+        }
+    }
+
+    /**
+     * Make room in a full set by moving its hand on to the first entry that
+     * has not been read since the hand last passed it.
+     *
+     * @param set the set
+     * @return the entry to reuse
+     */
+    private int evict(int set) {
+        int first = set * WAYS;
+        int hand = hands[set];
+        while (referenced[first + hand] != 0) {
+            referenced[first + hand] = 0;
+            hand = (hand + 1) % WAYS;
+        }
+        hands[set] = (byte) ((hand + 1) % WAYS);
+        evictions.increment();
+        return first + hand;
+    }
+
+    /**
+     * Which set a key goes in. Position keys have most of their bits in
+     * common, so they are mixed first to spread them over the sets.
+     */
+    private int setOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) h & setMask;
+    }
+
+    /**
+     * @return the depth packed in a value
+     */
+    private static int depthOf(long value) {
+        return (int) (value >>> 32) & 0xFFFF;
+    }
+
+    /**
+     * @return the best column packed in a value
+     */
+    private static int bestOf(long value) {
+        return (int) ((value >>> 16) & 0xFF) - 1;
+    }
+
+    /**
+     * @return the score packed in a value
+     */
+    private static int scoreOf(long value) {
+        return (short) value;
+    }
+
+    /**
+     * @return how many evaluations the cache can hold
+     */
+    public int getCapacity() {
+        return keys.length;
+    }
+
+    /**
+     * @return how many lookups found an evaluation deep enough
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * @return how many lookups did not find an evaluation deep enough
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the fraction of lookups that were hits, or 0 if there have
+     * been none
+     */
+    public double getHitRate() {
+        long h = hits.sum();
+        long total = h + misses.sum();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * @return how many entries have been thrown out to make room
+     */
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return the capacity, hit rate and eviction count
+     */
+    @Override
+    public String toString() {
+        return String.format("capacity %d, hits %d, misses %d (%.1f%% hit rate)" +
+                        ", evictions %d", getCapacity(), getHits(), getMisses(),
+                100 * getHitRate(), getEvictions());
+    }
+}
@@ -0,0 +1,199 @@
+package connectfour.model;
+
+import connectfour.ConnectFourException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The moves of one game, in order, along with the size of its board. This
+ * is all it takes to reconstruct any position of the game.<P>
+ *
+ * As text, a record is the number of rows, columns and the win length on
+ * the first line and the columns played, separated by spaces or commas, on
+ * the second. A record of a game on the standard board may leave out the
+ * first line. For example:<pre>
+ * 6 7 4
+ * 3 3 4 2 5
+ * </pre>
+ */
+public class GameRecord {
+    /** the default number of rows */
+    public static final int ROWS = 6;
+    /** the default number of columns */
+    public static final int COLS = 7;
+    /** the default length of line needed to win */
+    public static final int WIN_LEN = 4;
+
+    /** the number of rows */
+    private final int rows;
+    /** the number of columns */
+    private final int cols;
+    /** how big a line one needs to win */
+    private final int winLength;
+    /** the column of every move, in order */
+    private final int[] moves;
+
+    /**
+     * Create a record.
+     *
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param winLength how big a line one needs to win
+     * @param moves the column of every move, in order; copied
+     */
+    public GameRecord(int rows, int cols, int winLength, int[] moves) {
+        this.rows = rows;
+        this.cols = cols;
+        this.winLength = winLength;
+        this.moves = moves.clone();
+    }
+
+    /**
+     * Record the moves made so far in a position.
+     *
+     * @param position the position
+     * @return the record
+     */
+    public static GameRecord of(ConnectFourPosition position) {
+        int[] moves = new int[position.getFilled()];
+        for (int ply = 0; ply < moves.length; ply++) {
+            moves[ply] = position.getMove(ply);
+        }
+        return new GameRecord(position.getRows(), position.getCols(),
+                position.getWinLength(), moves);
+    }
+
+    /**
+     * Read a record in the text form described above.
+     *
+     * @param text the record
+     * @return the record
+     * @throws ConnectFourException if the text is not a record
+     */
+    public static GameRecord parse(String text) throws ConnectFourException {
+        String[] lines = text.strip().split("\\R");
+        try {
+            if (lines.length == 1) {
+                return new GameRecord(ROWS, COLS, WIN_LEN, parseInts(lines[0]));
+            }
+            else if (lines.length == 2) {
+                int[] size = parseInts(lines[0]);
+                if (size.length != 3) {
+                    throw new ConnectFourException("Bad board size: " + lines[0]);
+                }
+                return new GameRecord(size[0], size[1], size[2],
+                        parseInts(lines[1]));
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new ConnectFourException("Bad game record", e);
+        }
+        throw new ConnectFourException("Bad game record: " + lines.length +
+                " lines");
+    }
+
+    /**
+     * Read a record from a file.
+     *
+     * @param file the file
+     * @return the record
+     * @throws ConnectFourException if the file can't be read or is not a
+     * record
+     */
+    public static GameRecord read(Path file) throws ConnectFourException {
+        try {
+            return parse(Files.readString(file, StandardCharsets.UTF_8));
+        }
+        catch (IOException e) {
+            throw new ConnectFourException(e);
+        }
+    }
+
+    /**
+     * Write this record to a file.
+     *
+     * @param file the file
+     * @throws ConnectFourException if the file can't be written
+     */
+    public void write(Path file) throws ConnectFourException {
+        try {
+            Files.writeString(file, toString(), StandardCharsets.UTF_8);
+        }
+        catch (IOException e) {
+            throw new ConnectFourException(e);
+        }
+    }
+
+    /**
+     * Split a line of numbers separated by spaces or commas.
+     */
+    private static int[] parseInts(String line) {
+        String trimmed = line.strip();
+        if (trimmed.isEmpty()) {
+            return new int[0];
+        }
+        return Arrays.stream(trimmed.split("[\\s,]+"))
+                .mapToInt(Integer::parseInt)
+                .toArray();
+    }
+
+    /**
+     * @return the number of rows
+     */
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the number of columns
+     */
+    public int getCols() {
+        return cols;
+    }
+
+    /**
+     * @return how big a line one needs to win
+     */
+    public int getWinLength() {
+        return winLength;
+    }
+
+    /**
+     * @return how many moves were made
+     */
+    public int length() {
+        return moves.length;
+    }
+
+    /**
+     * @param ply which move, counting from 0
+     * @return the column that move was made in
+     */
+    public int getMove(int ply) {
+        return moves[ply];
+    }
+
+    /**
+     * Returns the record in the text form described above.
+     *
+     * @return the record as text
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(rows).append(' ').append(cols).append(' ')
+                .append(winLength).append('\n');
+        for (int ply = 0; ply < moves.length; ply++) {
+            if (ply > 0) {
+                builder.append(' ');
+            }
+            builder.append(moves[ply]);
+        }
+        builder.append('\n');
+        return builder.toString();
+    }
+}
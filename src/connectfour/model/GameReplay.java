@@ -0,0 +1,110 @@
+package connectfour.model;
+
+import connectfour.ConnectFourException;
+
+/**
+ * Every position of a recorded game, any one of which can be had quickly.
+ * The whole game is played into one {@link ConnectFourGrid} up front, and
+ * the column heights are saved every {@link #getCheckpointInterval()}
+ * moves. Since a {@link GridSnapshot} is just the shared grid plus a set of
+ * heights, the position at any ply is the nearest earlier checkpoint with at
+ * most one interval's worth of moves added to its heights: the cost of
+ * {@link #snapshotAt(int)} does not depend on how long the game is.
+ */
+public class GameReplay {
+    /** the whole game */
+    private final ConnectFourGrid grid;
+    /** how many moves apart the checkpoints are */
+    private final int interval;
+    /** column heights after every interval'th move, starting with none */
+    private final int[][] checkpoints;
+
+    /**
+     * Play a recorded game, with checkpoints as far apart as the board is
+     * wide.
+     *
+     * @param record the game
+     * @throws ConnectFourException if a move is invalid or comes after the
+     * game was won
+     */
+    public GameReplay(GameRecord record) throws ConnectFourException {
+        this(record, Math.max(1, record.getCols()));
+    }
+
+    /**
+     * Play a recorded game.
+     *
+     * @param record the game
+     * @param interval how many moves apart the checkpoints are
+     * @throws ConnectFourException if a move is invalid or comes after the
+     * game was won
+     */
+    public GameReplay(GameRecord record, int interval)
+            throws ConnectFourException {
+        this.grid = new ConnectFourGrid(record.getRows(), record.getCols(),
+                record.getWinLength());
+        this.interval = interval;
+        this.checkpoints = new int[record.length() / interval + 1][];
+
+        int[] heights = new int[record.getCols()];
+        checkpoints[0] = heights.clone();
+        for (int ply = 0; ply < record.length(); ply++) {
+            int col = record.getMove(ply);
+            if (grid.hasWon()) {
+                throw new ConnectFourException("Move " + ply +
+                        " comes after the game was won");
+            }
+            if (!grid.canDrop(col)) {
+                throw new ConnectFourException("Move " + ply +
+                        " is invalid: column " + col);
+            }
+            grid.drop(col);
+            heights[col] += 1;
+            if ((ply + 1) % interval == 0) {
+                checkpoints[(ply + 1) / interval] = heights.clone();
+            }
+        }
+    }
+
+    /**
+     * @return how many moves the game has
+     */
+    public int length() {
+        return grid.getFilled();
+    }
+
+    /**
+     * @return how many moves apart the checkpoints are
+     */
+    public int getCheckpointInterval() {
+        return interval;
+    }
+
+    /**
+     * @return the final position
+     */
+    public GridSnapshot getFinalPosition() {
+        return grid.snapshot();
+    }
+
+    /**
+     * The position after a number of moves.
+     *
+     * @param ply how many moves have been made, from 0 to {@link #length()}
+     * @return the position
+     */
+    public GridSnapshot snapshotAt(int ply) {
+        if (ply < 0 || ply > length()) {
+            throw new IndexOutOfBoundsException("No ply " + ply);
+        }
+        if (ply == length()) {
+            return grid.snapshot();
+        }
+        int checkpoint = ply / interval;
+        int[] heights = checkpoints[checkpoint].clone();
+        for (int i = checkpoint * interval; i < ply; i++) {
+            heights[grid.getMove(i)] += 1;
+        }
+        return new GridSnapshot(grid, heights, ply);
+    }
+}
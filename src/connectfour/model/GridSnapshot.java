@@ -0,0 +1,38 @@
+package connectfour.model;
+
+/**
+ * An immutable view of a {@link ConnectFourGrid} as it was when
+ * {@link ConnectFourGrid#snapshot()} was called. It shares the grid's piece
+ * storage instead of copying it, which is safe because the grid only ever
+ * adds pieces above the heights recorded here. A snapshot can be read from
+ * any thread, without locking, while the grid carries on.
+ */
+public final class GridSnapshot extends AbstractPosition {
+    /** how many pieces were in each column */
+    private final int[] heights;
+    /** how many pieces were on the board */
+    private final int filled;
+
+    /**
+     * Called by {@link ConnectFourGrid#snapshot()}.
+     *
+     * @param grid the grid being copied
+     * @param heights a copy of the grid's column heights
+     * @param filled how many pieces are on the grid
+     */
+    GridSnapshot(ConnectFourGrid grid, int[] heights, int filled) {
+        super(grid.rows, grid.cols, grid.winLength, grid.columns, grid.moves);
+        this.heights = heights;
+        this.filled = filled;
+    }
+
+    @Override
+    public int getHeight(int col) {
+        return heights[col];
+    }
+
+    @Override
+    public int getFilled() {
+        return filled;
+    }
+}
@@ -0,0 +1,325 @@
+package connectfour.model;
+
+import java.util.Arrays;
+
+/**
+ * A quick guess at how good a position is, for players that must move in
+ * well under a millisecond and so can only look a few moves ahead. It works
+ * on the bits of a {@link BitBoard}, which a search updates with a couple of
+ * additions per move, so a position is never read back out of a
+ * {@link ConnectFourGrid}.<P>
+ *
+ * Every line of the win length that fits on the board is a precomputed
+ * mask, and a position is scored from how many pieces each player has in
+ * each of them, two population counts a line. The features are, for each
+ * player:
+ * <ul>
+ * <li>{@link #OPEN_TWOS}: lines two short of a win with none of the
+ *     opponent's pieces in them;</li>
+ * <li>{@link #OPEN_THREES}: lines one short of a win with none of the
+ *     opponent's pieces in them;</li>
+ * <li>{@link #GOOD_THREATS}: empty cells that would win, in a row the
+ *     player will get to fill as the board fills up (odd rows, counting
+ *     from 1 at the bottom, for the first player, and even rows for the
+ *     second), since those tend to decide the endgame;</li>
+ * <li>{@link #PLAYABLE_THREATS}: empty cells that would win and can be
+ *     played into now;</li>
+ * <li>{@link #CENTRE}: pieces, weighted by how near the centre column
+ *     they are.</li>
+ * </ul>
+ * The score is the weighted sum of the player to move's features less the
+ * opponent's. The weights may be fitted by the
+ * {@link connectfour.bot.HeuristicTuner}.<P>
+ *
+ * An instance is immutable, so it may be shared by any number of threads.
+ */
+public class Heuristic {
+    /** the index of the weight of open twos */
+    public static final int OPEN_TWOS = 0;
+    /** the index of the weight of open threes */
+    public static final int OPEN_THREES = 1;
+    /** the index of the weight of threats in the player's own rows */
+    public static final int GOOD_THREATS = 2;
+    /** the index of the weight of threats that can be played now */
+    public static final int PLAYABLE_THREATS = 3;
+    /** the index of the weight of central pieces */
+    public static final int CENTRE = 4;
+    /** how many features, and so weights, there are */
+    public static final int FEATURES = 5;
+    /** the names of the features, for printing */
+    public static final String[] FEATURE_NAMES = {
+            "open twos", "open threes", "good threats", "playable threats",
+            "centre"
+    };
+
+    /** the weights used if none are given */
+    private static final int[] DEFAULT_WEIGHTS = {2, 6, 24, 12, 1};
+
+    /** the score of a win; less the number of moves, to prefer quick ones */
+    public static final int WIN = 1_000_000;
+
+    /** the masks for the size of board */
+    private final BitBoard board;
+    /** the weight of each feature */
+    private final int[] weights;
+    /** every line of the win length on the board */
+    private final long[] lines;
+    /** the rows the first player gets to fill: 1st, 3rd, ... from the bottom */
+    private final long oddRows;
+    /** every cell of the board */
+    private final long cells;
+    /** the bottom cell of every column */
+    private final long bottomRow;
+    /** the cells of the columns at each distance from the centre */
+    private final long[] rings;
+
+    /**
+     * Make a heuristic with the default weights.
+     *
+     * @param board the masks for the size of board
+     */
+    public Heuristic(BitBoard board) {
+        this(board, DEFAULT_WEIGHTS);
+    }
+
+    /**
+     * Make a heuristic.
+     *
+     * @param board the masks for the size of board
+     * @param weights the weight of each of the {@link #FEATURES} features
+     * @throws IllegalArgumentException if there are not
+     * {@link #FEATURES} weights
+     */
+    public Heuristic(BitBoard board, int[] weights) {
+        if (weights.length != FEATURES) {
+            throw new IllegalArgumentException("Need " + FEATURES +
+                    " weights, not " + weights.length);
+        }
+        this.board = board;
+        this.weights = weights.clone();
+
+        int rows = board.getRows();
+        int cols = board.getCols();
+        int n = board.getWinLength();
+        long all = 0;
+        long odd = 0;
+        long bottom = 0;
+        for (int col = 0; col < cols; ++col) {
+            all |= board.column(col);
+            bottom |= board.bottom(col);
+            for (int h = 0; h < rows; h += 2) {
+                odd |= board.bottom(col) << h;
+            }
+        }
+        this.cells = all;
+        this.bottomRow = bottom;
+        this.oddRows = odd;
+
+        // every start cell and direction a whole line fits from
+        int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+        long[] found = new long[4 * rows * cols];
+        int count = 0;
+        for (int[] d : directions) {
+            for (int col = 0; col < cols; ++col) {
+                for (int h = 0; h < rows; ++h) {
+                    int endCol = col + d[0] * (n - 1);
+                    int endH = h + d[1] * (n - 1);
+                    if (endCol < 0 || endCol >= cols || endH < 0 ||
+                            endH >= rows) {
+                        continue;
+                    }
+                    long line = 0;
+                    for (int i = 0; i < n; ++i) {
+                        line |= board.bottom(col + d[0] * i) << (h + d[1] * i);
+                    }
+                    found[count++] = line;
+                }
+            }
+        }
+        this.lines = Arrays.copyOf(found, count);
+
+        this.rings = new long[cols / 2 + 1];
+        for (int col = 0; col < cols; ++col) {
+            // for an even number of columns the two middle ones are centre
+            int distance = Math.min(Math.abs(2 * col - (cols - 1)) / 2,
+                    rings.length - 1);
+            rings[distance] |= board.column(col);
+        }
+    }
+
+    /**
+     * @return the masks for the size of board
+     */
+    public BitBoard getBoard() {
+        return board;
+    }
+
+    /**
+     * @return a copy of the weights
+     */
+    public int[] getWeights() {
+        return weights.clone();
+    }
+
+    /**
+     * Score a position for the player to move.
+     *
+     * @param position a position on a board of this heuristic's size
+     * @return the score; positive if the player to move is better off
+     */
+    public int evaluate(ConnectFourPosition position) {
+        return evaluate(board.current(position), board.mask(position));
+    }
+
+    /**
+     * Score a position for the player to move. A position the player to
+     * move can win at once is not treated specially; a search should check
+     * for that first.
+     *
+     * @param current the pieces of the player to move
+     * @param mask all the pieces on the board
+     * @return the score; positive if the player to move is better off
+     */
+    public int evaluate(long current, long mask) {
+        int[] f = new int[FEATURES];
+        features(current, mask, f);
+        int score = 0;
+        for (int i = 0; i < FEATURES; ++i) {
+            score += weights[i] * f[i];
+        }
+        return score;
+    }
+
+    /**
+     * Work out the features of a position: each one for the player to move
+     * less the same for the opponent.
+     *
+     * @param current the pieces of the player to move
+     * @param mask all the pieces on the board
+     * @param features where to put them; {@link #FEATURES} long
+     */
+    public void features(long current, long mask, int[] features) {
+        long opponent = current ^ mask;
+        int n = board.getWinLength();
+        int twos = 0;
+        int threes = 0;
+        long ourThreats = 0;
+        long theirThreats = 0;
+        for (long line : lines) {
+            int ours = Long.bitCount(current & line);
+            int theirs = Long.bitCount(opponent & line);
+            if (theirs == 0) {
+                if (ours == n - 1) {
+                    threes++;
+                    ourThreats |= line & ~mask;
+                }
+                else if (ours == n - 2) {
+                    twos++;
+                }
+            }
+            else if (ours == 0) {
+                if (theirs == n - 1) {
+                    threes--;
+                    theirThreats |= line & ~mask;
+                }
+                else if (theirs == n - 2) {
+                    twos--;
+                }
+            }
+        }
+
+        // the player to move is the first player if an even number is down
+        boolean first = Long.bitCount(mask) % 2 == 0;
+        long ourRows = first ? oddRows : cells & ~oddRows;
+        long theirRows = cells & ~ourRows;
+        long playable = (mask + bottomRow) & cells;
+
+        features[OPEN_TWOS] = twos;
+        features[OPEN_THREES] = threes;
+        features[GOOD_THREATS] = Long.bitCount(ourThreats & ourRows) -
+                Long.bitCount(theirThreats & theirRows);
+        features[PLAYABLE_THREATS] = Long.bitCount(ourThreats & playable) -
+                Long.bitCount(theirThreats & playable);
+        int centre = 0;
+        for (int distance = 0; distance < rings.length - 1; ++distance) {
+            int weight = rings.length - 1 - distance;
+            centre += weight * (Long.bitCount(current & rings[distance]) -
+                    Long.bitCount(opponent & rings[distance]));
+        }
+        features[CENTRE] = centre;
+    }
+
+    /**
+     * Pick a move by searching a few moves ahead and scoring the positions
+     * there with {@link #evaluate(long, long)}. A win found on the way
+     * scores {@link #WIN} less the number of moves to it.
+     *
+     * @param current the pieces of the player to move
+     * @param mask all the pieces on the board, which must not be full
+     * @param depth how many moves ahead to look, at least 1
+     * @return the column to play
+     */
+    public int choose(long current, long mask, int depth) {
+        int best = -1;
+        int alpha = -WIN - 1;
+        for (int i = 0; i < board.getCols(); ++i) {
+            int col = board.searchOrder(i);
+            if (!board.canPlay(mask, col)) {
+                continue;
+            }
+            if (board.isWinningMove(current, mask, col)) {
+                return col;
+            }
+            int score = -negamax(current ^ mask, board.play(mask, col),
+                    depth - 1, -WIN - 1, -alpha);
+            if (best < 0 || score > alpha) {
+                alpha = score;
+                best = col;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The score of a position for the player to move, as far as it lies
+     * between alpha and beta.
+     *
+     * @param current the pieces of the player to move
+     * @param mask all the pieces on the board
+     * @param depth how many more moves to look ahead
+     * @param alpha the score the caller already has
+     * @param beta the score above which the caller's opponent will avoid
+     *             this position
+     * @return the score
+     */
+    private int negamax(long current, long mask, int depth, int alpha,
+                        int beta) {
+        if (mask == cells) {
+            return 0;
+        }
+        int cols = board.getCols();
+        for (int col = 0; col < cols; ++col) {
+            if (board.canPlay(mask, col) &&
+                    board.isWinningMove(current, mask, col)) {
+                return WIN - Long.bitCount(mask);
+            }
+        }
+        if (depth <= 0) {
+            return evaluate(current, mask);
+        }
+        for (int i = 0; i < cols; ++i) {
+            int col = board.searchOrder(i);
+            if (board.canPlay(mask, col)) {
+                int score = -negamax(current ^ mask, board.play(mask, col),
+                        depth - 1, -beta, -alpha);
+                if (score >= beta) {
+                    return score;
+                }
+                if (score > alpha) {
+                    alpha = score;
+                }
+            }
+        }
+        return alpha;
+    }
+}
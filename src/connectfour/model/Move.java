@@ -0,0 +1,35 @@
+package connectfour.model;
+
+/**
+ * Used to indicate a move that has been made on the board, and to keep
+ * track of whose turn it is.
+ */
+public enum Move {
+    PLAYER_ONE('X'),
+    PLAYER_TWO('O'),
+    NONE('.');
+
+    private char symbol;
+
+    private Move(char symbol) {
+        this.symbol = symbol;
+    }
+
+    /**
+     * @return the character used to show this move when printing a board
+     */
+    public char getSymbol() {
+        return symbol;
+    }
+
+    /**
+     * @return the other player, or {@link #NONE} for {@link #NONE}
+     */
+    public Move opponent() {
+        return this == PLAYER_ONE ?
+                PLAYER_TWO :
+                this == PLAYER_TWO ?
+                        PLAYER_ONE :
+                        this;
+    }
+}
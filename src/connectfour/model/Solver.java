@@ -0,0 +1,337 @@
+package connectfour.model;
+
+/**
+ * Searches ahead from a position to find the best move, using negamax with
+ * alpha-beta pruning on a {@link BitBoard}. The search stops at a given
+ * depth, where positions that are not yet decided score 0; with a depth of
+ * at least the number of empty cells it finds the exact result.<P>
+ *
+ * {@link #solve(long, long, int)} instead searches to the end of the game,
+ * only to find out whether the player to move wins, draws or loses, which
+ * is far quicker than finding the exact score. It keeps a transposition
+ * table of the bounds it has proved, one for each thread that solves.<P>
+ *
+ * A solver keeps no other state between searches apart from an optional
+ * {@link EvaluationCache} of the positions it has been asked about, which
+ * is thread-safe, so one solver may be shared by any number of threads.
+ */
+public class Solver {
+    /** how many entries each thread's transposition table has: 1M, 9 MB */
+    private static final int TABLE_ENTRIES = 1 << 20;
+
+    /** the masks for the size of board searched */
+    private final BitBoard board;
+    /** evaluations of positions asked about before; may be null */
+    private final EvaluationCache cache;
+    /** the transposition table of each thread that solves */
+    private final ThreadLocal<Table> tables =
+            ThreadLocal.withInitial(() -> new Table(TABLE_ENTRIES));
+
+    /**
+     * Make a solver for one size of board.
+     *
+     * @param board the masks for the size of board
+     */
+    public Solver(BitBoard board) {
+        this(board, null);
+    }
+
+    /**
+     * Make a solver for one size of board that looks up the positions it is
+     * asked about in a cache before searching them, and keeps what it finds
+     * there. The cache must only be used for this size of board.
+     *
+     * @param board the masks for the size of board
+     * @param cache the cache; may be null
+     */
+    public Solver(BitBoard board, EvaluationCache cache) {
+        this.board = board;
+        this.cache = cache;
+    }
+
+    /**
+     * @return the cache of evaluations, or null if there is none
+     */
+    public EvaluationCache getCache() {
+        return cache;
+    }
+
+    /**
+     * @return the masks for the size of board searched
+     */
+    public BitBoard getBoard() {
+        return board;
+    }
+
+    /**
+     * Search a position.
+     *
+     * @param position a position on a board of this solver's size
+     * @param depth how many moves ahead to look
+     * @return what the search found
+     */
+    public Evaluation evaluate(ConnectFourPosition position, int depth) {
+        int moves = position.getFilled();
+        if (position.hasWon()) {
+            // the player to move has lost, on the last move made
+            return new Evaluation(-(board.getCells() + 1 - moves), -1, 1);
+        }
+        if (position.isFull()) {
+            return new Evaluation(0, -1, 1);
+        }
+        return evaluate(board.current(position), board.mask(position), moves,
+                depth);
+    }
+
+    /**
+     * Search a position given as bits, which must not be won or full.
+     *
+     * @param current the pieces of the player to move
+     * @param mask all the pieces on the board
+     * @param moves how many pieces are on the board
+     * @param depth how many moves ahead to look
+     * @return what the search found
+     */
+    public Evaluation evaluate(long current, long mask, int moves, int depth) {
+        int cells = board.getCells();
+        // looking further than the end of the game finds nothing more
+        depth = Math.max(0, Math.min(depth, cells - moves));
+        long key = board.key(current, mask);
+        if (cache != null) {
+            Evaluation cached = cache.get(key, depth);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        Search search = new Search();
+        int best = -1;
+        int alpha = -cells;
+        int beta = cells;
+        for (int i = 0; i < board.getCols(); ++i) {
+            int col = board.searchOrder(i);
+            if (!board.canPlay(mask, col)) {
+                continue;
+            }
+            int score;
+            if (board.isWinningMove(current, mask, col)) {
+                score = cells - moves;
+            }
+            else {
+                score = -search.negamax(current ^ mask, board.play(mask, col),
+                        moves + 1, depth - 1, -beta, -alpha);
+            }
+            if (best < 0 || score > alpha) {
+                alpha = score;
+                best = col;
+            }
+        }
+        Evaluation evaluation = new Evaluation(alpha, best, search.nodes + 1);
+        if (cache != null) {
+            cache.put(key, evaluation, depth);
+        }
+        return evaluation;
+    }
+
+    /**
+     * Find out whether the player to move can force a win, can only draw,
+     * or will lose against best play. The position must not be won or
+     * full.
+     *
+     * @param current the pieces of the player to move
+     * @param mask all the pieces on the board
+     * @param moves how many pieces are on the board
+     * @return 1 for a win, 0 for a draw, -1 for a loss
+     */
+    public int solve(long current, long mask, int moves) {
+        Search search = new Search();
+        search.table = tables.get();
+        int score = search.solve(current, mask, moves, -1, 1);
+        return Integer.signum(score);
+    }
+
+    /**
+     * Proved upper bounds on the scores of positions, by key. Each key has
+     * one place in the table, and a new bound replaces whatever was there.
+     */
+    private static class Table {
+        /** the key of each entry; 0 if empty, which no key is */
+        private final long[] keys;
+        /** the bound of each entry */
+        private final byte[] bounds;
+
+        /**
+         * @param entries how many entries; a power of two
+         */
+        Table(int entries) {
+            keys = new long[entries];
+            bounds = new byte[entries];
+        }
+
+        /**
+         * @param key a position's key
+         * @return its bound, or {@link Integer#MAX_VALUE} if there is none
+         */
+        int get(long key) {
+            int i = index(key);
+            return keys[i] == key ? bounds[i] : Integer.MAX_VALUE;
+        }
+
+        /**
+         * @param key a position's key
+         * @param bound an upper bound on its score
+         */
+        void put(long key, int bound) {
+            int i = index(key);
+            keys[i] = key;
+            bounds[i] = (byte) bound;
+        }
+
+        /**
+         * @return where a key goes
+         */
+        private int index(long key) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & (keys.length - 1);
+        }
+    }
+
+    /**
+     * One search, which counts the positions it looks at.
+     */
+    private class Search {
+        /** how many positions have been searched */
+        private long nodes;
+        /** proved bounds, when solving */
+        private Table table;
+
+        /**
+         * Like {@link #negamax(long, long, int, int, int, int)} with no
+         * depth limit, but quicker: a move the opponent must be stopped
+         * from winning with is the only one tried, two such moves lose at
+         * once, and upper bounds proved for positions are kept in the
+         * table to narrow later searches of them.
+         *
+         * @param current the pieces of the player to move
+         * @param mask all the pieces on the board
+         * @param moves how many pieces are on the board
+         * @param alpha the score the caller already has
+         * @param beta the score above which the caller's opponent will
+         *             avoid this position
+         * @return the score
+         */
+        int solve(long current, long mask, int moves, int alpha, int beta) {
+            nodes++;
+            int cells = board.getCells();
+            if (moves == cells) {
+                return 0;
+            }
+            int cols = board.getCols();
+            for (int col = 0; col < cols; ++col) {
+                if (board.canPlay(mask, col) &&
+                        board.isWinningMove(current, mask, col)) {
+                    return cells - moves;
+                }
+            }
+            long opponent = current ^ mask;
+            int forced = -1;
+            for (int col = 0; col < cols; ++col) {
+                if (board.canPlay(mask, col) &&
+                        board.isWinningMove(opponent, mask, col)) {
+                    if (forced >= 0) {
+                        // we can only stop one of them
+                        return -(cells - moves - 1);
+                    }
+                    forced = col;
+                }
+            }
+
+            int max = cells - moves - 2;
+            long key = board.key(current, mask);
+            int bound = table.get(key);
+            if (bound < max) {
+                max = bound;
+            }
+            if (beta > max) {
+                beta = max;
+                if (alpha >= beta) {
+                    return beta;
+                }
+            }
+            for (int i = 0; i < cols; ++i) {
+                int col = forced >= 0 ? forced : board.searchOrder(i);
+                if (board.canPlay(mask, col)) {
+                    int score = -solve(opponent, board.play(mask, col),
+                            moves + 1, -beta, -alpha);
+                    if (score >= beta) {
+                        return score;
+                    }
+                    if (score > alpha) {
+                        alpha = score;
+                    }
+                }
+                if (forced >= 0) {
+                    break;
+                }
+            }
+            table.put(key, alpha);
+            return alpha;
+        }
+
+        /**
+         * The score of a position for the player to move, as far as it
+         * lies between alpha and beta. A score at or below alpha only shows
+         * that the position is no better than alpha, and one at or above
+         * beta that it is no worse than beta.
+         *
+         * @param current the pieces of the player to move
+         * @param mask all the pieces on the board
+         * @param moves how many pieces are on the board
+         * @param depth how many more moves to look ahead
+         * @param alpha the score the caller already has
+         * @param beta the score above which the caller's opponent will
+         *             avoid this position
+         * @return the score
+         */
+        int negamax(long current, long mask, int moves, int depth,
+                    int alpha, int beta) {
+            nodes++;
+            int cells = board.getCells();
+            if (moves == cells) {
+                return 0;
+            }
+            int cols = board.getCols();
+            for (int col = 0; col < cols; ++col) {
+                if (board.canPlay(mask, col) &&
+                        board.isWinningMove(current, mask, col)) {
+                    return cells - moves;
+                }
+            }
+            if (depth <= 0) {
+                return 0;
+            }
+            // we can't win with this move, so at best with our next one
+            int max = cells - moves - 2;
+            if (beta > max) {
+                beta = max;
+                if (alpha >= beta) {
+                    return beta;
+                }
+            }
+            for (int i = 0; i < cols; ++i) {
+                int col = board.searchOrder(i);
+                if (board.canPlay(mask, col)) {
+                    int score = -negamax(current ^ mask, board.play(mask, col),
+                            moves + 1, depth - 1, -beta, -alpha);
+                    if (score >= beta) {
+                        return score;
+                    }
+                    if (score > alpha) {
+                        alpha = score;
+                    }
+                }
+            }
+            return alpha;
+        }
+    }
+}
@@ -3,11 +3,21 @@ package connectfour.ptui;
 import connectfour.ConnectFourException;
 import connectfour.client.ConnectFourBoard;
 import connectfour.client.ConnectFourNetworkClient;
+import connectfour.client.LatencyHistogram;
 import connectfour.client.Observer;
+import connectfour.model.GridSnapshot;
 
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * The plain text UI for the Connect Four game.  This class represents both the
@@ -17,14 +27,48 @@ import java.util.Scanner;
  * @author Sean Strout @ RIT CS
  */
 public class ConnectFourPTUI extends ConsoleApplication implements Observer<ConnectFourBoard> {
+    /** exit status when this player won */
+    public static final int EXIT_WON = 0;
+    /** exit status when this player lost */
+    public static final int EXIT_LOST = 2;
+    /** exit status when the game was tied */
+    public static final int EXIT_TIED = 3;
+    /**
+     * exit status when the game ended in an error or ran out of moves, or
+     * the program stopped before it ended
+     */
+    public static final int EXIT_ERROR = 4;
+
     /** the model */
     private ConnectFourBoard board;
     /** connection to network interface to server */
     private ConnectFourNetworkClient serverConn;
-    /** What to read to see what user types */
-    private Scanner userIn;
     /** Where to send text that the user can see */
     private PrintWriter userOut;
+    /** lines typed before it was our turn, oldest first */
+    private final Deque<String> typedAhead = new ArrayDeque<>();
+    /** true while the user has been asked for a column but not given one */
+    private boolean prompted;
+    /** true while a refresh is posted to the event loop but not yet run */
+    private final AtomicBoolean refreshQueued = new AtomicBoolean();
+    /** whether to redraw the board in place with ANSI escapes */
+    private boolean ansi;
+    /** draws the board when {@link #ansi} is set */
+    private TerminalRenderer renderer;
+    /** whether to play without prompting or drawing the board */
+    private boolean headless;
+    /** whether to draw the final board when {@link #headless} */
+    private boolean showFinal;
+    /** file to read the moves from instead of the console; may be null */
+    private String movesFile;
+    /** the name to play under; null to be known by our address */
+    private String name;
+    /** true once there are no more lines to read */
+    private boolean inputEnded;
+    /** the position last shown */
+    private GridSnapshot shown;
+    /** true once the end of the game has been shown */
+    private boolean finished;
 
     /**
      * Create the board model, create the network connection based on
@@ -33,8 +77,30 @@ public class ConnectFourPTUI extends ConsoleApplication implements Observer<Conn
      */
     @Override
     public void init() {
+        // until the game ends, a crash or a lost connection is an error
+        setExitStatus(EXIT_ERROR);
         try {
-            List<String> args = super.getArguments();
+            List<String> args = new ArrayList<>();
+            for (String arg : super.getArguments()) {
+                if (arg.equals("--ansi")) {
+                    this.ansi = true;
+                }
+                else if (arg.equals("--headless")) {
+                    this.headless = true;
+                }
+                else if (arg.equals("--final")) {
+                    this.showFinal = true;
+                }
+                else if (arg.startsWith("--moves=")) {
+                    this.movesFile = arg.substring("--moves=".length());
+                }
+                else if (arg.startsWith("--name=")) {
+                    this.name = arg.substring("--name=".length());
+                }
+                else {
+                    args.add(arg);
+                }
+            }
 
             // get host info from command line
             String host = args.get(0);
@@ -47,10 +113,11 @@ public class ConnectFourPTUI extends ConsoleApplication implements Observer<Conn
             this.board.addObserver(this);
 
             // create the network connection
-            this.serverConn = new ConnectFourNetworkClient(host, port, this.board);
+            this.serverConn = new ConnectFourNetworkClient(host, port,
+                    this.name, this.board);
         }
         catch( ConnectFourException |
-                ArrayIndexOutOfBoundsException |
+                IndexOutOfBoundsException |
                 NumberFormatException e ) {
             System.err.println(e);
             throw new RuntimeException(e);
@@ -61,84 +128,233 @@ public class ConnectFourPTUI extends ConsoleApplication implements Observer<Conn
      * Update all GUI Nodes to match the state of the model.
      */
     private void refresh(ConnectFourBoard board) {
+        if (this.finished) {
+            return;
+        }
+        ConnectFourBoard.Status status = board.getStatus();
+        GridSnapshot position = board.getSnapshot();
+        if (position == this.shown && !board.isMyTurn() &&
+                status == ConnectFourBoard.Status.NOT_OVER) {
+            // e.g. the server's echo of a move already shown
+            return;
+        }
+        this.shown = position;
+        if (!this.headless ||
+                (this.showFinal && status != ConnectFourBoard.Status.NOT_OVER)) {
+            draw(board);
+        }
+        // the game may end, e.g. by an error, while we are being prompted
+        switch (status) {
+            case ERROR:
+                message( status.toString() );
+                this.endGame(EXIT_ERROR);
+                return;
+            case I_WON:
+                message( "You won. Yay!" );
+                this.endGame(EXIT_WON);
+                return;
+            case I_LOST:
+                message( "You lost. Boo!" );
+                this.endGame(EXIT_LOST);
+                return;
+            case TIE:
+                message( "Tie game. Meh." );
+                this.endGame(EXIT_TIED);
+                return;
+            default:
+                break;
+        }
         if (!board.isMyTurn()) {
+            if (!this.ansi && !this.headless) {
+                this.userOut.println();
+            }
+        }
+        else if (!this.prompted) {
+            this.prompted = true;
+            prompt();
+            while (this.prompted && !this.typedAhead.isEmpty()) {
+                chooseColumn(this.typedAhead.poll());
+            }
+            if (this.prompted && this.inputEnded) {
+                outOfMoves();
+            }
+        }
+    }
+
+    /**
+     * Show the board and how many moves are left.
+     */
+    private void draw(ConnectFourBoard board) {
+        if (this.ansi) {
+            if (this.renderer == null) {
+                this.renderer = new TerminalRenderer(this.userOut,
+                        board.getRows(), board.getCols());
+            }
+            this.renderer.draw(board.getSnapshot(),
+                    board.getMovesLeft() + " moves left.");
+        }
+        else {
             this.userOut.println(board);
             this.userOut.println(board.getMovesLeft() + " moves left." );
-            ConnectFourBoard.Status status = board.getStatus();
-            switch (status) {
-                case ERROR:
-                    this.userOut.println( status );
-                    this.endGame();
-                    break;
-                case I_WON:
-                    this.userOut.println( "You won. Yay!" );
-                    this.endGame();
-                    break;
-                case I_LOST:
-                    this.userOut.println( "You lost. Boo!" );
-                    this.endGame();
-                    break;
-                case TIE:
-                    this.userOut.println( "Tie game. Meh." );
-                    this.endGame();
-                    break;
-                default:
-                    this.userOut.println();
+        }
+    }
+
+    /**
+     * Tell the user something, unless running headless without showing the
+     * end of the game.
+     *
+     * @param message the message
+     */
+    private void message(String message) {
+        if (!this.headless || this.showFinal) {
+            this.userOut.println(message);
+        }
+    }
+
+    /**
+     * Ask the user for a column, unless running headless.
+     */
+    private void prompt() {
+        if (!this.headless) {
+            this.userOut.print("Enter column: ");
+            this.userOut.flush();
+        }
+    }
+
+    /**
+     * It is our turn, but there is no more input to take a move from.
+     */
+    private void outOfMoves() {
+        message("Out of moves.");
+        endGame(EXIT_ERROR);
+    }
+
+    /**
+     * Try to make a move with a line the user typed. If it is not a valid
+     * column, ask again.
+     *
+     * @param line what the user typed
+     */
+    private void chooseColumn(String line) {
+        int col;
+        try {
+            col = Integer.parseInt(line.trim());
+        }
+        catch (NumberFormatException e) {
+            col = -1;
+        }
+        if (this.board.isValidMove(col)) {
+            if (!this.ansi && !this.headless) {
+                this.userOut.println();
             }
+            this.prompted = false;
+            this.serverConn.sendMove(col);
         }
         else {
-            boolean done = false;
-            do {
-                this.userOut.print("Enter column: ");
-                this.userOut.flush();
-                int col = this.userIn.nextInt();
-                if (board.isValidMove(col)) {
-                    this.userOut.println(this.userIn.nextLine());
-                    this.serverConn.sendMove(col);
-                    done = true;
-                }
-            } while (!done);
+            prompt();
+        }
+    }
+
+    /**
+     * Called on the event loop with each line the user types. A line typed
+     * before it is our turn is kept for when it is, so moves can be typed
+     * ahead or piped in from a script.
+     *
+     * @param line what the user typed
+     */
+    @Override
+    protected void onInput(String line) {
+        if (this.movesFile != null) {
+            return;
+        }
+        if (this.prompted) {
+            chooseColumn(line);
+        }
+        else {
+            this.typedAhead.add(line);
+        }
+    }
+
+    /**
+     * Called on the event loop when the console has no more input.
+     */
+    @Override
+    protected void onEndOfInput() {
+        if (this.movesFile != null) {
+            return;
+        }
+        this.inputEnded = true;
+        if (this.prompted) {
+            outOfMoves();
         }
     }
 
+    /**
+     * Called on the network thread whenever the board changes. The refresh
+     * happens on the event loop; changes that arrive while one is already
+     * waiting there are shown by that refresh.
+     *
+     * @param board the board
+     */
     @Override
     public void update(ConnectFourBoard board) {
-        refresh(board);
+        if (this.refreshQueued.compareAndSet(false, true)) {
+            post(() -> {
+                this.refreshQueued.set(false);
+                refresh(board);
+            });
+        }
     }
 
     /**
      * This method continues running until the game is over.
      * It is not like {@link javafx.application.Application#start(Stage)}.
      * That method returns as soon as the setup is done.
-     * This method waits for a notification from {@link #endGame()},
-     * called indirectly from a model update from {@link ConnectFourNetworkClient}.
+     * This method runs the event loop, which handles both what the user
+     * types and the model updates from {@link ConnectFourNetworkClient},
+     * until {@link #endGame()} is called.
      *
      * @param userIn what to read to see what user types
      * @param userOut where to send messages so user can see them
      */
     @Override
-    public synchronized void go( Scanner userIn, PrintWriter userOut ) {
-        this.userIn = userIn;
+    public void go( Scanner userIn, PrintWriter userOut ) {
         this.userOut = userOut;
 
+        if (this.movesFile != null) {
+            try {
+                for (String move : Files.readString(Paths.get(this.movesFile))
+                        .trim().split("[\\s,]+")) {
+                    this.typedAhead.add(move);
+                }
+            }
+            catch (IOException e) {
+                System.err.println("Can't read moves: " + e.getMessage());
+                setExitStatus(EXIT_ERROR);
+                return;
+            }
+            this.inputEnded = true;
+        }
+
         // Start the network client listener thread
         this.serverConn.startListener();
 
         // Manually force a display of all board state, since it's too late
-        // to trigger update().
-        this.refresh(this.board);
-
-        while (this.board.getStatus() == ConnectFourBoard.Status.NOT_OVER) {
-            try {
-                this.wait();
-            }
-            catch( InterruptedException ie ) {}
-        }
+        // for the board to trigger update().
+        this.update(this.board);
 
+        runEventLoop();
     }
 
-    private synchronized void endGame() {
-        this.notify();
+    /**
+     * The game is over, so stop the event loop.
+     *
+     * @param exitStatus the status to exit the program with
+     */
+    private void endGame(int exitStatus) {
+        this.finished = true;
+        setExitStatus(exitStatus);
+        exitEventLoop();
     }
 
     /**
@@ -146,7 +362,16 @@ public class ConnectFourPTUI extends ConsoleApplication implements Observer<Conn
      */
     @Override
     public void stop() {
-        this.userIn.close();
+        LatencyHistogram roundTrips = this.serverConn.getRoundTrips();
+        if (this.headless && roundTrips.getCount() > 0) {
+            System.err.printf("moves: %d, round trip us: mean %.0f  p50 %d  " +
+                            "p99 %d  max %d%n",
+                    roundTrips.getCount(), roundTrips.getMean(),
+                    roundTrips.getPercentile(0.50),
+                    roundTrips.getPercentile(0.99),
+                    roundTrips.getMax());
+        }
+        // the input is the event loop's reader's, which may still be in it
         this.userOut.close();
         this.serverConn.close();
     }
@@ -154,15 +379,33 @@ public class ConnectFourPTUI extends ConsoleApplication implements Observer<Conn
     /**
      * Launch the JavaFX GUI.
      *
-     * @param args not used, here, but named arguments are passed to the GUI.
-     *             <code>--host=<i>hostname</i> --port=<i>portnum</i></code>
+     * @param args the host and port, optionally preceded by:
+     *             --ansi to redraw the board in place on an ANSI terminal;
+     *             --headless to play moves from the input without prompting
+     *             or drawing, exiting with {@link #EXIT_WON},
+     *             {@link #EXIT_LOST}, {@link #EXIT_TIED} or
+     *             {@link #EXIT_ERROR} and printing move round trip times to
+     *             standard error; --final to draw the final board when
+     *             headless; --moves=<i>file</i> to read the moves from a
+     *             file instead of the console; --name=<i>name</i> to play
+     *             under a name rather than the address we connect from
      */
     public static void main(String[] args) {
-        if (args.length != 2) {
-            System.out.println("Usage: java ConnectFourGUI host port");
+        long unnamed = Arrays.stream(args).filter(a -> !a.startsWith("--")).count();
+        if (unnamed != 2) {
+            System.out.println("Usage: java ConnectFourPTUI [--ansi] " +
+                    "[--headless [--final]] [--moves=file] [--name=name] " +
+                    "host port");
             System.exit(-1);
         } else {
-            ConsoleApplication.launch(ConnectFourPTUI.class, args);
+            int status;
+            try {
+                status = ConsoleApplication.launch(ConnectFourPTUI.class, args);
+            }
+            catch (RuntimeException e) {
+                status = EXIT_ERROR;
+            }
+            System.exit(status);
         }
     }
 }
@@ -0,0 +1,132 @@
+package connectfour.ptui;
+
+import connectfour.ConnectFourException;
+import connectfour.client.ConnectFourBoard;
+import connectfour.client.ConnectFourReplay;
+import connectfour.client.Observer;
+import connectfour.model.GameRecord;
+
+import java.io.PrintWriter;
+import java.nio.file.Paths;
+import java.util.Scanner;
+
+/**
+ * A plain text UI for replaying a recorded game. It watches a
+ * {@link ConnectFourBoard} that is driven by a {@link ConnectFourReplay}
+ * instead of by the network.
+ */
+public class ConnectFourReplayPTUI extends ConsoleApplication
+        implements Observer<ConnectFourBoard> {
+    /** the model */
+    private ConnectFourBoard board;
+    /** plays the game back on the board */
+    private ConnectFourReplay replay;
+    /** Where to send text that the user can see */
+    private PrintWriter userOut;
+
+    /**
+     * Load the game named on the command line.
+     */
+    @Override
+    public void init() {
+        try {
+            GameRecord record = GameRecord.read(Paths.get(getArguments().get(0)));
+            this.board = new ConnectFourBoard();
+            this.board.addObserver(this);
+            this.replay = new ConnectFourReplay(record, this.board);
+        }
+        catch( ConnectFourException e ) {
+            System.err.println(e.getMessage());
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Show the position being replayed.
+     *
+     * @param board the board
+     */
+    @Override
+    public void update(ConnectFourBoard board) {
+        if (this.userOut == null) {
+            return;
+        }
+        this.userOut.println(board);
+        int ply = this.replay.getPly();
+        this.userOut.print("Move " + ply + " of " + this.replay.length());
+        if (ply > 0) {
+            this.userOut.print(", last in column " +
+                    board.getSnapshot().getMove(ply - 1));
+        }
+        this.userOut.println();
+    }
+
+    /**
+     * Read commands until the user quits.
+     *
+     * @param userIn what to read to see what user types
+     * @param userOut where to send messages so user can see them
+     */
+    @Override
+    public void go(Scanner userIn, PrintWriter userOut) {
+        this.userOut = userOut;
+        userOut.println("Commands: n (next), p (previous), <move number>, " +
+                "play [moves/sec], pause, q (quit)");
+        update(this.board);
+
+        while (userIn.hasNextLine()) {
+            String[] words = userIn.nextLine().trim().split("\\s+");
+            try {
+                switch (words[0]) {
+                    case "":
+                    case "n":
+                        this.replay.step(1);
+                        break;
+                    case "p":
+                        this.replay.step(-1);
+                        break;
+                    case "play":
+                        if (words.length > 1) {
+                            this.replay.setSpeed(Double.parseDouble(words[1]));
+                        }
+                        this.replay.play();
+                        break;
+                    case "pause":
+                        this.replay.pause();
+                        break;
+                    case "q":
+                        return;
+                    default:
+                        this.replay.seek(Integer.parseInt(words[0]));
+                        break;
+                }
+            }
+            catch (NumberFormatException e) {
+                userOut.println("Unknown command: " + words[0]);
+            }
+        }
+    }
+
+    /**
+     * Stop the playback.
+     */
+    @Override
+    public void stop() {
+        this.replay.close();
+    }
+
+    /**
+     * Replay a game.
+     *
+     * @param args the name of a file holding a
+     *             {@link GameRecord game record}
+     */
+    public static void main(String[] args) {
+        if (args.length != 1) {
+            System.out.println("Usage: java ConnectFourReplayPTUI game-file");
+            System.exit(-1);
+        } else {
+            ConsoleApplication.launch(ConnectFourReplayPTUI.class, args);
+        }
+    }
+}
@@ -1,10 +1,14 @@
 package connectfour.ptui;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Scanner;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * A class to do console-based user interaction in a manner similar to
@@ -23,7 +27,14 @@ import java.util.Scanner;
  * {@link #go(Scanner, PrintWriter)} (Scanner, PrintWriter) start} runs
  * after {@link #init() init}. After the
  * {@link #go(Scanner, PrintWriter)} (Scanner, PrintWriter) start} method
- * returns, {@link #stop() stop} is executed.
+ * returns, {@link #stop() stop} is executed.<P>
+ *
+ * Instead of reading the Scanner itself, {@link #go(Scanner, PrintWriter)}
+ * may call {@link #runEventLoop()}. Lines of input are then read on a
+ * separate thread and handed to {@link #onInput(String)} one at a time, on
+ * the same thread as any work other threads {@link #post(Runnable) post},
+ * so the application never has to choose between waiting for the user and
+ * reacting to something else.
  *
  * @author James Heliotis @ RIT CS
  */
@@ -33,6 +44,21 @@ public abstract class ConsoleApplication {
 
     private Thread eventThread;
 
+    /** work waiting to be done by {@link #runEventLoop()} */
+    private final BlockingQueue< Runnable > events = new LinkedBlockingQueue<>();
+
+    /** the source of input for {@link #runEventLoop()} */
+    private Scanner consoleIn;
+
+    /** cleared by {@link #exitEventLoop()} */
+    private volatile boolean looping;
+
+    /** whether {@link #runEventLoop()}'s reader has the Scanner to itself */
+    private volatile boolean inputOwned;
+
+    /** what {@link #launch(Class, String[])} returns */
+    private volatile int exitStatus;
+
     /**
      * Run a console application.
      * <ol>
@@ -53,11 +79,12 @@ public abstract class ConsoleApplication {
      *
      * @param ptuiClass the class object that refers to the class to
      *             be instantiated
+     * @return the application's {@link #setExitStatus(int) exit status}
      */
-    public static void launch(
+    public static int launch(
             Class< ? extends ConsoleApplication > ptuiClass
     ) {
-        launch( ptuiClass, new String[ 0 ] );
+        return launch( ptuiClass, new String[ 0 ] );
     }
 
     /**
@@ -82,10 +109,33 @@ public abstract class ConsoleApplication {
      * @param ptuiClass the class object that refers to the class to
      *             be instantiated
      * @param args the array of strings from the command line
+     * @return the application's {@link #setExitStatus(int) exit status}
      */
-    public static void launch(
+    public static int launch(
             Class< ? extends ConsoleApplication > ptuiClass,
             String[] args
+    ) {
+        return launch( ptuiClass, args, System.in, System.out );
+    }
+
+    /**
+     * Run a console application, with command line arguments, reading and
+     * writing the given streams instead of the console. This is how an
+     * application is driven by a script, e.g. in an automated test.
+     *
+     * @param ptuiClass the class object that refers to the class to
+     *             be instantiated
+     * @param args the array of strings from the command line
+     * @param in where the input comes from
+     * @param out where the output goes
+     * @return the application's {@link #setExitStatus(int) exit status}, or
+     * -1 if it could not be started
+     */
+    public static int launch(
+            Class< ? extends ConsoleApplication > ptuiClass,
+            String[] args,
+            InputStream in,
+            OutputStream out
     ) {
         try {
             // TODO Update method of instantiating the class.
@@ -94,7 +144,7 @@ public abstract class ConsoleApplication {
 
             try {
                 ptuiApp.init();
-                ptuiApp.eventThread = new Thread( new Runner( ptuiApp ) );
+                ptuiApp.eventThread = new Thread( new Runner( ptuiApp, in, out ) );
                 ptuiApp.eventThread.start();
                 ptuiApp.eventThread.join();
             }
@@ -104,6 +154,7 @@ public abstract class ConsoleApplication {
             finally {
                 ptuiApp.stop();
             }
+            return ptuiApp.exitStatus;
         }
         catch( InstantiationException ie ) {
             System.err.println( "Can't instantiate Console App:" );
@@ -112,22 +163,33 @@ public abstract class ConsoleApplication {
         catch( IllegalAccessException iae ) {
             System.err.println( iae.getMessage() );
         }
+        return -1;
     }
 
     private static class Runner implements Runnable {
         private final ConsoleApplication ptuiApp;
+        private final InputStream in;
+        private final OutputStream out;
 
-        public Runner( ConsoleApplication ptuiApp ) { this.ptuiApp = ptuiApp; }
+        public Runner( ConsoleApplication ptuiApp,
+                       InputStream in, OutputStream out ) {
+            this.ptuiApp = ptuiApp;
+            this.in = in;
+            this.out = out;
+        }
 
         public void run() {
-            // We don't put the PrintWriter in try-with-resources because
-            // we don't want it to be closed. The Scanner can close.
+            // We don't close the PrintWriter because we don't want it to
+            // be closed. The Scanner can close, unless the event loop's
+            // reader may still be reading it.
             PrintWriter out = null;
-            try ( Scanner consoleIn = new Scanner( System.in ) ) {
+            Scanner consoleIn = new Scanner( in );
+            try {
                 // do {
                     try {
                         out = new PrintWriter(
-                                new OutputStreamWriter( System.out ), true );
+                                new OutputStreamWriter( this.out ), true );
+                        ptuiApp.consoleIn = consoleIn;
                         ptuiApp.go( consoleIn, out );
                         out = null;
                     }
@@ -139,6 +201,11 @@ public abstract class ConsoleApplication {
                     }
                 // } while ( out != null );
             }
+            finally {
+                if ( !ptuiApp.inputOwned ) {
+                    consoleIn.close();
+                }
+            }
         }
     }
 
@@ -151,6 +218,17 @@ public abstract class ConsoleApplication {
         return Arrays.asList( this.cmdLineArgs );
     }
 
+    /**
+     * Set the status that {@link #launch(Class, String[])} returns once the
+     * application has stopped, for the caller to pass to
+     * {@link System#exit(int)}. It is 0 unless set.
+     *
+     * @param status the exit status
+     */
+    public void setExitStatus( int status ) {
+        this.exitStatus = status;
+    }
+
     /**
      * A do-nothing setup method that can be overwritten by subclasses
      * when necessary
@@ -176,4 +254,71 @@ public abstract class ConsoleApplication {
      */
     public void stop() {}
 
+    /**
+     * Do the work {@link #post(Runnable) posted} by other threads and
+     * handle each line of input with {@link #onInput(String)}, all on the
+     * calling thread, until {@link #exitEventLoop()} is called. Input is read
+     * on a daemon thread of its own, so lines typed ahead wait their turn
+     * and never hold up posted work. Meant to be called from
+     * {@link #go(Scanner, PrintWriter)}, which must not read the Scanner
+     * itself. Nor may the application close it, even in {@link #stop()}:
+     * Scanners are not thread safe, and the reader may still be in it. It
+     * is left open, to go with the process.
+     */
+    protected void runEventLoop() {
+        this.looping = true;
+        this.inputOwned = true;
+        Scanner input = this.consoleIn;
+        Thread reader = new Thread( () -> {
+            while ( input.hasNextLine() ) {
+                String line = input.nextLine();
+                post( () -> onInput( line ) );
+            }
+            post( this::onEndOfInput );
+        }, "console-input" );
+        reader.setDaemon( true );
+        reader.start();
+
+        while ( this.looping ) {
+            try {
+                this.events.take().run();
+            }
+            catch( InterruptedException ie ) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Have {@link #runEventLoop()} return once the work it is doing now is
+     * done. May be called from any thread.
+     */
+    protected void exitEventLoop() {
+        post( () -> this.looping = false );
+    }
+
+    /**
+     * Queue work to be done on the event loop's thread. May be called from
+     * any thread.
+     *
+     * @param event the work
+     */
+    protected void post( Runnable event ) {
+        this.events.add( event );
+    }
+
+    /**
+     * Called on the event loop's thread with each line of input. Does
+     * nothing unless overridden.
+     *
+     * @param line the line, without its line terminator
+     */
+    protected void onInput( String line ) {}
+
+    /**
+     * Called on the event loop's thread when there is no more input. Does
+     * nothing unless overridden.
+     */
+    protected void onEndOfInput() {}
+
 }
@@ -0,0 +1,142 @@
+package connectfour.ptui;
+
+import connectfour.model.GridSnapshot;
+
+import java.io.PrintWriter;
+
+/**
+ * Draws the board on an ANSI terminal, in the same layout as
+ * {@link connectfour.client.ConnectFourBoard#toString()}, but only sends
+ * what changed since the last time it drew. The first frame is drawn in
+ * full; after that only the cells that gained or lost a piece are
+ * rewritten, each with a cursor-positioning escape. Every frame is built
+ * in one reused buffer and written and flushed at once, which keeps
+ * updates small and flicker-free over slow connections.
+ */
+public class TerminalRenderer {
+    /** the escape sequence that starts every ANSI control sequence */
+    private static final String CSI = "\u001b[";
+
+    /** where the frames go */
+    private final PrintWriter out;
+    /** the number of rows */
+    private final int rows;
+    /** the number of columns */
+    private final int cols;
+    /** how wide the row numbers are */
+    private final int labelWidth;
+    /** how many pieces were in each column when the board was last drawn */
+    private final int[] shownHeights;
+    /** the symbols last drawn in each cell, by column then row */
+    private final char[][] shown;
+    /** the frame being built */
+    private final StringBuilder frame = new StringBuilder();
+    /** true until the first frame has been drawn */
+    private boolean firstFrame = true;
+
+    /**
+     * Set up to draw a board of the given size.
+     *
+     * @param out where to draw
+     * @param rows the number of rows
+     * @param cols the number of columns
+     */
+    public TerminalRenderer(PrintWriter out, int rows, int cols) {
+        this.out = out;
+        this.rows = rows;
+        this.cols = cols;
+        this.labelWidth = String.valueOf(rows - 1).length();
+        this.shownHeights = new int[cols];
+        this.shown = new char[cols][rows];
+    }
+
+    /**
+     * Draw a position and a line of text below it, then leave the cursor on
+     * the next line with everything below it cleared.
+     *
+     * @param position the position to draw
+     * @param status the text to show below the board
+     */
+    public void draw(GridSnapshot position, String status) {
+        frame.setLength(0);
+        if (firstFrame) {
+            drawAll(position);
+            firstFrame = false;
+        }
+        else {
+            for (int c = 0; c < cols; ++c) {
+                int height = position.getHeight(c);
+                int from = Math.min(height, shownHeights[c]);
+                int to = Math.max(height, shownHeights[c]);
+                for (int h = from; h < to; ++h) {
+                    drawCell(position, rows - 1 - h, c);
+                }
+                shownHeights[c] = height;
+            }
+        }
+
+        // the status line, then clear everything below it
+        moveTo(rows + 2, 1);
+        frame.append(status).append(CSI).append('K');
+        moveTo(rows + 3, 1);
+        frame.append(CSI).append('J');
+
+        out.write(frame.toString());
+        out.flush();
+    }
+
+    /**
+     * Clear the screen and draw the whole board.
+     */
+    private void drawAll(GridSnapshot position) {
+        frame.append(CSI).append("2J").append(CSI).append('H');
+        for (int i = 0; i < labelWidth; ++i) {
+            frame.append(' ');
+        }
+        for (int c = 0; c < cols; ++c) {
+            if (c < 10) {
+                frame.append(' ');
+            }
+            frame.append(c).append(' ');
+        }
+        frame.append("\r\n");
+        for (int r = 0; r < rows; ++r) {
+            String label = String.valueOf(r);
+            for (int i = label.length(); i < labelWidth; ++i) {
+                frame.append(' ');
+            }
+            frame.append(label);
+            for (int c = 0; c < cols; ++c) {
+                char symbol = position.getContents(r, c).getSymbol();
+                shown[c][r] = symbol;
+                frame.append('[').append(symbol).append(']');
+            }
+            frame.append("\r\n");
+        }
+        for (int c = 0; c < cols; ++c) {
+            shownHeights[c] = position.getHeight(c);
+        }
+    }
+
+    /**
+     * Rewrite one cell if its symbol has changed.
+     */
+    private void drawCell(GridSnapshot position, int row, int col) {
+        char symbol = position.getContents(row, col).getSymbol();
+        if (shown[col][row] != symbol) {
+            shown[col][row] = symbol;
+            moveTo(row + 2, labelWidth + 3 * col + 2);
+            frame.append(symbol);
+        }
+    }
+
+    /**
+     * Add a cursor move to the frame.
+     *
+     * @param line the line, counting from 1
+     * @param column the column, counting from 1
+     */
+    private void moveTo(int line, int column) {
+        frame.append(CSI).append(line).append(';').append(column).append('H');
+    }
+}
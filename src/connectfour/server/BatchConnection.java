@@ -0,0 +1,290 @@
+package connectfour.server;
+
+import connectfour.ConnectFourException;
+import connectfour.ConnectFourProtocol;
+import connectfour.model.Evaluation;
+import connectfour.model.Solver;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * A client connection that asks for positions to be evaluated, as
+ * described for {@link ConnectFourProtocol#BATCH}. The positions of each
+ * {@link ConnectFourProtocol#EVALUATE} request are evaluated in parallel on
+ * the server's shared pool of evaluators, and the results are sent back in
+ * the order the positions came in, each as soon as it and all those before
+ * it are done.
+ */
+class BatchConnection implements ConnectFourProtocol, Closeable {
+    /**
+     * How many moves ahead to search if the client does not say.
+     */
+    private static final int DEFAULT_DEPTH = 8;
+
+    /**
+     * The most moves ahead a search may go; a client that asks for more
+     * gets this many. Each two moves more take about five times as long,
+     * and this many take some tenths of a second on an empty board.
+     */
+    static final int MAX_DEPTH = 14;
+
+    /**
+     * How long to wait for a result before checking whether the client has
+     * hung up, in milliseconds.
+     */
+    private static final long WAIT_MILLIS = 100;
+
+    /**
+     * How many results are sent between checks that the client is still
+     * there, when none has to be waited for.
+     */
+    private static final int CHECK_RESULTS = 32;
+
+    /**
+     * How many positions of one connection may be waiting for evaluation
+     * or for their turn to be sent. Reading more positions waits until the
+     * oldest has been sent, so a huge batch does not take huge memory.
+     */
+    private static final int MAX_PENDING = 256;
+
+    /**
+     * The {@link Socket} used to communicate with the client.
+     */
+    private final Socket sock;
+
+    /**
+     * The {@link Scanner} used to read requests from the client.
+     */
+    private final Scanner scanner;
+
+    /**
+     * The {@link PrintStream} used to send results to the client. It is
+     * flushed whenever the connection has to wait for a result, and at the
+     * end of each batch.
+     */
+    private final PrintStream printer;
+
+    /**
+     * The server, whose board size, solver and evaluators are used.
+     */
+    private final ConnectFourServer server;
+
+    /**
+     * How many results have been sent since the client was last checked.
+     */
+    private int unchecked;
+
+    /**
+     * Creates a new {@link BatchConnection}.
+     *
+     * @param sock The {@link Socket} used to communicate with the client.
+     * @param in The client's input, which the {@link #BATCH} request has
+     *           already been read from.
+     * @param server The server, whose board size, solver and evaluators are
+     *               used.
+     *
+     * @throws IOException If there is a problem establishing communication
+     * with the client.
+     */
+    BatchConnection(Socket sock, Scanner in, ConnectFourServer server)
+            throws IOException {
+        this.sock = sock;
+        this.scanner = in;
+        this.printer = new PrintStream(
+                new BufferedOutputStream(sock.getOutputStream()), false);
+        this.server = server;
+    }
+
+    /**
+     * Answers {@link #EVALUATE} requests until the client hangs up or sends
+     * something else.
+     */
+    void run() {
+        if (server.getSolver() == null) {
+            printer.println(ERROR + " Board too big to evaluate");
+            printer.flush();
+            close();
+            return;
+        }
+        printer.println(BATCH + " " + server.getRows() + " " +
+                server.getCols() + " " + server.getWinLength());
+        printer.flush();
+        try {
+            while (true) {
+                String[] request = scanner.nextLine().trim().split(" ");
+                int count;
+                int depth;
+                try {
+                    if (!request[0].equals(EVALUATE) || request.length > 3) {
+                        throw new NumberFormatException();
+                    }
+                    count = Integer.parseInt(request[1]);
+                    depth = request.length > 2 ?
+                            Integer.parseInt(request[2]) : DEFAULT_DEPTH;
+                    if (count < 0 || depth < 0) {
+                        throw new NumberFormatException();
+                    }
+                }
+                catch (NumberFormatException | IndexOutOfBoundsException e) {
+                    printer.println(ERROR + " Expected " + EVALUATE +
+                            " count [depth]: " + String.join(" ", request));
+                    break;
+                }
+                evaluate(count, Math.min(depth, MAX_DEPTH));
+            }
+        }
+        catch (NoSuchElementException | IOException | InterruptedException e) {
+            // the client hung up, or the server is shutting down
+        }
+        printer.flush();
+        close();
+    }
+
+    /**
+     * Reads the positions of one batch, has them evaluated and sends the
+     * results in order, then the batch's totals.
+     *
+     * If the client hangs up part way, the positions not yet evaluated are
+     * cancelled, so they don't hold up the evaluators.
+     *
+     * @param count How many positions there are.
+     * @param depth How many moves ahead to search.
+     * @throws IOException If the client has hung up.
+     * @throws InterruptedException If interrupted while waiting for a
+     * result.
+     */
+    private void evaluate(int count, int depth)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        long nodes = 0;
+        ExecutorService evaluators = server.getEvaluators();
+        Deque<Future<Evaluation>> pending = new ArrayDeque<>();
+        try {
+            for (int i = 0; i < count; ++i) {
+                String moves = scanner.nextLine();
+                if (pending.size() == MAX_PENDING) {
+                    nodes += send(pending.poll());
+                }
+                pending.add(evaluators.submit(() -> evaluate(moves, depth)));
+            }
+            while (!pending.isEmpty()) {
+                nodes += send(pending.poll());
+            }
+        }
+        finally {
+            for (Future<Evaluation> result : pending) {
+                result.cancel(true);
+            }
+        }
+        long micros = (System.nanoTime() - start) / 1000;
+        printer.println(BATCH_DONE + " " + count + " " + micros + " " + nodes);
+        printer.flush();
+        server.batchEvaluated(count);
+    }
+
+    /**
+     * Sends the result of one position, once it is ready.
+     *
+     * @param result The result.
+     * @return How many positions were searched for it.
+     * @throws IOException If the client hangs up while waiting for it.
+     * @throws InterruptedException If interrupted while waiting for it.
+     */
+    private long send(Future<Evaluation> result)
+            throws IOException, InterruptedException {
+        if (++unchecked == CHECK_RESULTS) {
+            checkClient();
+        }
+        while (true) {
+            if (!result.isDone()) {
+                // let the client have what is ready while we wait
+                checkClient();
+            }
+            try {
+                Evaluation evaluation = result.get(WAIT_MILLIS,
+                        TimeUnit.MILLISECONDS);
+                printer.println(EVALUATION + " " + evaluation);
+                return evaluation.getNodes();
+            }
+            catch (ExecutionException e) {
+                printer.println(EVALUATION + " INVALID " +
+                        e.getCause().getMessage());
+                return 0;
+            }
+            catch (TimeoutException e) {
+                // see whether the client is still there
+            }
+        }
+    }
+
+    /**
+     * Sends what has been printed, and makes sure the client got it.
+     *
+     * @throws IOException If the client has hung up.
+     */
+    private void checkClient() throws IOException {
+        unchecked = 0;
+        // flushes, and tells whether this or any write before it failed
+        if (printer.checkError()) {
+            throw new IOException("Client hung up");
+        }
+    }
+
+    /**
+     * Plays the moves of a position on a {@link ConnectFour} board, which
+     * checks that they are legal, and searches the position reached. Called
+     * on one of the server's evaluators.
+     *
+     * @param moves The columns of the moves, separated by spaces.
+     * @param depth How many moves ahead to search.
+     * @return What the search found.
+     * @throws ConnectFourException If the moves are not a legal game.
+     */
+    private Evaluation evaluate(String moves, int depth)
+            throws ConnectFourException {
+        ConnectFour game = new ConnectFour(server.getRows(), server.getCols(),
+                server.getWinLength());
+        for (String move : moves.trim().split("\\s+")) {
+            if (move.isEmpty()) {
+                continue;
+            }
+            if (game.hasWonGame()) {
+                throw new ConnectFourException("Move after the game was won");
+            }
+            try {
+                game.makeMove(Integer.parseInt(move));
+            }
+            catch (NumberFormatException e) {
+                throw new ConnectFourException("Not a column: " + move);
+            }
+        }
+        Solver solver = server.getSolver();
+        return solver.evaluate(game.snapshot(), depth);
+    }
+
+    /**
+     * Closes the connection.
+     */
+    @Override
+    public void close() {
+        try {
+            sock.close();
+        }
+        catch (IOException ioe) {
+            // squash
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package connectfour.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Limits on what the clients at any one address may do, so that a host that
+ * misbehaves, such as a farm of buggy bots, can't take all of the server's
+ * threads and sockets or keep it busy reading junk.<P>
+ *
+ * Each address may have only so many connections open at once; one more is
+ * closed as soon as it is accepted, before any thread or player is made for
+ * it. Each address also has a token bucket, which fills at a steady rate up
+ * to a burst: every connection and every line a client sends takes a token.
+ * A client that has used up its address's tokens is made to wait, by not
+ * reading from it, until it has paid them back; a client that gets too far
+ * behind is disconnected.<P>
+ *
+ * The addresses are spread over {@link #STRIPES} stripes by hash, each with
+ * a lock and a map of its own, so clients at different addresses hardly
+ * ever wait for each other. What the limits stop is counted rather than
+ * logged, since a misbehaving host would otherwise flood the log too.
+ */
+public class ClientLimits {
+    /** how many connections an address may have by default */
+    public static final int MAX_CONNECTIONS = 512;
+    /** how many lines a second an address may send by default */
+    public static final double MESSAGES_PER_SECOND = 5000;
+    /** how many lines an address may send at once by default */
+    public static final double BURST = 10_000;
+
+    /** how many stripes the addresses are spread over; a power of two */
+    private static final int STRIPES = 64;
+    /** how many addresses a stripe holds before idle ones are dropped */
+    private static final int SWEEP_SIZE = 1024;
+
+    /**
+     * What one address is up to.
+     */
+    private static class Usage {
+        /** how many connections it has open */
+        private int connections;
+        /** tokens left in its bucket; negative if it owes some */
+        private double tokens;
+        /** when the tokens were last topped up, in nanoseconds */
+        private long toppedUp;
+
+        Usage(double tokens, long now) {
+            this.tokens = tokens;
+            this.toppedUp = now;
+        }
+    }
+
+    /**
+     * Some of the addresses, with a lock of their own.
+     */
+    private static class Stripe {
+        /** the addresses in this stripe that are in use, or were lately */
+        private final Map<InetAddress, Usage> addresses = new HashMap<>();
+    }
+
+    /** how many connections an address may have */
+    private final int maxConnections;
+    /** how many tokens an address gets a nanosecond */
+    private final double tokensPerNano;
+    /** how many tokens an address's bucket holds */
+    private final double burst;
+
+    /** whether these limits let everything through */
+    private final boolean unlimited;
+
+    /** the stripes */
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    /** connections closed because their address had too many */
+    private final LongAdder refused = new LongAdder();
+    /** times a client was made to wait for tokens */
+    private final LongAdder delayed = new LongAdder();
+    /** clients disconnected for sending far too much */
+    private final LongAdder cutOff = new LongAdder();
+
+    /** the counts as of the last {@link #sinceLastReport()} */
+    private long refusedReported, delayedReported, cutOffReported;
+
+    /**
+     * Limits with the default settings.
+     */
+    public ClientLimits() {
+        this(MAX_CONNECTIONS, MESSAGES_PER_SECOND, BURST);
+    }
+
+    /**
+     * Limits with the given settings.
+     *
+     * @param maxConnections how many connections an address may have open
+     * @param messagesPerSecond how many lines a second an address may send,
+     *                          taking one a connection too
+     * @param burst how many lines an address may send at once; it is also
+     *              how far behind a client may get before being
+     *              disconnected
+     */
+    public ClientLimits(int maxConnections, double messagesPerSecond,
+                        double burst) {
+        this(maxConnections, messagesPerSecond, burst, false);
+    }
+
+    /**
+     * Limits with the given settings, or none at all.
+     */
+    private ClientLimits(int maxConnections, double messagesPerSecond,
+                         double burst, boolean unlimited) {
+        this.maxConnections = maxConnections;
+        this.tokensPerNano = messagesPerSecond / 1e9;
+        this.burst = burst;
+        this.unlimited = unlimited;
+        for (int i = 0; i < STRIPES; ++i) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    /**
+     * Limits that let everything through, for a server whose clients all
+     * come through a {@link ShardRouter}: they would all seem to be at the
+     * router's address, and the router limits them by their own instead.
+     *
+     * @return the limits
+     */
+    public static ClientLimits unlimited() {
+        return new ClientLimits(0, 0, 0, true);
+    }
+
+    /**
+     * @param address an address
+     * @return the stripe it is in
+     */
+    private Stripe stripe(InetAddress address) {
+        int h = address.hashCode();
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Top up an address's bucket for the time since it was last topped up.
+     * The caller holds its stripe's lock.
+     */
+    private void topUp(Usage usage, long now) {
+        usage.tokens = Math.min(burst,
+                usage.tokens + (now - usage.toppedUp) * tokensPerNano);
+        usage.toppedUp = now;
+    }
+
+    /**
+     * A client has connected. It is let in if its address has fewer than
+     * the most connections allowed and a token to spare; the caller must
+     * then call {@link #disconnected} once it has gone.
+     *
+     * @param address the client's address
+     * @return whether it is let in
+     */
+    public boolean connected(InetAddress address) {
+        if (unlimited) {
+            return true;
+        }
+        Stripe stripe = stripe(address);
+        long now = System.nanoTime();
+        synchronized (stripe) {
+            Usage usage = stripe.addresses.get(address);
+            if (usage == null) {
+                if (stripe.addresses.size() >= SWEEP_SIZE) {
+                    sweep(stripe, now);
+                }
+                usage = new Usage(burst, now);
+                stripe.addresses.put(address, usage);
+            }
+            else {
+                topUp(usage, now);
+            }
+            if (usage.connections >= maxConnections || usage.tokens < 1) {
+                refused.increment();
+                return false;
+            }
+            usage.connections++;
+            usage.tokens--;
+            return true;
+        }
+    }
+
+    /**
+     * A client that was let in has gone.
+     *
+     * @param address the client's address
+     */
+    public void disconnected(InetAddress address) {
+        if (unlimited) {
+            return;
+        }
+        Stripe stripe = stripe(address);
+        synchronized (stripe) {
+            Usage usage = stripe.addresses.get(address);
+            if (usage != null) {
+                usage.connections--;
+            }
+        }
+    }
+
+    /**
+     * Drop the addresses with no connections whose buckets have filled up
+     * again, which are no different from addresses never seen. The caller
+     * holds the stripe's lock.
+     */
+    private void sweep(Stripe stripe, long now) {
+        Iterator<Usage> it = stripe.addresses.values().iterator();
+        while (it.hasNext()) {
+            Usage usage = it.next();
+            topUp(usage, now);
+            if (usage.connections == 0 && usage.tokens >= burst) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Take tokens for lines a client has sent, waiting to pay back any it
+     * owes.
+     *
+     * @param address the client's address
+     * @param lines how many lines
+     * @throws IOException if the client is too far behind, and so should be
+     * disconnected, or is interrupted while waiting
+     */
+    void take(InetAddress address, int lines) throws IOException {
+        Stripe stripe = stripe(address);
+        long now = System.nanoTime();
+        double owed;
+        synchronized (stripe) {
+            Usage usage = stripe.addresses.get(address);
+            if (usage == null) {
+                // not let in through here, so not limited
+                return;
+            }
+            topUp(usage, now);
+            usage.tokens -= lines;
+            owed = -usage.tokens;
+        }
+        if (owed <= 0) {
+            return;
+        }
+        if (owed > burst) {
+            cutOff.increment();
+            throw new IOException("Too many messages from " + address);
+        }
+        delayed.increment();
+        long nanos = (long) (owed / tokensPerNano);
+        try {
+            Thread.sleep(nanos / 1_000_000, (int) (nanos % 1_000_000));
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while throttled");
+        }
+    }
+
+    /**
+     * Wrap a client's input so that every line read from it takes a token,
+     * and reading waits while its address owes any.
+     *
+     * @param in the client's input
+     * @param address the client's address
+     * @return the input, throttled
+     */
+    InputStream throttle(InputStream in, InetAddress address) {
+        if (unlimited) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b == '\n') {
+                    take(address, 1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length)
+                    throws IOException {
+                int n = super.read(buffer, offset, length);
+                int lines = 0;
+                for (int i = offset; i < offset + n; ++i) {
+                    if (buffer[i] == '\n') {
+                        ++lines;
+                    }
+                }
+                if (lines > 0) {
+                    take(address, lines);
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * @return how many connections have been closed because their address
+     * had too many or was out of tokens
+     */
+    public long getRefused() {
+        return refused.sum();
+    }
+
+    /**
+     * @return how many times a client has been made to wait for tokens
+     */
+    public long getDelayed() {
+        return delayed.sum();
+    }
+
+    /**
+     * @return how many clients have been disconnected for sending far too
+     * much
+     */
+    public long getCutOff() {
+        return cutOff.sum();
+    }
+
+    /**
+     * @return what the limits have stopped since this was last called, as
+     * for {@link #toString()}, or null if they have stopped nothing
+     */
+    public synchronized String sinceLastReport() {
+        long refused = getRefused(), delayed = getDelayed(),
+                cutOff = getCutOff();
+        if (refused == refusedReported && delayed == delayedReported &&
+                cutOff == cutOffReported) {
+            return null;
+        }
+        String report = describe(refused - refusedReported,
+                delayed - delayedReported, cutOff - cutOffReported);
+        refusedReported = refused;
+        delayedReported = delayed;
+        cutOffReported = cutOff;
+        return report;
+    }
+
+    @Override
+    public String toString() {
+        if (unlimited) {
+            return "unlimited";
+        }
+        return describe(getRefused(), getDelayed(), getCutOff());
+    }
+
+    /**
+     * @return what the limits stopped, in words
+     */
+    private static String describe(long refused, long delayed, long cutOff) {
+        return "refused " + refused + " connections, delayed " + delayed +
+                " times, cut off " + cutOff + " clients";
+    }
+}
@@ -1,7 +1,8 @@
 package connectfour.server;
 
-import java.util.Set;
 import connectfour.ConnectFourException;
+import connectfour.model.ConnectFourGrid;
+import connectfour.model.GridSnapshot;
 
 /**
  * A basic implementation of the Connect Four game.
@@ -14,55 +15,17 @@ public class ConnectFour {
     /** how big a line one needs to win */
     public final static int WIN_LEN = 4;
 
-    /**
-     * Used to indicate a move that has been made on the board.
-     */
-    public enum Move {
-        PLAYER_ONE('X'),
-        PLAYER_TWO('O'),
-        NONE('.');
-
-        private char symbol;
-
-        private Move(char symbol) {
-            this.symbol = symbol;
-        }
-
-        public char getSymbol() {
-            return symbol;
-        }
-    }
-
-    /**
-     * The number of rows in the board.
-     */
-    private int rows;
-
-    /**
-     * The number of columns in the board.
-     */
-    private int cols;
-
-    /**
-     * The board.
-     */
-    private Move[][] board;
-
-    /**
-     * Used to keep track of which player's turn it is; 0 for player 1, and 1
-     * for player 2.
-     */
-    private int turn;
+    /** what {@link #tryMove(int)} returns when it has made the move */
+    public final static int MOVED = 0;
+    /** what {@link #tryMove(int)} returns for a column not on the board */
+    public final static int INVALID_COLUMN = 1;
+    /** what {@link #tryMove(int)} returns for a column with no room left */
+    public final static int COLUMN_FULL = 2;
 
     /**
-     *  The last column a piece was placed.  Used for win checking.
+     * The board, which also keeps track of which player's turn it is.
      */
-    private int lastCol;
-
-    /**
-     * The row the last piece was placed.  Used for win checking.
-     */
-    private int lastRow;
+    private ConnectFourGrid grid;
 
     /**
      * Creates a Connect Four game using a board with the standard number of
@@ -80,17 +43,41 @@ public class ConnectFour {
      * @param cols The number of columns in the board.
      */
     public ConnectFour(int rows, int cols) {
-        this.rows = rows;
-        this.cols = cols;
+        this(rows, cols, WIN_LEN);
+    }
 
-        board = new Move[cols][rows];
-        for(int col=0; col<cols; col++) {
-            for(int row=0; row < rows; row++) {
-                board[col][row] = Move.NONE;
-            }
-        }
+    /**
+     * Creates a Connect Four game using a board with the specified number of
+     * rows and columns, won by the specified length of line. Assumes that
+     * player 1 is the first to move.
+     *
+     * @param rows The number of rows in the board.
+     * @param cols The number of columns in the board.
+     * @param winLength How big a line one needs to win.
+     */
+    public ConnectFour(int rows, int cols, int winLength) {
+        grid = new ConnectFourGrid(rows, cols, winLength);
+    }
 
-        turn = 0;
+    /**
+     * @return The number of rows in the board.
+     */
+    public int getRows() {
+        return grid.getRows();
+    }
+
+    /**
+     * @return The number of columns in the board.
+     */
+    public int getCols() {
+        return grid.getCols();
+    }
+
+    /**
+     * @return How big a line one needs to win.
+     */
+    public int getWinLength() {
+        return grid.getWinLength();
     }
 
     /**
@@ -102,167 +89,82 @@ public class ConnectFour {
      * @throws ConnectFourException If the move is invalid for any reason.
      */
     public void makeMove(int column) throws ConnectFourException {
-        Move move = turn == 0 ? Move.PLAYER_ONE : Move.PLAYER_TWO;
-
-        if(column < 0 || column >= cols) {
-            throw new ConnectFourException("Invalid column");
-        }
-        else if(board[column][0] != Move.NONE) {
-            throw new ConnectFourException("Column full!");
-        }
-        else {
-            int dropTo = 0;
-            for(int r=1; r<rows && board[column][r] == Move.NONE; r++) {
-                dropTo = r;
-            }
-            board[column][dropTo] = move;
-
-            turn = turn ^ 1;
-            lastCol = column;
-            lastRow = dropTo;
+        int status = tryMove(column);
+        if(status != MOVED) {
+            throw new ConnectFourException(describe(status));
         }
     }
 
-    private class C_R {
-        public final int c, r;
-        public C_R( int c, int r ) { this.c = c; this.r = r; }
-        public C_R advance( int scale, C_R dir ) {
-            return new C_R( this.c + scale * dir.c, this.r + scale * dir.r );
-        }
-        public boolean inBounds() {
-            return
-                this.c >= 0 && this.c < COLS && this.r >= 0 && this.r < ROWS;
+    /**
+     * Makes a move for the player whose turn it is, if it is valid. Unlike
+     * {@link #makeMove(int)} it neither throws nor allocates, so a server
+     * can turn away a flood of bad moves cheaply.
+     *
+     * @param column The column in which the player is moving.
+     * @return {@link #MOVED} if the move was made, otherwise
+     * {@link #INVALID_COLUMN} or {@link #COLUMN_FULL}.
+     */
+    public int tryMove(int column) {
+        if(!grid.isValidColumn(column)) {
+            return INVALID_COLUMN;
         }
-        public Move contents() {
-            return ConnectFour.this.board[ this.c ][ this.r ];
+        else if(grid.isColumnFull(column)) {
+            return COLUMN_FULL;
         }
+        grid.drop(column);
+        return MOVED;
     }
 
-    private Set< C_R > DIRS = Set.of(
-            new C_R( -1, -1), new C_R( -1, 0), new C_R( -1, 1), new C_R( 0, -1),
-            new C_R( 0, 1), new C_R( 1, -1), new C_R( 1, 0), new C_R( 1, 1)
-    );
-
-    public boolean hasWonGame() {
-        for ( int c = 0; c < COLS; ++c ) {
-            for ( int r = 0; r < ROWS; ++r ) {
-                C_R start = new C_R( c, r );
-                Move here = start.contents();
-                if ( here == Move.NONE ) continue; // NONE can't win :-)
-                for ( C_R dir: DIRS ) {
-                    C_R end = start.advance( WIN_LEN-1, dir );
-                    if ( end.inBounds() ) {
-                        boolean goodOne = true;
-                        for ( int delta = 1; delta < WIN_LEN; ++delta ) {
-                            if ( start.advance( delta, dir ).contents() != here ) {
-                                goodOne = false;
-                                break;
-                            }
-                        }
-                        if ( goodOne )return true;
-                    }
-                }
-            }
+    /**
+     * Says what a status from {@link #tryMove(int)} means.
+     *
+     * @param status The status.
+     * @return A description of it, suitable for an error message.
+     */
+    public static String describe(int status) {
+        switch (status) {
+            case MOVED:
+                return "Moved";
+            case INVALID_COLUMN:
+                return "Invalid column";
+            case COLUMN_FULL:
+                return "Column full!";
+            default:
+                return "Unknown move status " + status;
         }
-        return false;
     }
 
     /**
      * Returns true if the game is currently in a winning state. Can be used to
      * determine if the most recent move won the game (and therefore the player
-     * that made the move has won).
+     * that made the move has won). Only the lines through the most recently
+     * placed piece are checked, so the cost depends on the win length and not
+     * on the size of the board.
      *
      * @return True if the game is in a winning state. False otherwise.
      */
-    public boolean hasWonGame_old() {
-        Move player = board[lastCol][lastRow];
-
-          // check left horizontal
-        if (this.lastCol >= 3) {
-            int count = 1;
-            for (int col=this.lastCol-1; col>this.lastCol-4; --col) {
-                if (board[col][lastRow] == player) {
-                    ++count;
-                }
-            }
-            if (count == 4) {
-                return true;
-            }
-        }
-
-        // check right horizontal
-        if (this.lastCol <= 3) {
-            int count = 1;
-            for (int col=this.lastCol+1; col>this.lastCol+4; ++col) {
-                if (board[col][lastRow] == player) {
-                    ++count;
-                }
-            }
-            if (count == 4) {
-                return true;
-            }
-        }
-
-        // check vertically down
-        if (this.lastRow <=2) {
-            int count = 1;
-            for (int row=this.lastRow+1; row<this.lastRow+4; ++row) {
-                if (board[this.lastCol][row] == player) {
-                    ++count;
-                }
-            }
-            if (count == 4) {
-                return true;
-            }
-        }
-
-        // check diagonally to left
-        if (this.lastRow <= 2 && this.lastCol >= 3) {
-            int count = 1;
-            int col = this.lastCol - 1;
-            for (int row = this.lastRow + 1; row < this.lastRow + 4; ++row) {
-                if (board[col][row] == player) {
-                    --col;
-                    ++count;
-                }
-            }
-            if (count == 4) {
-                return true;
-            }
-        }
-
-        // check diagonally to right
-        if (this.lastRow <= 2 && this.lastCol <= 3) {
-            int count = 1;
-            int col = this.lastCol + 1;
-            for (int row = this.lastRow + 1; row < this.lastRow + 4; ++row) {
-                if (board[col][row] == player) {
-                    ++col;
-                    ++count;
-                }
-            }
-            if (count == 4) {
-                return true;
-            }
-        }
-        return false;
+    public boolean hasWonGame() {
+        return grid.hasWon();
     }
 
     /**
-     * Checks to see if the game is tied - no NONE moves left in board.  This
+     * Checks to see if the game is tied - no room left on the board.  This
      * is called after hasGameWon.
      *
      * @return whether game is tied or not
      */
     public boolean hasTiedGame() {
-        for (int row=0; row<rows; ++row) {
-            for (int col=0; col<cols; ++col) {
-                if (board[col][row] == Move.NONE) {
-                    return false;
-                }
-            }
-        }
-        return true;
+        return grid.isFull();
+    }
+
+    /**
+     * An immutable copy of the current position, which other threads may
+     * read without locking while the game goes on.
+     *
+     * @return the snapshot
+     */
+    public GridSnapshot snapshot() {
+        return grid.snapshot();
     }
 
     /**
@@ -273,16 +175,6 @@ public class ConnectFour {
      */
     @Override
     public String toString() {
-        StringBuilder builder = new StringBuilder();
-
-        for(int r=0; r<rows; r++) {
-            for(int c=0; c<cols; c++) {
-                builder.append('[');
-                builder.append(board[c][r].getSymbol());
-                builder.append(']');
-            }
-            builder.append('\n');
-        }
-        return builder.toString();
+        return grid.toString();
     }
 }
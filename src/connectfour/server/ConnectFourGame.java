@@ -1,85 +1,845 @@
 package connectfour.server;
 
 import connectfour.ConnectFourException;
+import connectfour.history.ArchivedGame;
+import connectfour.history.GameResult;
+import connectfour.model.BitBoard;
+import connectfour.model.GridSnapshot;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
- * Connect four game.
+ * Connect four game, as a state machine that enforces the rules. It does no
+ * I/O and has no thread of its own: whatever carries a player's messages
+ * tells it when a move arrives or the player is lost, and it answers by
+ * calling the players' methods that send messages back. So a game can be
+ * driven by a thread blocked reading a socket, by the reader of a
+ * connection carrying many games, or by a player in the same process, and
+ * games only use a thread while they handle a message.<P>
+ *
+ * The events for one game may come from different threads, one for each
+ * player; they are handled one at a time. The messages an event calls for
+ * are only queued while it is handled, and sent in order once the game's
+ * lock is let go, by whichever thread finds no other sending them. So a
+ * client that stops reading holds up only the thread writing to it, not
+ * the game, nor the threads bringing the other player's messages.<P>
+ *
+ * A game can be {@link #suspend(String) suspended} when the server shuts
+ * down, giving each player a key, and restored on the next server from its
+ * moves; it then waits for both players to {@link #rejoin} with their keys
+ * before going on. A server that {@link GameSnapshots snapshots} its games
+ * gives the players their keys when the game starts instead, so that they
+ * can come back to it even if the server dies; and a player whose
+ * connection is lost can then come back to it for a while, the game being
+ * held for them rather than abandoned. The keys of a server that
+ * is one of the shards of a {@link ShardRouter} start with its id, so that
+ * the router can tell which shard a game is on.
  */
-public class ConnectFourGame implements Runnable {
-    /** first player */
+public class ConnectFourGame {
+    /**
+     * Where a game is up to.
+     */
+    public enum State {
+        /** not started yet */
+        NEW,
+        /** waiting for the first player to move */
+        PLAYER_ONE_TO_MOVE,
+        /** waiting for the second player to move */
+        PLAYER_TWO_TO_MOVE,
+        /** restored after a restart, waiting for the players to come back */
+        SUSPENDED,
+        /** won, tied or abandoned */
+        OVER
+    }
+
+    /**
+     * What to do when a player sends a move that can't be made: one out of
+     * turn, in a column that isn't on the board or is full, or something
+     * that isn't a move at all.
+     */
+    public enum InvalidMovePolicy {
+        /**
+         * ask the player for another move, ignoring one out of turn; after
+         * {@link #MAX_STRIKES} bad moves in a game the player forfeits
+         */
+        REPROMPT,
+        /** the player is sent an error and loses; the opponent wins */
+        FORFEIT,
+        /** both players are sent an error and the game is abandoned */
+        ABORT
+    }
+
+    /** how many bad moves a player may make in a game when re-prompted */
+    public static final int MAX_STRIKES = 3;
+
+    /** where the keys players resume suspended games with come from */
+    private static final SecureRandom KEYS = new SecureRandom();
+
+    /** first player; null while a restored game waits for them */
     private ConnectFourPlayer playerOne;
-    /** second player */
+    /** second player; null while a restored game waits for them */
     private ConnectFourPlayer playerTwo;
 
-    /** the game model */
+    /** the game model; for a restored game, made when first needed */
     private ConnectFour game;
 
+    /** the size of board of a restored game not yet made into a model */
+    private BitBoard board;
+
+    /** the moves of a restored game not yet made into a model */
+    private int[] moves;
+
+    /** where the game is up to */
+    private State state = State.NEW;
+
+    /** each player's key to resume the game with; null until suspended */
+    private String[] keys;
+
+    /** what to do once the game is over; may be null */
+    private Runnable whenOver;
+
+    /** what to do when the game changes, if it hasn't since the last snapshot */
+    private Runnable whenChanged;
+
+    /** whether the game has changed since the last snapshot */
+    private boolean dirty;
+
+    /** what to do about a player's bad moves */
+    private InvalidMovePolicy policy = InvalidMovePolicy.ABORT;
+
+    /** how many bad moves each player has made */
+    private int strikesOne, strikesTwo;
+
+    /** how the game ended; null until it is over, and if it was suspended */
+    private GameResult result;
+
+    /** the messages to send the players once the lock is let go, in order */
+    private final List<Runnable> outbox = new ArrayList<>();
+
+    /** whether a thread is sending the messages in {@link #outbox} */
+    private boolean sending;
+
+    /** how long to hold the game for a player who is lost, in ms */
+    private long holdMillis;
+
+    /** what to do with the key of a player the game is held for; may be null */
+    private Consumer<String> whenHeld;
+
+    /** whether each player's connection is lost and the game held for them */
+    private boolean lostOne, lostTwo;
+
+    /** when to give up on the players the game is held for, in ms */
+    private long heldUntil;
+
     /**
-     * Initialize the game.
+     * Initialize the game on a standard board.
      *
      * @param playerOne first player
      * @param playerTwo second player
      */
     public ConnectFourGame(ConnectFourPlayer playerOne,
                            ConnectFourPlayer playerTwo) {
+        this(playerOne, playerTwo, new ConnectFour());
+    }
+
+    /**
+     * Initialize the game on the given board, which should have the size
+     * and win length the players were told about when they connected.
+     *
+     * @param playerOne first player
+     * @param playerTwo second player
+     * @param game the game model
+     */
+    public ConnectFourGame(ConnectFourPlayer playerOne,
+                           ConnectFourPlayer playerTwo,
+                           ConnectFour game) {
 
         this.playerOne = playerOne;
         this.playerTwo = playerTwo;
 
-        game = new ConnectFour();
+        this.game = game;
     }
 
-    @Override
-    public void run() {
-        boolean go = true;
-        while(go) {
-            try {
-                if(makeMove(playerOne, playerTwo)) {
-                    go = false;
-                }
-                else if(makeMove(playerTwo, playerOne)) {
-                    go = false;
-                }
+    /**
+     * Restore a suspended game, to wait for its players to come back.
+     *
+     * @param game the game model, with the moves made so far
+     * @param keyOne the key the first player resumes with
+     * @param keyTwo the key the second player resumes with
+     */
+    private ConnectFourGame(ConnectFour game, String keyOne, String keyTwo) {
+        this.game = game;
+        this.keys = new String[] {keyOne, keyTwo};
+        this.state = State.SUSPENDED;
+    }
+
+    /**
+     * Restore a suspended game as just its moves, to wait for its players
+     * to come back; the model is made when the first one does.
+     *
+     * @param board the size of board
+     * @param moves the columns of the moves made so far
+     * @param keyOne the key the first player resumes with
+     * @param keyTwo the key the second player resumes with
+     */
+    private ConnectFourGame(BitBoard board, int[] moves, String keyOne,
+                            String keyTwo) {
+        this.board = board;
+        this.moves = moves;
+        this.keys = new String[] {keyOne, keyTwo};
+        this.state = State.SUSPENDED;
+    }
+
+    /**
+     * Restore a game from what {@link #suspend(String)} saved.
+     *
+     * @param saved the saved game
+     * @param rows the number of rows in the board
+     * @param cols the number of columns in the board
+     * @param winLength how big a line one needs to win
+     * @return the game, waiting for its players
+     * @throws ConnectFourException if the saved game is not a game in
+     * progress on that board
+     */
+    static ConnectFourGame restore(String saved, int rows, int cols,
+                                   int winLength) throws ConnectFourException {
+        String[] fields = saved.trim().split(" ");
+        if (fields.length < 2) {
+            throw new ConnectFourException("Bad saved game: " + saved);
+        }
+        int[] moves = new int[fields.length - 2];
+        try {
+            for (int i = 0; i < moves.length; ++i) {
+                moves[i] = Integer.parseInt(fields[i + 2]);
+            }
+        }
+        catch (NumberFormatException e) {
+            throw new ConnectFourException("Bad saved game: " + saved);
+        }
+        return restore(fields[0], fields[1], moves, rows, cols, winLength);
+    }
+
+    /**
+     * Restore a game from its players' keys and its moves.
+     *
+     * @param keyOne the key the first player resumes with
+     * @param keyTwo the key the second player resumes with
+     * @param moves the columns of the moves made so far
+     * @param rows the number of rows in the board
+     * @param cols the number of columns in the board
+     * @param winLength how big a line one needs to win
+     * @return the game, waiting for its players
+     * @throws ConnectFourException if the moves are not a game in progress
+     * on that board
+     */
+    static ConnectFourGame restore(String keyOne, String keyTwo, int[] moves,
+                                   int rows, int cols, int winLength)
+            throws ConnectFourException {
+        if (BitBoard.fits(rows, cols)) {
+            return restore(keyOne, keyTwo, moves,
+                    new BitBoard(rows, cols, winLength));
+        }
+        ConnectFour game = new ConnectFour(rows, cols, winLength);
+        for (int move : moves) {
+            game.makeMove(move);
+            if (game.hasWonGame() || game.hasTiedGame()) {
+                throw new ConnectFourException("Saved game is over");
+            }
+        }
+        return new ConnectFourGame(game, keyOne, keyTwo);
+    }
+
+    /**
+     * Restore a game from its players' keys and its moves, on a board that
+     * fits in a {@link BitBoard}. The moves are checked on the bit board,
+     * which takes a few shifts a move, and the game is kept as just its
+     * moves until a player comes back, so that a server can restore a great
+     * many games quickly.
+     *
+     * @param keyOne the key the first player resumes with
+     * @param keyTwo the key the second player resumes with
+     * @param moves the columns of the moves made so far
+     * @param board the size of board
+     * @return the game, waiting for its players
+     * @throws ConnectFourException if the moves are not a game in progress
+     * on that board
+     */
+    static ConnectFourGame restore(String keyOne, String keyTwo, int[] moves,
+                                   BitBoard board) throws ConnectFourException {
+        if (moves.length >= board.getCells()) {
+            throw new ConnectFourException("Saved game is over");
+        }
+        long current = 0;
+        long mask = 0;
+        for (int move : moves) {
+            if (move < 0 || move >= board.getCols() ||
+                    !board.canPlay(mask, move)) {
+                throw new ConnectFourException("Bad saved move: " + move);
             }
-            catch(ConnectFourException e) {
-                playerOne.error(e.getMessage());
-                playerTwo.error(e.getMessage());
-                go = false;
+            if (board.isWinningMove(current, mask, move)) {
+                throw new ConnectFourException("Saved game is over");
             }
+            long next = board.play(mask, move);
+            current ^= mask;
+            mask = next;
         }
+        return new ConnectFourGame(board, moves, keyOne, keyTwo);
+    }
+
+    /**
+     * Have something done once the game is over, however it ends. Must be
+     * called before the game starts.
+     *
+     * @param action what to do
+     */
+    void whenOver(Runnable action) {
+        this.whenOver = action;
+    }
+
+    /**
+     * Have something done when the game changes: when it starts, at each
+     * move and when it is over. It is only done again once
+     * {@link #takeSnapshot()} has been called. Must be called before the
+     * game starts.
+     *
+     * @param action what to do
+     */
+    void whenChanged(Runnable action) {
+        this.whenChanged = action;
+    }
+
+    /**
+     * Hold the game for a player whose connection is lost rather than
+     * abandon it, so that they can {@link #rejoin} it with their key, and
+     * have something done with the key, such as making it known to the
+     * server. The opponent plays on meanwhile. Only a game whose players
+     * have keys is held, and it is given up on by {@link #expire()} once
+     * the player has been gone for the time given. Must be called before
+     * the game starts.
+     *
+     * @param millis how long to hold the game for a player
+     * @param action what to do with the key of a player it is held for
+     */
+    void holdWhenLost(long millis, Consumer<String> action) {
+        this.holdMillis = millis;
+        this.whenHeld = action;
+    }
 
-        playerOne.close();
-        playerTwo.close();
+    /**
+     * Set what to do when a player sends a move that can't be made; the
+     * game is abandoned by default. Must be called before the game starts.
+     *
+     * @param policy what to do
+     */
+    public synchronized void setInvalidMovePolicy(InvalidMovePolicy policy) {
+        this.policy = policy;
     }
 
     /**
-     * Make a move in the game.
+     * Give the players keys to resume the game with, which they are sent
+     * when it starts. Must be called before the game starts.
      *
-     * @param turn this player's turn
-     * @param other the other player
-     * @return whether the game was won or not
-     * @throws ConnectFourException
+     * @param shard the id of the shard the game is on, or null if the
+     *              server is not a shard
      */
-    private boolean makeMove(ConnectFourPlayer turn, ConnectFourPlayer other)
-        throws ConnectFourException {
+    synchronized void giveKeys(String shard) {
+        keys = new String[] {newKey(shard), newKey(shard)};
+    }
 
-        int column = turn.makeMove();
-        game.makeMove(column);
+    /**
+     * @return the players' keys to resume the game with, or null if they
+     * have none
+     */
+    synchronized String[] getKeys() {
+        return keys == null ? null : keys.clone();
+    }
 
-        turn.moveMade(column);
-        other.moveMade(column);
+    /**
+     * @return where the game is up to
+     */
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Start the game: seat the players in it and ask the first one for a
+     * move.
+     */
+    public void start() {
+        synchronized (this) {
+            if (state != State.NEW) {
+                return;
+            }
+            playerOne.setGame(this);
+            playerTwo.setGame(this);
+            state = State.PLAYER_ONE_TO_MOVE;
+            if (playerOne.isLost() || playerTwo.isLost()) {
+                // lost while being paired, too soon to have told us
+                abandon("Lost connection to player");
+            }
+            else {
+                if (keys != null) {
+                    ConnectFourPlayer one = playerOne, two = playerTwo;
+                    String keyOne = keys[0], keyTwo = keys[1];
+                    tell(() -> one.gameKey(keyOne));
+                    tell(() -> two.gameKey(keyTwo));
+                }
+                tell(playerOne::requestMove);
+                changed();
+            }
+        }
+        send();
+    }
+
+    /**
+     * A player has sent a move. If it is the player's turn and the move is
+     * legal it is made and both players are told; then either the game is
+     * over or the other player is asked for a move. Otherwise the game's
+     * {@link InvalidMovePolicy} is applied; a bad move costs no exception.
+     *
+     * @param player the player
+     * @param column the column the player moved in, or
+     *               {@link ConnectFourPlayer#NOT_A_MOVE} if what they sent
+     *               was not a move
+     */
+    public void moveReceived(ConnectFourPlayer player, int column) {
+        synchronized (this) {
+            move(player, column);
+        }
+        send();
+    }
+
+    /**
+     * Handle a move, as for {@link #moveReceived}.
+     *
+     * @param player the player
+     * @param column the column the player moved in, or
+     *               {@link ConnectFourPlayer#NOT_A_MOVE}
+     */
+    private void move(ConnectFourPlayer player, int column) {
+        if (state != State.PLAYER_ONE_TO_MOVE &&
+                state != State.PLAYER_TWO_TO_MOVE) {
+            return;
+        }
+        boolean oneToMove = state == State.PLAYER_ONE_TO_MOVE;
+        ConnectFourPlayer turn = oneToMove ? playerOne : playerTwo;
+        ConnectFourPlayer other = oneToMove ? playerTwo : playerOne;
+        if (player != turn) {
+            invalidMove(other, turn, "Move out of turn", false);
+            return;
+        }
+        if (column == ConnectFourPlayer.NOT_A_MOVE) {
+            invalidMove(turn, other, "Invalid player response", true);
+            return;
+        }
+        int status = game.tryMove(column);
+        if (status != ConnectFour.MOVED) {
+            invalidMove(turn, other, ConnectFour.describe(status), true);
+            return;
+        }
+        changed();
+
+        tell(() -> turn.moveMade(column));
+        tell(() -> other.moveMade(column));
 
         if (game.hasWonGame()) {
-            turn.gameWon();
-            other.gameLost();
-            return true;
-        } else if (game.hasTiedGame()) {
-            turn.gameTied();
-            other.gameTied();
-            return true;
+            result = oneToMove ? GameResult.ONE : GameResult.TWO;
+            tell(turn::gameWon);
+            tell(other::gameLost);
+            finish();
+        }
+        else if (game.hasTiedGame()) {
+            result = GameResult.TIE;
+            tell(turn::gameTied);
+            tell(other::gameTied);
+            finish();
         }
         else {
+            state = oneToMove ? State.PLAYER_TWO_TO_MOVE :
+                    State.PLAYER_ONE_TO_MOVE;
+            tell(other::requestMove);
+        }
+    }
+
+    /**
+     * A player has been lost, or can't go on for some other reason, so the
+     * game is abandoned, unless it is {@link #holdWhenLost held} for them.
+     * A player who has already left their seat is paid no heed.
+     *
+     * @param player the player
+     * @param reason what went wrong
+     */
+    public void playerFailed(ConnectFourPlayer player, String reason) {
+        synchronized (this) {
+            if (state != State.OVER && (player == playerOne ||
+                    player == playerTwo) && !hold(player)) {
+                abandon(reason);
+            }
+        }
+        send();
+    }
+
+    /**
+     * Hold the game for a player who is lost, if it can be: a restored game
+     * still waiting for the other player waits for this one again, and a
+     * game in progress goes on, the player being sent nothing until they
+     * come back. Must be called with the lock held.
+     *
+     * @param player the player, who is in the game
+     * @return false if the game is not held for the player
+     */
+    private boolean hold(ConnectFourPlayer player) {
+        if (whenHeld == null || keys == null || state == State.NEW) {
             return false;
         }
+        boolean one = player == playerOne;
+        if (state == State.SUSPENDED) {
+            if (one) {
+                playerOne = null;
+            }
+            else {
+                playerTwo = null;
+            }
+        }
+        else if (one) {
+            lostOne = true;
+        }
+        else {
+            lostTwo = true;
+        }
+        heldUntil = System.currentTimeMillis() + holdMillis;
+        tell(player::close);
+        whenHeld.accept(keys[one ? 0 : 1]);
+        return true;
+    }
+
+    /**
+     * Apply the game's {@link InvalidMovePolicy} to a bad move.
+     *
+     * @param player the player who made it
+     * @param opponent the other player
+     * @param reason what was wrong with it
+     * @param toMove whether it is the player's turn, so that they can be
+     *               asked again
+     */
+    private void invalidMove(ConnectFourPlayer player,
+                             ConnectFourPlayer opponent, String reason,
+                             boolean toMove) {
+        if (policy == InvalidMovePolicy.REPROMPT) {
+            int strikes = player == playerOne ? ++strikesOne : ++strikesTwo;
+            if (strikes <= MAX_STRIKES) {
+                if (toMove) {
+                    tell(player::requestMove);
+                }
+                return;
+            }
+        }
+        else if (policy == InvalidMovePolicy.ABORT) {
+            abandon(reason);
+            return;
+        }
+        result = opponent == playerOne ? GameResult.ONE : GameResult.TWO;
+        tell(() -> player.error(reason));
+        tell(opponent::gameWon);
+        finish();
+    }
+
+    /**
+     * Save the game so that a restarted server can carry it on: give each
+     * player a key to resume it with, and end it here.
+     *
+     * @param shard the id of the shard the game is on, or null if the
+     *              server is not a shard
+     * @return the game saved as one line, for {@link #restore}; null if it
+     * is not in progress
+     */
+    String suspend(String shard) {
+        StringBuilder saved;
+        synchronized (this) {
+            if (state == State.NEW || state == State.OVER) {
+                return null;
+            }
+            if (keys == null) {
+                keys = new String[] {newKey(shard), newKey(shard)};
+            }
+            ConnectFourPlayer one = playerOne, two = playerTwo;
+            String keyOne = keys[0], keyTwo = keys[1];
+            if (one != null) {
+                tell(() -> one.suspended(keyOne));
+            }
+            if (two != null) {
+                tell(() -> two.suspended(keyTwo));
+            }
+            saved = new StringBuilder(keyOne).append(' ').append(keyTwo);
+            GridSnapshot position = model().snapshot();
+            for (int ply = 0; ply < position.getFilled(); ++ply) {
+                saved.append(' ').append(position.getMove(ply));
+            }
+            finish();
+        }
+        send();
+        // the server stops once the games are saved, so they must be out
+        awaitSent();
+        return saved.toString();
+    }
+
+    /**
+     * A player has come back to a restored game, or to one that was held
+     * for them. They are told the size of the board and the moves so far,
+     * and once both players are back the one to move is asked for a move.
+     *
+     * @param key the key the player gave
+     * @param player the player
+     * @return false if the key is not for a seat of this game that is
+     * waiting for its player
+     */
+    boolean rejoin(String key, ConnectFourPlayer player) {
+        synchronized (this) {
+            if (keys == null || state == State.NEW || state == State.OVER) {
+                return false;
+            }
+            boolean restored = state == State.SUSPENDED;
+            if (key.equals(keys[0]) &&
+                    (restored ? playerOne == null : lostOne)) {
+                playerOne = player;
+                lostOne = false;
+            }
+            else if (key.equals(keys[1]) &&
+                    (restored ? playerTwo == null : lostTwo)) {
+                playerTwo = player;
+                lostTwo = false;
+            }
+            else {
+                return false;
+            }
+            player.setGame(this);
+            ConnectFour game = model();
+            int rows = game.getRows(), cols = game.getCols(),
+                    winLength = game.getWinLength();
+            tell(() -> player.connect(rows, cols, winLength));
+            GridSnapshot position = game.snapshot();
+            for (int ply = 0; ply < position.getFilled(); ++ply) {
+                int column = position.getMove(ply);
+                tell(() -> player.moveMade(column));
+            }
+            if (!restored) {
+                // the opponent was asked already if it is their turn
+                if (player == (state == State.PLAYER_ONE_TO_MOVE ?
+                        playerOne : playerTwo)) {
+                    tell(player::requestMove);
+                }
+            }
+            else if (playerOne != null && playerTwo != null) {
+                if (position.getFilled() % 2 == 0) {
+                    state = State.PLAYER_ONE_TO_MOVE;
+                    tell(playerOne::requestMove);
+                }
+                else {
+                    state = State.PLAYER_TWO_TO_MOVE;
+                    tell(playerTwo::requestMove);
+                }
+            }
+        }
+        send();
+        return true;
+    }
+
+    /**
+     * Give up on a restored game that its players have not both come back
+     * to, or on one held for a player who has been gone for as long as it
+     * is held.
+     */
+    void expire() {
+        synchronized (this) {
+            if (state == State.SUSPENDED || (state != State.OVER &&
+                    (lostOne || lostTwo) &&
+                    System.currentTimeMillis() >= heldUntil)) {
+                abandon("Opponent did not come back");
+            }
+        }
+        send();
+    }
+
+    /**
+     * @return the game as it is archived, or null if it isn't over or was
+     * suspended
+     */
+    synchronized ArchivedGame archived() {
+        if (result == null) {
+            return null;
+        }
+        GridSnapshot position = model().snapshot();
+        int[] moves = new int[position.getFilled()];
+        for (int ply = 0; ply < moves.length; ++ply) {
+            moves[ply] = position.getMove(ply);
+        }
+        return new ArchivedGame(result,
+                playerOne == null ? ArchivedGame.NOBODY : playerOne.getName(),
+                playerTwo == null ? ArchivedGame.NOBODY : playerTwo.getName(),
+                moves);
+    }
+
+    /**
+     * Take the position for a snapshot, and note that the snapshot has
+     * caught up with the game.
+     *
+     * @return the position, or null if the game is over
+     */
+    synchronized GridSnapshot takeSnapshot() {
+        dirty = false;
+        return state == State.OVER ? null : model().snapshot();
+    }
+
+    /**
+     * @return the game model, made from the moves of a restored game if it
+     * hasn't been yet
+     */
+    private ConnectFour model() {
+        if (game == null) {
+            ConnectFour made = new ConnectFour(board.getRows(),
+                    board.getCols(), board.getWinLength());
+            try {
+                for (int move : moves) {
+                    made.makeMove(move);
+                }
+            }
+            catch (ConnectFourException e) {
+                // the moves were checked when the game was restored
+                throw new IllegalStateException(e);
+            }
+            game = made;
+            board = null;
+            moves = null;
+        }
+        return game;
+    }
+
+    /**
+     * Note that the game has changed, if it hadn't already since the last
+     * snapshot.
+     */
+    private void changed() {
+        if (!dirty && whenChanged != null) {
+            dirty = true;
+            whenChanged.run();
+        }
+    }
+
+    /**
+     * @param shard the id of the shard the game is on, or null if the
+     *              server is not a shard
+     * @return a new key to resume a game with
+     */
+    private static String newKey(String shard) {
+        String key = String.format("%016x", KEYS.nextLong());
+        return shard == null ? key : shard + "-" + key;
+    }
+
+    /**
+     * @param key a key to resume a game with
+     * @return the id of the shard the game is on, or null if the key
+     * doesn't say
+     */
+    static String shardOf(String key) {
+        int dash = key.lastIndexOf('-');
+        return dash < 0 ? null : key.substring(0, dash);
+    }
+
+    /**
+     * Queue a message to a player, to be sent once the lock is let go.
+     * Must be called with the lock held.
+     *
+     * @param message what sends the message
+     */
+    private void tell(Runnable message) {
+        outbox.add(message);
+    }
+
+    /**
+     * Send the messages queued so far, and any queued meanwhile, in order,
+     * unless another thread already is. Must be called without the lock,
+     * so that a player slow to take them holds up only this thread.
+     */
+    private void send() {
+        synchronized (this) {
+            if (sending || outbox.isEmpty()) {
+                return;
+            }
+            sending = true;
+        }
+        while (true) {
+            Runnable[] messages;
+            synchronized (this) {
+                if (outbox.isEmpty()) {
+                    // given up under the lock, so nothing queued is missed
+                    sending = false;
+                    notifyAll();
+                    return;
+                }
+                messages = outbox.toArray(new Runnable[0]);
+                outbox.clear();
+            }
+            for (Runnable message : messages) {
+                message.run();
+            }
+        }
+    }
+
+    /**
+     * Wait until the messages queued so far have been sent, by whichever
+     * thread is sending them.
+     */
+    private synchronized void awaitSent() {
+        boolean interrupted = false;
+        while (sending || !outbox.isEmpty()) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Tell both players what went wrong and end the game.
+     *
+     * @param reason what went wrong
+     */
+    private void abandon(String reason) {
+        result = GameResult.ABANDONED;
+        if (playerOne != null) {
+            ConnectFourPlayer one = playerOne;
+            tell(() -> one.error(reason));
+        }
+        if (playerTwo != null) {
+            ConnectFourPlayer two = playerTwo;
+            tell(() -> two.error(reason));
+        }
+        finish();
+    }
+
+    /**
+     * End the game and close both players, once what they have been told
+     * has been sent.
+     */
+    private void finish() {
+        state = State.OVER;
+        if (playerOne != null) {
+            tell(playerOne::close);
+        }
+        if (playerTwo != null) {
+            tell(playerTwo::close);
+        }
+        changed();
+        if (whenOver != null) {
+            whenOver.run();
+        }
     }
 }
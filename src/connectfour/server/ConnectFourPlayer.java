@@ -2,15 +2,23 @@ package connectfour.server;
 
 import connectfour.ConnectFourException;
 import connectfour.ConnectFourProtocol;
+import connectfour.history.ArchivedGame;
 
 import java.io.Closeable;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.net.Socket;
+import java.util.NoSuchElementException;
 import java.util.Scanner;
 
 /**
- * A class that manages the requests and responses to a single client.
+ * A class that manages the requests and responses to a single client. The
+ * requests are sent when its {@link ConnectFourGame} calls for them; the
+ * responses are handed to the game as events by {@link #received(String)},
+ * which for a client with a socket of its own is called by
+ * {@link #listen()} on a thread that reads the socket.
  */
 public class ConnectFourPlayer implements ConnectFourProtocol, Closeable {
     /**
@@ -24,10 +32,33 @@ public class ConnectFourPlayer implements ConnectFourProtocol, Closeable {
     private Scanner scanner;
 
     /**
-     * The {@link PrintStream} used to send requests to the client.
+     * The {@link PrintStream} used to send requests to the client. It is
+     * buffered and flushed at the end of each line, so that each request
+     * goes out in one write, and over TLS in one record.
      */
     private PrintStream printer;
 
+    /**
+     * What {@link #parseColumn(String)} returns for a response that is not a
+     * move.
+     */
+    static final int NOT_A_MOVE = Integer.MIN_VALUE;
+
+    /**
+     * The game this player is in, once it has started.
+     */
+    private volatile ConnectFourGame game;
+
+    /**
+     * Whether the connection to the client has been lost.
+     */
+    private volatile boolean lost;
+
+    /**
+     * The name the player is archived under, if not its address.
+     */
+    private volatile String name;
+
     /**
      * Creates a new {@link ConnectFourPlayer} that will use the specified
      * {@link Socket} to communicate with the client.
@@ -38,10 +69,43 @@ public class ConnectFourPlayer implements ConnectFourProtocol, Closeable {
      * communication with the client.
      */
     public ConnectFourPlayer(Socket sock) throws ConnectFourException {
+        this(sock, inputOf(sock));
+    }
+
+    /**
+     * Creates a new {@link ConnectFourPlayer} that will use the specified
+     * {@link Socket} to communicate with the client, but reads the client's
+     * responses from the given stream, e.g. one that throttles them.
+     *
+     * @param sock The {@link Socket} used to communicate with the client.
+     * @param in The client's input.
+     *
+     * @throws ConnectFourException If there is a problem establishing
+     * communication with the client.
+     */
+    public ConnectFourPlayer(Socket sock, InputStream in)
+            throws ConnectFourException {
+        this(sock, new Scanner(in));
+    }
+
+    /**
+     * Creates a new {@link ConnectFourPlayer} that will use the specified
+     * {@link Socket} to communicate with the client, but reads the client's
+     * responses with the given {@link Scanner}, e.g. one that has already
+     * read the client's first request.
+     *
+     * @param sock The {@link Socket} used to communicate with the client.
+     * @param in The client's input.
+     *
+     * @throws ConnectFourException If there is a problem establishing
+     * communication with the client.
+     */
+    ConnectFourPlayer(Socket sock, Scanner in) throws ConnectFourException {
         this.sock = sock;
+        this.scanner = in;
         try {
-            scanner = new Scanner(sock.getInputStream());
-            printer = new PrintStream(sock.getOutputStream());
+            printer = new PrintStream(new BufferedOutputStream(
+                    sock.getOutputStream()), true);
         }
         catch (IOException e) {
             throw new ConnectFourException(e);
@@ -49,39 +113,199 @@ public class ConnectFourPlayer implements ConnectFourProtocol, Closeable {
     }
 
     /**
-     * Sends the initial {@link #CONNECT} request to the client.
+     * @param sock A connected {@link Socket}.
+     * @return Its input.
+     * @throws ConnectFourException If it has none, e.g. it is closed.
+     */
+    private static InputStream inputOf(Socket sock)
+            throws ConnectFourException {
+        try {
+            return sock.getInputStream();
+        }
+        catch (IOException e) {
+            throw new ConnectFourException(e);
+        }
+    }
+
+    /**
+     * Creates a new {@link ConnectFourPlayer} that does not have a socket of
+     * its own. Subclasses that use this must override {@link #send(String)},
+     * {@link #receive()} and {@link #close()}.
+     */
+    protected ConnectFourPlayer() {
+    }
+
+    /**
+     * Sends one message to the client.
+     *
+     * @param message the message, without its line terminator
+     */
+    protected void send(String message) {
+        printer.println(message);
+    }
+
+    /**
+     * Waits for the next message from the client.
+     *
+     * @return the message, without its line terminator
+     *
+     * @throws ConnectFourException If the connection to the client is lost.
+     */
+    protected String receive() throws ConnectFourException {
+        try {
+            return scanner.nextLine();
+        }
+        catch (NoSuchElementException e) {
+            throw new ConnectFourException("Lost connection to player");
+        }
+    }
+
+    /**
+     * Sends the initial {@link #CONNECT} request to the client, for a game on
+     * a standard board.
      */
     public void connect() {
-        printer.println(CONNECT);
+        connect(ConnectFour.ROWS, ConnectFour.COLS, ConnectFour.WIN_LEN);
+    }
+
+    /**
+     * Sends the initial {@link #CONNECT} request to the client, telling it the
+     * size of the board and the length of line needed to win.
+     *
+     * @param rows The number of rows in the board.
+     * @param cols The number of columns in the board.
+     * @param winLength How big a line one needs to win.
+     */
+    public void connect(int rows, int cols, int winLength) {
+        send(CONNECT + " " + rows + " " + cols + " " + winLength);
     }
 
     /**
-     * Sends a {@link #MAKE_MOVE} request to the client and returns the column
-     * in which the client would like to move.
+     * Called by the game when it starts, so that the client's messages go to
+     * it from then on.
      *
-     * @return The column in which the client would like to move.
+     * @param game The game.
+     */
+    void setGame(ConnectFourGame game) {
+        this.game = game;
+    }
+
+    /**
+     * @return The name the player is archived under: the name it was given,
+     * or else the address the client connected from, as the
+     * {@link ClientLimits} know it by, or {@link ArchivedGame#NOBODY} for a
+     * player with no socket of its own.
+     */
+    public String getName() {
+        if (name != null) {
+            return name;
+        }
+        return sock == null ? ArchivedGame.NOBODY :
+                sock.getInetAddress().getHostAddress();
+    }
+
+    /**
+     * Names the player, e.g. by the name the client gave, or by the address
+     * a {@link ShardRouter} says the client connected from.
      *
-     * @throws ConnectFourException If the client's response is invalid, i.e.
-     * not {@link #MOVE} and a column number.
+     * @param name The name, without spaces.
      */
-    public int makeMove() throws ConnectFourException {
-        printer.println(MAKE_MOVE);
-        String response = scanner.nextLine();
+    void setName(String name) {
+        this.name = name;
+    }
 
-        if(response.startsWith(MOVE)) {
-            String[] tokens = response.split(" ");
-            if(tokens.length == 2) {
-                return Integer.parseInt(tokens[1]);
-            }
-            else {
-                throw new ConnectFourException("Invalid player response: " +
-                        response);
+    /**
+     * @return Whether the connection to the client has been lost.
+     */
+    boolean isLost() {
+        return lost;
+    }
+
+    /**
+     * Reads messages from the client and hands them to the game until the
+     * connection is closed, either by the game ending or by the client.
+     */
+    public void listen() {
+        try {
+            while (true) {
+                received(receive());
             }
         }
-        else {
-            throw new ConnectFourException("Invalid player response: " +
-                    response);
+        catch (ConnectFourException e) {
+            hungUp();
+        }
+    }
+
+    /**
+     * Handles one message from the client: a move is handed to the game,
+     * and anything else abandons it. A client that speaks before its game
+     * has started is disconnected.
+     *
+     * @param message The message, without its line terminator.
+     */
+    void received(String message) {
+        ConnectFourGame game = this.game;
+        if (game == null) {
+            error("Not in a game yet");
+            close();
+            return;
+        }
+        game.moveReceived(this, parseColumn(message));
+    }
+
+    /**
+     * Called when the connection to the client is lost. The game, if there
+     * is one, is abandoned, unless it is held for the client to come back.
+     */
+    void hungUp() {
+        // set before looking for the game, which looks at it after being set
+        lost = true;
+        ConnectFourGame game = this.game;
+        if (game != null) {
+            game.playerFailed(this, "Lost connection to player");
+        }
+    }
+
+    /**
+     * Gets the column from a {@link #MOVE} response. It is parsed by hand
+     * rather than split and parsed as an int, so that junk from a client
+     * costs no garbage and no exception.
+     *
+     * @param response The response.
+     * @return The column in which the client would like to move, or
+     * {@link #NOT_A_MOVE} if the response is not {@link #MOVE}, a space and
+     * a column number.
+     */
+    static int parseColumn(String response) {
+        int start = MOVE.length() + 1;
+        int end = response.length();
+        if (end <= start || !response.startsWith(MOVE) ||
+                response.charAt(start - 1) != ' ') {
+            return NOT_A_MOVE;
+        }
+        boolean negative = response.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        // more than 9 digits could overflow, and is no column anyway
+        if (i == end || end - i > 9) {
+            return NOT_A_MOVE;
+        }
+        int column = 0;
+        for (; i < end; ++i) {
+            char digit = response.charAt(i);
+            if (digit < '0' || digit > '9') {
+                return NOT_A_MOVE;
+            }
+            column = column * 10 + (digit - '0');
         }
+        return negative ? -column : column;
+    }
+
+    /**
+     * Sends a {@link #MAKE_MOVE} request to the client. Its response comes
+     * back through {@link #received(String)}.
+     */
+    public void requestMove() {
+        send(MAKE_MOVE);
     }
 
     /**
@@ -92,7 +316,7 @@ public class ConnectFourPlayer implements ConnectFourProtocol, Closeable {
      *
      */
     public void moveMade(int column) {
-        printer.println(MOVE_MADE + " " + column);
+        send(MOVE_MADE + " " + column);
     }
 
     /**
@@ -101,7 +325,7 @@ public class ConnectFourPlayer implements ConnectFourProtocol, Closeable {
      *
      */
     public void gameWon() {
-        printer.println(GAME_WON);
+        send(GAME_WON);
 
     }
 
@@ -111,7 +335,7 @@ public class ConnectFourPlayer implements ConnectFourProtocol, Closeable {
      *
      */
     public void gameLost()  {
-        printer.println(GAME_LOST);
+        send(GAME_LOST);
     }
 
     /**
@@ -119,7 +343,35 @@ public class ConnectFourPlayer implements ConnectFourProtocol, Closeable {
      * game tied.
      */
     public void gameTied()  {
-        printer.println(GAME_TIED);
+        send(GAME_TIED);
+    }
+
+    /**
+     * Called to send a {@link #SUSPENDED} request to the client because the
+     * server is shutting down and has saved the game.
+     *
+     * @param key The key the client can resume the game with.
+     */
+    public void suspended(String key) {
+        send(SUSPENDED + " " + key);
+    }
+
+    /**
+     * Called to send a {@link #GAME_KEY} request to the client as the game
+     * starts, because the server snapshots its games.
+     *
+     * @param key The key the client can resume the game with.
+     */
+    public void gameKey(String key) {
+        send(GAME_KEY + " " + key);
+    }
+
+    /**
+     * @return Whether the client can {@link #RESUME} a game on a connection
+     * of its own, which it can only do if it has one to begin with.
+     */
+    boolean canResume() {
+        return sock != null;
     }
 
     /**
@@ -129,7 +381,7 @@ public class ConnectFourPlayer implements ConnectFourProtocol, Closeable {
      * @param message The error message.
      */
     public void error(String message) {
-        printer.println(ERROR + " " + message);
+        send(ERROR + " " + message);
     }
 
     /**
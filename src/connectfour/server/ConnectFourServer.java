@@ -2,21 +2,271 @@ package connectfour.server;
 
 import connectfour.ConnectFourException;
 import connectfour.ConnectFourProtocol;
+import connectfour.ConnectFourTls;
+import connectfour.history.ArchivedGame;
+import connectfour.history.GameArchive;
+import connectfour.model.BitBoard;
+import connectfour.model.EvaluationCache;
+import connectfour.model.Solver;
 
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * The {@link ConnectFourServer} waits for incoming client connections and
- * pairs them off to play {@link ConnectFourGame games}.
+ * pairs them off to play {@link ConnectFourGame games}. A client may also
+ * {@link ConnectFourProtocol#MULTIPLEX} many games over one connection;
+ * each of those games is seated and paired off just like a client with a
+ * connection of its own. Or a client may send a {@link ConnectFourProtocol#BATCH}
+ * of positions to be evaluated, which all such clients share a bounded pool
+ * of threads for.<P>
+ *
+ * When the server is asked to stop (e.g. by SIGTERM during a deploy) it
+ * {@link #drain drains}: it stops taking new players and lets the games in
+ * progress finish for up to {@link #DRAIN_MILLIS}, then saves any still
+ * going to {@link #CHECKPOINT} and tells their players how to
+ * {@link ConnectFourProtocol#RESUME} them. The next server started in the
+ * same directory restores those games and waits for the players to come
+ * back. Games never touch any of this as they go: the only shared state a
+ * game has is its entry in a concurrent set, added when it starts and
+ * removed when it ends.<P>
+ *
+ * So that games also outlive a server that dies without draining, the
+ * server keeps {@link GameSnapshots snapshots} of them in {@link #SNAPSHOTS},
+ * written every {@link #SNAPSHOT_MILLIS} by a thread of its own, and gives
+ * players their keys as their games start. A server started after a crash
+ * restores the games from the snapshots and waits for the players, who
+ * resume them just as they would after a drain.<P>
+ *
+ * A server may also {@link #archive archive} every game that finishes to
+ * {@link #ARCHIVE}, for a {@link connectfour.history.GameIndexer} to index.
  */
 public class ConnectFourServer implements ConnectFourProtocol, Runnable {
+    /**
+     * How long a newly connected client has to say what it wants, in
+     * milliseconds, before it is hung up on.
+     */
+    private static final int REQUEST_MILLIS = 10_000;
+
+    /**
+     * How long a newly connected client has to finish its TLS handshake, if
+     * the server uses {@link ConnectFourTls TLS}, in milliseconds.
+     */
+    private static final int TLS_HANDSHAKE_MILLIS = 10_000;
+
+    /**
+     * How many positions may wait for an evaluator, for every evaluator.
+     * Once that many are waiting, a connection submitting another evaluates
+     * it itself, which holds that connection back until the pool catches
+     * up.
+     */
+    private static final int QUEUED_PER_EVALUATOR = 64;
+
+    /**
+     * How many evaluations the batch clients share a cache of: 1M, about
+     * 17 MB.
+     */
+    private static final int CACHE_ENTRIES = 1 << 20;
+
+    /**
+     * How often how many positions the batch clients have had evaluated,
+     * and how the cache of evaluations is doing, is printed, in
+     * milliseconds. Nothing is printed while there are none.
+     */
+    private static final long EVALUATION_STATS_MILLIS = 60_000;
+
+    /**
+     * How often what the {@link ClientLimits} have stopped is printed, in
+     * milliseconds. Nothing is printed while they stop nothing.
+     */
+    private static final long LIMIT_STATS_MILLIS = 60_000;
+
+    /**
+     * How long the games in progress get to finish once the server is asked
+     * to stop, in milliseconds, before they are saved instead.
+     */
+    private static final long DRAIN_MILLIS = 20_000;
+
+    /**
+     * How often a {@link ShardRouter} is told how busy the server is, in
+     * milliseconds.
+     */
+    static final long LOAD_MILLIS = 100;
+
+    /**
+     * How long a restored game waits for its players to come back, and a
+     * game is held for a player whose connection is lost, in milliseconds.
+     */
+    private static final long RESUME_MILLIS = 120_000;
+
+    /**
+     * The file games still in progress when the server stops are saved to,
+     * in the directory it was started in.
+     */
+    static final String CHECKPOINT = "connectfour-checkpoint.txt";
+
+    /**
+     * The file games in progress are snapshotted to, in the directory the
+     * server was started in.
+     */
+    static final String SNAPSHOTS = "connectfour-snapshots.bin";
+
+    /**
+     * How often games that have changed are snapshotted, in milliseconds.
+     */
+    private static final long SNAPSHOT_MILLIS = 1000;
+
+    /**
+     * The file finished games are archived to, in the directory the server
+     * was started in.
+     */
+    static final String ARCHIVE = "connectfour-archive.txt";
+
+    /**
+     * How often the games archived are written out, in milliseconds.
+     */
+    private static final long ARCHIVE_MILLIS = 1000;
+
     /**
      * The {@link ServerSocket} used to wait for incoming client connections.
      */
     private ServerSocket server;
 
+    /**
+     * The number of rows in the boards of games on this server.
+     */
+    private int rows;
+
+    /**
+     * The number of columns in the boards of games on this server.
+     */
+    private int cols;
+
+    /**
+     * How big a line one needs to win games on this server.
+     */
+    private int winLength;
+
+    /**
+     * The player waiting for an opponent, if any.
+     */
+    private ConnectFourPlayer waiting;
+
+    /**
+     * Searches positions for {@link ConnectFourProtocol#BATCH} clients, with
+     * a cache of evaluations they all share; null if the board is too big
+     * for it.
+     */
+    private Solver solver;
+
+    /**
+     * The threads that evaluate positions for all
+     * {@link ConnectFourProtocol#BATCH} clients, one per processor.
+     */
+    private ExecutorService evaluators;
+
+    /**
+     * How many positions have been evaluated since the last time that was
+     * printed, and in how many batches.
+     */
+    private final LongAdder positionsEvaluated = new LongAdder(),
+            batchesEvaluated = new LongAdder();
+
+    /**
+     * The games in progress, including restored games waiting for their
+     * players.
+     */
+    private final Set<ConnectFourGame> games = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The restored games waiting for players, and the games held for
+     * players who were lost, by the keys the players will resume them with.
+     */
+    private final Map<String, ConnectFourGame> suspended =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Gives up on restored and held games whose players don't come back.
+     */
+    private final ScheduledExecutorService expiry =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "expiry");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /**
+     * Where games in progress are snapshotted; null if they aren't.
+     */
+    private GameSnapshots snapshots;
+
+    /**
+     * Where finished games are archived; null if they aren't.
+     */
+    private volatile GameArchive archive;
+
+    /**
+     * Snapshots the games that have changed, every {@link #SNAPSHOT_MILLIS},
+     * writes out the games archived, and prints the evaluation statistics.
+     */
+    private final ScheduledExecutorService snapshotter =
+            Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "snapshotter");
+                t.setDaemon(true);
+                return t;
+            });
+
+    /**
+     * What the clients at any one address may do.
+     */
+    private volatile ClientLimits limits = new ClientLimits();
+
+    /**
+     * The id the server goes by as one of the shards of a
+     * {@link ShardRouter}, which its games' keys start with and which it
+     * reports with its load; null if it is not a shard.
+     */
+    private volatile String shardId;
+
+    /**
+     * What new games do when a player sends a move that can't be made.
+     */
+    private volatile ConnectFourGame.InvalidMovePolicy invalidMovePolicy =
+            ConnectFourGame.InvalidMovePolicy.ABORT;
+
+    /**
+     * Whether the server is shutting down, and so not starting new games.
+     */
+    private volatile boolean draining;
+
     /**
      * Creates a new {@link ConnectFourServer} that listens for incoming
      * connections on the specified port.
@@ -27,11 +277,61 @@ public class ConnectFourServer implements ConnectFourProtocol, Runnable {
      *                              {@link ServerSocket}
      */
     public ConnectFourServer(int port) throws ConnectFourException {
+        this(port, ConnectFour.ROWS, ConnectFour.COLS, ConnectFour.WIN_LEN);
+    }
+
+    /**
+     * Creates a new {@link ConnectFourServer} that listens for incoming
+     * connections on the specified port and hosts games on boards of the
+     * given size. The connections use TLS if {@link ConnectFourTls} is on.
+     *
+     * @param port The port on which the server should listen for incoming
+     *             connections.
+     * @param rows The number of rows in the board.
+     * @param cols The number of columns in the board.
+     * @param winLength How big a line one needs to win.
+     * @throws ConnectFourException If there is an error creating the
+     *                              {@link ServerSocket}, or the board
+     *                              size makes no sense
+     */
+    public ConnectFourServer(int port, int rows, int cols, int winLength)
+            throws ConnectFourException {
+        if (rows < 1 || cols < 1 || winLength < 1 ||
+                winLength > Math.max(rows, cols)) {
+            throw new ConnectFourException("Invalid board size " + rows +
+                    "x" + cols + " with win length " + winLength);
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.winLength = winLength;
+        if (BitBoard.fits(rows, cols)) {
+            this.solver = new Solver(new BitBoard(rows, cols, winLength),
+                    new EvaluationCache(CACHE_ENTRIES));
+        }
+        int threads = Runtime.getRuntime().availableProcessors();
+        AtomicInteger evaluatorCount = new AtomicInteger();
+        this.evaluators = new ThreadPoolExecutor(threads, threads,
+                0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * QUEUED_PER_EVALUATOR),
+                r -> {
+                    Thread t = new Thread(r,
+                            "evaluator-" + evaluatorCount.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.CallerRunsPolicy());
         try {
-            server = new ServerSocket(port);
+            server = ConnectFourTls.listen(port);
         } catch (IOException e) {
             throw new ConnectFourException(e);
         }
+        if (solver != null) {
+            snapshotter.scheduleWithFixedDelay(this::printEvaluationStats,
+                    EVALUATION_STATS_MILLIS, EVALUATION_STATS_MILLIS,
+                    TimeUnit.MILLISECONDS);
+        }
+        snapshotter.scheduleWithFixedDelay(this::printLimitStats,
+                LIMIT_STATS_MILLIS, LIMIT_STATS_MILLIS, TimeUnit.MILLISECONDS);
     }
 
     /**
@@ -39,53 +339,716 @@ public class ConnectFourServer implements ConnectFourProtocol, Runnable {
      * calls {@link #run()} in the main thread.
      *
      * @param args Used to specify the port on which the server should listen
-     *             for incoming client connections.
+     *             for incoming client connections, optionally followed by
+     *             the number of rows and columns, the win length and what
+     *             to do about invalid moves (reprompt, forfeit or abort);
+     *             optionally preceded by --shard=id for a server whose
+     *             clients all come through a {@link ShardRouter}, which
+     *             limits them instead of the server (just --shard to go by
+     *             the port as the id), --archive to archive finished
+     *             games, and --limits=off, or
+     *             --limits=connections,messages a second,burst, to set the
+     *             {@link ClientLimits} on each address, or have none.
      * @throws ConnectFourException If there is an error starting the server.
      */
     public static void main(String[] args) throws ConnectFourException {
+        String shardId = null;
+        ClientLimits limits = null;
+        boolean badLimits = false;
+        for (String arg : args) {
+            if (arg.equals("--shard")) {
+                shardId = "";
+            }
+            else if (arg.startsWith("--shard=")) {
+                shardId = arg.substring("--shard=".length());
+            }
+            else if (arg.startsWith("--limits=")) {
+                limits = limitsOf(arg.substring("--limits=".length()));
+                badLimits = limits == null;
+            }
+        }
+        boolean archived = Arrays.asList(args).contains("--archive");
+        args = Arrays.stream(args).filter(a -> !a.startsWith("--"))
+                .toArray(String[]::new);
 
-        if (args.length != 1) {
-            System.out.println("Usage: java ConnectFourServer <port>");
+        if (badLimits ||
+                (args.length != 1 && (args.length < 3 || args.length > 5))) {
+            System.out.println("Usage: java ConnectFourServer " +
+                    "[--shard[=<id>]] [--archive] [--limits=off|" +
+                    "<connections>,<messages/s>,<burst>] <port> " +
+                    "[<rows> <cols> [<win length> [reprompt|forfeit|abort]]]");
             System.exit(1);
         }
 
         int port = Integer.parseInt(args[0]);
-        ConnectFourServer server = new ConnectFourServer(port);
+        int rows = args.length > 1 ? Integer.parseInt(args[1]) : ConnectFour.ROWS;
+        int cols = args.length > 1 ? Integer.parseInt(args[2]) : ConnectFour.COLS;
+        int winLength = args.length > 3 ?
+                Integer.parseInt(args[3]) : ConnectFour.WIN_LEN;
+        ConnectFourServer server =
+                new ConnectFourServer(port, rows, cols, winLength);
+        if (shardId != null) {
+            server.setShardId(shardId.isEmpty() ? args[0] : shardId);
+            server.setLimits(ClientLimits.unlimited());
+        }
+        if (limits != null) {
+            server.setLimits(limits);
+        }
+        if (args.length > 4) {
+            server.setInvalidMovePolicy(ConnectFourGame.InvalidMovePolicy
+                    .valueOf(args[4].toUpperCase()));
+        }
+        try {
+            server.snapshot(Paths.get(SNAPSHOTS), SNAPSHOT_MILLIS);
+        }
+        catch (ConnectFourException e) {
+            System.err.println("Not snapshotting games: " + e.getMessage());
+        }
+        if (archived) {
+            try {
+                server.archive(Paths.get(ARCHIVE), ARCHIVE_MILLIS);
+            }
+            catch (ConnectFourException e) {
+                System.err.println("Not archiving games: " + e.getMessage());
+            }
+        }
+        Path checkpoint = Paths.get(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            server.restore(checkpoint);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                server.drain(DRAIN_MILLIS, checkpoint)));
         server.run();
     }
 
     /**
-     * Waits for two clients to connect. Creates a {@link ConnectFourPlayer}
-     * for each and then pairs them off in a {@link ConnectFourGame}.<P>
+     * Makes the limits given on the command line.
+     *
+     * @param setting off, or how many connections an address may have,
+     *                how many lines a second it may send and how many at
+     *                once, separated by commas
+     * @return the limits, or null if the setting makes no sense
+     */
+    private static ClientLimits limitsOf(String setting) {
+        if (setting.equals("off")) {
+            return ClientLimits.unlimited();
+        }
+        String[] fields = setting.split(",");
+        if (fields.length != 3) {
+            return null;
+        }
+        try {
+            int connections = Integer.parseInt(fields[0]);
+            double perSecond = Double.parseDouble(fields[1]);
+            double burst = Double.parseDouble(fields[2]);
+            if (connections < 1 || !(perSecond > 0) || !(burst >= 1)) {
+                return null;
+            }
+            return new ClientLimits(connections, perSecond, burst);
+        }
+        catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return what the clients at any one address may do
+     */
+    public ClientLimits getLimits() {
+        return limits;
+    }
+
+    /**
+     * Changes what the clients at any one address may do, for clients that
+     * connect from now on.
+     *
+     * @param limits the limits
+     */
+    public void setLimits(ClientLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Makes the server one of the shards of a {@link ShardRouter}, for
+     * games started from now on.
+     *
+     * @param id the id it goes by, which must not contain a space
+     */
+    public void setShardId(String id) {
+        this.shardId = id;
+    }
+
+    /**
+     * Changes what games started from now on do when a player sends a move
+     * that can't be made; by default they are abandoned.
+     *
+     * @param policy what to do
+     */
+    public void setInvalidMovePolicy(
+            ConnectFourGame.InvalidMovePolicy policy) {
+        this.invalidMovePolicy = policy;
+    }
+
+    /**
+     * Waits for clients to connect, and finds out on a thread of its own
+     * what each one wants, so that a slow client does not hold up the
+     * others. A client whose address is over its {@link ClientLimits limits}
+     * is closed straight away instead. Keeps accepting clients until the
+     * {@link ServerSocket} fails.
      */
     @Override
     public void run() {
+        System.out.println(server instanceof SSLServerSocket ?
+                "Waiting for players over TLS..." : "Waiting for players...");
         try {
-            System.out.println("Waiting for player one...");
-            Socket playerOneSocket = server.accept();
-            ConnectFourPlayer playerOne =
-                    new ConnectFourPlayer(playerOneSocket);
-            playerOne.connect();
-            System.out.println("Player one connected!");
-
-            System.out.println("Waiting for player two...");
-            Socket playerTwoSocket = server.accept();
-            ConnectFourPlayer playerTwo =
-                    new ConnectFourPlayer(playerTwoSocket);
-            playerTwo.connect();
-            System.out.println("Player two connected!");
-
-            System.out.println("Starting game!");
-            ConnectFourGame game =
-                    new ConnectFourGame(playerOne, playerTwo);
-            // server is not multithreaded
-            new Thread(game).run();
+            while (true) {
+                Socket socket = server.accept();
+                ClientLimits limits = this.limits;
+                if (!limits.connected(socket.getInetAddress())) {
+                    closeQuietly(socket);
+                    continue;
+                }
+                new Thread(() -> admit(socket, limits)).start();
+            }
         } catch (IOException e) {
+            if (draining) {
+                System.out.println("No longer accepting players.");
+                return;
+            }
             System.err.println("Something has gone horribly wrong!");
             e.printStackTrace();
-        } catch (ConnectFourException e) {
-            System.err.println("Failed to create players!");
-            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Sets up a newly connected client. A {@link ConnectFourTls TLS} client
+     * first finishes its handshake here, off the thread accepting clients.
+     * Then it has {@link #REQUEST_MILLIS} to say what it wants. A client
+     * that asks to {@link ConnectFourProtocol#PLAY} becomes a
+     * {@link ConnectFourPlayer}, is seated, and gets this thread to read its
+     * messages. A client that asks to {@link ConnectFourProtocol#MULTIPLEX}
+     * or for a {@link ConnectFourProtocol#BATCH} of evaluations gets this
+     * thread to read its messages for as long as it stays connected, and a
+     * {@link ShardRouter} asking for the server's
+     * {@link ConnectFourProtocol#LOAD} gets it to report it. Whatever it
+     * sends is throttled by the limits it was let in under.<P>
+     *
+     * A player is named by the name it gives, if any, or else by the
+     * address it connected from. On a shard that is the address the router
+     * passes on {@link ConnectFourProtocol#FROM}, rather than the router's
+     * own.
+     *
+     * @param socket the client's socket
+     * @param limits the limits it was let in under
+     */
+    private void admit(Socket socket, ClientLimits limits) {
+        InetAddress address = socket.getInetAddress();
+        try {
+            // each message is flushed whole, so need not wait to be merged
+            socket.setTcpNoDelay(true);
+            if (socket instanceof SSLSocket) {
+                socket.setSoTimeout(TLS_HANDSHAKE_MILLIS);
+                ((SSLSocket) socket).startHandshake();
+            }
+            InputStream input = limits.throttle(socket.getInputStream(),
+                    address);
+            Scanner in = new Scanner(input);
+            String request = readRequest(socket, in);
+            String from = address.getHostAddress();
+            if (shardId != null && request.startsWith(FROM + " ")) {
+                from = request.substring(FROM.length() + 1).trim();
+                request = readRequest(socket, in);
+            }
+            int space = request.indexOf(' ');
+            String word = space < 0 ? request : request.substring(0, space);
+            String argument = space < 0 ? null :
+                    request.substring(space + 1).trim();
+            switch (word) {
+                case PLAY:
+                    ConnectFourPlayer player = new ConnectFourPlayer(socket, in);
+                    player.setName(nameOf(socket, argument, from));
+                    seat(player);
+                    player.listen();
+                    unseat(player);
+                    break;
+                case RESUME:
+                    if (argument == null) {
+                        throw new IOException("No key to resume with");
+                    }
+                    String[] keyAndName = argument.split(" ", 2);
+                    resume(socket, in, keyAndName[0], nameOf(socket,
+                            keyAndName.length > 1 ? keyAndName[1] : null,
+                            from));
+                    break;
+                case MULTIPLEX:
+                    System.out.println("Multiplexed client connected!");
+                    new MultiplexedConnection(socket, in, this,
+                            nameOf(socket, argument, from)).run();
+                    break;
+                case BATCH:
+                    System.out.println("Batch client connected!");
+                    new BatchConnection(socket, in, this).run();
+                    break;
+                case LOAD:
+                    System.out.println("Shard router connected!");
+                    reportLoad(socket);
+                    break;
+                default:
+                    throw new IOException("Unexpected request: " + request);
+            }
+        } catch (IOException | ConnectFourException e) {
+            System.err.println("Failed to create players: " + e.getMessage());
+        } finally {
+            // the client is done with, even if it was cut off mid-game
+            closeQuietly(socket);
+            limits.disconnected(address);
+        }
+    }
+
+    /**
+     * Waits up to {@link #REQUEST_MILLIS} for a client's next request.
+     *
+     * @param socket the client's socket
+     * @param in the client's input
+     * @return the request, trimmed
+     * @throws IOException if the client says nothing, or hangs up
+     */
+    private static String readRequest(Socket socket, Scanner in)
+            throws IOException {
+        socket.setSoTimeout(REQUEST_MILLIS);
+        boolean spoke = in.hasNextLine();
+        socket.setSoTimeout(0);
+        if (!spoke) {
+            throw new IOException(
+                    in.ioException() instanceof SocketTimeoutException ?
+                            "Client said nothing" : "Client hung up");
+        }
+        return in.nextLine().trim();
+    }
+
+    /**
+     * Works out what a player is to be named, telling the client if the
+     * name it gave won't do, as it can't be archived.
+     *
+     * @param socket the client's socket
+     * @param given the name the client gave, or null if none
+     * @param from the address it connected from
+     * @return the name
+     * @throws IOException if the name won't do
+     */
+    private static String nameOf(Socket socket, String given, String from)
+            throws IOException {
+        if (given == null) {
+            return from;
+        }
+        if (given.isEmpty() || given.equals(ArchivedGame.NOBODY) ||
+                given.chars().anyMatch(Character::isWhitespace)) {
+            socket.getOutputStream().write((ERROR + " Bad player name\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            throw new IOException("Bad player name: " + given);
+        }
+        return given;
+    }
+
+    /**
+     * Tells a {@link ShardRouter} how busy the server is, every
+     * {@link #LOAD_MILLIS}, until it hangs up or the server starts
+     * draining, so that it stops sending new games here.
+     *
+     * @param socket the router's socket
+     * @throws IOException if the socket can't be written to
+     */
+    private void reportLoad(Socket socket) throws IOException {
+        PrintStream out = new PrintStream(
+                new BufferedOutputStream(socket.getOutputStream()), true);
+        while (!draining && !out.checkError()) {
+            boolean someoneWaiting;
+            synchronized (this) {
+                someoneWaiting = waiting != null;
+            }
+            out.println(LOAD + " " + games.size() + " " +
+                    (someoneWaiting ? 1 : 0) +
+                    (shardId == null ? "" : " " + shardId));
+            try {
+                Thread.sleep(LOAD_MILLIS);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Closes a client's socket, ignoring any error.
+     *
+     * @param socket the socket
+     */
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ioe) {
+            // squash
+        }
+    }
+
+    /**
+     * @return the number of rows in the boards of games on this server
+     */
+    int getRows() {
+        return rows;
+    }
+
+    /**
+     * @return the number of columns in the boards of games on this server
+     */
+    int getCols() {
+        return cols;
+    }
+
+    /**
+     * @return how big a line one needs to win games on this server
+     */
+    int getWinLength() {
+        return winLength;
+    }
+
+    /**
+     * @return the solver for positions on this server's board, or null if
+     * the board is too big for it
+     */
+    Solver getSolver() {
+        return solver;
+    }
+
+    /**
+     * @return the threads that evaluate positions for batch clients
+     */
+    ExecutorService getEvaluators() {
+        return evaluators;
+    }
+
+    /**
+     * Counts a batch of positions evaluated, for the statistics.
+     *
+     * @param positions how many positions the batch had
+     */
+    void batchEvaluated(int positions) {
+        positionsEvaluated.add(positions);
+        batchesEvaluated.increment();
+    }
+
+    /**
+     * Prints how many positions have been evaluated since the last time,
+     * and the cache's statistics, unless there were none.
+     */
+    private void printEvaluationStats() {
+        long positions = positionsEvaluated.sumThenReset();
+        long batches = batchesEvaluated.sumThenReset();
+        if (batches > 0) {
+            System.out.printf("Evaluated %d positions in %d batches in the " +
+                            "last %d s. Evaluation cache: %s%n", positions,
+                    batches, EVALUATION_STATS_MILLIS / 1000,
+                    solver.getCache());
+        }
+    }
+
+    /**
+     * Prints what the client limits have stopped since the last time,
+     * unless they stopped nothing.
+     */
+    private void printLimitStats() {
+        String stopped = limits.sinceLastReport();
+        if (stopped != null) {
+            System.out.printf("Client limits %s in the last %d s.%n",
+                    stopped, LIMIT_STATS_MILLIS / 1000);
+        }
+    }
+
+    /**
+     * Tells a player the size of the board, then either keeps them waiting
+     * for an opponent or, if someone is already waiting, starts a
+     * {@link ConnectFourGame} between them. The game has no thread of its
+     * own; it goes on as the players' messages arrive.
+     *
+     * @param player the player
+     */
+    void seat(ConnectFourPlayer player) {
+        ConnectFourGame game;
+        synchronized (this) {
+            if (draining) {
+                player.error("Server is shutting down");
+                player.close();
+                return;
+            }
+            player.connect(rows, cols, winLength);
+            if (waiting == null) {
+                System.out.println("Player one connected!");
+                waiting = player;
+                return;
+            }
+            System.out.println("Player two connected!");
+            System.out.println("Starting game!");
+            game = new ConnectFourGame(waiting, player,
+                    new ConnectFour(rows, cols, winLength));
+            game.setInvalidMovePolicy(invalidMovePolicy);
+            if (snapshots != null && waiting.canResume() &&
+                    player.canResume()) {
+                game.giveKeys(shardId);
+            }
+            waiting = null;
+            // tracked before the lock is let go, so a drain can't miss it
+            track(game);
+        }
+        game.start();
+    }
+
+    /**
+     * Keeps track of a game until it is over. If its players have keys to
+     * resume it with, it is snapshotted, and held for a player whose
+     * connection is lost for up to {@link #RESUME_MILLIS}.
+     *
+     * @param game the game, not yet started
+     */
+    private void track(ConnectFourGame game) {
+        games.add(game);
+        if (game.getKeys() != null) {
+            if (snapshots != null) {
+                GameSnapshots to = snapshots;
+                game.whenChanged(() -> to.changed(game));
+            }
+            game.holdWhenLost(RESUME_MILLIS, key -> {
+                suspended.put(key, game);
+                expiry.schedule(game::expire, RESUME_MILLIS,
+                        TimeUnit.MILLISECONDS);
+            });
+        }
+        game.whenOver(() -> {
+            games.remove(game);
+            GameArchive to = archive;
+            ArchivedGame finished;
+            if (to != null && (finished = game.archived()) != null) {
+                to.add(finished);
+            }
+            String[] keys = game.getKeys();
+            if (keys != null) {
+                for (String key : keys) {
+                    suspended.remove(key, game);
+                }
+            }
+        });
+    }
+
+    /**
+     * Seats a client that has come back to a restored game, or one held for
+     * it after its connection was lost, and reads its
+     * messages on this thread. A server that is draining turns it away, as
+     * it would a new player, since the game has been or is about to be
+     * saved again.
+     *
+     * @param socket the client's socket
+     * @param in the client's input
+     * @param key the key the client gave
+     * @param name what the player is to be named
+     * @throws ConnectFourException if the client can't be talked to
+     */
+    private void resume(Socket socket, Scanner in, String key, String name)
+            throws ConnectFourException {
+        ConnectFourPlayer player = new ConnectFourPlayer(socket, in);
+        player.setName(name);
+        synchronized (this) {
+            if (draining) {
+                player.error("Server is shutting down");
+                player.close();
+                return;
+            }
+            ConnectFourGame game = suspended.remove(key);
+            if (game == null || !game.rejoin(key, player)) {
+                player.error("No game to resume");
+                player.close();
+                return;
+            }
+        }
+        System.out.println("Player resumed a game!");
+        player.listen();
+    }
+
+    /**
+     * Restores the games saved by a server that was drained, to wait for
+     * their players, and deletes the file so they are only restored once.
+     * Games that were saved for a different board are dropped.
+     *
+     * @param checkpoint the file the games were saved to
+     */
+    void restore(Path checkpoint) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(checkpoint, StandardCharsets.UTF_8);
+            Files.delete(checkpoint);
+        }
+        catch (IOException e) {
+            System.err.println("Can't restore games: " + e.getMessage());
+            return;
+        }
+        if (lines.isEmpty() || !lines.get(0).trim().equals(
+                rows + " " + cols + " " + winLength)) {
+            System.err.println("Saved games are for another board; dropped");
+            return;
+        }
+        List<ConnectFourGame> restored = new ArrayList<>();
+        for (String line : lines.subList(1, lines.size())) {
+            try {
+                restored.add(ConnectFourGame.restore(line, rows, cols,
+                        winLength));
+            }
+            catch (ConnectFourException e) {
+                System.err.println(e.getMessage());
+            }
+        }
+        await(restored);
+        System.out.println("Restored " + restored.size() + " games.");
+    }
+
+    /**
+     * Snapshots games from now on. The games in the snapshot file, left by
+     * a server that died, are restored first, to wait for their players.
+     *
+     * @param file the snapshot file
+     * @param millis how often to snapshot the games that have changed
+     * @throws ConnectFourException if the file can't be used
+     */
+    public void snapshot(Path file, long millis) throws ConnectFourException {
+        GameSnapshots opened = new GameSnapshots(file, rows, cols, winLength,
+                shardId);
+        long start = System.nanoTime();
+        List<ConnectFourGame> restored = opened.restore();
+        snapshots = opened;
+        await(restored);
+        if (!restored.isEmpty()) {
+            System.out.printf("Restored %d games from snapshots in %d ms.%n",
+                    restored.size(), (System.nanoTime() - start) / 1_000_000);
+        }
+        snapshotter.scheduleWithFixedDelay(opened::flush, millis, millis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Archives every game that finishes from now on, adding to the file if
+     * there is one already.
+     *
+     * @param file the archive
+     * @param millis how often to write out the games archived
+     * @throws ConnectFourException if the file can't be used
+     */
+    public void archive(Path file, long millis) throws ConnectFourException {
+        GameArchive opened = new GameArchive(file, rows, cols, winLength);
+        archive = opened;
+        snapshotter.scheduleWithFixedDelay(opened::flush, millis, millis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Keeps restored games waiting for their players, for up to
+     * {@link #RESUME_MILLIS}.
+     *
+     * @param restored the games
+     */
+    private void await(List<ConnectFourGame> restored) {
+        for (ConnectFourGame game : restored) {
+            game.setInvalidMovePolicy(invalidMovePolicy);
+            track(game);
+            for (String key : game.getKeys()) {
+                suspended.putIfAbsent(key, game);
+            }
+        }
+        if (!restored.isEmpty()) {
+            expiry.schedule(() -> restored.forEach(ConnectFourGame::expire),
+                    RESUME_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops taking new players and waits for the games in progress to
+     * finish. Those still going at the deadline are saved to a file that
+     * {@link #restore(Path)} reads, and their players are told how to
+     * resume them.
+     *
+     * @param millis how long to wait for games to finish
+     * @param checkpoint the file to save unfinished games to
+     */
+    public void drain(long millis, Path checkpoint) {
+        long deadline = System.currentTimeMillis() + millis;
+        ConnectFourPlayer left;
+        synchronized (this) {
+            draining = true;
+            left = waiting;
+            waiting = null;
+        }
+        if (left != null) {
+            left.error("Server is shutting down");
+            left.close();
+        }
+        try {
+            server.close();
+        }
+        catch (IOException e) {
+            // squash
+        }
+
+        System.out.println("Client limits " + limits + ".");
+        System.out.println("Draining " + games.size() + " games...");
+        try {
+            while (!games.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+        }
+        catch (InterruptedException e) {
+            // save what is left now
+        }
+        List<String> saved = new ArrayList<>();
+        saved.add(rows + " " + cols + " " + winLength);
+        for (ConnectFourGame game : games) {
+            String line = game.suspend(shardId);
+            if (line != null) {
+                saved.add(line);
+            }
+        }
+        if (snapshots != null) {
+            // the suspended games are over here, so this empties the file
+            snapshotter.shutdown();
+            snapshots.flush();
+            snapshots.close();
+        }
+        if (archive != null) {
+            archive.close();
+        }
+        if (saved.size() == 1) {
+            System.out.println("All games finished.");
+            return;
+        }
+        try {
+            Path partial = checkpoint.resolveSibling(
+                    checkpoint.getFileName() + ".tmp");
+            Files.write(partial, saved, StandardCharsets.UTF_8);
+            Files.move(partial, checkpoint,
+                    StandardCopyOption.REPLACE_EXISTING);
+            System.out.println("Saved " + (saved.size() - 1) +
+                    " unfinished games to " + checkpoint);
+        }
+        catch (IOException e) {
+            System.err.println("Can't save games: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Forgets a player who was waiting for an opponent but has gone, so that
+     * the next player to arrive isn't paired with them.
+     *
+     * @param player the player, who may not be waiting at all
+     */
+    synchronized void unseat(ConnectFourPlayer player) {
+        if (waiting == player) {
+            System.out.println("Player one left!");
+            waiting = null;
         }
     }
 }
@@ -0,0 +1,390 @@
+package connectfour.server;
+
+import connectfour.ConnectFourException;
+import connectfour.model.BitBoard;
+import connectfour.model.GridSnapshot;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+/**
+ * The games in progress on a server, kept in a file so that they outlive
+ * the server if it dies. The file is mapped into memory: each game has a
+ * slot in it holding its players' keys and its moves, and writing a game is
+ * a few stores into the mapping, which the operating system gets to disk
+ * even if the process is killed.<P>
+ *
+ * A game tells this when it {@link #changed changes}, which just queues it,
+ * once, until it is next written. {@link #flush()}, called every so often
+ * on a thread of its own, writes the queued games: only their new moves, as
+ * their slots already hold the rest, and each game is locked only while its
+ * position is taken, so games go on while others are written. A game that
+ * is over gives up its slot.<P>
+ *
+ * The file is a header of {@link #HEADER_BYTES} bytes followed by slots of
+ * equal size: a status byte, the number of moves as a short at offset 2,
+ * the players' keys as longs at offsets 8 and 16, less the shard id they
+ * start with on a shard, and then one byte for each move. A slot is written so that what is in it is a whole game at
+ * every point: a new game's keys are in place before it is marked live, and
+ * its moves before the count that covers them.
+ */
+class GameSnapshots implements Closeable {
+    /** what every snapshot file starts with: "C4GS" */
+    private static final int MAGIC = 0x43344753;
+    /** the version of the file layout */
+    private static final int VERSION = 1;
+    /** the size of the header */
+    private static final int HEADER_BYTES = 32;
+    /** how many slots a new file has room for; it doubles as needed */
+    private static final int INITIAL_SLOTS = 1024;
+    /** how many slots are restored at a time */
+    private static final int RESTORE_CHUNK = 4096;
+
+    /** the status of a slot with no game in it */
+    private static final byte FREE = 0;
+    /** the status of a slot with a game in progress in it */
+    private static final byte LIVE = 1;
+    /** where the number of moves is in a slot */
+    private static final int COUNT = 2;
+    /** where the first player's key is in a slot */
+    private static final int KEY_ONE = 8;
+    /** where the second player's key is in a slot */
+    private static final int KEY_TWO = 16;
+    /** where the moves are in a slot */
+    private static final int MOVES = 24;
+
+    /**
+     * Where a game is kept in the file.
+     */
+    private static class Slot {
+        /** which slot */
+        private final int index;
+        /** how many of the game's moves are in it */
+        private int written;
+
+        Slot(int index, int written) {
+            this.index = index;
+            this.written = written;
+        }
+    }
+
+    /** the channel the file is mapped from */
+    private final FileChannel channel;
+    /** the number of rows in the boards */
+    private final int rows;
+    /** the number of columns in the boards */
+    private final int cols;
+    /** how big a line one needs to win */
+    private final int winLength;
+    /** the id of the shard the server is, which keys start with; or null */
+    private final String shard;
+    /** the size of a slot */
+    private final int slotBytes;
+    /** the masks for the size of board, shared by the games restored on it;
+     *  null if it doesn't fit in one */
+    private final BitBoard board;
+    /** the file, mapped; remapped bigger when the slots run out */
+    private MappedByteBuffer buffer;
+    /** how many slots the file has room for */
+    private int capacity;
+    /** how many slots have ever been used; those above are all free */
+    private int used;
+    /** free slots below {@link #used} */
+    private final Queue<Integer> free = new ArrayDeque<>();
+    /** the slot of each game that has one */
+    private final Map<ConnectFourGame, Slot> slots = new HashMap<>();
+    /** the games changed since they were last written */
+    private final Queue<ConnectFourGame> dirty = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Open a snapshot file, or create it if there isn't one. A file kept
+     * for another size of board is started afresh.
+     *
+     * @param file the file
+     * @param rows the number of rows in the boards
+     * @param cols the number of columns in the boards
+     * @param winLength how big a line one needs to win
+     * @param shard the id of the shard the server is, which its games' keys
+     *              start with, or null if it is not a shard
+     * @throws ConnectFourException if the file can't be opened, or the
+     * board is too big to keep moves in a byte
+     */
+    GameSnapshots(Path file, int rows, int cols, int winLength, String shard)
+            throws ConnectFourException {
+        if (cols > Byte.MAX_VALUE || rows * cols > Short.MAX_VALUE) {
+            throw new ConnectFourException("Board too big to snapshot");
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.winLength = winLength;
+        this.shard = shard;
+        // round up so the keys stay aligned
+        this.slotBytes = (MOVES + rows * cols + 7) & ~7;
+        this.board = BitBoard.fits(rows, cols) ?
+                new BitBoard(rows, cols, winLength) : null;
+        try {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = channel.size();
+            int slotsInFile = (int) ((size - HEADER_BYTES) / slotBytes);
+            if (size < HEADER_BYTES || !matches(slotsInFile)) {
+                channel.truncate(0);
+                map(INITIAL_SLOTS);
+                buffer.putInt(0, MAGIC);
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, rows);
+                buffer.putInt(12, cols);
+                buffer.putInt(16, winLength);
+                buffer.putInt(20, slotBytes);
+            }
+        }
+        catch (IOException e) {
+            throw new ConnectFourException(e);
+        }
+    }
+
+    /**
+     * Map the file, if its header is for this board.
+     *
+     * @param slotsInFile how many whole slots the file has
+     * @return whether it is
+     */
+    private boolean matches(int slotsInFile) throws IOException {
+        if (slotsInFile < 1) {
+            return false;
+        }
+        map(slotsInFile);
+        return buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION &&
+                buffer.getInt(8) == rows && buffer.getInt(12) == cols &&
+                buffer.getInt(16) == winLength &&
+                buffer.getInt(20) == slotBytes;
+    }
+
+    /**
+     * Map the file with room for the given number of slots, growing it if
+     * it is smaller.
+     *
+     * @param slots how many slots
+     */
+    private void map(int slots) throws IOException {
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0,
+                HEADER_BYTES + (long) slots * slotBytes);
+        capacity = slots;
+    }
+
+    /**
+     * @param index a slot
+     * @return where it starts in the file
+     */
+    private int offset(int index) {
+        return HEADER_BYTES + index * slotBytes;
+    }
+
+    /**
+     * Restore the games in the file, to wait for their players. Each keeps
+     * its slot. Games that don't make sense, say from a write the process
+     * died in the middle of, are dropped. The slots are copied out in
+     * chunks of {@link #RESTORE_CHUNK} and their moves checked on all the
+     * cores, as that is most of the work.
+     *
+     * @return the games
+     */
+    synchronized List<ConnectFourGame> restore() {
+        ConnectFourGame[] found = new ConnectFourGame[capacity];
+        int chunks = (capacity + RESTORE_CHUNK - 1) / RESTORE_CHUNK;
+        IntStream.range(0, chunks).parallel().forEach(chunk -> {
+            int first = chunk * RESTORE_CHUNK;
+            int count = Math.min(RESTORE_CHUNK, capacity - first);
+            byte[] copy = new byte[count * slotBytes];
+            ByteBuffer view = buffer.duplicate();
+            view.position(offset(first));
+            view.get(copy);
+            ByteBuffer copied = ByteBuffer.wrap(copy);
+            for (int i = 0; i < count; ++i) {
+                found[first + i] = read(copied, i * slotBytes);
+            }
+        });
+        List<ConnectFourGame> games = new ArrayList<>();
+        for (int index = 0; index < capacity; ++index) {
+            int at = offset(index);
+            if (found[index] != null) {
+                slots.put(found[index], new Slot(index,
+                        buffer.getShort(at + COUNT)));
+                games.add(found[index]);
+                used = index + 1;
+            }
+            else if (buffer.get(at) == LIVE) {
+                buffer.put(at, FREE);
+            }
+        }
+        for (int index = 0; index < used; ++index) {
+            if (found[index] == null) {
+                free.add(index);
+            }
+        }
+        return games;
+    }
+
+    /**
+     * Read the game in a slot.
+     *
+     * @param slots a copy of the slot
+     * @param at where the slot starts in the copy
+     * @return the game, or null if the slot is free or doesn't hold a game
+     * in progress
+     */
+    private ConnectFourGame read(ByteBuffer slots, int at) {
+        if (slots.get(at) != LIVE) {
+            return null;
+        }
+        int count = slots.getShort(at + COUNT);
+        if (count < 0 || count > rows * cols) {
+            return null;
+        }
+        int[] moves = new int[count];
+        for (int ply = 0; ply < count; ++ply) {
+            moves[ply] = slots.get(at + MOVES + ply);
+        }
+        String keyOne = key(slots.getLong(at + KEY_ONE));
+        String keyTwo = key(slots.getLong(at + KEY_TWO));
+        try {
+            return board != null ?
+                    ConnectFourGame.restore(keyOne, keyTwo, moves, board) :
+                    ConnectFourGame.restore(keyOne, keyTwo, moves, rows, cols,
+                            winLength);
+        }
+        catch (ConnectFourException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Note that a game has changed, so that it is written at the next
+     * {@link #flush()}. A game calls this at most once between flushes.
+     *
+     * @param game the game
+     */
+    void changed(ConnectFourGame game) {
+        dirty.add(game);
+    }
+
+    /**
+     * Write the games that have changed: the new moves of those in
+     * progress, and free the slots of those that are over.
+     *
+     * @return how many games were written
+     */
+    synchronized int flush() {
+        int written = 0;
+        ConnectFourGame game;
+        while ((game = dirty.poll()) != null) {
+            GridSnapshot position = game.takeSnapshot();
+            Slot slot = slots.get(game);
+            if (position == null) {
+                if (slot != null) {
+                    buffer.put(offset(slot.index), FREE);
+                    free.add(slot.index);
+                    slots.remove(game);
+                }
+                continue;
+            }
+            if (slot == null) {
+                slot = allocate(game);
+                if (slot == null) {
+                    continue;
+                }
+            }
+            int at = offset(slot.index);
+            int filled = position.getFilled();
+            for (int ply = slot.written; ply < filled; ++ply) {
+                buffer.put(at + MOVES + ply, (byte) position.getMove(ply));
+            }
+            buffer.putShort(at + COUNT, (short) filled);
+            buffer.put(at, LIVE);
+            slot.written = filled;
+            ++written;
+        }
+        if (written > 0) {
+            buffer.force();
+        }
+        return written;
+    }
+
+    /**
+     * Give a game a slot, with its keys in it but not yet live.
+     *
+     * @param game the game
+     * @return the slot, or null if the file can't grow
+     */
+    private Slot allocate(ConnectFourGame game) {
+        Integer index = free.poll();
+        if (index == null) {
+            if (used == capacity) {
+                try {
+                    map(capacity * 2);
+                }
+                catch (IOException e) {
+                    System.err.println("Can't grow snapshots: " +
+                            e.getMessage());
+                    return null;
+                }
+            }
+            index = used++;
+        }
+        String[] keys = game.getKeys();
+        int at = offset(index);
+        buffer.put(at, FREE);
+        buffer.putLong(at + KEY_ONE, key(keys[0]));
+        buffer.putLong(at + KEY_TWO, key(keys[1]));
+        buffer.putShort(at + COUNT, (short) 0);
+        Slot slot = new Slot(index, 0);
+        slots.put(game, slot);
+        return slot;
+    }
+
+    /**
+     * @param key a key as players give it
+     * @return the key as kept in the file
+     */
+    private static long key(String key) {
+        return Long.parseUnsignedLong(
+                key.substring(key.lastIndexOf('-') + 1), 16);
+    }
+
+    /**
+     * @param key a key as kept in the file
+     * @return the key as players give it
+     */
+    private String key(long key) {
+        String hex = Long.toHexString(key);
+        hex = "0000000000000000".substring(hex.length()) + hex;
+        return shard == null ? hex : shard + "-" + hex;
+    }
+
+    /**
+     * Close the file. Games that have changed since the last
+     * {@link #flush()} are not written.
+     */
+    @Override
+    public synchronized void close() {
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            // squash
+        }
+    }
+}
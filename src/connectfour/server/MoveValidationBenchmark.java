@@ -0,0 +1,273 @@
+package connectfour.server;
+
+import connectfour.ConnectFourException;
+import connectfour.ConnectFourProtocol;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Measures what bad moves cost the server. First the checks on their own:
+ * making a move in a full column with {@link ConnectFour#makeMove(int)} and
+ * catching the exception against {@link ConnectFour#tryMove(int)}, and
+ * parsing a response that isn't a move by splitting it and catching the
+ * {@link NumberFormatException} against
+ * {@link ConnectFourPlayer#parseColumn(String)}. Then whole games, played
+ * in process by players that send nothing anywhere, with a share of the
+ * moves replaced by junk of every kind, under each
+ * {@link ConnectFourGame.InvalidMovePolicy}.
+ */
+public class MoveValidationBenchmark implements ConnectFourProtocol {
+    /** how many times each check is made, per round */
+    private static final int CHECKS = 1_000_000;
+    /** rounds of each check; the first is to warm up */
+    private static final int ROUNDS = 3;
+    /** the shares of moves that are junk */
+    private static final double[] JUNK = {0, 0.1, 0.5, 0.9};
+    /** a response that isn't a move */
+    private static final String GARBLED = MOVE + " three";
+    /** a move in a column that isn't on the board */
+    private static final String OFF_BOARD = MOVE + " -1";
+
+    /**
+     * A player that sends its messages nowhere, and only counts them.
+     */
+    private static class NullPlayer extends ConnectFourPlayer {
+        /** how many messages it has been sent */
+        private long sent;
+
+        @Override
+        protected void send(String message) {
+            ++sent;
+        }
+
+        @Override
+        protected String receive() throws ConnectFourException {
+            throw new ConnectFourException("Nothing to receive");
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /** the number of rows in the board */
+    private final int rows;
+    /** the number of columns in the board */
+    private final int cols;
+    /** how big a line one needs to win */
+    private final int winLength;
+    /** the move in each column, made once so that games don't build them */
+    private final String[] moves;
+
+    /**
+     * Set up a benchmark.
+     *
+     * @param rows the number of rows in the board
+     * @param cols the number of columns in the board
+     * @param winLength how big a line one needs to win
+     */
+    public MoveValidationBenchmark(int rows, int cols, int winLength) {
+        this.rows = rows;
+        this.cols = cols;
+        this.winLength = winLength;
+        this.moves = new String[cols];
+        for (int column = 0; column < cols; ++column) {
+            moves[column] = MOVE + " " + column;
+        }
+    }
+
+    /**
+     * Parse a response the way the server did before
+     * {@link ConnectFourPlayer#parseColumn(String)}.
+     *
+     * @param response the response
+     * @return the column, or {@link ConnectFourPlayer#NOT_A_MOVE}
+     */
+    private static int splitAndParse(String response) {
+        try {
+            if (response.startsWith(MOVE)) {
+                String[] tokens = response.split(" ");
+                if (tokens.length == 2) {
+                    return Integer.parseInt(tokens[1]);
+                }
+            }
+            throw new ConnectFourException("Invalid player response: " +
+                    response);
+        }
+        catch (NumberFormatException | ConnectFourException e) {
+            return ConnectFourPlayer.NOT_A_MOVE;
+        }
+    }
+
+    /**
+     * Time the checks on their own, and print how long each takes.
+     */
+    public void checks() {
+        // fill the first column, then check moves there and off the board
+        ConnectFour full = new ConnectFour(rows, cols, winLength);
+        for (int row = 0; row < rows; ++row) {
+            full.tryMove(0);
+        }
+        int[] bad = {0, -1, 0, cols, 0, -1, 0, Integer.MAX_VALUE};
+        String[] garbled = {GARBLED, OFF_BOARD + "x", MOVE, MOVE + " ",
+                GARBLED, MOVE + "_MADE 3", "", MOVE + " 99999999999"};
+        long sink = 0;
+        for (int round = 0; round < ROUNDS; ++round) {
+            long start = System.nanoTime();
+            for (int i = 0; i < CHECKS; ++i) {
+                try {
+                    full.makeMove(bad[i & 7]);
+                }
+                catch (ConnectFourException e) {
+                    sink += e.getMessage().length();
+                }
+            }
+            long thrown = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < CHECKS; ++i) {
+                sink += full.tryMove(bad[i & 7]);
+            }
+            long returned = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < CHECKS; ++i) {
+                sink += splitAndParse(garbled[i & 7]);
+            }
+            long split = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < CHECKS; ++i) {
+                sink += ConnectFourPlayer.parseColumn(
+                        garbled[i & 7]);
+            }
+            long parsed = System.nanoTime() - start;
+
+            if (round > 0) {
+                System.out.printf("bad column: makeMove %.1f ns, " +
+                                "tryMove %.1f ns; not a move: split %.1f ns," +
+                                " parseColumn %.1f ns%n",
+                        (double) thrown / CHECKS, (double) returned / CHECKS,
+                        (double) split / CHECKS, (double) parsed / CHECKS);
+            }
+        }
+        if (sink == 42) {
+            System.out.println();
+        }
+    }
+
+    /**
+     * Play games for a while with some of the moves replaced by junk: a
+     * column off the board, a full column, a response that isn't a move,
+     * or a move by the player whose turn it isn't, in equal measure. Prints
+     * how many games and messages were handled.
+     *
+     * @param policy what the games do about the junk
+     * @param junk the share of moves that are junk
+     * @param millis how long to play for
+     */
+    public void play(ConnectFourGame.InvalidMovePolicy policy, double junk,
+                     long millis) {
+        SplittableRandom random = new SplittableRandom(17);
+        int[] heights = new int[cols];
+        long games = 0;
+        long received = 0;
+        long sent = 0;
+        long start = System.nanoTime();
+        long end = start + millis * 1_000_000;
+        long now;
+        while ((now = System.nanoTime()) < end) {
+            NullPlayer one = new NullPlayer();
+            NullPlayer two = new NullPlayer();
+            ConnectFourGame game = new ConnectFourGame(one, two,
+                    new ConnectFour(rows, cols, winLength));
+            game.setInvalidMovePolicy(policy);
+            game.start();
+            Arrays.fill(heights, 0);
+            ConnectFourGame.State state;
+            while ((state = game.getState()) != ConnectFourGame.State.OVER) {
+                NullPlayer turn =
+                        state == ConnectFourGame.State.PLAYER_ONE_TO_MOVE ?
+                                one : two;
+                NullPlayer other = turn == one ? two : one;
+                int column = random.nextInt(cols);
+                while (heights[column] == rows) {
+                    column = random.nextInt(cols);
+                }
+                if (random.nextDouble() >= junk) {
+                    turn.received(moves[column]);
+                    ++heights[column];
+                }
+                else {
+                    switch (random.nextInt(4)) {
+                        case 0:
+                            turn.received(OFF_BOARD);
+                            break;
+                        case 1:
+                            turn.received(fullColumn(heights));
+                            break;
+                        case 2:
+                            turn.received(GARBLED);
+                            break;
+                        default:
+                            other.received(moves[column]);
+                    }
+                }
+                ++received;
+            }
+            ++games;
+            sent += one.sent + two.sent;
+        }
+        double seconds = (now - start) / 1e9;
+        System.out.printf("%-8s %3.0f%% junk: %9.0f games/s %10.0f " +
+                        "moves/s %6.0f ns/move, %4.1f messages sent a game%n",
+                policy, junk * 100, games / seconds, received / seconds,
+                (now - start) / (double) received, (double) sent / games);
+    }
+
+    /**
+     * @param heights how many pieces are in each column
+     * @return a move in a full column, or off the board if none is full
+     */
+    private String fullColumn(int[] heights) {
+        for (int column = 0; column < cols; ++column) {
+            if (heights[column] == rows) {
+                return moves[column];
+            }
+        }
+        return OFF_BOARD;
+    }
+
+    /**
+     * Run the benchmark.
+     *
+     * @param args how many seconds to play each mix of policy and junk for,
+     *             optionally followed by the number of rows and columns and
+     *             the win length
+     */
+    public static void main(String[] args) {
+        if (args.length != 1 && args.length != 4) {
+            System.out.println("Usage: java MoveValidationBenchmark seconds" +
+                    " [rows cols win-length]");
+            System.exit(1);
+        }
+        long millis = (long) (Double.parseDouble(args[0]) * 1000);
+        MoveValidationBenchmark benchmark = args.length > 1 ?
+                new MoveValidationBenchmark(Integer.parseInt(args[1]),
+                        Integer.parseInt(args[2]), Integer.parseInt(args[3])) :
+                new MoveValidationBenchmark(ConnectFour.ROWS, ConnectFour.COLS,
+                        ConnectFour.WIN_LEN);
+
+        benchmark.checks();
+        // warm up the games
+        benchmark.play(ConnectFourGame.InvalidMovePolicy.REPROMPT, 0.5,
+                millis);
+        for (ConnectFourGame.InvalidMovePolicy policy :
+                ConnectFourGame.InvalidMovePolicy.values()) {
+            for (double junk : JUNK) {
+                benchmark.play(policy, junk, millis);
+            }
+        }
+    }
+}
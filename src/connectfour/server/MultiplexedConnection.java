@@ -0,0 +1,171 @@
+package connectfour.server;
+
+import connectfour.ConnectFourProtocol;
+
+import java.io.Closeable;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.Socket;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A client connection that carries many games at once, as described for
+ * {@link ConnectFourProtocol#MULTIPLEX}. Its thread reads every message
+ * from the client and hands each one to the {@link MultiplexedPlayer} of the
+ * game it is tagged with, which passes it on to its game there and then, so
+ * the games on a connection need no threads beyond this one.
+ */
+class MultiplexedConnection implements ConnectFourProtocol, Runnable, Closeable {
+    /**
+     * The {@link Socket} used to communicate with the client.
+     */
+    private final Socket sock;
+
+    /**
+     * The {@link Scanner} used to read messages from the client.
+     */
+    private final Scanner scanner;
+
+    /**
+     * The {@link PrintStream} used to send messages to the client. Its
+     * println is synchronized, so games may write to it from whichever
+     * thread is handling their opponents' messages.
+     */
+    private final PrintStream printer;
+
+    /**
+     * Where players for new games are seated.
+     */
+    private final ConnectFourServer server;
+
+    /**
+     * The name the players of the games on this connection are archived
+     * under.
+     */
+    private final String name;
+
+    /**
+     * The player for each game in progress, by game id.
+     */
+    private final Map<Integer, MultiplexedPlayer> players =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Creates a new {@link MultiplexedConnection}.
+     *
+     * @param sock The {@link Socket} used to communicate with the client.
+     * @param in The client's input, which the {@link #MULTIPLEX} request has
+     *           already been read from.
+     * @param server Where players for new games are seated.
+     * @param name The name the players of its games are archived under:
+     *             the name the client gave, or else the address it
+     *             connected from.
+     *
+     * @throws IOException If there is a problem establishing communication
+     * with the client.
+     */
+    MultiplexedConnection(Socket sock, Scanner in, ConnectFourServer server,
+                          String name) throws IOException {
+        this.sock = sock;
+        this.scanner = in;
+        this.printer = new PrintStream(
+                new BufferedOutputStream(sock.getOutputStream()), true);
+        this.server = server;
+        this.name = name;
+    }
+
+    /**
+     * @return The name the players of its games are archived under.
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Sends a message for one game to the client.
+     *
+     * @param game The id of the game.
+     * @param message The message.
+     */
+    void send(int game, String message) {
+        printer.println(game + " " + message);
+    }
+
+    /**
+     * Forgets a game that is over, so its player no longer gets messages.
+     *
+     * @param game The id of the game.
+     */
+    void release(int game) {
+        players.remove(game);
+    }
+
+    /**
+     * Reads messages from the client until it hangs up. A {@link #CONNECT}
+     * message with a new game id seats a new player for that game; every
+     * other message goes to the player of the game it is tagged with.
+     * When the connection is lost, every game still in progress is told so.
+     */
+    @Override
+    public void run() {
+        printer.println(MULTIPLEX);
+        try {
+            while (true) {
+                String line = scanner.nextLine();
+                int space = line.indexOf(' ');
+                int game;
+                try {
+                    game = Integer.parseInt(space < 0 ? line : line.substring(0, space));
+                }
+                catch (NumberFormatException e) {
+                    printer.println(ERROR + " Untagged message: " + line);
+                    break;
+                }
+                String message = space < 0 ? "" : line.substring(space + 1);
+                if (message.startsWith(CONNECT)) {
+                    MultiplexedPlayer player = new MultiplexedPlayer(this, game);
+                    if (players.putIfAbsent(game, player) != null) {
+                        send(game, ERROR + " Game " + game + " already started");
+                    }
+                    else {
+                        server.seat(player);
+                    }
+                }
+                else {
+                    MultiplexedPlayer player = players.get(game);
+                    if (player == null) {
+                        send(game, ERROR + " No such game");
+                    }
+                    else {
+                        player.received(message);
+                    }
+                }
+            }
+        }
+        catch (NoSuchElementException e) {
+            // the client hung up
+        }
+        close();
+        for (MultiplexedPlayer player : players.values()) {
+            server.unseat(player);
+            player.hungUp();
+        }
+    }
+
+    /**
+     * Closes the connection, and so every game on it.
+     */
+    @Override
+    public void close() {
+        try {
+            sock.close();
+        }
+        catch (IOException ioe) {
+            // squash
+        }
+    }
+}
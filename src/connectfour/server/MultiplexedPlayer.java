@@ -0,0 +1,50 @@
+package connectfour.server;
+
+/**
+ * A player in one of the games carried by a {@link MultiplexedConnection}.
+ * It sends and receives the same messages as a {@link ConnectFourPlayer}
+ * with a socket of its own, tagged with its game id on the shared
+ * connection. Its messages are handed to its game on the connection's
+ * thread, so the game needs no thread of its own.
+ */
+class MultiplexedPlayer extends ConnectFourPlayer {
+    /**
+     * The connection this game is carried on.
+     */
+    private final MultiplexedConnection connection;
+
+    /**
+     * The id the client gave this game.
+     */
+    private final int game;
+
+    /**
+     * Creates a new {@link MultiplexedPlayer}.
+     *
+     * @param connection The connection this game is carried on.
+     * @param game The id the client gave this game.
+     */
+    MultiplexedPlayer(MultiplexedConnection connection, int game) {
+        this.connection = connection;
+        this.game = game;
+    }
+
+    @Override
+    public String getName() {
+        return connection.getName();
+    }
+
+    @Override
+    protected void send(String message) {
+        connection.send(game, message);
+    }
+
+    /**
+     * The game is over, so stop taking messages for it. The connection
+     * stays open for the client's other games.
+     */
+    @Override
+    public void close() {
+        connection.release(game);
+    }
+}
@@ -0,0 +1,613 @@
+package connectfour.server;
+
+import connectfour.ConnectFourException;
+import connectfour.ConnectFourProtocol;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The front door of a cluster of {@link ConnectFourServer servers}, each
+ * started with --shard=id, with an id of its own, on a port or host of its
+ * own. Clients connect to
+ * the router as they would to a server, and the router passes each
+ * connection on to one of the shards, copying bytes both ways for as long
+ * as it lasts.<P>
+ *
+ * Every shard reports its {@link ConnectFourProtocol#LOAD} to the router
+ * over a connection the router keeps open to it. New games go to the shard
+ * with the fewest games in progress, except that a client wanting to play
+ * goes to a shard with a player waiting for an opponent, if there is one,
+ * so that the two can be paired. Between reports the router keeps count of
+ * what it has sent each shard itself, and just after sending a shard a
+ * player it goes by its own idea of whether one is waiting there, as the
+ * shard's reports may not show the player yet. A shard that stops reporting, say
+ * because it is draining, gets no new games.<P>
+ *
+ * A game that is {@link ConnectFourProtocol#RESUME resumed} has to go back
+ * to the shard that has it. Each shard reports the id it goes by with its
+ * load, and the keys of its games start with that id, so the router sends
+ * the client straight to the shard the key names.<P>
+ *
+ * The router, not the shards, applies the {@link ClientLimits}, as only it
+ * sees the clients' own addresses. It tells the shards each client's
+ * address {@link ConnectFourProtocol#FROM} ahead of the client's first
+ * line, so that they know the players by it.
+ */
+public class ShardRouter implements ConnectFourProtocol, Runnable {
+    /**
+     * How long a newly connected client has to say what it wants, or to
+     * finish a line it has started, or a shard to answer a
+     * {@link ConnectFourProtocol#RESUME}, in milliseconds.
+     */
+    private static final int LINE_MILLIS = 10_000;
+
+    /** the longest first line a client may send */
+    private static final int MAX_LINE = 256;
+
+    /** how long to wait before connecting to a shard again, in milliseconds */
+    private static final long RETRY_MILLIS = 1000;
+
+    /** how long a shard may go without reporting before it is thought down */
+    private static final int STALE_MILLIS =
+            (int) (10 * ConnectFourServer.LOAD_MILLIS);
+
+    /**
+     * How long after sending a shard a player the router trusts its own
+     * idea of whether the shard has one waiting over the shard's reports,
+     * in nanoseconds: a report may already be on its way, and the next may
+     * be sent before the shard has read the player's first line.
+     */
+    private static final long SETTLE_NANOS =
+            2 * ConnectFourServer.LOAD_MILLIS * 1_000_000;
+
+    /** the size of the buffers bytes are copied through */
+    private static final int BUFFER_BYTES = 8192;
+
+    /**
+     * One of the servers, and how busy it is, as far as the router knows.
+     * Its load is guarded by the router.
+     */
+    private static class Shard {
+        /** where it listens */
+        private final InetSocketAddress address;
+        /** the id it goes by, which its keys start with; null until known */
+        private String id;
+        /** whether it is reporting its load, and so taking new games */
+        private boolean up;
+        /** how many games it has in progress */
+        private int games;
+        /** whether it has a player waiting for an opponent */
+        private boolean waiting;
+        /** when it was last sent a player, in nanoseconds */
+        private long playerSentAt;
+
+        Shard(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        @Override
+        public String toString() {
+            return address.getHostString() + ":" + address.getPort();
+        }
+    }
+
+    /** the socket clients connect to */
+    private final ServerSocket server;
+
+    /** the shards, in the order given */
+    private final List<Shard> shards = new ArrayList<>();
+
+    /** what the clients at any one address may do */
+    private volatile ClientLimits limits = new ClientLimits();
+
+    /** connections passed on to a shard */
+    private final LongAdder routed = new LongAdder();
+    /** connections that resumed a game */
+    private final LongAdder resumed = new LongAdder();
+    /** connections no shard could be found for */
+    private final LongAdder unrouted = new LongAdder();
+
+    /**
+     * Set up a router.
+     *
+     * @param port the port clients connect to
+     * @param shards the shards' addresses
+     * @throws ConnectFourException if there are no shards, or the port
+     * can't be listened on
+     */
+    public ShardRouter(int port, List<InetSocketAddress> shards)
+            throws ConnectFourException {
+        if (shards.isEmpty()) {
+            throw new ConnectFourException("No shards to route to");
+        }
+        for (InetSocketAddress address : shards) {
+            this.shards.add(new Shard(address));
+        }
+        try {
+            server = new ServerSocket(port);
+        }
+        catch (IOException e) {
+            throw new ConnectFourException(e);
+        }
+    }
+
+    /**
+     * Changes what the clients at any one address may do, for clients that
+     * connect from now on.
+     *
+     * @param limits the limits
+     */
+    public void setLimits(ClientLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Starts listening to the shards' load, then waits for clients and
+     * passes each on to a shard, on a thread of its own. Keeps accepting
+     * clients until the {@link ServerSocket} fails.
+     */
+    @Override
+    public void run() {
+        for (Shard shard : shards) {
+            Thread monitor = new Thread(() -> monitor(shard), "load-" + shard);
+            monitor.setDaemon(true);
+            monitor.start();
+        }
+        System.out.println("Routing to " + shards.size() + " shards...");
+        try {
+            while (true) {
+                Socket socket = server.accept();
+                ClientLimits limits = this.limits;
+                if (!limits.connected(socket.getInetAddress())) {
+                    closeQuietly(socket);
+                    continue;
+                }
+                new Thread(() -> route(socket, limits)).start();
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Something has gone horribly wrong!");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Keep up with a shard's load for as long as the router runs,
+     * connecting to it again whenever the connection is lost.
+     *
+     * @param shard the shard
+     */
+    private void monitor(Shard shard) {
+        while (true) {
+            try (Socket socket = connect(shard)) {
+                socket.setSoTimeout(STALE_MILLIS);
+                send(socket, LOAD);
+                BufferedReader in = new BufferedReader(new InputStreamReader(
+                        socket.getInputStream(), StandardCharsets.UTF_8));
+                String line;
+                while ((line = in.readLine()) != null) {
+                    String[] fields = line.split(" ");
+                    if (fields.length != 4 || !fields[0].equals(LOAD)) {
+                        break;
+                    }
+                    int games = Integer.parseInt(fields[1]);
+                    synchronized (this) {
+                        if (!shard.up) {
+                            System.out.println("Shard " + shard + " is up.");
+                        }
+                        shard.up = true;
+                        shard.id = fields[3];
+                        shard.games = games;
+                        if (System.nanoTime() - shard.playerSentAt >
+                                SETTLE_NANOS) {
+                            shard.waiting = fields[2].equals("1");
+                        }
+                    }
+                }
+            }
+            catch (IOException | NumberFormatException e) {
+                // down, for now
+            }
+            synchronized (this) {
+                if (shard.up) {
+                    System.out.println("Shard " + shard + " is down.");
+                }
+                shard.up = false;
+            }
+            try {
+                Thread.sleep(RETRY_MILLIS);
+            }
+            catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Pick the shard for a new game, and count it there until the shard
+     * next reports its load.
+     *
+     * @param player whether the client asked to
+     *               {@link ConnectFourProtocol#PLAY} a game by itself,
+     *               rather than many or none over one connection
+     * @return the shard, or null if none is up
+     */
+    private synchronized Shard forNewGame(boolean player) {
+        Shard best = null;
+        for (Shard shard : shards) {
+            if (!shard.up) {
+                continue;
+            }
+            if (player && shard.waiting) {
+                best = shard;
+                break;
+            }
+            if (best == null || shard.games < best.games) {
+                best = shard;
+            }
+        }
+        if (best != null) {
+            if (!player || best.waiting) {
+                best.games++;
+            }
+            if (player) {
+                best.waiting = !best.waiting;
+                best.playerSentAt = System.nanoTime();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Take a shard that couldn't be reached out of the running until it
+     * next reports its load.
+     *
+     * @param shard the shard
+     */
+    private synchronized void down(Shard shard) {
+        shard.up = false;
+    }
+
+    /**
+     * Find the shard a game is on from the key it is resumed with.
+     *
+     * @param key the key
+     * @return the shard whose id the key starts with, or null if there is
+     * none yet but a shard that hasn't reported its id may be it
+     * @throws ConnectFourException if no shard has the key's id
+     */
+    private synchronized Shard forResume(String key)
+            throws ConnectFourException {
+        String id = ConnectFourGame.shardOf(key);
+        boolean allKnown = true;
+        for (Shard shard : shards) {
+            if (shard.id == null) {
+                allKnown = false;
+            }
+            else if (shard.id.equals(id)) {
+                return shard;
+            }
+        }
+        if (allKnown) {
+            throw new ConnectFourException("No game to resume");
+        }
+        return null;
+    }
+
+    /**
+     * Pass a newly connected client on to a shard, and copy between them
+     * until one of them hangs up. The client's first line says where it
+     * should go, and is passed on with it, so the shard reads it at once
+     * rather than waiting for it again.
+     *
+     * @param client the client's socket
+     * @param limits the limits it was let in under
+     */
+    private void route(Socket client, ClientLimits limits) {
+        InetAddress address = client.getInetAddress();
+        Socket shard = null;
+        try {
+            client.setTcpNoDelay(true);
+            InputStream in = client.getInputStream();
+            client.setSoTimeout(LINE_MILLIS);
+            String request = readLine(client, in);
+            client.setSoTimeout(0);
+            shard = request.startsWith(RESUME + " ") ?
+                    resume(client, request) : open(client, request);
+            if (shard != null) {
+                routed.increment();
+                splice(client, limits.throttle(in, address), shard);
+            }
+        }
+        catch (IOException e) {
+            System.err.println("Failed to route client: " + e.getMessage());
+        }
+        finally {
+            closeQuietly(client);
+            closeQuietly(shard);
+            limits.disconnected(address);
+        }
+    }
+
+    /**
+     * Connect a client wanting a new game, or games, or evaluations, to the
+     * least loaded shard that can be reached.
+     *
+     * @param client the client's socket
+     * @param request the client's first line, to pass on
+     * @return the shard's socket, or null if there is none
+     * @throws IOException if the client can't be written to
+     */
+    private Socket open(Socket client, String request) throws IOException {
+        // a player may give a name after the word
+        boolean player = request.equals(PLAY) ||
+                request.startsWith(PLAY + " ");
+        Shard shard;
+        while ((shard = forNewGame(player)) != null) {
+            try {
+                Socket socket = connect(shard);
+                passOn(client, request, socket);
+                return socket;
+            }
+            catch (IOException e) {
+                down(shard);
+            }
+        }
+        unrouted.increment();
+        send(client, ERROR + " No server to play on");
+        return null;
+    }
+
+    /**
+     * Connect a client resuming a game to the shard whose id its key starts
+     * with. If no shard has that id, or the shard refuses the key, the
+     * client is told so; if the shard couldn't be reached, say because it
+     * is being restarted, or hasn't reported its id yet, the client is just
+     * hung up on, so that it tries again.
+     *
+     * @param client the client's socket
+     * @param request the client's {@link ConnectFourProtocol#RESUME}
+     * @return the shard's socket, or null if it has no game for the client
+     * @throws IOException if the client can't be written to
+     */
+    private Socket resume(Socket client, String request) throws IOException {
+        Shard shard;
+        try {
+            shard = forResume(request.substring(RESUME.length() + 1).trim()
+                    .split(" ")[0]);
+        }
+        catch (ConnectFourException e) {
+            unrouted.increment();
+            send(client, ERROR + " " + e.getMessage());
+            return null;
+        }
+        if (shard == null) {
+            return null;
+        }
+        Socket socket = null;
+        try {
+            socket = connect(shard);
+            passOn(client, request, socket);
+            socket.setSoTimeout(LINE_MILLIS);
+            String answer = readLine(socket, socket.getInputStream());
+            socket.setSoTimeout(0);
+            send(client, answer);
+            if (!answer.startsWith(ERROR)) {
+                resumed.increment();
+                return socket;
+            }
+            unrouted.increment();
+        }
+        catch (IOException e) {
+            // unreachable, for now
+        }
+        closeQuietly(socket);
+        return null;
+    }
+
+    /**
+     * Copy bytes between a client and its shard until either hangs up:
+     * from the shard on a thread of its own, and from the client on this
+     * one. Each side's hanging up is passed on to the other.
+     *
+     * @param client the client's socket
+     * @param fromClient what the client sends
+     * @param shard the shard's socket
+     * @throws IOException if the sockets can't be read from or written to
+     */
+    private static void splice(Socket client, InputStream fromClient,
+                               Socket shard) throws IOException {
+        InputStream fromShard = shard.getInputStream();
+        OutputStream toClient = client.getOutputStream();
+        Thread back = new Thread(() -> {
+            copy(fromShard, toClient);
+            try {
+                // the shard is done with the client, so stop reading it too
+                client.shutdownOutput();
+                client.shutdownInput();
+            }
+            catch (IOException e) {
+                // already closed
+            }
+        }, "splice-" + client.getPort());
+        back.setDaemon(true);
+        back.start();
+        copy(fromClient, shard.getOutputStream());
+        try {
+            shard.shutdownOutput();
+            back.join();
+        }
+        catch (IOException | InterruptedException e) {
+            // already closed, or the router is stopping
+        }
+    }
+
+    /**
+     * Copy bytes until the input ends or either side fails.
+     *
+     * @param in where to copy from
+     * @param out where to copy to
+     */
+    private static void copy(InputStream in, OutputStream out) {
+        byte[] buffer = new byte[BUFFER_BYTES];
+        try {
+            int n;
+            while ((n = in.read(buffer)) >= 0) {
+                out.write(buffer, 0, n);
+            }
+        }
+        catch (IOException e) {
+            // hung up
+        }
+    }
+
+    /**
+     * Read one line a byte at a time, so that nothing after it is read
+     * ahead and lost before the rest is copied. Once the first byte has
+     * come the rest has {@link #LINE_MILLIS} to follow.
+     *
+     * @param socket the socket
+     * @param in its input
+     * @return the line, trimmed
+     * @throws SocketTimeoutException if the first byte doesn't come within
+     * the socket's timeout
+     * @throws IOException if the other end hangs up first, or the line is
+     * too long
+     */
+    private static String readLine(Socket socket, InputStream in)
+            throws IOException {
+        int b = in.read();
+        socket.setSoTimeout(LINE_MILLIS);
+        StringBuilder line = new StringBuilder();
+        while (b != '\n') {
+            if (b < 0) {
+                throw new IOException("Hung up");
+            }
+            if (line.length() == MAX_LINE) {
+                throw new IOException("Line too long");
+            }
+            line.append((char) b);
+            b = in.read();
+        }
+        return line.toString().trim();
+    }
+
+    /**
+     * @param shard a shard
+     * @return a new connection to it
+     * @throws IOException if it can't be reached
+     */
+    private static Socket connect(Shard shard) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.connect(shard.address, LINE_MILLIS);
+        }
+        catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return socket;
+    }
+
+    /**
+     * Send one line.
+     *
+     * @param socket where to
+     * @param line the line, without its terminator
+     * @throws IOException if it can't be sent
+     */
+    private static void send(Socket socket, String line) throws IOException {
+        socket.getOutputStream().write(
+                (line + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Send a shard a client's first line, after the address the client
+     * connected from, in one write.
+     *
+     * @param client the client's socket
+     * @param request the client's first line
+     * @param shard the shard's socket
+     * @throws IOException if it can't be sent
+     */
+    private static void passOn(Socket client, String request, Socket shard)
+            throws IOException {
+        send(shard, FROM + " " + client.getInetAddress().getHostAddress() +
+                "\n" + request);
+    }
+
+    /**
+     * Closes a socket, if there is one, ignoring any error.
+     *
+     * @param socket the socket, or null
+     */
+    private static void closeQuietly(Socket socket) {
+        if (socket == null) {
+            return;
+        }
+        try {
+            socket.close();
+        }
+        catch (IOException e) {
+            // squash
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder s = new StringBuilder("routed ").append(routed.sum())
+                .append(" connections, resumed ").append(resumed.sum())
+                .append(" games, found no shard for ").append(unrouted.sum())
+                .append("; shards:");
+        for (Shard shard : shards) {
+            s.append(' ').append(shard).append(shard.up ? " up with " +
+                    shard.games + " games" : " down").append(',');
+        }
+        s.setLength(s.length() - 1);
+        return s.toString();
+    }
+
+    /**
+     * Starts a router. Simply creates it and calls {@link #run()} in the
+     * main thread.
+     *
+     * @param args the port clients connect to, then each shard as
+     *             host:port
+     * @throws ConnectFourException if the router can't be started
+     */
+    public static void main(String[] args) throws ConnectFourException {
+        if (args.length < 2) {
+            System.out.println("Usage: java ShardRouter <port> " +
+                    "<host:port> [<host:port> ...]");
+            System.exit(1);
+        }
+        List<InetSocketAddress> shards = new ArrayList<>();
+        for (int i = 1; i < args.length; ++i) {
+            int colon = args[i].lastIndexOf(':');
+            if (colon < 0) {
+                System.out.println("Not host:port: " + args[i]);
+                System.exit(1);
+            }
+            shards.add(new InetSocketAddress(args[i].substring(0, colon),
+                    Integer.parseInt(args[i].substring(colon + 1))));
+        }
+        ShardRouter router = new ShardRouter(Integer.parseInt(args[0]), shards);
+        Runtime.getRuntime().addShutdownHook(new Thread(() ->
+                System.out.println("Router " + router + ".")));
+        router.run();
+    }
+}
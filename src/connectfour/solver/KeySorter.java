@@ -0,0 +1,216 @@
+package connectfour.solver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts more long keys than fit in memory, dropping duplicates. Keys
+ * are gathered in a buffer of fixed size; each time it fills it is sorted
+ * and written to a run file of its own, and {@link #finish(Path)} merges
+ * the runs into one sorted file. So memory use is bounded by the buffer,
+ * whatever the number of keys.<P>
+ *
+ * The files are plain big-endian longs, eight bytes a key, with no header.
+ */
+public class KeySorter implements Closeable {
+    /** the size of the buffer of each file read or written */
+    private static final int IO_BUFFER = 1 << 16;
+
+    /** where the run files go */
+    private final Path dir;
+    /** what the run file names start with */
+    private final String prefix;
+    /** keys not yet written to a run */
+    private final long[] buffer;
+    /** how many keys are in the buffer */
+    private int buffered;
+    /** the runs written so far */
+    private final List<Path> runs = new ArrayList<>();
+
+    /**
+     * Make a sorter.
+     *
+     * @param dir where the run files go
+     * @param prefix what the run file names start with
+     * @param bufferEntries how many keys to hold in memory
+     */
+    public KeySorter(Path dir, String prefix, int bufferEntries) {
+        this.dir = dir;
+        this.prefix = prefix;
+        this.buffer = new long[bufferEntries];
+    }
+
+    /**
+     * Add a key, spilling the buffer to a run if it is full.
+     *
+     * @param key the key
+     * @throws IOException if a run can't be written
+     */
+    public void add(long key) throws IOException {
+        if (buffered == buffer.length) {
+            spill();
+        }
+        buffer[buffered++] = key;
+    }
+
+    /**
+     * Sort the buffer and write its distinct keys to a new run.
+     *
+     * @throws IOException if the run can't be written
+     */
+    private void spill() throws IOException {
+        Path run = dir.resolve(prefix + "-run-" + runs.size() + ".tmp");
+        try (DataOutputStream out = writer(run)) {
+            writeDistinct(out);
+        }
+        runs.add(run);
+        buffered = 0;
+    }
+
+    /**
+     * Sort the buffer and write its keys, once each.
+     *
+     * @return how many keys were written
+     */
+    private long writeDistinct(DataOutputStream out) throws IOException {
+        Arrays.sort(buffer, 0, buffered);
+        long written = 0;
+        for (int i = 0; i < buffered; ++i) {
+            if (i == 0 || buffer[i] != buffer[i - 1]) {
+                out.writeLong(buffer[i]);
+                ++written;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Write every key added, sorted and once each, to a file, and delete the
+     * runs.
+     *
+     * @param file the file
+     * @return how many keys were written
+     * @throws IOException if a file can't be read or written
+     */
+    public long finish(Path file) throws IOException {
+        long count = 0;
+        if (runs.isEmpty()) {
+            // everything fitted in memory
+            try (DataOutputStream out = writer(file)) {
+                // not out.size(), which stops counting at 2 GB
+                count = writeDistinct(out);
+            }
+            buffered = 0;
+            return count;
+        }
+        if (buffered > 0) {
+            spill();
+        }
+
+        PriorityQueue<Run> heads = new PriorityQueue<>();
+        try (DataOutputStream out = writer(file)) {
+            for (Path path : runs) {
+                Run run = new Run(path);
+                if (run.next()) {
+                    heads.add(run);
+                }
+            }
+            boolean first = true;
+            long last = 0;
+            while (!heads.isEmpty()) {
+                Run run = heads.poll();
+                if (first || run.head != last) {
+                    out.writeLong(run.head);
+                    last = run.head;
+                    first = false;
+                    ++count;
+                }
+                if (run.next()) {
+                    heads.add(run);
+                }
+                else {
+                    run.in.close();
+                }
+            }
+        }
+        finally {
+            for (Run run : heads) {
+                run.in.close();
+            }
+        }
+        close();
+        return count;
+    }
+
+    /**
+     * Delete any runs left.
+     */
+    @Override
+    public void close() throws IOException {
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+        runs.clear();
+    }
+
+    /**
+     * @return a buffered stream writing a new file
+     */
+    static DataOutputStream writer(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file), IO_BUFFER));
+    }
+
+    /**
+     * @return a buffered stream reading a file
+     */
+    static DataInputStream reader(Path file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(file), IO_BUFFER));
+    }
+
+    /**
+     * A run being merged, ordered by the key it is up to.
+     */
+    private static class Run implements Comparable<Run> {
+        /** the run's file */
+        private final DataInputStream in;
+        /** the smallest key not yet merged */
+        private long head;
+
+        Run(Path file) throws IOException {
+            this.in = reader(file);
+        }
+
+        /**
+         * Read the next key into {@link #head}.
+         *
+         * @return false if there are no more
+         */
+        boolean next() throws IOException {
+            try {
+                head = in.readLong();
+                return true;
+            }
+            catch (EOFException e) {
+                return false;
+            }
+        }
+
+        @Override
+        public int compareTo(Run other) {
+            return Long.compare(head, other.head);
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package connectfour.solver;
+
+import connectfour.model.BitBoard;
+import connectfour.model.Solver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Builds a database of the value of every position that can come up in the
+ * first moves of a game, one {@link SolutionTable} file for each ply.<P>
+ *
+ * It works in two passes. The first lists the positions of each ply, from
+ * the empty board up to the last ply asked for, by playing every move in
+ * every position of the ply before that doesn't win on the spot (a won
+ * position needs no value). A position and its mirror image are kept as
+ * one. Each ply's list is sorted by a {@link KeySorter}, so only a fixed
+ * number of positions need be in memory at once.<P>
+ *
+ * The second pass works back from the last ply. Its positions are solved
+ * by searching to the end of the game, spread over all the cores. Each
+ * position of an earlier ply is then a win if it has a winning move, and
+ * otherwise as good as its best move, which is looked up in the table of
+ * the ply after it; no search is needed.<P>
+ *
+ * Progress is kept in {@value #PROGRESS} in the output directory after each
+ * ply listed and each chunk of positions solved, so a generator that is
+ * stopped carries on from there when started again with the same
+ * arguments.
+ */
+public class SolutionGenerator {
+    /** the file progress is kept in */
+    static final String PROGRESS = "progress.properties";
+    /** how many positions each task solves */
+    private static final int CHUNK = 4096;
+    /** how many keys to sort in memory, if not given: 32 MB of them */
+    private static final int DEFAULT_BUFFER = 1 << 22;
+    /** how many bits the value takes at the bottom of each entry */
+    private static final int VALUE_BITS = 2;
+
+    /** where the files go */
+    private final Path dir;
+    /** the masks for the size of board */
+    private final BitBoard board;
+    /** the search for the positions of the last ply */
+    private final Solver solver;
+    /** the last ply */
+    private final int maxPly;
+    /** how many keys to sort in memory */
+    private final int bufferEntries;
+    /** how far the generator has got */
+    private final Properties progress = new Properties();
+
+    /**
+     * Make a generator, picking up from where an earlier one with the same
+     * arguments got to in the same directory.
+     *
+     * @param dir where the files go
+     * @param rows the number of rows
+     * @param cols the number of columns
+     * @param winLength how big a line one needs to win
+     * @param maxPly the last ply to include; at most one less than the
+     *               number of cells
+     * @param bufferEntries how many keys to sort in memory
+     * @throws IOException if the directory holds the progress of a
+     * different database, or can't be used
+     * @throws IllegalArgumentException if a key of the board, with a value,
+     * does not fit in a long
+     */
+    public SolutionGenerator(Path dir, int rows, int cols, int winLength,
+                             int maxPly, int bufferEntries) throws IOException {
+        if (!BitBoard.fits(rows, cols) ||
+                (rows + 1) * cols + VALUE_BITS > Long.SIZE) {
+            throw new IllegalArgumentException("Board too big: " + rows +
+                    "x" + cols);
+        }
+        this.dir = dir;
+        this.board = new BitBoard(rows, cols, winLength);
+        this.solver = new Solver(board);
+        this.maxPly = Math.max(0, Math.min(maxPly, board.getCells() - 1));
+        this.bufferEntries = bufferEntries;
+
+        Files.createDirectories(dir);
+        Path file = dir.resolve(PROGRESS);
+        String name = rows + "x" + cols + "x" + winLength + " to ply " +
+                this.maxPly;
+        if (Files.exists(file)) {
+            try (InputStream in = Files.newInputStream(file)) {
+                progress.load(in);
+            }
+            if (!name.equals(progress.getProperty("board"))) {
+                throw new IOException(dir + " holds the database of " +
+                        progress.getProperty("board"));
+            }
+        }
+        else {
+            progress.setProperty("board", name);
+        }
+    }
+
+    /**
+     * Build the database, or whatever is left of it.
+     *
+     * @throws IOException if a file can't be read or written
+     * @throws InterruptedException if interrupted while solving
+     */
+    public void run() throws IOException, InterruptedException {
+        int listed = progressOf("listed", -1);
+        if (listed < 0) {
+            long key = board.key(0, 0);
+            try (DataOutputStream out = KeySorter.writer(positions(0))) {
+                out.writeLong(board.canonical(key));
+            }
+            listed = 0;
+            checkpoint("listed", 0);
+        }
+        while (listed < maxPly) {
+            list(++listed);
+            checkpoint("listed", listed);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        try {
+            for (int ply = progressOf("solved", maxPly + 1) - 1; ply >= 0;
+                 --ply) {
+                if (ply == maxPly) {
+                    solve(ply, null, pool);
+                }
+                else {
+                    try (SolutionTable next = new SolutionTable(values(ply + 1))) {
+                        solve(ply, next, pool);
+                    }
+                }
+                progress.remove("done");
+                checkpoint("solved", ply);
+                Files.delete(positions(ply));
+            }
+        }
+        finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * List the positions of one ply, from those of the ply before.
+     *
+     * @param ply the ply
+     * @throws IOException if a file can't be read or written
+     */
+    private void list(int ply) throws IOException {
+        long start = System.nanoTime();
+        Path from = positions(ply - 1);
+        long parents = Files.size(from) / Long.BYTES;
+        Path to = positions(ply);
+        Path partial = dir.resolve(to.getFileName() + ".tmp");
+        long count;
+        try (KeySorter sorter = new KeySorter(dir, "positions-" + ply,
+                bufferEntries);
+             DataInputStream in = KeySorter.reader(from)) {
+            for (long i = 0; i < parents; ++i) {
+                long key = in.readLong();
+                long current = board.currentOf(key);
+                long mask = board.maskOf(key);
+                for (int col = 0; col < board.getCols(); ++col) {
+                    if (board.canPlay(mask, col) &&
+                            !board.isWinningMove(current, mask, col)) {
+                        sorter.add(board.canonical(board.key(current ^ mask,
+                                board.play(mask, col))));
+                    }
+                }
+            }
+            count = sorter.finish(partial);
+        }
+        Files.move(partial, to, StandardCopyOption.REPLACE_EXISTING);
+        System.out.printf("ply %d: %d positions listed in %d ms%n", ply,
+                count, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * Work out the values of the positions of one ply and write its table,
+     * carrying on from the last checkpoint if it was started before.
+     *
+     * @param ply the ply
+     * @param next the table of the ply after, or null to solve by search
+     * @param pool the threads to share the work among
+     * @throws IOException if a file can't be read or written
+     * @throws InterruptedException if interrupted while waiting for a chunk
+     */
+    private void solve(int ply, SolutionTable next, ExecutorService pool)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        Path from = positions(ply);
+        long count = Files.size(from) / Long.BYTES;
+        Path to = values(ply);
+        long done = Long.parseLong(progress.getProperty("done", "0"));
+        if (done == 0) {
+            try (DataOutputStream out = KeySorter.writer(to)) {
+                SolutionTable.writeHeader(out, board, ply, count);
+            }
+        }
+        else {
+            // drop anything written after the checkpoint
+            try (FileChannel channel = FileChannel.open(to,
+                    StandardOpenOption.WRITE)) {
+                channel.truncate(SolutionTable.HEADER_BYTES +
+                        done * Long.BYTES);
+            }
+        }
+        long[] tally = new long[3];
+
+        FileChannel input = FileChannel.open(from, StandardOpenOption.READ);
+        input.position(done * Long.BYTES);
+        OutputStream file = Files.newOutputStream(to,
+                StandardOpenOption.APPEND);
+        try (DataInputStream in = new DataInputStream(
+                     new BufferedInputStream(
+                             Channels.newInputStream(input), 1 << 16));
+             DataOutputStream out = new DataOutputStream(
+                     new BufferedOutputStream(file, 1 << 16))) {
+            int ahead = 2 * Runtime.getRuntime().availableProcessors();
+            Deque<Future<long[]>> pending = new ArrayDeque<>();
+            for (long read = done; read < count; ) {
+                long[] keys = new long[(int) Math.min(CHUNK, count - read)];
+                for (int i = 0; i < keys.length; ++i) {
+                    keys[i] = in.readLong();
+                }
+                read += keys.length;
+                pending.add(pool.submit(() -> entries(keys, ply, next)));
+                if (pending.size() >= ahead) {
+                    done = write(pending.poll(), out, done, tally);
+                }
+            }
+            while (!pending.isEmpty()) {
+                done = write(pending.poll(), out, done, tally);
+            }
+        }
+        long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        System.out.printf("ply %d: %d positions %s in %d ms (%.0f/s):" +
+                        " %d won, %d drawn, %d lost so far this run%n", ply,
+                count, next == null ? "solved" : "worked back", millis,
+                (tally[0] + tally[1] + tally[2]) * 1000.0 / millis,
+                tally[SolutionTable.WIN], tally[SolutionTable.DRAW],
+                tally[SolutionTable.LOSS]);
+    }
+
+    /**
+     * Write a chunk of entries once it is ready, then checkpoint.
+     *
+     * @param chunk the chunk
+     * @param out the table being written
+     * @param done how many entries had been written before
+     * @param tally how many of each value have been written
+     * @return how many entries have been written now
+     */
+    private long write(Future<long[]> chunk, DataOutputStream out, long done,
+                       long[] tally) throws IOException, InterruptedException {
+        long[] entries;
+        try {
+            entries = chunk.get();
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Solving failed", e.getCause());
+        }
+        for (long entry : entries) {
+            out.writeLong(entry);
+            tally[(int) entry & 3]++;
+        }
+        out.flush();
+        done += entries.length;
+        checkpoint("done", done);
+        return done;
+    }
+
+    /**
+     * The entries for a chunk of positions of one ply. Called on one of the
+     * pool's threads.
+     *
+     * @param keys the positions' canonical keys
+     * @param ply the ply
+     * @param next the table of the ply after, or null to solve by search
+     * @return the entries, in the same order
+     */
+    private long[] entries(long[] keys, int ply, SolutionTable next) {
+        long[] entries = new long[keys.length];
+        for (int i = 0; i < keys.length; ++i) {
+            entries[i] = keys[i] << VALUE_BITS | value(keys[i], ply, next);
+        }
+        return entries;
+    }
+
+    /**
+     * The value of one position.
+     *
+     * @param key the position's key
+     * @param ply how many pieces are on the board
+     * @param next the table of the ply after, or null to solve by search
+     * @return {@link SolutionTable#WIN}, {@link SolutionTable#DRAW} or
+     * {@link SolutionTable#LOSS}
+     */
+    private int value(long key, int ply, SolutionTable next) {
+        long current = board.currentOf(key);
+        long mask = board.maskOf(key);
+        int cols = board.getCols();
+        for (int col = 0; col < cols; ++col) {
+            if (board.canPlay(mask, col) &&
+                    board.isWinningMove(current, mask, col)) {
+                return SolutionTable.WIN;
+            }
+        }
+        if (next == null) {
+            return solver.solve(current, mask, ply) + 1;
+        }
+        int best = SolutionTable.LOSS;
+        for (int col = 0; col < cols && best < SolutionTable.WIN; ++col) {
+            if (board.canPlay(mask, col)) {
+                int reply = next.get(current ^ mask, board.play(mask, col));
+                if (reply < 0) {
+                    throw new IllegalStateException("Position missing from" +
+                            " ply " + (ply + 1));
+                }
+                // what is good for the opponent is bad for us
+                best = Math.max(best, SolutionTable.WIN - reply);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Record progress, replacing the progress file in one step so that a
+     * crash leaves either the old or the new one.
+     *
+     * @param name what has progressed
+     * @param value how far
+     * @throws IOException if the file can't be written
+     */
+    private void checkpoint(String name, long value) throws IOException {
+        progress.setProperty(name, Long.toString(value));
+        Path file = dir.resolve(PROGRESS);
+        Path partial = dir.resolve(PROGRESS + ".tmp");
+        try (OutputStream out = Files.newOutputStream(partial)) {
+            progress.store(out, "SolutionGenerator progress");
+        }
+        Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return a number from the progress, or a default if it is not there
+     */
+    private int progressOf(String name, int otherwise) {
+        String value = progress.getProperty(name);
+        return value == null ? otherwise : Integer.parseInt(value);
+    }
+
+    /**
+     * @return the file listing the positions of a ply
+     */
+    private Path positions(int ply) {
+        return dir.resolve("positions-" + ply + ".bin");
+    }
+
+    /**
+     * @param dir where a database is
+     * @param ply a ply
+     * @return the file of the table of the ply
+     */
+    public static Path values(Path dir, int ply) {
+        return dir.resolve("values-" + ply + ".bin");
+    }
+
+    /**
+     * @return the file of the table of a ply
+     */
+    private Path values(int ply) {
+        return values(dir, ply);
+    }
+
+    /**
+     * Build a database.
+     *
+     * @param args the directory, rows, columns, win length and last ply,
+     *             and optionally how many keys to sort in memory
+     * @throws IOException if a file can't be read or written
+     * @throws InterruptedException if interrupted
+     */
+    public static void main(String[] args)
+            throws IOException, InterruptedException {
+        if (args.length != 5 && args.length != 6) {
+            System.out.println("Usage: java SolutionGenerator dir rows cols" +
+                    " win-length max-ply [buffer-entries]");
+            System.exit(1);
+        }
+        int buffer = args.length > 5 ? Integer.parseInt(args[5]) :
+                DEFAULT_BUFFER;
+        SolutionGenerator generator = new SolutionGenerator(Paths.get(args[0]),
+                Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]), Integer.parseInt(args[4]), buffer);
+        long start = System.nanoTime();
+        generator.run();
+        System.out.printf("Done in %.1f s%n",
+                (System.nanoTime() - start) / 1e9);
+    }
+}
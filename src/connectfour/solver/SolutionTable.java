@@ -0,0 +1,200 @@
+package connectfour.solver;
+
+import connectfour.model.BitBoard;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The solved positions of one ply, read from a file made by
+ * {@link SolutionGenerator}. The file is mapped into memory rather than
+ * read, so opening it is quick, the operating system only pages in the
+ * parts that are looked at, and any number of processes share one copy.<P>
+ *
+ * The file is a header of {@link #HEADER_BYTES} bytes followed by one long
+ * for each position, sorted: the position's
+ * {@link BitBoard#canonical(long) canonical key} shifted left two bits, with
+ * the position's value for the player to move in the bottom two. A lookup
+ * is a binary search.<P>
+ *
+ * Lookups don't change the table, so it may be shared by any number of
+ * threads.
+ */
+public class SolutionTable implements Closeable {
+    /** the value of a position the player to move loses */
+    public static final int LOSS = 0;
+    /** the value of a position that is drawn with best play */
+    public static final int DRAW = 1;
+    /** the value of a position the player to move wins */
+    public static final int WIN = 2;
+
+    /** what every table file starts with: "C4ST" */
+    static final int MAGIC = 0x43345354;
+    /** the version of the file layout */
+    static final int VERSION = 1;
+    /** the size of the header */
+    static final int HEADER_BYTES = 32;
+
+    /** the most longs mapped in one buffer: 1 GiB of them */
+    private static final int SEGMENT_ENTRIES = 1 << 27;
+
+    /** the channel the file is mapped from */
+    private final FileChannel channel;
+    /** the masks for the size of board */
+    private final BitBoard board;
+    /** how many pieces are on the board in every position */
+    private final int ply;
+    /** how many positions there are */
+    private final long count;
+    /** the entries, mapped in segments of {@link #SEGMENT_ENTRIES} */
+    private final LongBuffer[] segments;
+
+    /**
+     * Open a table file.
+     *
+     * @param file the file
+     * @throws IOException if the file can't be read or is not a whole table
+     */
+    public SolutionTable(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && channel.read(header) >= 0) {
+                // keep reading
+            }
+            header.flip();
+            if (header.remaining() < HEADER_BYTES ||
+                    header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a solution table: " + file);
+            }
+            int rows = header.getInt();
+            int cols = header.getInt();
+            int winLength = header.getInt();
+            this.ply = header.getInt();
+            this.count = header.getLong();
+            this.board = new BitBoard(rows, cols, winLength);
+            if (channel.size() != HEADER_BYTES + count * Long.BYTES) {
+                throw new IOException("Solution table incomplete: " + file);
+            }
+
+            int n = (int) ((count + SEGMENT_ENTRIES - 1) / SEGMENT_ENTRIES);
+            this.segments = new LongBuffer[n];
+            for (int i = 0; i < n; ++i) {
+                long first = (long) i * SEGMENT_ENTRIES;
+                long entries = Math.min(SEGMENT_ENTRIES, count - first);
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+                        HEADER_BYTES + first * Long.BYTES,
+                        entries * Long.BYTES).asLongBuffer();
+            }
+        }
+        catch (IOException | IllegalArgumentException e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e :
+                    new IOException("Bad solution table: " + file, e);
+        }
+    }
+
+    /**
+     * Write the header of a table file.
+     *
+     * @param out the file, with nothing written yet
+     * @param board the size of board
+     * @param ply how many pieces are on the board in every position
+     * @param count how many positions there will be
+     * @throws IOException if it can't be written
+     */
+    static void writeHeader(DataOutputStream out, BitBoard board, int ply,
+                            long count) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(board.getRows());
+        out.writeInt(board.getCols());
+        out.writeInt(board.getWinLength());
+        out.writeInt(ply);
+        out.writeLong(count);
+    }
+
+    /**
+     * @return the masks for the size of board
+     */
+    public BitBoard getBoard() {
+        return board;
+    }
+
+    /**
+     * @return how many pieces are on the board in every position
+     */
+    public int getPly() {
+        return ply;
+    }
+
+    /**
+     * @return how many positions there are
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Look up a position.
+     *
+     * @param current the pieces of the player to move
+     * @param mask all the pieces on the board
+     * @return {@link #WIN}, {@link #DRAW} or {@link #LOSS}, or -1 if the
+     * position is not in the table
+     */
+    public int get(long current, long mask) {
+        return get(board.canonical(board.key(current, mask)));
+    }
+
+    /**
+     * Look up a position by its canonical key.
+     *
+     * @param canonical the {@link BitBoard#canonical(long) canonical key}
+     * @return {@link #WIN}, {@link #DRAW} or {@link #LOSS}, or -1 if the
+     * position is not in the table
+     */
+    public int get(long canonical) {
+        long lo = 0;
+        long hi = count - 1;
+        while (lo <= hi) {
+            long mid = (lo + hi) >>> 1;
+            long entry = entry(mid);
+            long key = entry >>> 2;
+            if (key < canonical) {
+                lo = mid + 1;
+            }
+            else if (key > canonical) {
+                hi = mid - 1;
+            }
+            else {
+                return (int) entry & 3;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param i which entry
+     * @return the entry
+     */
+    private long entry(long i) {
+        // absolute gets don't move the buffer's position, so are thread-safe
+        return segments[(int) (i / SEGMENT_ENTRIES)]
+                .get((int) (i % SEGMENT_ENTRIES));
+    }
+
+    /**
+     * Close the file. The mappings last until they are garbage collected.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}